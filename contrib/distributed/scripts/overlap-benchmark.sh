@@ -0,0 +1,37 @@
+#!/bin/bash
+# Compares the rate of dHeatBugs and dflockers with and without -overlap,
+# that is, with the halo exchange blocking or hidden behind the stepping of interior agents.
+#
+# Usage: overlap-benchmark.sh [processes] [steps] [runs]
+#
+# Run from contrib/distributed after building, with the MASON jar and the other dependencies
+# in your CLASSPATH, and any JVM options in JAVA_OPTS.  If mpirun is on the path, each model is
+# run as that many MPI processes; otherwise it is run as that many partitions in one JVM
+# (-partitions), where the in-JVM transport copies halos when the exchange finishes, so little
+# latency is hidden.
+
+NP=${1:-4}
+STEPS=${2:-1000}
+RUNS=${3:-3}
+CP=target/classes:${CLASSPATH}
+
+if command -v mpirun > /dev/null
+then
+    LAUNCH="mpirun -np $NP java $JAVA_OPTS -cp $CP"
+    PARTS=""
+else
+    LAUNCH="java $JAVA_OPTS -cp $CP"
+    PARTS="-partitions $NP"
+fi
+
+for MODEL in sim.app.dHeatBugs.DHeatBugs sim.app.dflockers.DFlockers
+do
+    for MODE in "" "-overlap"
+    do
+        for RUN in $(seq 1 $RUNS)
+        do
+            RATE=$($LAUNCH $MODEL $PARTS $MODE -for $STEPS -seed $RUN 2>&1 | grep -o "Rate: [0-9.]*" | tail -1)
+            echo "$MODEL ${MODE:-blocking} run $RUN $RATE"
+        done
+    done
+done
@@ -9,11 +9,13 @@ package sim.app.dHeatBugs;
 import java.util.ArrayList;
 
 import sim.engine.DSteppable;
+import sim.engine.Located;
 import sim.engine.SimState;
 import sim.field.grid.DDoubleGrid2D;
 import sim.util.Int2D;
+import sim.util.Number2D;
 
-public class DHeatBug extends DSteppable
+public class DHeatBug extends DSteppable implements Located
     {
     private static final long serialVersionUID = 1;
 
@@ -33,6 +35,11 @@ public class DHeatBug extends DSteppable
         this.loc_y = loc_y;
         }
 
+    public Number2D getLocation()
+        {
+        return new Int2D(loc_x, loc_y);
+        }
+
     public double addHeat(final DDoubleGrid2D grid, final int x, final int y, final double old_heat,
         final double heat)
         {
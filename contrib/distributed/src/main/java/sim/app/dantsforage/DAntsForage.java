@@ -12,6 +12,7 @@ import sim.app.dflockers.DFlocker;
 import sim.app.dflockers.DFlockers;
 import sim.engine.DSimState;
 import sim.engine.DSteppable;
+import sim.engine.LoadBalancer;
 import sim.engine.Schedule;
 import sim.engine.SimState;
 import sim.field.grid.DDenseGrid2D;
@@ -170,7 +171,8 @@ public /* strictfp */ class DAntsForage extends DSimState
         buggrid = new DDenseGrid2D<DAnt>(this);
         obstacles = new DIntGrid2D(this);
 
-
+        // the ants crowd around the nest and food, so only rebalance when it pays off
+        setLoadBalancer(new LoadBalancer());
         }
 
 
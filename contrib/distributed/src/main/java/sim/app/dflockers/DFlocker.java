@@ -6,18 +6,23 @@
 
 package sim.app.dflockers;
 
+import java.nio.ByteBuffer;
 import java.rmi.Remote;
 import java.util.ArrayList;
 import java.util.List;
 
 import ec.util.MersenneTwisterFast;
 import sim.engine.DSteppable;
+import sim.engine.Located;
 import sim.engine.SimState;
+import sim.engine.mpi.Encodable;
+import sim.engine.mpi.Ghostable;
 import sim.field.continuous.DContinuous2D;
 import sim.portrayal.Oriented2D;
 import sim.util.Double2D;
+import sim.util.Number2D;
 
-public class DFlocker extends DSteppable implements Oriented2D
+public class DFlocker extends DSteppable implements Oriented2D, Encodable, Ghostable, Located
     {
 
     private static final long serialVersionUID = 1;
@@ -30,6 +35,45 @@ public class DFlocker extends DSteppable implements Oriented2D
         this.loc = location;
         }
 
+    // used when migrating
+    DFlocker()
+        {
+        }
+
+    public void writeTo(ByteBuffer buf)
+        {
+        buf.putDouble(loc.x);
+        buf.putDouble(loc.y);
+        buf.putDouble(lastd.x);
+        buf.putDouble(lastd.y);
+        buf.put((byte)(dead ? 1 : 0));
+        }
+
+    public void readFrom(ByteBuffer buf)
+        {
+        double x = buf.getDouble();
+        loc = new Double2D(x, buf.getDouble());
+        x = buf.getDouble();
+        lastd = new Double2D(x, buf.getDouble());
+        dead = (buf.get() != 0);
+        }
+
+    // neighbors read our location, heading, and whether we are dead, which is all we have
+    public void writeGhost(ByteBuffer buf)
+        {
+        writeTo(buf);
+        }
+
+    public void readGhost(ByteBuffer buf)
+        {
+        readFrom(buf);
+        }
+
+    public Number2D getLocation()
+        {
+        return loc;
+        }
+
     public double getOrientation()
         {
         return orientation2D();
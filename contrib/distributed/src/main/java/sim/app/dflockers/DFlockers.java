@@ -82,6 +82,9 @@ public class DFlockers extends DSimState
         // TODO Auto-generated method stub
         super.start(); // do not forget this line
 
+        // neighbors in the halo need only be ghosts
+        flockers.setGhosts(true);
+
         ArrayList<DFlocker> agents = (ArrayList<DFlocker>) getRootInfo("agents");
 
         for (Object p : agents)
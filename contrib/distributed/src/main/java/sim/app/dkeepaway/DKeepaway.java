@@ -35,6 +35,7 @@ public class DKeepaway extends DSimState{
         {
         super(seed, width, height, aoi, false);
         xMax = width; yMax = height;
+        setUseDistinguished(true);
         createGrids();
         }
 
@@ -89,12 +90,6 @@ public class DKeepaway extends DSimState{
         y = random.nextDouble()*yMax;
         ba = new DBall(x, y);
         entities.add(ba);
-        try {
-            registerDistinguishedObject(ba);
-            } catch (RemoteException e) {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
-            }
      
         
 
@@ -115,6 +110,13 @@ public class DKeepaway extends DSimState{
             Double2D temploc = new Double2D(a.loc.getX(), a.loc.getY());
             if (getPartition().getLocalBounds().contains(temploc)) {
                 fieldEnvironment.addAgent(temploc, a, 0, 0, 1);
+                // the ball is registered by whichever partition holds it
+                if (a instanceof DBall)
+                    try {
+                        registerDistinguishedObject((DBall) a);
+                        } catch (RemoteException e) {
+                        e.printStackTrace();
+                        }
                 }
                         
 
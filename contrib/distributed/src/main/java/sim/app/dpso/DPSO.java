@@ -6,8 +6,6 @@
         
 package sim.app.dpso;
 
-import java.io.Serializable;
-import java.util.ArrayList;
 import java.util.List;
 
 import sim.engine.DSimState;
@@ -93,6 +91,10 @@ public class DPSO extends DSimState {
     public DPSO(long seed)
         {
         super(seed, 10, 10, 1, false);  //what should these be
+
+        // share the global best every step
+        setUpdateGlobals(true);
+        setUpdateGlobalsInterval(1);
         }
     
     @Override
@@ -255,59 +257,23 @@ public class DPSO extends DSimState {
         }
         
         
-    //we want to keep track of best point, so each partion gives an array where:
+    //we want to keep track of best point, so each partion gives a record where:
     //index 0 is the value
     //index 1 and 2 are position values (x and y)
-    //we want to pick the best index 0 and its corresponding x and y
+    //the default combiner, Combiner.ARGMAX, picks the best index 0 along with its x and y
 
-    protected Serializable[] arbitrateGlobals(ArrayList<Serializable[]> global)
+    protected double[] getPartitionGlobalsRecord()
         {
-        int chosen_index = 0;
-        Object chosen_item = global.get(0)[0];
-
-        double best_val = (double) chosen_item; // make type invariant
-
-        for (int i = 0; i < partition.getNumProcessors(); i++)
-            {
-            if ((double) global.get(i)[0] > best_val)
-                {
-                best_val = (double) global.get(i)[0];
-                chosen_index = i;
-                }
-            }
-
-        return global.get(chosen_index);
-        }
-        
-        
-    protected Serializable[] getPartitionGlobals() {
-        
-        //first element is score
-        //second element is x
-        //third element is y
-        
-        Serializable[] o = new Serializable[3];
-        o[0] = bestVal;
-        o[1] = best_x;
-        o[2] = best_y;
-        
- 
-        
-        return o;
-        
+        return new double[] { bestVal, best_x, best_y };
         }
 
-    
-    protected void setPartitionGlobals(Serializable[] o) {
-        
-        bestVal = (double) o[0];
-        best_x = (double) o[1];
-        best_y = (double) o[2];
-        
+    protected void setPartitionGlobalsRecord(double[] record)
+        {
+        bestVal = record[0];
+        best_x = record[1];
+        best_y = record[2];
+        }
 
-        
-        }   
-        
     public static void main(final String[] args) {
         Timing.setWindow(20);
         doLoopDistributed(DPSO.class, args);
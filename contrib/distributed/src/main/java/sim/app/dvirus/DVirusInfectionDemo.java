@@ -14,6 +14,11 @@ import sim.app.virus.Evil;
 import sim.app.virus.Good;
 import sim.app.virus.Human;
 import sim.engine.DSimState;
+import sim.engine.DSteppable;
+import sim.engine.LoadBalancer;
+import sim.engine.Schedule;
+import sim.engine.SimState;
+import sim.engine.mpi.Transport;
 import sim.field.continuous.DContinuous2D;
 import sim.util.Bag;
 import sim.util.Double2D;
@@ -51,6 +56,10 @@ public class DVirusInfectionDemo extends DSimState{
     
     public static final int AOI = 20;
 
+    // The number of infected humans in the whole world, as of the last step
+    long numInfected = 0;
+    public long getNumInfected() { return numInfected; }
+
 
     /** Creates a VirusInfectionDemo simulation with the given random number seed. */
     public DVirusInfectionDemo(long seed)
@@ -59,6 +68,8 @@ public class DVirusInfectionDemo extends DSimState{
         
         environment = new DContinuous2D(25, this);
 
+        // the agents drift unevenly, so only rebalance when it pays off
+        setLoadBalancer(new LoadBalancer());
         }
     
     boolean conflict( final DAgent agent1, final Double2D a, final DAgent agent2, final Double2D b )
@@ -191,6 +202,20 @@ public class DVirusInfectionDemo extends DSimState{
                 }
             }
 
+        // count the infected humans on every partition, and sum the counts
+        schedule.scheduleRepeating(Schedule.EPOCH, 1, new DSteppable()
+            {
+            public void step(SimState state)
+                {
+                long count = 0;
+                for (Object a : environment.getAllAgentsInStorage())
+                    if (a instanceof DHuman && ((DHuman) a).isInfected() &&
+                        getPartition().getLocalBounds().contains(environment.getObjectLocationLocal((DHuman) a)))        // skip the halo
+                        count++;
+                numInfected = allReduce(new long[] { count }, Transport.SUM)[0];
+                }
+            });
+
         }
         
         
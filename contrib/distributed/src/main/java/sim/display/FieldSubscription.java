@@ -0,0 +1,98 @@
+/*
+  Copyright 2022 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.display;
+
+import java.rmi.NotBoundException;
+import java.rmi.RemoteException;
+import java.util.Arrays;
+
+import sim.engine.rmi.FieldDelta;
+import sim.engine.rmi.RemoteProcessorRMI;
+import sim.util.Int2D;
+import sim.util.IntRect2D;
+
+/**
+   Tracks, for one field proxy, the region being shown and the version of the field it has from each
+   partition, so that the proxy only fetches and applies what has changed since its last update.
+*/
+
+class FieldSubscription
+    {
+    // The partitions being shown
+    int[] partitions;
+    // The region being shown, not including any halo
+    IntRect2D bounds;
+    // The level of detail being shown
+    int lod = -1;
+    // How each block of cells is summarized at that level of detail
+    int statistic = -1;
+    // The region of the world being fetched, or null for everywhere
+    IntRect2D viewport;
+    // The version which the proxy has from each partition, or -1 if none
+    long[] versions;
+    // The local region of each partition as of the proxy's version, or null
+    IntRect2D[] regions;
+
+    /**
+     * Works out the region covered by the given partitions.  Returns true if it, the partitions, the level
+     * of detail, its statistic, or the viewport have changed since the last update, in which case the proxy must
+     * reshape and clear itself, and will next receive each partition's whole region (within the viewport).
+     */
+    boolean prepare(SimStateProxy stateProxy, int[] quad_tree_partitions) throws RemoteException, NotBoundException
+        {
+        int halo_size = 0;
+
+        //calculate position in quadtree that encompasses all desired partitions
+        RemoteProcessorRMI vp2 = stateProxy.RemoteProcessorRMI(quad_tree_partitions[0]); //pick 1
+        int[] extended_partition_list = vp2.getMinimumNeighborhood(quad_tree_partitions);
+
+        IntRect2D[] rect_list = new IntRect2D[extended_partition_list.length];
+        for (int p_ind = 0; p_ind < extended_partition_list.length; p_ind++)
+            {
+            int p = extended_partition_list[p_ind];
+            RemoteProcessorRMI vp1 = stateProxy.RemoteProcessorRMI(p);
+            halo_size = vp1.getAOI();
+            rect_list[p_ind] = vp1.getStorageBounds();
+            }
+
+        IntRect2D fullBounds = IntRect2D.getBoundingRect(rect_list);
+        Int2D new_ul = fullBounds.ul().add(halo_size, halo_size); //remove halo
+        Int2D new_br = fullBounds.br().add(-1 * halo_size, -1 * halo_size); //remove halo
+        fullBounds = new IntRect2D(new_ul, new_br);
+
+        IntRect2D newViewport = stateProxy.viewport();
+        if (fullBounds.equals(bounds) && Arrays.equals(quad_tree_partitions, partitions) && stateProxy.levelOfDetail() == lod &&
+            stateProxy.pyramidStatistic() == statistic && (newViewport == null ? viewport == null : newViewport.equals(viewport)))
+            return false;
+
+        bounds = fullBounds;
+        partitions = quad_tree_partitions.clone();
+        lod = stateProxy.levelOfDetail();
+        statistic = stateProxy.pyramidStatistic();
+        viewport = newViewport;
+        versions = new long[stateProxy.numProcessors()];
+        Arrays.fill(versions, -1);
+        regions = new IntRect2D[stateProxy.numProcessors()];
+        return true;
+        }
+
+    /** Returns the width and height of the square field needed to show the region */
+    int getSize()
+        {
+        return Math.max(bounds.getWidth(), bounds.getHeight());
+        }
+
+    /** Fetches the changes to the given field on the given partition since the proxy's version of it. */
+    FieldDelta fetch(SimStateProxy stateProxy, int partition, int fieldId) throws RemoteException, NotBoundException
+        {
+        FieldDelta delta = stateProxy.RemoteProcessorRMI(partition).getFieldDelta(fieldId, versions[partition], lod, statistic, viewport);
+        versions[partition] = delta.version;
+        if (delta.bounds != null)
+            regions[partition] = delta.bounds;
+        return delta;
+        }
+    }
@@ -18,6 +18,7 @@ import sim.engine.Schedule;
 import sim.engine.SimState;
 import sim.engine.Steppable;
 import sim.engine.rmi.RemoteProcessor;
+import sim.field.grid.GridPyramid;
 import sim.field.partitioning.QuadTreeNode;
 import sim.field.storage.GridStorage;
 import sim.util.IntRect2D;
@@ -78,7 +79,7 @@ public class SimStateProxy extends SimState
         this.host = host;
         }
         
-    int port = DistinguishedRegistry.PORT;
+    int port = RMIRegistry.PORT;
         
     /** Returns the IP address of the distributed RMI registry.  You need to set this before start() is called. */
     public int registryPort()
@@ -110,23 +111,69 @@ public class SimStateProxy extends SimState
         return RemoteProcessor.getProcessorName(pid);
         }               
         
-    public static final int DEFAULT_SLEEP = 25;     // ms
     public static final int DEFAULT_PAUSE_INTERVAL = 1000;  // ms
         
     public long refresh = 0;
-    protected int sleep = DEFAULT_SLEEP;
     protected int pauseInterval = DEFAULT_PAUSE_INTERVAL;
-    /** Returns the update rate in ms */
+    protected int levelOfDetail = 0;
+    protected int pyramidStatistic = GridPyramid.MEAN;
+    protected IntRect2D viewport = null;
+    /** Returns the longest time in ms to wait for the model to publish a new step before stepping anyway */
     public int pauseInterval()
         {
         return pauseInterval;
         }
         
-    /** Sets the update rate in ms */
+    /** Sets the longest time in ms to wait for the model to publish a new step before stepping anyway */
     public void setPauseInterval(int val)
         {
         pauseInterval = val;
         }
+
+    /** Returns the level of detail of the grid fields: each is fetched with one value for every 2^levelOfDetail by 2^levelOfDetail block of cells. */
+    public int levelOfDetail()
+        {
+        return levelOfDetail;
+        }
+
+    /** Sets the level of detail of the grid fields.  0, the default, fetches every cell.  Higher levels, up to 5, fetch
+        one value for every 2^levelOfDetail by 2^levelOfDetail block of cells (see pyramidStatistic()), which is useful
+        when the fields are shown zoomed out.  Object and dense grids are always fetched in full. */
+    public void setLevelOfDetail(int val)
+        {
+        if (val < 0)
+            throw new IllegalArgumentException("The level of detail must be >= 0.  You have: " + val);
+        levelOfDetail = val;
+        }
+
+    /** Returns how each block of cells is summarized when the level of detail is above 0: GridPyramid.MIN, MAX, or MEAN. */
+    public int pyramidStatistic()
+        {
+        return pyramidStatistic;
+        }
+
+    /** Sets how each block of cells is summarized when the level of detail is above 0: GridPyramid.MIN, MAX, or MEAN (the default).
+        Int grids are rounded to the nearest int. */
+    public void setPyramidStatistic(int val)
+        {
+        if (val < GridPyramid.MIN || val > GridPyramid.MEAN)
+            throw new IllegalArgumentException("The pyramid statistic must be GridPyramid.MIN, MAX, or MEAN.  You have: " + val);
+        pyramidStatistic = val;
+        }
+
+    /** Returns the region of the world, in world coordinates, within which the grid fields are fetched, or null for everywhere. */
+    public IntRect2D viewport()
+        {
+        return viewport;
+        }
+
+    /** Sets the region of the world, in world coordinates, within which the grid fields are fetched, or null (the default)
+        for everywhere.  Grids are fetched in tiles, so a little more than the viewport may be fetched.  Cells outside it
+        keep whatever values they had when the viewport last changed, which is to say, none. */
+    public void setViewport(IntRect2D val)
+        {
+        viewport = val;
+        }
         
     public long lastSteps = -1;
         
@@ -303,73 +350,42 @@ public class SimStateProxy extends SimState
                 {
                 public void step(SimState state)
                     {
-                    System.out.println("stepping...");
-                    // First we sleep a little bit so we don't just constantly poll
                     try
                         {
-                        Thread.sleep(sleep);
-                        }
-                    catch (InterruptedException ex)
-                        {
-                        ex.printStackTrace();
-                        }
-                                        
-                    // Next we check to see if enough time has elapsed to bother querying the remote processor
-                    long currentTime = System.currentTimeMillis();
-                    if (currentTime - refresh >= pauseInterval)
-                        {
-                        refresh = currentTime;
-                        try
+                        // Wait until the model has published a new step.  The fields are published between
+                        // steps, so we can fetch what has changed in them without stopping the model.
+                        RemoteProcessorRMI vp = RemoteProcessorRMI(0);
+                        long steps = vp.awaitPublication(lastSteps, pauseInterval);
+                        if (overview != null)
                             {
-                            // Now we query the remote processor to see if a new step has elapsed
-                            //RemoteProcessorRMI vp = RemoteProcessorRMI(); 
-                            RemoteProcessorRMI vp = RemoteProcessorRMI(0);                                                  
-                            if (overview != null)
-                                {
-                                overview.update(vp.getAllLocalBounds());
-                                }
+                            overview.update(vp.getAllLocalBounds());
+                            }
                                                         
-                            long steps = vp.getSteps();
-                            if (steps > lastSteps)
+                        if (steps > lastSteps)
+                            {
+                            refresh = System.currentTimeMillis();
+                            for(int i = 0; i < fields.size(); i++)
                                 {
-                                // Okay it's worth updating, so let's grab the data
-                                vp.lock();
-
-                                //(I did this in the update method)                                                             
-                                //for loop: for each processor
-                                //get processorbounds
-                                //determine offsets
-                                //get union of bounds (this is what we report to reshapeAndClear()
-                                                                
-                                for(int i = 0; i < fields.size(); i++)
-                                    {
-                                    //reshapeAndClear()
-                                    fields.get(i).update(SimStateProxy.this, indices.get(i), chosenNodePartitionList);
-                                    }
-                                                                
-                                //I did this in the update method
-                                //for each field
-                                //for each processor
-                                //change processor
-                                //update field with appropiate offset
+                                fields.get(i).update(SimStateProxy.this, indices.get(i), chosenNodePartitionList);
+                                }
 
-                                // Grab all the statistics and debug information
-                                for(int proc = 0; proc < numProcessors; proc++)
+                            // Grab all the statistics and debug information, which does require stopping the model
+                            vp.lock();
+                            for(int proc = 0; proc < numProcessors; proc++)
+                                {
+                                RemoteProcessorRMI sv = RemoteProcessorRMI(proc);
+                                for(int s = 0; s < RemoteProcessorRMI.NUM_STAT_TYPES; s++)
                                     {
-                                    RemoteProcessorRMI sv = RemoteProcessorRMI(proc);
-                                    for(int s = 0; s < RemoteProcessorRMI.NUM_STAT_TYPES; s++)
-                                        {
-                                        statLists[s][proc].addAll(sv.getStats(s));
-                                        }                                       
-                                    }
-                                vp.unlock();
-                                lastSteps = steps;
+                                    statLists[s][proc].addAll(sv.getStats(s));
+                                    }                                       
                                 }
+                            vp.unlock();
+                            lastSteps = steps;
                             }
-                        catch (RemoteException | NotBoundException ex)
-                            {
-                            ex.printStackTrace();
-                            }
+                        }
+                    catch (RemoteException | NotBoundException ex)
+                        {
+                        ex.printStackTrace();
                         }
                                                 
                                                 
@@ -13,6 +13,7 @@ import java.rmi.RemoteException;
    Each Proxy for a field in MASON implements this. This is called to ask the proxy
    to update itself by extracting information remotely.  The field's storage number
    is provided.  This number will be the order in which the field was registered with the SimState.
+   The proxies provided fetch only what has changed since their last update, as FieldDeltas.
 */
 
 public interface UpdatableProxy
@@ -0,0 +1,319 @@
+/*
+  Copyright 2022 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.engine;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Properties;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import ec.util.MersenneTwisterFast;
+import mpi.MPIException;
+import sim.engine.mpi.PayloadWrapper;
+import sim.engine.mpi.Transport;
+import sim.field.HaloGrid2D;
+import sim.field.partitioning.Partition;
+import sim.field.storage.ContinuousStorage;
+import sim.field.storage.GridStorage;
+import sim.field.storage.PrimitiveStorage;
+import sim.util.*;
+
+/**
+ * DCHECKPOINT writes and restores distributed checkpoints.  A checkpoint named PREFIX consists of one file per
+ * partition, PREFIX.PID, which each partition writes in parallel with the others, and a MANIFEST, PREFIX.manifest,
+ * which the root writes once all the partitions have finished theirs.  The manifest records the number of
+ * partitions, the steps and time, the size of the world, the bounds of each partition, and the largest DObject
+ * ID counter of any partition, which restoring raises every partition's counter to.
+ *
+ * <p>Each partition's file holds its random number generator and, for each field, the contents of its local region
+ * (not its halo): the values of a primitive grid, or the objects in any other field along with their locations.
+ * Agents are stored with their time, ordering, and interval on the schedule, just as if they were migrating.
+ *
+ * <p>Because the checkpoint is stored by region, it may be restored onto a different number of partitions than
+ * wrote it: each partition reads the files of the old partitions which overlapped its own region, and takes what
+ * lies within its region.  The random number generators are only restored if the number of partitions is the
+ * same.  Steppables on the schedule which are not in any field (such as those which compute statistics) are not
+ * stored: rather, those which start() scheduled are kept, and advanced to the checkpoint's time.  Likewise the
+ * model's own instance variables are those which start() left.  Since the agents are rescheduled in a different
+ * order than they had on the schedule, a restored run will not step exactly as the original run would have.
+ *
+ * <p>Use DSimState.checkpoint(...) and DSimState.restoreFromCheckpoint(...) rather than this class.
+ */
+
+class DCheckpoint
+    {
+    /** The contents of one partition's file */
+    static class Part implements Serializable
+        {
+        private static final long serialVersionUID = 1L;
+
+        int pid;
+        IntRect2D bounds;
+        MersenneTwisterFast random;
+        // for each field, the values of a primitive grid over BOUNDS, column by column, or an
+        // ArrayList of PayloadWrappers holding the objects within BOUNDS
+        Serializable[] fields;
+        }
+
+    /** Writes this partition's file, and if this is the root, the manifest.  This must be called on all partitions
+        at once, when no agents are in transit. */
+    static void write(DSimState state, String prefix) throws IOException, MPIException
+        {
+        Partition partition = state.getPartition();
+        IntRect2D bounds = partition.getLocalBounds();
+        IdentityHashMap<Steppable, PayloadWrapper> scheduled = ((DSchedule) state.schedule).getScheduled();
+
+        Part part = new Part();
+        part.pid = partition.getPID();
+        part.bounds = bounds;
+        part.random = state.random;
+        part.fields = new Serializable[state.fieldList.size()];
+        for (int f = 0; f < part.fields.length; f++)
+            {
+            GridStorage storage = state.fieldList.get(f).getStorage();
+            if (storage instanceof PrimitiveStorage)
+                part.fields[f] = storage.pack(new MPIParam(bounds, storage.getShape()));
+            else
+                {
+                ArrayList<PayloadWrapper> objs = new ArrayList<PayloadWrapper>();
+                if (storage instanceof ContinuousStorage)
+                    {
+                    ContinuousStorage continuous = (ContinuousStorage) storage;
+                    for (Object obj : continuous.getAllObjects())
+                        {
+                        Double2D loc = continuous.getObjectLocation((DObject) obj);
+                        if (bounds.contains(loc))
+                            objs.add(wrap((Serializable) obj, loc, f, part.pid, scheduled));
+                        }
+                    }
+                else
+                    {
+                    for (Int2D p : bounds.getPointList())
+                        {
+                        ArrayList<?> all = storage.getAllObjects(p);
+                        if (all != null)
+                            for (Object obj : all)
+                                if (obj != null)
+                                    objs.add(wrap((Serializable) obj, p, f, part.pid, scheduled));
+                        }
+                    }
+                part.fields[f] = objs;
+                }
+            }
+
+        ObjectOutputStream out = new ObjectOutputStream(new GZIPOutputStream(new BufferedOutputStream(new FileOutputStream(prefix + "." + part.pid))));
+        try
+            {
+            out.writeObject(part);
+            }
+        finally
+            {
+            out.close();
+            }
+
+        // the manifest goes last, so that a checkpoint with a manifest is complete.  The reduction doubles as the
+        // barrier, and finds the largest DObject counter, since a restored object may land on any partition
+        long counter = partition.getTransport().allReduce(new long[] { DObject.peekCounter() }, Transport.MAX)[0];
+        if (partition.isRootProcessor())
+            {
+            Properties manifest = new Properties();
+            manifest.setProperty("model", state.getClass().getName());
+            manifest.setProperty("partitions", "" + partition.getNumProcessors());
+            manifest.setProperty("fields", "" + part.fields.length);
+            manifest.setProperty("width", "" + partition.getWorldWidth());
+            manifest.setProperty("height", "" + partition.getWorldHeight());
+            manifest.setProperty("steps", "" + state.schedule.getSteps());
+            manifest.setProperty("time", "" + state.schedule.getTime());
+            manifest.setProperty("counter", "" + counter);
+            ArrayList<IntRect2D> all = partition.getAllBounds();
+            for (int i = 0; i < all.size(); i++)
+                {
+                IntRect2D b = all.get(i);
+                manifest.setProperty("bounds." + i, b.ul().x + " " + b.ul().y + " " + b.br().x + " " + b.br().y);
+                }
+            OutputStream mout = new FileOutputStream(prefix + ".manifest");
+            try
+                {
+                manifest.store(mout, "Distributed MASON checkpoint");
+                }
+            finally
+                {
+                mout.close();
+                }
+            }
+        }
+
+    // Wraps an object in a field, with its place on the schedule if it is an agent
+    static PayloadWrapper wrap(Serializable obj, Number2D loc, int fieldIndex, int pid, IdentityHashMap<Steppable, PayloadWrapper> scheduled)
+        {
+        PayloadWrapper entry = scheduled.remove(obj);
+        if (entry == null)
+            return new PayloadWrapper(obj, pid, loc, fieldIndex, PayloadWrapper.NON_AGENT_ORDERING, PayloadWrapper.NON_AGENT_TIME, PayloadWrapper.NON_REPEATING_INTERVAL);
+        else
+            return new PayloadWrapper(obj, pid, loc, fieldIndex, entry.ordering, entry.time, entry.interval);
+        }
+
+    /** Replaces the contents of the fields and the schedule with those of the checkpoint.  This must be called
+        on all partitions at once, after start(), when no agents are in transit. */
+    static void restore(DSimState state, String prefix) throws IOException, ClassNotFoundException, MPIException
+        {
+        Partition partition = state.getPartition();
+        IntRect2D bounds = partition.getLocalBounds();
+
+        Properties manifest = new Properties();
+        InputStream min = new FileInputStream(prefix + ".manifest");
+        try
+            {
+            manifest.load(min);
+            }
+        finally
+            {
+            min.close();
+            }
+        int numParts = Integer.parseInt(manifest.getProperty("partitions"));
+        int width = Integer.parseInt(manifest.getProperty("width"));
+        int height = Integer.parseInt(manifest.getProperty("height"));
+        int numFields = Integer.parseInt(manifest.getProperty("fields"));
+        long steps = Long.parseLong(manifest.getProperty("steps"));
+        double time = Double.parseDouble(manifest.getProperty("time"));
+        int counter = Integer.parseInt(manifest.getProperty("counter", "0"));
+        if (width != partition.getWorldWidth() || height != partition.getWorldHeight())
+            throw new IllegalArgumentException("The checkpoint " + prefix + " has a world of " + width + " by " + height +
+                ", but this model's is " + partition.getWorldWidth() + " by " + partition.getWorldHeight());
+        if (numFields != state.fieldList.size())
+            throw new IllegalArgumentException("The checkpoint " + prefix + " has " + numFields + " fields, but this model has " + state.fieldList.size());
+
+        // Everything which start() put in the fields is replaced
+        IdentityHashMap<Object, Object> started = new IdentityHashMap<Object, Object>();
+        for (HaloGrid2D field : state.fieldList)
+            {
+            GridStorage storage = field.getStorage();
+            if (storage instanceof PrimitiveStorage)
+                continue;
+            if (storage instanceof ContinuousStorage)
+                for (Object obj : ((ContinuousStorage) storage).getAllObjects())
+                    started.put(obj, obj);
+            else
+                for (Int2D p : field.getHaloBounds().getPointList())
+                    {
+                    ArrayList<?> all = storage.getAllObjects(p);
+                    if (all != null)
+                        for (Object obj : all)
+                            if (obj != null)
+                                started.put(obj, obj);
+                    }
+            }
+        if (state.distinguishedFlag)
+            for (Object obj : started.keySet())
+                if (obj instanceof Distinguished)
+                    state.registry.unregisterObject((Distinguished) obj);
+
+        // ... but the other Steppables which start() scheduled are kept, and advanced to the checkpoint's time
+        DSchedule schedule = (DSchedule) state.schedule;
+        ArrayList<PayloadWrapper> others = new ArrayList<PayloadWrapper>();
+        for (PayloadWrapper entry : schedule.getScheduled().values())
+            if (!started.containsKey(entry.payload) && advance(entry, time))
+                others.add(entry);
+        schedule.restore(time, steps);
+        for (PayloadWrapper entry : others)
+            {
+            if (entry.isRepeating())
+                schedule.scheduleRepeating(entry.time, entry.ordering, (Steppable) entry.payload, entry.interval);
+            else
+                schedule.scheduleOnce(entry.time, entry.ordering, (Steppable) entry.payload);
+            }
+
+        for (HaloGrid2D field : state.fieldList)
+            field.getStorage().clear();
+
+        // The restored DObjects keep their IDs, so new ones must not be given any of them
+        DObject.advanceCounter(counter);
+
+        // Read the files of the old partitions which overlapped this one
+        for (int i = 0; i < numParts; i++)
+            {
+            String[] b = manifest.getProperty("bounds." + i).split(" ");
+            IntRect2D old = new IntRect2D(new Int2D(Integer.parseInt(b[0]), Integer.parseInt(b[1])), new Int2D(Integer.parseInt(b[2]), Integer.parseInt(b[3])));
+            boolean sameRandom = (numParts == partition.getNumProcessors() && i == partition.getPID());
+            if (!old.intersects(bounds) && !sameRandom)
+                continue;
+
+            Part part;
+            ObjectInputStream in = new ObjectInputStream(new GZIPInputStream(new BufferedInputStream(new FileInputStream(prefix + "." + i))));
+            try
+                {
+                part = (Part) in.readObject();
+                }
+            finally
+                {
+                in.close();
+                }
+
+            if (sameRandom)
+                state.random = part.random;
+            if (!old.intersects(bounds))
+                continue;
+
+            for (int f = 0; f < numFields; f++)
+                {
+                if (part.fields[f] instanceof ArrayList)
+                    {
+                    for (Object obj : (ArrayList<?>) part.fields[f])
+                        {
+                        PayloadWrapper wrapper = (PayloadWrapper) obj;
+                        if (bounds.contains(wrapper.loc))
+                            state.integrate(wrapper);
+                        }
+                    }
+                else
+                    copyValues(state.fieldList.get(f).getStorage(), part.fields[f], part.bounds, bounds);
+                }
+            }
+
+        if (state.distinguishedFlag)
+            state.registry.sync();
+        }
+
+    // Moves a Steppable which start() scheduled forward to its first time after the given time, as if the schedule
+    // had stepped there.  Returns false if it would no longer be on the schedule.
+    static boolean advance(PayloadWrapper entry, double time)
+        {
+        if (entry.time > time)
+            return true;
+        if (!entry.isRepeating())
+            return false;
+        entry.time += (Math.floor((time - entry.time) / entry.interval) + 1) * entry.interval;
+        return true;
+        }
+
+    // Copies the values of a primitive grid stored over FROM, column by column, which lie within TO, into the storage
+    static void copyValues(GridStorage storage, Serializable vals, IntRect2D from, IntRect2D to) throws MPIException
+        {
+        IntRect2D rect = from.getIntersection(to);
+        int height = rect.getHeight();
+        Object sub = Array.newInstance(vals.getClass().getComponentType(), rect.getArea());
+        int pos = 0;
+        for (int x = rect.ul().x; x < rect.br().x; x++)
+            {
+            System.arraycopy(vals, (x - from.ul().x) * from.getHeight() + (rect.ul().y - from.ul().y), sub, pos, height);
+            pos += height;
+            }
+        storage.unpack(new MPIParam(rect, storage.getShape()), (Serializable) sub);
+        }
+    }
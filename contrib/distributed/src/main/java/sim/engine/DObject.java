@@ -6,6 +6,7 @@
 
 package sim.engine;
 
+import java.nio.ByteBuffer;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
@@ -31,6 +32,26 @@ public abstract class DObject implements java.io.Serializable
             return idCounter++;
         }
 
+    /** Returns the local ID which the next DObject created on this partition will have.  Used by DCheckpoint. */
+    static int peekCounter()
+        {
+        if (DSimState.isMultiThreaded())
+            return threadSafeCounter.get();
+        else
+            return idCounter;
+        }
+
+    /** Makes sure that no DObject created from now on gets a local ID less than val, so that objects
+        restored from a checkpoint keep IDs which no new object will reuse.  Used by DCheckpoint. */
+    static void advanceCounter(int val)
+        {
+        if (idCounter < val)
+            idCounter = val;
+        int current = threadSafeCounter.get();
+        while (current < val && !threadSafeCounter.compareAndSet(current, val))
+            current = threadSafeCounter.get();
+        }
+
     int firstPID; // this is the PID of the *original* processor on which this object was created
     int localID; // this is a unique ID special to processor PID
 
@@ -46,7 +67,20 @@ public abstract class DObject implements java.io.Serializable
  	void setID(long ID)
         {
         this.firstPID = (int)(ID >>> 32);
-        this.localID = (int)(ID & 0x0000FFFFL);
+        this.localID = (int)(ID & 0xFFFFFFFFL);
+        }
+
+    /** Writes the ID of the object to buf.  Used by MigrationCodec to migrate Encodable objects. */
+    public void writeID(ByteBuffer buf)
+        {
+        buf.putLong(getID());
+        }
+
+    /** Reads the ID of the object from buf, as written by writeID(...).  Used by MigrationCodec
+        to migrate Encodable objects.  Do not call this otherwise. */
+    public void readID(ByteBuffer buf)
+        {
+        setID(buf.getLong());
         }
 
 	public void readExternal(java.io.ObjectInput in) throws java.io.IOException
@@ -6,6 +6,10 @@
 
 package sim.engine;
 
+import java.util.IdentityHashMap;
+
+import sim.engine.mpi.PayloadWrapper;
+
 /**
    DSCHEDULE is a subclass of Schedule designed to work with Distributed MASON.
    It automatically wraps all scheduled objects in either a DIterativeRepeat or
@@ -137,6 +141,111 @@ public class DSchedule extends Schedule
             nonIntegerIntervalException(interval, event);
         return scheduleRepeating(time + interval, ordering, (Stopping)event, interval);
         }
-        
 
+    /** Returns the total weight of the agents on the schedule.  Each agent counts as 1 unless it is Weighted.
+        Stopped agents are not counted.  Used by LoadBalancer. */
+    public double getTotalWeight()
+        {
+        Object[] objs;
+        synchronized (lock)
+            {
+            objs = queue.getObjects();
+            }
+        double total = 0;
+        for (Object obj : objs)
+            {
+            Steppable step = null;
+            if (obj instanceof TentativeStep)
+                step = ((TentativeStep) obj).getSteppable();
+            else if (obj instanceof IterativeRepeat)
+                step = ((IterativeRepeat) obj).getSteppable();
+            else step = (Steppable) obj;
+            if (step == null)
+                continue;
+            total += (step instanceof Weighted ? ((Weighted) step).getWeight() : 1.0);
+            }
+        return total;
+        }
+
+    /** Returns the Steppables on the schedule which have not been stopped, each mapped to a PayloadWrapper holding
+        it along with its time, ordering, and interval (or NON_REPEATING_INTERVAL).  Used by DCheckpoint. */
+    IdentityHashMap<Steppable, PayloadWrapper> getScheduled()
+        {
+        Comparable[] keys;
+        Object[] objs;
+        synchronized (lock)
+            {
+            keys = queue.getKeys();
+            objs = queue.getObjects();
+            }
+        IdentityHashMap<Steppable, PayloadWrapper> scheduled = new IdentityHashMap<Steppable, PayloadWrapper>();
+        for (int i = 0; i < objs.length; i++)
+            {
+            Steppable step = null;
+            double interval = PayloadWrapper.NON_REPEATING_INTERVAL;
+            if (objs[i] instanceof TentativeStep)
+                step = ((TentativeStep) objs[i]).getSteppable();
+            else if (objs[i] instanceof IterativeRepeat)
+                {
+                step = ((IterativeRepeat) objs[i]).getSteppable();
+                interval = ((IterativeRepeat) objs[i]).getInterval();
+                }
+            if (step == null || scheduled.containsKey(step))
+                continue;
+            Key key = (Key) keys[i];
+            scheduled.put(step, new PayloadWrapper(step, -1, null, -1, key.ordering, key.time, interval));
+            }
+        return scheduled;
+        }
+
+    /** Empties the schedule and sets its time and steps.  Used by DCheckpoint. */
+    void restore(double time, long steps)
+        {
+        synchronized (lock)
+            {
+            queue = createHeap();
+            this.time = time;
+            this.steps = steps;
+            }
+        }
+
+    // The Steppables of the first ordering which must wait for the halo exchange
+    Object[] boundary = new Object[0];
+
+    /** If the DSimState has a halo exchange in progress (see DSimState.setOverlapHalo(...)), steps the
+        interior agents of the first ordering, then finishes the exchange, then steps everything else.
+        Otherwise steps everything in order as usual. */
+    protected void stepAll(final SimState state, final Object[] objs, final int len, final int firstOrderingCount)
+        {
+        DSimState dstate = (DSimState) state;
+        if (!dstate.isHaloPending())
+            {
+            super.stepAll(state, objs, len, firstOrderingCount);
+            return;
+            }
+
+        if (boundary.length < firstOrderingCount)
+            boundary = new Object[firstOrderingCount];
+        int numBoundary = 0;
+        for(int x = 0; x < firstOrderingCount; x++)
+            {
+            if (dstate.isInterior(objs[x]))
+                ((Steppable)(objs[x])).step(state);
+            else boundary[numBoundary++] = objs[x];
+            objs[x] = null;
+            }
+
+        dstate.finishSyncFields();
+
+        for(int x = 0; x < numBoundary; x++)
+            {
+            ((Steppable)(boundary[x])).step(state);
+            boundary[x] = null;
+            }
+        for(int x = firstOrderingCount; x < len; x++)
+            {
+            ((Steppable)(objs[x])).step(state);
+            objs[x] = null;
+            }
+        }
     }
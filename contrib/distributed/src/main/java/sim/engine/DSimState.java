@@ -6,11 +6,11 @@
 
 package sim.engine;
 
+import java.io.File;
 import java.io.IOException;
 
 import java.io.Serializable;
 import java.rmi.AccessException;
-import java.rmi.NotBoundException;
 import java.rmi.RemoteException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
@@ -22,7 +22,6 @@ import java.util.logging.Level;
 import java.util.logging.LogRecord;
 import java.util.logging.Logger;
 import java.util.logging.SocketHandler;
-import java.rmi.server.UnicastRemoteObject;
 
 import ec.util.*;
 import mpi.*;
@@ -45,8 +44,10 @@ public class DSimState extends SimState
     {
     private static final long serialVersionUID = 1L;
     
-    static boolean distinguishedFlag = false;
-    static boolean updateGlobalFlag = false;
+    // Whether Distinguished objects and their messages are synchronized each step
+    boolean distinguishedFlag = false;
+    // Whether globals are updated every updateGlobalsInterval steps
+    boolean updateGlobalFlag = false;
 
     // Our PID
     static int pid = -1;
@@ -82,25 +83,54 @@ public class DSimState extends SimState
     // Not to be confused with the DistinguishedRegistry.
     ArrayList<HaloGrid2D<?, ?>> fieldList;
 
-    // The RMI registry
-    DistinguishedRegistry registry;
+    // The registry of Distinguished objects
+    DistinguishedRegistry registry = new DistinguishedRegistry(this);
 
     // The number of steps between load balances
     protected int balanceInterval = 100;
+
+    // If non-null, decides when to load balance instead of balanceInterval
+    LoadBalancer loadBalancer = null;
         
     // How often globals are updated
     int updateGlobalsInterval = 100;
+
+    // Whether the world is divided by a BisectionPartition rather than a quad tree Partition.  The -bisection argument
+    // sets this for all models.
+    static boolean bisectionDefault = false;
+
+    // Whether the halo exchange overlaps the stepping of interior agents.  The -overlap argument sets this for all models.
+    static boolean overlapHaloDefault = false;
+    boolean overlapHalo = overlapHaloDefault;
+    // Whether a halo exchange has been started but not yet finished
+    boolean haloPending = false;
+    // Located agents whose location lies within these bounds have their area of interest
+    // entirely within the local partition
+    double interiorMinX, interiorMinY, interiorMaxX, interiorMaxY;
         
+    // How often, in steps, the fields are published to the remote visualizer
+    int publishInterval = 1;
+
+    // The file to which the profile is written when the model finishes, or null if not profiling.  The -profile argument
+    // sets this for all models.
+    static String profileFileDefault = null;
+    String profileFile = profileFileDefault;
+    // When the current step began, for the profiler
+    long stepStart = 0;
+
+    // The checkpoint to restore from at the first preSchedule(), or null if none.  The -restore argument
+    // sets this for all models.
+    static String restoreDefault = null;
+    String restorePrefix = restoreDefault;
+    // The checkpoint to write at the next preSchedule(), or null if none
+    String checkpointPrefix = null;
+
     protected int maxStatSize = 10000;
         
     // The current balance level FIXME: This looks primitive, and also requires that
     // be properly in sync
     int balancerLevel;
         
-    // Arraylist where the RemoteMessage are stored
-    // the methods invoked on it have to be synchronized to avoid concurrent modification
-    ArrayList<DistinguishedRemoteMessage> distinguishedMessageQueue = new ArrayList<DistinguishedRemoteMessage>();
-
         
         
     /**
@@ -110,9 +140,12 @@ public class DSimState extends SimState
     public DSimState(long seed, int width, int height, int aoi, boolean isToroidal)
         {
         super(seed, new MersenneTwisterFast(seed), new DSchedule());
-        this.partition = new Partition(width, height, isToroidal, aoi);
+        this.partition = (bisectionDefault ? new BisectionPartition(width, height, isToroidal, aoi) :
+            new Partition(width, height, isToroidal, aoi));
+        if (partition.getTransport() instanceof LocalTransport)
+            ((LocalTransport) partition.getTransport()).setState(this);
         partition.initialize();
-        balancerLevel = ((Partition) partition).getQt().getDepth() - 1;
+        balancerLevel = partition.getBalanceLevels() - 1;
         transporter = new Transporter(partition);
         fieldList = new ArrayList<>();
         rootInfo = new HashMap<>();
@@ -154,6 +187,10 @@ public class DSimState extends SimState
      */
     public static final int getPID()
         {
+        // Partitions running in threads via LocalTransport each have their own PID
+        LocalTransport local = LocalTransport.getCurrent();
+        if (local != null)
+            return local.getRank();
         if (pid == -1)
             {
             loadPID();
@@ -260,65 +297,56 @@ public class DSimState extends SimState
 
 
     /**
-     * @return the DistinguishedRegistry instance, or null if the registry is not available. You can call this method after calling the
-     *         start() method.
+     * Sets whether this model uses Distinguished objects.  If so, every step all the partitions share the changes
+     * to the DistinguishedRegistry and deliver the messages sent to Distinguished objects.  This must be set the
+     * same way on all partitions, before start() is called, typically in the model's constructor.  By default
+     * this is false.
      */
-    public boolean registerDistinguishedObject(Distinguished obj) throws AccessException, RemoteException
+    public void setUseDistinguished(boolean val)
         {
-        
-        if (distinguishedFlag == false) {
-            throw new RuntimeException("distinguishedFlag set to false");
-            }
-        
-        try 
-            {
-            return registry.registerObject(obj, this);
-            } 
-        catch (Exception e) 
-            {
-            e.printStackTrace();
-            return false;
-            }
+        distinguishedFlag = val;
         }
 
+    /** Returns whether this model uses Distinguished objects. */
+    public boolean getUseDistinguished()
+        {
+        return distinguishedFlag;
+        }
+
+    /** Returns the registry of Distinguished objects. */
+    public DistinguishedRegistry getDistinguishedRegistry()
+        {
+        return registry;
+        }
 
     /**
-       Sends a message to a Distinguished object registered on the registry with the name NAME.
-    */
-    public Promised sendRemoteMessage(String name, int tag, Serializable arguments) throws RemoteException
+     * Registers a Distinguished object, which must be on this partition, under its distinguished name.
+     * Returns false if an object has already been registered under that name.
+     */
+    public boolean registerDistinguishedObject(Distinguished obj) throws AccessException, RemoteException
         {
         
         if (distinguishedFlag == false) {
             throw new RuntimeException("distinguishedFlag set to false");
             }
         
-        RemotePromise callback = new RemotePromise();
-        try 
-            {
-            UnicastRemoteObject.exportObject(callback, 0);
-            ((DistinguishedRemote) DistinguishedRegistry.getInstance().getObject(name)).remoteMessage(tag, arguments, callback);
-            return callback;
-            } 
-        catch (Exception e) 
-            {
-            e.printStackTrace();
-            }
-        return null;
+        return registry.registerObject(obj);
         }
 
-        
-    // Called by DistinguishedRemoteObject when it receives a message it must put on the queue to process
-    void addRemoteMessage(DistinguishedRemoteMessage message)
+
+    /**
+       Sends a message to a Distinguished object registered on the registry with the name NAME.  The message
+       is delivered, along with all the others sent during this step, at the start of the next step, by which
+       time the returned Promise will have been fulfilled with the object's answer.
+    */
+    public Promised sendRemoteMessage(String name, int tag, Serializable arguments) throws RemoteException
         {
         
         if (distinguishedFlag == false) {
             throw new RuntimeException("distinguishedFlag set to false");
             }
         
-        synchronized(this.distinguishedMessageQueue)
-            {
-            distinguishedMessageQueue.add(message);
-            }
+        return registry.send(name, tag, arguments);
         }
         
         
@@ -334,8 +362,37 @@ public class DSimState extends SimState
         doLoopDistributed(c, args, DEFAULT_TIMING_WINDOW);
         }
 
+    /**
+     * Runs the model.  Ordinarily each partition is a separate process launched by MPI.  But if args
+     * contains -partitions N, then N partitions are instead run as threads in this JVM, without MPI
+     * (see doLoopLocal(...)).  If args contains -overlap, the halo exchange overlaps the stepping
+     * of interior agents (see setOverlapHalo(...)).  If args contains -bisection, the world is divided
+     * by a BisectionPartition, which allows any number of partitions, rather than a quad tree.
+     * If args contains -restore PREFIX, the model is restored from the distributed checkpoint PREFIX (see
+     * restoreFromCheckpoint(...)), which -docheckpoint writes, on any number of partitions.
+     */
     public static void doLoopDistributed(final Class<?> c, final String[] args, final int window)
         {
+        overlapHaloDefault = keyExists("-overlap", args);
+        bisectionDefault = keyExists("-bisection", args);
+        profileFileDefault = argumentForKey("-profile", args);
+        restoreDefault = argumentForKey("-restore", args);
+        final String partitions = argumentForKey("-partitions", args);
+        if (partitions != null)
+            {
+            int numPartitions;
+            try
+                {
+                numPartitions = Integer.parseInt(partitions);
+                }
+            catch (NumberFormatException ex)
+                {
+                throw new RuntimeException("Invalid number of partitions: " + partitions + ", must be a positive integer");
+                }
+            doLoopLocal(c, args, window, numPartitions);
+            return;
+            }
+
         try
             {
             Timing.setWindow(window);
@@ -368,6 +425,113 @@ public class DSimState extends SimState
             }
         }
 
+    /**
+     * Runs the model with numPartitions partitions, each in its own thread in this JVM, communicating
+     * through a LocalTransport rather than MPI.  This requires no MPI installation.  Remote visualization,
+     * which relies on the RMI registry, is not available in this mode.
+     * Recognizes the -seed, -for, -until, -docheckpoint, -checkpointname, and -quiet arguments of SimState.doLoop(...), and -overlap,
+     * -bisection, -profile, and -restore.  Since all the
+     * partitions must take the same number of steps, you will usually want to provide -for.
+     */
+    public static void doLoopLocal(final Class<?> c, final String[] args, final int window, final int numPartitions)
+        {
+        final long seed;
+        final long _for;
+        final double until;
+        final long cmod;
+        String seed_s = argumentForKey("-seed", args);
+        String for_s = argumentForKey("-for", args);
+        String until_s = argumentForKey("-until", args);
+        String cmod_s = argumentForKey("-docheckpoint", args);
+        try
+            {
+            seed = (seed_s == null ? System.currentTimeMillis() : Long.parseLong(seed_s));
+            _for = (for_s == null ? -1 : Long.parseLong(for_s));
+            until = (until_s == null ? Double.POSITIVE_INFINITY : Double.parseDouble(until_s));
+            cmod = (cmod_s == null ? 0 : Long.parseLong(cmod_s));
+            }
+        catch (NumberFormatException ex)
+            {
+            throw new RuntimeException("Invalid -seed, -for, -until, or -docheckpoint value", ex);
+            }
+        String checkpointName = argumentForKey("-checkpointname", args);
+        if (checkpointName == null)
+            checkpointName = c.getName().substring(c.getName().lastIndexOf(".") + 1);
+        final boolean quiet = keyExists("-quiet", args);
+        overlapHaloDefault = keyExists("-overlap", args);
+        bisectionDefault = keyExists("-bisection", args);
+        profileFileDefault = argumentForKey("-profile", args);
+        restoreDefault = argumentForKey("-restore", args);
+
+        Timing.setWindow(window);
+        // all partitions allocate DObjects at the same time
+        multiThreaded = true;
+        multiThreadedSet = true;
+
+        if (!quiet) printlnSynchronized("Partitions: " + numPartitions + " Seed: " + seed);
+        try
+            {
+            runLocalPartitions(c, numPartitions, seed, _for, until, cmod, checkpointName, quiet);
+            }
+        catch (RuntimeException e)
+            {
+            e.printStackTrace();
+            // exported RMI objects would otherwise keep the JVM alive
+            System.exit(1);
+            }
+        // exported RMI objects would otherwise keep the JVM alive
+        System.exit(0);
+        }
+
+    // Runs the partitions of doLoopLocal and returns when they are all done.  Throws a RuntimeException if any failed.
+    static void runLocalPartitions(final Class<?> c, int numPartitions, final long seed, final long _for, final double until,
+        final long cmod, final String checkpointName, final boolean quiet)
+        {
+        LocalTransport.runPartitions(numPartitions, new Runnable()
+            {
+            public void run()
+                {
+                Timing.start(Timing.LB_RUNTIME);
+                DSimState state;
+                try
+                    {
+                    state = (DSimState)(c.getConstructor(new Class[] { Long.TYPE }).newInstance(new Object[] { Long.valueOf(seed) }));
+                    }
+                catch (Exception e)
+                    {
+                    throw new RuntimeException("Exception occurred while trying to construct the simulation " + c, e);
+                    }
+                state.seed = seed;
+                state.start();
+
+                long begin = System.currentTimeMillis();
+                Schedule schedule = state.schedule;
+                while ((_for == -1 || schedule.getSteps() < _for) && schedule.getTime() <= until)
+                    {
+                    state.preSchedule();
+                    if (!schedule.step(state))
+                        break;
+                    state.postSchedule();
+                    long steps = schedule.getSteps();
+                    if (cmod > 0 && steps % cmod == 0)
+                        {
+                        String s = "" + steps + ".0." + checkpointName + ".checkpoint";
+                        if (!quiet && state.partition.isRootProcessor()) printlnSynchronized("Checkpointing to: " + s);
+                        state.checkpoint(s);
+                        }
+                    }
+                state.finish();
+
+                if (!quiet && state.partition.isRootProcessor())
+                    {
+                    long millis = System.currentTimeMillis() - begin;
+                    printlnSynchronized("Steps: " + schedule.getSteps() + " Time: " + schedule.getTime() +
+                        " Rate: " + (millis == 0 ? 0 : schedule.getSteps() * 1000.0 / millis));
+                    }
+                }
+            });
+        }
+
 
 
 
@@ -418,26 +582,34 @@ public class DSimState extends SimState
         {
         super.start();
 
-        // distributed registry inizialization
-        if (distinguishedFlag == true) {
-            registry = DistinguishedRegistry.getInstance();
+        if (profileFile != null)
+            {
+            Profiler.setEnabled(true);
+            Profiler.getRecorder().clear();
             }
 
-        try
+        registry = new DistinguishedRegistry(this);
+
+        // The RMI registry, and thus remote visualization, is only available
+        // when the partitions are communicating via MPI
+        if (partition.getTransport().isMPI())
             {
-            processor = new RemoteProcessor(this);
-            // only the root partition locks
-            if (partition.isRootProcessor())
+            try
                 {
-                processor.lock();
-                // unlocks in preSchedule
+                processor = new RemoteProcessor(this);
+                // only the root partition locks
+                if (partition.isRootProcessor())
+                    {
+                    processor.lock();
+                    // unlocks in preSchedule
+                    }
+                // all partitions do a propertieslock
+                processor.lockPartition();
+                }
+            catch (RemoteException e1)
+                {
+                throw new RuntimeException(e1);
                 }
-            // all partitions do a propertieslock
-            processor.lockPartition();
-            }
-        catch (RemoteException e1)
-            {
-            throw new RuntimeException(e1);
             }
 
         try
@@ -456,7 +628,7 @@ public class DSimState extends SimState
                 startRoot();
                 }
             // synchronize using one to many communication
-            rootInfo = (HashMap<String, Serializable>) MPIUtil.scatter(partition.getCommunicator(), init, 0);
+            rootInfo = (HashMap<String, Serializable>) MPIUtil.scatter(partition, init, 0);
 
             // schedule a zombie agent to prevent that a processor with no agent is stopped
             // when the simulation is still going on
@@ -482,7 +654,7 @@ public class DSimState extends SimState
                 });
 
             // On all processors, wait for the start to finish
-            MPI.COMM_WORLD.barrier();
+            partition.getTransport().barrier();
             }
         catch (final MPIException | RemoteException e)
             {
@@ -575,7 +747,63 @@ public class DSimState extends SimState
 
 
     //// GLOBALS FACILITY
-        
+
+    /**
+     * Combines values elementwise among all partitions with the given operation (Transport.SUM, Transport.MIN,
+     * or Transport.MAX), and returns the result.  This is a collective operation: every partition must call it
+     * at the same point, for example in a Steppable which every partition schedules identically.
+     */
+    public double[] allReduce(double[] values, int op)
+        {
+        return partition.getTransport().allReduce(values, op);
+        }
+
+    /**
+     * Combines values elementwise among all partitions with the given operation (Transport.SUM, Transport.MIN,
+     * or Transport.MAX), and returns the result.  This is a collective operation, like allReduce(double[], int).
+     */
+    public long[] allReduce(long[] values, int op)
+        {
+        return partition.getTransport().allReduce(values, op);
+        }
+
+    /**
+     * Combines the records of all partitions with the given Combiner, such as Combiner.ARGMAX, and returns
+     * the result.  This is a collective operation, like allReduce(double[], int).
+     */
+    public double[] allReduce(double[] record, Combiner combiner)
+        {
+        return partition.getTransport().allReduce(record, combiner);
+        }
+
+    /** Sets whether globals are updated every updateGlobalsInterval steps.  This must be set the same way
+        on all partitions.  By default this is false. */
+    public void setUpdateGlobals(boolean val) { updateGlobalFlag = val; }
+    /** Returns whether globals are updated every updateGlobalsInterval steps. */
+    public boolean getUpdateGlobals() { return updateGlobalFlag; }
+
+    /**
+     * Implement in a subclass to provide this partition's globals as a record of doubles.  The records
+     * of all partitions are combined with getGlobalsCombiner() and the result handed to setPartitionGlobalsRecord(...).
+     * This is cheaper than getPartitionGlobals(), arbitrateGlobals(...), and setPartitionGlobals(...), which
+     * gather objects to the root and broadcast the result, and takes precedence over them.  By default returns null.
+     */
+    protected double[] getPartitionGlobalsRecord()
+        {
+        return null;
+        }
+
+    /** Implement in a subclass to return the Combiner for getPartitionGlobalsRecord().  By default returns Combiner.ARGMAX. */
+    protected Combiner getGlobalsCombiner()
+        {
+        return Combiner.ARGMAX;
+        }
+
+    /** Implement in a subclass to receive the combined globals records of all partitions. */
+    protected void setPartitionGlobalsRecord(double[] record)
+        {
+        return;
+        }
                 
     // implement in subclass. Default simply returns the first one.
     protected Serializable[] arbitrateGlobals(ArrayList<Serializable[]> allGlobals)
@@ -608,7 +836,7 @@ public class DSimState extends SimState
         try
             {
             // broadcast
-            global = MPIUtil.bcast(partition.getCommunicator(), global, 0);
+            global = MPIUtil.bcast(partition, global, 0);
             setPartitionGlobals(global);
             }
         catch (Exception e) { }
@@ -653,6 +881,13 @@ public class DSimState extends SimState
         {
         if (schedule.getSteps() > 0 && (schedule.getSteps() % updateGlobalsInterval == 0)) 
             {
+            double[] record = getPartitionGlobalsRecord();
+            if (record != null)
+                {
+                setPartitionGlobalsRecord(allReduce(record, getGlobalsCombiner()));
+                return;
+                }
+
             Serializable[] g = null;
             ArrayList<Serializable[]> gg = gatherGlobals();
                 
@@ -675,6 +910,29 @@ public class DSimState extends SimState
         
         
 
+    /**
+     * Shares how far each field with an adaptive AOI was queried during the last step, and has
+     * each adapt the extent of its halo accordingly.
+     */
+    void adaptAOIs()
+        {
+        long[] queried = null;
+        for (int i = 0; i < fieldList.size(); i++)
+            if (fieldList.get(i).getAdaptiveAOI())
+                {
+                if (queried == null)
+                    queried = new long[fieldList.size()];
+                queried[i] = fieldList.get(i).takeQueried();
+                }
+        if (queried == null)
+            return;
+
+        queried = partition.getTransport().allReduce(queried, Transport.MAX);
+        for (int i = 0; i < fieldList.size(); i++)
+            if (fieldList.get(i).getAdaptiveAOI())
+                fieldList.get(i).adaptAOI((int) queried[i]);
+        }
+
     /**
      * Calls Sync on all the fields
      *
@@ -689,11 +947,221 @@ public class DSimState extends SimState
             }
         }
 
-    void syncRemoveAndAdd() throws MPIException, RemoteException
+    /**
+     * Sets whether the halo exchange overlaps the stepping of interior agents.  Ordinarily all halos
+     * are exchanged in preSchedule(), before any agent is stepped.  If overlapping, preSchedule() only
+     * starts the exchange, as its last act.  The schedule then steps those agents of the first ordering
+     * which are Located and whose area of interest lies entirely within the local partition (and so do not
+     * need the halo), then finishes the exchange, then steps the rest.  This is legal because the agents of
+     * each ordering are stepped in random order anyway, but it means that a model will not produce exactly
+     * the same results with and without overlapping.  Only int and double grid halos are actually exchanged in
+     * the background: other fields are synced entirely when the exchange starts.  By default this is false.
+     */
+    public void setOverlapHalo(boolean val)
+        {
+        overlapHalo = val;
+        }
+
+    /** Returns whether the halo exchange overlaps the stepping of interior agents. */
+    public boolean getOverlapHalo()
+        {
+        return overlapHalo;
+        }
+
+    /**
+     * Sets how often, in steps, each partition publishes a copy of its fields for the remote visualizer.
+     * The visualizer reads the published copies, as deltas, without stopping the model, so a larger interval
+     * only makes the visualization update less often.  Only the fields which a visualizer has asked for are
+     * published, and only when the partitions are communicating via MPI.  0 turns publishing off.
+     * By default this is 1.
+     */
+    public void setPublishInterval(int val)
+        {
+        if (val < 0)
+            throw new IllegalArgumentException("The publish interval must be >= 0.  You have: " + val);
+        publishInterval = val;
+        }
+
+    /** Returns how often, in steps, the fields are published for the remote visualizer. */
+    public int getPublishInterval()
+        {
+        return publishInterval;
+        }
+
+    /**
+     * Sets the file to which a profile of the run is written, as a Chrome trace, when the model finishes,
+     * or null (the default) for none.  If non-null, the Profiler is turned on when the model starts.  Call this in
+     * your constructor, identically on all partitions.  The -profile argument sets this for all models.
+     */
+    public void setProfileFile(String val)
+        {
+        profileFile = val;
+        }
+
+    /** Returns the file to which a profile of the run is written when the model finishes, or null for none. */
+    public String getProfileFile()
+        {
+        return profileFile;
+        }
+
+    /**
+     * Gathers the events recorded by the Profiler on all partitions and writes them from the root partition,
+     * as a Chrome trace, to the given file.  This must be called on all partitions at the same point.
+     */
+    public void writeProfile(String filename)
+        {
+        // right after the barrier, all the partitions take their snapshots at nearly the same moment,
+        // which aligns their clocks
+        partition.getTransport().barrier();
+        Profiler.Trace trace = Profiler.getRecorder().snapshot(partition.getPID());
+        ArrayList<Profiler.Trace> traces = partition.getTransport().gather(trace, 0);
+        if (partition.isRootProcessor())
+            {
+            try
+                {
+                Profiler.writeChromeTrace(traces, filename);
+                }
+            catch (IOException e)
+                {
+                throw new RuntimeException("Could not write the profile to " + filename, e);
+                }
+            }
+        }
+
+    /** Returns whether a halo exchange has been started but not yet finished. */
+    boolean isHaloPending()
+        {
+        return haloPending;
+        }
+
+    /**
+     * Starts syncing all the fields, and records the interior of the partition.
+     */
+    void startSyncFields() throws MPIException, RemoteException
         {
+        IntRect2D bounds = partition.getLocalBounds();
+        int aoi = partition.getAOI();
+        interiorMinX = bounds.ul().x + aoi;
+        interiorMinY = bounds.ul().y + aoi;
+        interiorMaxX = bounds.br().x - aoi;
+        interiorMaxY = bounds.br().y - aoi;
+
         for (HaloGrid2D haloField : fieldList)
             {
+            haloField.startSyncHalo();
+            }
+        haloPending = true;
+        }
+
+    /**
+     * Finishes syncing all the fields, if started by startSyncFields().  Otherwise does nothing.
+     */
+    void finishSyncFields()
+        {
+        if (!haloPending) return;
+        haloPending = false;
+        try
+            {
+            for (HaloGrid2D haloField : fieldList)
+                {
+                haloField.finishSyncHalo();
+                }
+            }
+        catch (MPIException | RemoteException e)
+            {
+            throw new RuntimeException(e);
+            }
+        }
+
+    /**
+     * Returns true if the given Steppable, or the agent it wraps, is Located, and its area of interest
+     * lies entirely within the local partition.
+     */
+    boolean isInterior(Object steppable)
+        {
+        if (steppable instanceof TentativeStep)
+            steppable = ((TentativeStep) steppable).getSteppable();
+        else if (steppable instanceof IterativeRepeat)
+            steppable = ((IterativeRepeat) steppable).getSteppable();
+        if (!(steppable instanceof Located))
+            return false;
+
+        Number2D loc = ((Located) steppable).getLocation();
+        double x, y;
+        if (loc instanceof Int2D)
+            {
+            x = ((Int2D) loc).x;
+            y = ((Int2D) loc).y;
+            }
+        else if (loc instanceof Double2D)
+            {
+            x = ((Double2D) loc).x;
+            y = ((Double2D) loc).y;
+            }
+        else return false;
+        return x >= interiorMinX && x < interiorMaxX && y >= interiorMinY && y < interiorMaxY;
+        }
+
+    /**
+     * Ships the adds, removes, and gets which each field has queued for non-neighboring partitions, performs
+     * those made of this partition, and fulfills the promises of the gets.  All the fields' requests for a given
+     * partition travel in a single message, and so do the answers.  Also processes the RMI queues of each field.
+     * Most steps no partition has made any requests, so the partitions first agree on whether any has, and
+     * if none has, skip both exchanges.
+     */
+    void syncRemoveAndAdd() throws MPIException, RemoteException
+        {
+        int numFields = fieldList.size();
+        int numProcessors = partition.getNumProcessors();
+
+        long anyRequests = 0;
+        Serializable[][] requests = new Serializable[numProcessors][];
+        for (int i = 0; i < numProcessors; i++)
+            for (int f = 0; f < numFields; f++)
+                {
+                Serializable r = fieldList.get(f).takeRemoteRequests(i);
+                if (r == null) continue;
+                if (requests[i] == null) requests[i] = new Serializable[numFields];
+                requests[i][f] = r;
+                anyRequests = 1;
+                }
+
+        if (partition.getTransport().allReduce(new long[] { anyRequests }, Transport.MAX)[0] == 0)
+            {
+            for (int f = 0; f < numFields; f++)
+                fieldList.get(f).syncRemoveAndAdd();
+            return;
+            }
+
+        ArrayList<Serializable[]> received = partition.getTransport().allToAll(requests);
+
+        Serializable[][] answers = new Serializable[numProcessors][];
+        for (int f = 0; f < numFields; f++)
+            {
+            HaloGrid2D haloField = fieldList.get(f);
+            ArrayList<Serializable> fieldRequests = new ArrayList<Serializable>();
+            for (int i = 0; i < numProcessors; i++)
+                fieldRequests.add(received.get(i) == null ? null : received.get(i)[f]);
+
+            haloField.queueRemoteRequests(fieldRequests);
             haloField.syncRemoveAndAdd();
+
+            Serializable[] fieldAnswers = haloField.answerRemoteRequests(fieldRequests);
+            for (int i = 0; i < numProcessors; i++)
+                {
+                if (fieldAnswers[i] == null) continue;
+                if (answers[i] == null) answers[i] = new Serializable[numFields];
+                answers[i][f] = fieldAnswers[i];
+                }
+            }
+        received = partition.getTransport().allToAll(answers);
+
+        for (int f = 0; f < numFields; f++)
+            {
+            ArrayList<Serializable> fieldAnswers = new ArrayList<Serializable>();
+            for (int i = 0; i < numProcessors; i++)
+                fieldAnswers.add(received.get(i) == null ? null : received.get(i)[f]);
+            fieldList.get(f).fulfillRemoteRequests(fieldAnswers);
             }
         }
 
@@ -708,6 +1176,31 @@ public class DSimState extends SimState
         super.postSchedule();
         }
 
+    /**
+     * Writes any checkpoint asked for during the final step, and the profile, if there is a profile file,
+     * then finishes the model.  If you override this method,
+     * you absolutely need to call super.finish().
+     */
+    public void finish()
+        {
+        // a checkpoint asked for during the final step still needs its agents to reach their partitions
+        if (checkpointPrefix != null)
+            {
+            finishSyncFields();
+            migrateAgents();
+            if (distinguishedFlag)
+                registry.sync();
+            writeCheckpoint();
+            }
+        if (profileFile != null)
+            {
+            Profiler.end(Profiler.STEP, stepStart);
+            stepStart = 0;
+            writeProfile(profileFile);
+            }
+        super.finish();
+        }
+
     /**
      * This method is called immediately before stepping the schedule, and it handles all the partition-to-partition transfer and
      * communication between steps. If you override this method, you absolutely need to call super.preSchedule() first.
@@ -716,164 +1209,118 @@ public class DSimState extends SimState
         {
         Timing.stop(Timing.LB_RUNTIME);
         Timing.start(Timing.MPI_SYNC_OVERHEAD);
+        Profiler.end(Profiler.STEP, stepStart);
+        Profiler.setStep(schedule.getSteps());
+
+        // in case the schedule didn't get around to finishing the last exchange
+        finishSyncFields();
                 
+        // PUBLISH the fields for the remote visualizer, which reads them without stopping us
+        if (processor != null && publishInterval > 0 && schedule.getSteps() % publishInterval == 0)
+            {
+            long start = Profiler.begin();
+            processor.publish();
+            Profiler.end(Profiler.PUBLISH, start);
+            }
+
+        partition.getTransport().barrier();               
+                                    
+        // ALLOW INSPECTION
+        // We have a big problem regarding remote inspection.  If a remote inspector is just
+        // reading, and potentially writing, any data willy-nilly during the model runtime,
+        // then we have a race condition.  We can't have simple data access locks of course because
+        // that would be horrendously expensive.  Alternatively we could lock here and let
+        // an inspector do its thing, but this might be a piecemeal thing, with one lock
+        // per property, which would cause the visualizer to be very slow and also skip a lot
+        // of drawing.  :-(
         try
             {
-            MPI.COMM_WORLD.barrier();               
-                                        
-            // ALLOW INSPECTION
-            // We have a big problem regarding remote inspection.  If a remote inspector is just
-            // reading, and potentially writing, any data willy-nilly during the model runtime,
-            // then we have a race condition.  We can't have simple data access locks of course because
-            // that would be horrendously expensive.  Alternatively we could lock here and let
-            // an inspector do its thing, but this might be a piecemeal thing, with one lock
-            // per property, which would cause the visualizer to be very slow and also skip a lot
-            // of drawing.  :-(
-            try
-                {
+            if (processor != null)
                 processor.unlockPartition();
-                }
-            catch (RemoteException ex)
-                {
-                throw new RuntimeException(ex);
-                }
-
-
-            // ALLOW VISUALIZATION
-            // To do this, we will first have a barrier, so all partitions are synced up and
-            // waiting.  THEN we will unlock the root.  This will allow the remote visualizer
-            // to lock on the root.  We wait until the visualizer has done its work.  THEN
-            // we will relock on the root.  Finally we will have another barrier so everyone
-            // has synced up with the root, and we can go on.  Unfortunately this requires two
-            // barriers.  :-(
-
-            if (partition.isRootProcessor())
-                {
-                try
-                    {
-                    processor.unlock();
-                    //// WARNING: it's possible that if the remote visualizer has DIED while
-                    //// in a locked state, it won't release the lock and we'll hang here?  We
-                    //// may need to use tryLock() instead with a timeout, which could be very
-                    //// expensive, and maybe create a new lock replacing the original?  Not sure.
+            }
+        catch (RemoteException ex)
+            {
+            throw new RuntimeException(ex);
+            }
 
-                    processor.lock();
-                    }
-                catch (RemoteException ex)
-                    {
-                    throw new RuntimeException(ex);
-                    }
-                }
-            MPI.COMM_WORLD.barrier();
 
+        // ALLOW VISUALIZATION
+        // To do this, we will first have a barrier, so all partitions are synced up and
+        // waiting.  THEN we will unlock the root.  This will allow the remote visualizer
+        // to lock on the root.  We wait until the visualizer has done its work.  THEN
+        // we will relock on the root.  Finally we will have another barrier so everyone
+        // has synced up with the root, and we can go on.  Unfortunately this requires two
+        // barriers.  :-(
 
-            // ALLOW INSPECTION AGAIN
-            // Now we relock the properties lock.  I *think* this avoids most deadlock conditions 
-            // where we're locked on one lock but the visualizer is locked on the other one?
-                        
+        if (partition.isRootProcessor() && processor != null)
+            {
             try
                 {
-                processor.lockPartition();
+                processor.unlock();
+                //// WARNING: it's possible that if the remote visualizer has DIED while
+                //// in a locked state, it won't release the lock and we'll hang here?  We
+                //// may need to use tryLock() instead with a timeout, which could be very
+                //// expensive, and maybe create a new lock replacing the original?  Not sure.
+
+                processor.lock();
                 }
             catch (RemoteException ex)
                 {
                 throw new RuntimeException(ex);
                 }
+            }
+        partition.getTransport().barrier();
 
 
-            // Sync all the Remove and Add queues for RMI
-            syncRemoveAndAdd();
-                        
-            transporter.sync();
-
-            if (distinguishedFlag == true) {
-                // After the synchronization we can unregister migrated object!
-                // remove exported-migrated object from local node
-                for (DistinguishedRemoteObject exportedObj : DistinguishedRegistry.getInstance().getAllLocalExportedObjects())
-                    {
-                    try
-                        {
-                        // if the object is migrated unregister it
-                        if (DistinguishedRegistry.getInstance().isMigrated(exportedObj.object)) 
-                            {
-                            DistinguishedRegistry.getInstance().unregisterObject(exportedObj.object);
-                            }
-                        }
-                    catch (NotBoundException e)
-                        {
-                        e.printStackTrace();
-                        }
-                    }
-                DistinguishedRegistry.getInstance().clearMigratedNames();
-                }
-
-            //wait all nodes to finish the unregister phase.
-            MPI.COMM_WORLD.barrier();
-
+        // ALLOW INSPECTION AGAIN
+        // Now we relock the properties lock.  I *think* this avoids most deadlock conditions 
+        // where we're locked on one lock but the visualizer is locked on the other one?
+                    
+        try
+            {
+            if (processor != null)
+                processor.lockPartition();
             }
-        catch (ClassNotFoundException | MPIException | IOException e)
+        catch (RemoteException ex)
             {
-            throw new RuntimeException(e);
+            throw new RuntimeException(ex);
             }
 
+        migrateAgents();
 
-        for (final PayloadWrapper payloadWrapper : transporter.objectQueue)
+        // Share the arrivals and other changes to the registry, then deliver the
+        // messages to Distinguished objects sent during the last step
+        if (distinguishedFlag)
             {
-            /*
-             * Assumptions about what is to be added to the field using addToField method rely on the fact that the wrapper
-             * classes are not directly used By the modelers
-             *
-             * In case of IterativeRepeat step is added to the field. For PayloadWrapper we add agent and, for all other cases we
-             * add the object itself to the field
-             *
-             * Improperly using the wrappers and/or fieldIndex will cause Class cast exceptions to be thrown
-             */
-
-//                      if (payloadWrapper.fieldIndex >= 0)
+            registry.sync();
+            registry.deliverMessages();
+            }
+
+        // RESTORE or WRITE a checkpoint, now that no agents are in transit
+        if (restorePrefix != null)
+            {
+            String prefix = restorePrefix;
+            restorePrefix = null;
+            try
                 {
-                // add the object to the field
-                fieldList.get(payloadWrapper.fieldIndex).addPayload(payloadWrapper);
+                DCheckpoint.restore(this, prefix);
                 }
-
-            if (payloadWrapper.isAgent())
+            catch (IOException | ClassNotFoundException | MPIException e)
                 {
-                
-                if (distinguishedFlag == true) {
-
-                
-                    if (payloadWrapper.payload instanceof Distinguished)
-                        {
-                        try
-                            {
-                            DistinguishedRegistry.getInstance().registerObject((Distinguished) payloadWrapper.payload, this);
-                            }
-                        catch (RemoteException e)
-                            {
-                            e.printStackTrace();
-                            }
-                        }
-                
-                    }
-
-                if (payloadWrapper.isRepeating())
-                    {
-                    schedule.scheduleRepeating(payloadWrapper.time, payloadWrapper.ordering, (Steppable)(payloadWrapper.payload), payloadWrapper.interval);
-                    }
-                else
-                    {
-                    schedule.scheduleOnce(payloadWrapper.time, payloadWrapper.ordering, (Steppable)(payloadWrapper.payload));
-                    }
+                throw new RuntimeException("Could not restore the checkpoint", e);
                 }
             }
+        writeCheckpoint();
 
-        transporter.objectQueue.clear();
-
-        // Wait that all nodes have registered their new objects in the distributed
-        // registry.
+        // Balancing reshapes the fields and moves agents using the halos, so on a step which balances
+        // the halos must be synced beforehand, and are not overlapped with the step
+        boolean balance = shouldBalance();
         try
             {
-            MPI.COMM_WORLD.barrier();
-            syncFields();
+            adaptAOIs();
+            partition.getTransport().barrier();
+            if (!overlapHalo || balance)
+                syncFields();
             }
         catch (MPIException | RemoteException e)
             {
@@ -881,7 +1328,8 @@ public class DSimState extends SimState
             }
                 
         Timing.stop(Timing.MPI_SYNC_OVERHEAD);
-        loadBalance();
+        if (balance)
+            loadBalance();
                 
         if (updateGlobalFlag == true) {
             updateGlobals(); //only happens every updateGlobalInterval steps
@@ -894,31 +1342,22 @@ public class DSimState extends SimState
         */
                 
 
-        if (distinguishedFlag == true) {
-
-            /* we invoke the fullfill for every message in the distinguishedMessageQueue
-               to make the Promise ready
-            */
-            try 
+        // start the halo exchange; the schedule will finish it once it has stepped the interior agents
+        if (overlapHalo && !balance)
+            {
+            try
                 {
-                synchronized(this.distinguishedMessageQueue)
-                    {
-                    for(DistinguishedRemoteMessage message: distinguishedMessageQueue)
-                        {
-                        Serializable data =
-                            message.object.remoteMessage(message.tag, message.arguments);
-                        message.callback.fulfill(data);
-                        }
-                    distinguishedMessageQueue.clear();
-                    }
-                   
-                } 
-            catch (Exception e) 
+                startSyncFields();
+                }
+            catch (MPIException | RemoteException e)
                 {
-                e.printStackTrace();
+                throw new RuntimeException(e);
                 }
             }
-                
+
+        // time the step itself, for load balancing
+        Timing.start(Timing.LB_RUNTIME);
+        stepStart = Profiler.begin();
         }
 
 
@@ -929,128 +1368,260 @@ public class DSimState extends SimState
 
 
 
-    //// LOAD BALANCING
+    /**
+     * Performs the remote adds and removes, and moves the agents which left this partition during the last step
+     * to their new partitions, so that afterwards no agents are in transit.
+     */
+    void migrateAgents()
+        {
+        try
+            {
+            // Sync all the Remove and Add queues for RMI
+            syncRemoveAndAdd();
+                        
+            transporter.sync();
 
+            //wait all nodes to finish the unregister phase.
+            partition.getTransport().barrier();
+            }
+        catch (ClassNotFoundException | MPIException | IOException e)
+            {
+            throw new RuntimeException(e);
+            }
 
-    void loadBalance()
+        for (final PayloadWrapper payloadWrapper : transporter.objectQueue)
+            integrate(payloadWrapper);
+
+        transporter.objectQueue.clear();
+        }
+
+    /**
+     * Writes the checkpoint asked for by checkpoint(...), if any.  No agents may be in transit.
+     */
+    void writeCheckpoint()
+        {
+        if (checkpointPrefix == null)
+            return;
+        String prefix = checkpointPrefix;
+        checkpointPrefix = null;
+        try
+            {
+            DCheckpoint.write(this, prefix);
+            }
+        catch (IOException | MPIException e)
+            {
+            throw new RuntimeException("Could not write the checkpoint", e);
+            }
+        }
+
+    /**
+     * Adds an object which has arrived from another partition (or from a checkpoint) to its field, and
+     * schedules it if it is an agent.
+     */
+    void integrate(PayloadWrapper payloadWrapper)
         {
         /*
-         * Check if it's time to run load balance based on the balanceInterval defined
+         * Assumptions about what is to be added to the field using addToField method rely on the fact that the wrapper
+         * classes are not directly used By the modelers
+         *
+         * In case of IterativeRepeat step is added to the field. For PayloadWrapper we add agent and, for all other cases we
+         * add the object itself to the field
+         *
+         * Improperly using the wrappers and/or fieldIndex will cause Class cast exceptions to be thrown
          */
-        if (schedule.getSteps() > 0 && (schedule.getSteps() % balanceInterval == 0))
+
+        // add the object to the field
+        fieldList.get(payloadWrapper.fieldIndex).addPayload(payloadWrapper);
+
+        if (payloadWrapper.isAgent())
             {
-            try
+            if (distinguishedFlag && payloadWrapper.payload instanceof Distinguished)
+                registry.arrived((Distinguished) payloadWrapper.payload);
+
+            if (payloadWrapper.isRepeating())
                 {
-                // Balance the partitions for the given level migrating the agents
-                balancePartitions(balancerLevel);
-                        
-                try
-                    {
-                    //sync transporter (objects moved to transporter.objectQueue)
+                schedule.scheduleRepeating(payloadWrapper.time, payloadWrapper.ordering, (Steppable)(payloadWrapper.payload), payloadWrapper.interval);
+                }
+            else
+                {
+                schedule.scheduleOnce(payloadWrapper.time, payloadWrapper.ordering, (Steppable)(payloadWrapper.payload));
+                }
+            }
+        }
 
-                    transporter.sync();
-                    }
-                catch (ClassNotFoundException | IOException e1)
-                    {
-                    throw new RuntimeException(e1);
-                    }
-                                
 
-                // being transported from elsewhere, needs to be added to this partition's
-                // HaloGrid and schedule
-                for (final PayloadWrapper payloadWrapper : transporter.objectQueue)
-                    {
 
-                    /*
-                     * Assumptions about what is to be added to the field using addToField method rely on the fact that the
-                     * wrapper classes are not directly used By the modelers
-                     *
-                     * In case of IterativeRepeat step is added to the field. For PayloadWrapper we add agent and, for all other
-                     * cases we add the object itself to the field
-                     *
-                     * Improperly using the wrappers and/or fieldIndex will cause Class cast exceptions to be thrown
-                     */
-
-                    // add payload into correct HaloGrid
-//                                      if (payloadWrapper.fieldIndex >= 0)
-                        {
-                        // add the object to the field
-                        fieldList.get(payloadWrapper.fieldIndex).addPayload(payloadWrapper);
-                        //verify it was added to the correct location!
-                        }
-                                        
-                    if (payloadWrapper.isAgent())
-                        {
-                        
-                        if (distinguishedFlag == true) {
 
 
-                            // I am currently unclear on how this works
-                            if(payloadWrapper.payload instanceof Distinguished)
-                                {
-                                try
-                                    {
-                                    DistinguishedRegistry.getInstance().registerObject((Distinguished) payloadWrapper.payload, this);
-                                    }
-                                catch (RemoteException e)
-                                    {
-                                    e.printStackTrace();
-                                    }
-                                }
-                            }
 
-                        if (payloadWrapper.isRepeating())
-                            {
-                            schedule.scheduleRepeating(payloadWrapper.time, payloadWrapper.ordering, (Steppable)(payloadWrapper.payload), payloadWrapper.interval);
-                            }
-                        else
-                            {
-                            schedule.scheduleOnce(payloadWrapper.time, payloadWrapper.ordering, (Steppable)(payloadWrapper.payload));
-                            }
-                        }
-                                        
+    //// CHECKPOINTING
 
-                    }
 
-                                
-                // Wait that all nodes have registered their new objects in the distributed registry.
-                try
+    /**
+     * Asks for a distributed checkpoint named PREFIX to be written at the start of the next step, once the agents
+     * which moved during this step have reached their new partitions.  Each partition writes its own file,
+     * PREFIX.PID, in parallel, and the root then writes PREFIX.manifest.  This must be called identically on all
+     * partitions.  See DCheckpoint for what is and is not stored.
+     */
+    public void checkpoint(String prefix)
+        {
+        checkpointPrefix = prefix;
+        }
+
+    /**
+     * Asks for the fields, the agents, and the schedule to be restored from the distributed checkpoint named PREFIX,
+     * as written by checkpoint(...), at the start of the next step.  Call this after start(), identically on all
+     * partitions.  The checkpoint may have been written by a different number of partitions.  The -restore
+     * argument does this for all models.
+     */
+    public void restoreFromCheckpoint(String prefix)
+        {
+        restorePrefix = prefix;
+        }
+
+    /**
+     * Distributed models cannot be serialized as a whole, so this instead asks for a distributed checkpoint
+     * named after the file, as checkpoint(file.getPath()) does.  This is how -docheckpoint works.  Returns this.
+     */
+    public SimState writeToCheckpoint(File file)
+        {
+        checkpoint(file.getPath());
+        return this;
+        }
+
+
+
+
+
+
+    //// LOAD BALANCING
+
+
+    /**
+     * Sets the LoadBalancer which decides when to rebalance the partitions.  If null (the default),
+     * the partitions are rebalanced every balanceInterval steps.  Call this in your constructor or
+     * in start(), identically on all partitions.
+     */
+    public void setLoadBalancer(LoadBalancer balancer)
+        {
+        loadBalancer = balancer;
+        }
+
+    /** Returns the LoadBalancer which decides when to rebalance the partitions, or null if they are
+        rebalanced every balanceInterval steps. */
+    public LoadBalancer getLoadBalancer()
+        {
+        return loadBalancer;
+        }
+
+    /**
+     * Returns whether it's time to run load balance, either as the LoadBalancer decides or based on the balanceInterval defined.
+     * Must be called on all partitions at once, once per step.
+     */
+    boolean shouldBalance()
+        {
+        if (loadBalancer != null)
+            return loadBalancer.shouldBalance(this);
+        else
+            return (schedule.getSteps() > 0 && (schedule.getSteps() % balanceInterval == 0));
+        }
+
+    /**
+     * Balances the partitions, migrating the agents.  Call this only when shouldBalance() says so.
+     */
+    void loadBalance()
+        {
+        long start = Profiler.begin();
+        try
+            {
+            // Balance the partitions for the given level migrating the agents
+            balancePartitions(balancerLevel);
+                    
+            try
+                {
+                //sync transporter (objects moved to transporter.objectQueue)
+
+                transporter.sync();
+                }
+            catch (ClassNotFoundException | IOException e1)
+                {
+                throw new RuntimeException(e1);
+                }
+                            
+
+            // being transported from elsewhere, needs to be added to this partition's
+            // HaloGrid and schedule
+            for (final PayloadWrapper payloadWrapper : transporter.objectQueue)
+                {
+
+                /*
+                 * Assumptions about what is to be added to the field using addToField method rely on the fact that the
+                 * wrapper classes are not directly used By the modelers
+                 *
+                 * In case of IterativeRepeat step is added to the field. For PayloadWrapper we add agent and, for all other
+                 * cases we add the object itself to the field
+                 *
+                 * Improperly using the wrappers and/or fieldIndex will cause Class cast exceptions to be thrown
+                 */
+
+                // add payload into correct HaloGrid
+//                                      if (payloadWrapper.fieldIndex >= 0)
                     {
-                    MPI.COMM_WORLD.barrier();
-                    syncFields();
+                    // add the object to the field
+                    fieldList.get(payloadWrapper.fieldIndex).addPayload(payloadWrapper);
+                    //verify it was added to the correct location!
                     }
-                catch (MPIException e)
+                                    
+                if (payloadWrapper.isAgent())
                     {
-                    throw new RuntimeException(e);
-                    }
-                                
-                //System.exit(-1);
+                    
+                    // the registry is synced at the next preSchedule()
+                    if (distinguishedFlag && payloadWrapper.payload instanceof Distinguished)
+                        registry.arrived((Distinguished) payloadWrapper.payload);
 
-                // clear queue
-                transporter.objectQueue.clear();
+                    if (payloadWrapper.isRepeating())
+                        {
+                        schedule.scheduleRepeating(payloadWrapper.time, payloadWrapper.ordering, (Steppable)(payloadWrapper.payload), payloadWrapper.interval);
+                        }
+                    else
+                        {
+                        schedule.scheduleOnce(payloadWrapper.time, payloadWrapper.ordering, (Steppable)(payloadWrapper.payload));
+                        }
+                    }
+                                    
 
                 }
-            catch (MPIException | RemoteException e)
-                {
-                throw new RuntimeException(e);
-                }
 
-            // I'm not sure about this bit exactly
-            if (balancerLevel != 0)
-                balancerLevel--;
-            else
-                balancerLevel = ((Partition) partition).getQt().getDepth() - 1;
+                            
+            // Wait that all nodes have registered their new objects in the distributed registry.
             try
                 {
-                MPI.COMM_WORLD.barrier();
+                partition.getTransport().barrier();
+                syncFields();
                 }
             catch (MPIException e)
                 {
                 throw new RuntimeException(e);
                 }
+                            
+            //System.exit(-1);
+
+            // clear queue
+            transporter.objectQueue.clear();
+
+            }
+        catch (MPIException | RemoteException e)
+            {
+            throw new RuntimeException(e);
             }
-                
 
+        // I'm not sure about this bit exactly
+        if (balancerLevel != 0)
+            balancerLevel--;
+        else
+            balancerLevel = partition.getBalanceLevels() - 1;
+        partition.getTransport().barrier();
+        Profiler.end(Profiler.BALANCE, start);
         }
 
     /*
@@ -1064,11 +1635,12 @@ public class DSimState extends SimState
         final int oldPID = partition.getPID();
 
         // get the average time to run a step, used to compute the position of the new centroids
-        final Double avgRuntime = Timing.get(Timing.LB_RUNTIME).getMovingAverage(); 
+        // (or the load reported by the LoadBalancer)
+        final Double avgRuntime = (loadBalancer != null ? loadBalancer.getLoad() : Timing.get(Timing.LB_RUNTIME).getMovingAverage()); 
         Timing.start(Timing.LB_OVERHEAD);
 
         ((Partition) partition).balance(avgRuntime, level); // balance the partition moving the centroid for the given level
-        MPI.COMM_WORLD.barrier();
+        partition.getTransport().barrier();
 
         // Raj rewrite
         for (HaloGrid2D field : fieldList)
@@ -1083,7 +1655,7 @@ public class DSimState extends SimState
 
                 ContinuousStorage st = (ContinuousStorage) haloGrid2D.getStorage();
                 // for cell
-                for (int i = 0; i < st.storage.length; i++)
+                for (int i = 0; i < st.getNumCells(); i++)
                     {
                     // don't bother with situations where no point would be valid
                     IntRect2D storageBound = st.getCellBounds(i);
@@ -1092,9 +1664,8 @@ public class DSimState extends SimState
                     if (!haloGrid2D.getLocalBounds().contains(storageBound))
                         {
                         // for agent/entity in cell
-                        // HashSet agents = new HashSet(((HashMap) st.storage[i].clone()).values());
-                        // clones to avoid ConcurrentModificationException
-                        HashSet agents = new HashSet(((HashMap) st.storage[i]).values());
+                        // (a copy, to avoid ConcurrentModificationException)
+                        ArrayList agents = st.getCellObjects(i);
 
                         for (Object a : agents)
                             {
@@ -1214,7 +1785,7 @@ public class DSimState extends SimState
                     }
                 }
             }
-        MPI.COMM_WORLD.barrier();
+        partition.getTransport().barrier();
         Timing.stop(Timing.LB_OVERHEAD);
         }
 
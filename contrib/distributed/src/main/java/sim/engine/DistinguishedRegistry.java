@@ -3,350 +3,196 @@
   Licensed under the Academic Free License version 3.0
   See the file "LICENSE" for more information
 */
-        
+
 package sim.engine;
 
-import java.net.InetAddress;
-import java.net.NetworkInterface;
-import java.net.SocketException;
-import java.rmi.AccessException;
-import java.rmi.AlreadyBoundException;
-import java.rmi.NotBoundException;
-import java.rmi.Remote;
+import java.io.Serializable;
 import java.rmi.RemoteException;
-import java.rmi.registry.LocateRegistry;
-import java.rmi.registry.Registry;
-import java.rmi.server.UnicastRemoteObject;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Date;
-import java.util.Enumeration;
 import java.util.HashMap;
-import java.util.List;
-import java.util.logging.ConsoleHandler;
-import java.util.logging.Level;
-import java.util.logging.LogRecord;
-import java.util.logging.Logger;
 
-import mpi.MPI;
-import sim.util.*;
+import sim.engine.mpi.Transport;
 
 /**
-   The utility class to register and update Distinguished objects on the RMI Registry.  This class
-   allows you to register them, and also handled re-registering them with new DSimStates as the
-   objects migrate from partition to partition.
+   The registry of Distinguished objects.  Every partition holds a copy of the table which maps the name of
+   each Distinguished object to the partition which holds it, along with the Distinguished objects on its own
+   partition.  Once per step, in DSimState.preSchedule(), the partitions share the changes to the table --
+   objects which have been registered, unregistered, or have arrived on a new partition -- and then deliver
+   the messages sent to Distinguished objects during the previous step, all the messages for a given partition
+   in a single exchange, and send back the answers in another.  Thus a message sent during one step has its
+   Promise fulfilled by the start of the next.
+
+   <p>If two partitions register objects with the same name in the same step, the higher-numbered partition wins.
 **/
 
-
-public class DistinguishedRegistry
+public class DistinguishedRegistry implements Serializable
     {
-    static final long serialVersionUID = 1L;
-
-    public static final int PORT = 5000;
-        
-    public static Logger logger;
-
-    static DistinguishedRegistry instance;
-
-    static int port;
-    static int rank;
-
-    static Registry registry;
-    static HashMap<String, Remote> exportedNames = new HashMap<>();
-    static HashMap<Remote, String> exportedObjects = new HashMap<>();
-    /* ID of the migrated objects */
-    static List<String> migratedNames = new ArrayList<String>();
-
-    static void initLocalLogger(final String loggerName)
+    private static final long serialVersionUID = 1L;
+
+    DSimState state;
+
+    // The partition holding each Distinguished object, by name.  This is the same on every partition after sync().
+    HashMap<String, Integer> ranks = new HashMap<>();
+    // The Distinguished objects on this partition, by name
+    HashMap<String, Distinguished> localObjects = new HashMap<>();
+    // Names registered, or arrived, on this partition since the last sync
+    ArrayList<String> registeredNames = new ArrayList<>();
+    // Names unregistered on this partition since the last sync
+    ArrayList<String> unregisteredNames = new ArrayList<>();
+    // Messages sent from this partition since the last sync
+    ArrayList<DistinguishedRemoteMessage> outgoing = new ArrayList<>();
+
+    DistinguishedRegistry(DSimState state)
         {
-        DistinguishedRegistry.logger = Logger.getLogger(DistinguishedRegistry.class.getName());
-        DistinguishedRegistry.logger.setLevel(Level.ALL);
-        DistinguishedRegistry.logger.setUseParentHandlers(false);
-
-        final ConsoleHandler handler = new ConsoleHandler();
-        handler.setFormatter(new java.util.logging.Formatter()
-            {
-            public synchronized String format(final LogRecord rec)
-                {
-                return String.format(loggerName + " [%s][%-7s] %s%n",
-                    new SimpleDateFormat("MM-dd-YYYY HH:mm:ss.SSS").format(new Date(rec.getMillis())),
-                    rec.getLevel().getLocalizedName(), rec.getMessage());
-                }
-            });
-        DistinguishedRegistry.logger.addHandler(handler);
+        this.state = state;
         }
 
-    DistinguishedRegistry() throws NumberFormatException, Exception
+    /**
+     * Registers a Distinguished object on this partition under its distinguished name.  Returns false if an
+     * object has already been registered under that name.
+     */
+    public boolean registerObject(Distinguished obj)
         {
-        if (instance != null)
-            {
-            throw new RuntimeException(
-                "Use getInstance() method to get the single instance of the Distributed Registry.");
-            }
-        rank = MPI.COMM_WORLD.getRank();
-        initLocalLogger(String.format("MPI-Job-%d", rank));
-
-        // TODO: hard coding the port for now
-        // port = getAvailablePort();
-        port = PORT;
-        String myip = InetAddress.getLocalHost().getHostAddress();
-
-        try {
-            Enumeration<NetworkInterface> interfaces = NetworkInterface.getNetworkInterfaces();
-            while (interfaces.hasMoreElements()) {
-                NetworkInterface iface = interfaces.nextElement();
-                // filters out 127.0.0.1 and inactive interfaces
-                if (iface.isLoopback() || !iface.isUp())
-                    continue;
-
-                Enumeration<InetAddress> addresses = iface.getInetAddresses();
-                while(addresses.hasMoreElements()) {
-                    InetAddress addr = addresses.nextElement();
-                    myip = addr.getHostAddress();
-                    }
-                }
-            } catch (SocketException e) {
-            throw new RuntimeException(e);
-            }
-
-        if (rank == 0)
-            {
-            startLocalRegistry(myip, port);
-            }
-
-        final String masterData[] = MPIUtil.<String>bcast(myip + ":" + port, 0).split(":");
-
-        if (rank != 0)
-            {
-            startLocalRegistry(masterData[0], Integer.parseInt(masterData[1]));
-            }
-
-        MPI.COMM_WORLD.barrier();
+        String name = obj.distinguishedName();
+        if (localObjects.containsKey(name) || ranks.containsKey(name))
+            return false;
+        add(obj);
+        return true;
+        }
 
+    /**
+     * Unregisters a Distinguished object on this partition.  Returns false if it was not registered here.
+     */
+    public boolean unregisterObject(Distinguished obj)
+        {
+        String name = obj.distinguishedName();
+        if (localObjects.remove(name) == null)
+            return false;
+        registeredNames.remove(name);
+        unregisteredNames.add(name);
+        return true;
         }
 
-    void startLocalRegistry(String masterIP, int masterPort)
+    /** Returns the partition which holds the object with the given name as of the last sync, or -1 if there is none. */
+    public int getRank(String name)
         {
+        Integer rank = ranks.get(name);
+        return (rank == null ? -1 : rank);
+        }
 
-        try
-            {
-            registry = rank == 0 ? LocateRegistry.createRegistry(port)
-                : LocateRegistry.getRegistry(masterIP, masterPort);
-            }
-        catch (RemoteException e1)
-            {
-            logger.log(Level.SEVERE, "Error Distributed Registry lookup for MPI node on master port: " + masterPort);
-            e1.printStackTrace();
-            }
+    /** Returns the Distinguished objects on this partition. */
+    public ArrayList<Distinguished> getAllLocalObjects()
+        {
+        return new ArrayList<Distinguished>(localObjects.values());
+        }
 
-        try
-            {
-            registry.list();
-            }
-        catch (AccessException e)
-            {
-            logger.log(Level.SEVERE, "Error Distributed Registry lookup for MPI node on master port: " + masterPort);
-            e.printStackTrace();
-            }
-        catch (RemoteException e)
-            {
-            logger.log(Level.SEVERE, "Error Distributed Registry lookup for MPI node on master port: " + masterPort);
-            e.printStackTrace();
-            }
-        logger.log(Level.INFO, "Distributed Registry created/obtained on MPI node on master port: " + port);
+    // Called when a Distinguished agent migrates to this partition
+    void arrived(Distinguished obj)
+        {
+        add(obj);
         }
 
-    public static DistinguishedRegistry getInstance()
+    void add(Distinguished obj)
         {
-        try
-            {
-            return instance = instance == null ? new DistinguishedRegistry() : instance;
-            }
-        catch (Exception e)
-            {
-            logger.log(Level.SEVERE, "Error Distributed Registry started for MPI node.");
-            return null;
-            }
+        String name = obj.distinguishedName();
+        localObjects.put(name, obj);
+        registeredNames.add(name);
         }
 
-/*
-  static Integer getAvailablePort() throws IOException 
-  {
-  try (ServerSocket socket = new ServerSocket(0);) 
-  {
-  return socket.getLocalPort();
-  }
-  }
-*/
+    // Queues a message for the object with the given name, to be delivered at the next sync
+    Promise send(String name, int tag, Serializable arguments)
+        {
+        if (!ranks.containsKey(name) && !localObjects.containsKey(name))
+            throw new IllegalArgumentException("No Distinguished object has been registered with the name " + name);
+        Promise callback = new Promise();
+        outgoing.add(new DistinguishedRemoteMessage(name, tag, arguments, callback));
+        return callback;
+        }
 
     /**
-     * Register an object obj with key name on the registry
-     * 
-     * @param obj 
-     * @param simstate
-     * 
-     * @return true if successful
-     * @throws AccessException
-     * @throws RemoteException
+     * Shares the changes to the table among all partitions.  Afterwards, any object on this partition
+     * which the table places elsewhere has migrated away, and is dropped.
      */
-    public boolean registerObject(Distinguished obj, DSimState simstate) throws AccessException, RemoteException
+    void sync()
         {
-        String name = obj.distinguishedName();
-                
-        if (!exportedNames.containsKey(name))
-            {
-            try
-                {
-                DistinguishedRemoteObject remoteObj = new DistinguishedRemoteObject(obj, simstate);
-                Remote stub = UnicastRemoteObject.exportObject(remoteObj, 0);
-                registry.bind(name, stub);
-                exportedNames.put(name, remoteObj);
-                exportedObjects.put(remoteObj, name);
-                }
-            catch (Exception e)
-                {
-                e.printStackTrace();
-                return false;
-                }
-            return true;
-            }
-        return false;
+        Transport transport = state.getPartition().getTransport();
+        ArrayList<String[][]> changes = transport.allGather(new String[][] {
+                unregisteredNames.toArray(new String[0]), registeredNames.toArray(new String[0]) });
+        unregisteredNames.clear();
+        registeredNames.clear();
+
+        for (String[][] change : changes)
+            for (String name : change[0])
+                ranks.remove(name);
+        for (int i = 0; i < changes.size(); i++)
+            for (String name : changes.get(i)[1])
+                ranks.put(name, i);
+
+        int rank = transport.getRank();
+        ArrayList<String> gone = new ArrayList<String>();
+        for (String name : localObjects.keySet())
+            if (getRank(name) != rank)
+                gone.add(name);
+        for (String name : gone)
+            localObjects.remove(name);
         }
-        
+
     /**
-     * Remove the object with key name from the registry
-     * 
-     * @param name
-     * 
-     * @return true if successful
-     * @throws AccessException
-     * @throws RemoteException
-     * @throws NotBoundException
+     * Delivers the queued messages to the partitions holding their objects, answers the messages sent to
+     * this partition, and fulfills the Promises of the messages sent from it.  Call this after sync().
      */
-    public boolean unregisterObject(Distinguished obj) throws AccessException, RemoteException, NotBoundException
-        {
-        String name = obj.distinguishedName();
-        Remote remote = exportedNames.remove(name);
-        if (remote != null)
-            {
-            registry.unbind(name);
-            UnicastRemoteObject.unexportObject(remote, true);
-            exportedObjects.remove(remote);
-            return true;
-            }
-        return false;
-        }
-        
-    public List<DistinguishedRemoteObject> getAllLocalExportedObjects()
+    @SuppressWarnings("unchecked")
+    void deliverMessages()
         {
-        List<DistinguishedRemoteObject> tor = new ArrayList<DistinguishedRemoteObject>();
-                
-        for (Remote obj : exportedNames.values()) 
+        Transport transport = state.getPartition().getTransport();
+        int numProcessors = transport.getSize();
+
+        // a message whose object has since been unregistered gets null
+        ArrayList<DistinguishedRemoteMessage>[] sent = new ArrayList[numProcessors];
+        for (DistinguishedRemoteMessage message : outgoing)
             {
-            if (obj instanceof DistinguishedRemoteObject)
+            int rank = getRank(message.name);
+            if (rank == -1)
+                message.callback.fulfill(null);
+            else
                 {
-                tor.add((DistinguishedRemoteObject) obj);
+                if (sent[rank] == null)
+                    sent[rank] = new ArrayList<DistinguishedRemoteMessage>();
+                sent[rank].add(message);
                 }
             }
-        return tor;
-        }
-        
-    /**
-     * Register an already exported UnicastRemoteObject obj with key name on the
-     * registry
-     * 
-     * @param name
-     * @param obj
-     * 
-     * @return true if successful
-     * @throws AccessException
-     * @throws RemoteException
-     */
-    public boolean registerObject(String name, UnicastRemoteObject obj) throws AccessException, RemoteException
-        {
-        if (!exportedNames.containsKey(name))
+        outgoing.clear();
+
+        ArrayList<ArrayList<DistinguishedRemoteMessage>> received = transport.allToAll(sent);
+
+        ArrayList<Serializable>[] answers = new ArrayList[numProcessors];
+        for (int i = 0; i < numProcessors; i++)
             {
-            try
+            ArrayList<DistinguishedRemoteMessage> messages = received.get(i);
+            if (messages == null) continue;
+            answers[i] = new ArrayList<Serializable>(messages.size());
+            for (DistinguishedRemoteMessage message : messages)
                 {
-                Remote stub = UnicastRemoteObject.toStub(obj);
-                registry.bind(name, stub);
-                exportedNames.put(name, obj);
-                exportedObjects.put(obj, name);
-                                
-                }
-            catch (AlreadyBoundException e)
-                {
-                e.printStackTrace();
-                return false;
+                Distinguished object = localObjects.get(message.name);
+                try
+                    {
+                    answers[i].add(object == null ? null : object.remoteMessage(message.tag, message.arguments));
+                    }
+                catch (RemoteException e)
+                    {
+                    throw new RuntimeException(e);
+                    }
                 }
-            return true;
             }
-        return false;
 
-        }
+        ArrayList<ArrayList<Serializable>> replies = transport.allToAll(answers);
 
-    /**
-     * @param name
-     * 
-     * @return the object with key name from the registry.
-     * @throws AccessException
-     * @throws RemoteException
-     * @throws NotBoundException
-     */
-    public Remote getObject(String name) throws AccessException, RemoteException, NotBoundException
-        {
-        return registry.lookup(name);
-        }
-    /**
-     * This method unchecked casts the return Remote Object to type T. <br>
-     * To ensure type safety make sure that the Object bound to the give "name" is
-     * of type T.
-     * 
-     * @param <T>  Type of Object to be returned
-     * @param name
-     * 
-     * @return Remote Object bound to "name" cast to Type T
-     * 
-     * @throws AccessException
-     * @throws RemoteException
-     * @throws NotBoundException
-     */
-    @SuppressWarnings("unchecked")
-    public <T extends Remote> T getObjectT(String name) throws AccessException, RemoteException, NotBoundException
-        {
-        return (T) registry.lookup(name);
-        }
-        
-    /**
-     * @param agent
-     * @return True if the object agent is migrated
-     */
-    boolean isMigrated(Distinguished agent)
-        {
-        return migratedNames.contains(agent.distinguishedName());
-        }
-    /**
-     * Clear the list of the registered agent’s keys on the registry
-     */
-    void clearMigratedNames()
-        {
-        migratedNames.clear();
-        }
-
-    /**
-     * If Object obj isExported is True then, add its name to migrated names and
-     * return the name. Returns null if isExported is False.
-     * 
-     * @param obj
-     * @return Object name if isExported is True, null otherwise.
-     */
-    public String ifExportedThenAddMigratedName(Distinguished obj)
-        {
-        String name = obj.distinguishedName();
-        Remote remote = exportedNames.get(name);
-        if (remote != null)
-            migratedNames.add(name);
-        return name;
+        for (int i = 0; i < numProcessors; i++)
+            {
+            if (sent[i] == null) continue;
+            ArrayList<Serializable> reply = replies.get(i);
+            for (int j = 0; j < sent[i].size(); j++)
+                sent[i].get(j).callback.fulfill(reply.get(j));
+            }
         }
-
     }
@@ -3,31 +3,34 @@
   Licensed under the Academic Free License version 3.0
   See the file "LICENSE" for more information
 */
-        
+
 package sim.engine;
 
 import java.io.Serializable;
 
 /**
-   The message placed on the DSimState's queue to be processed on behalf of a Distinguished object.
-   It contains the TAG of the message, its ARGUMENTS (which many be null), the Distinguished object
-   to be processed, and the promised CALLBACK to be filled out.
+   A message to a Distinguished object, queued by the DistinguishedRegistry until it is delivered to the
+   partition holding the object.  It contains the NAME of the object, the TAG of the message, and its
+   ARGUMENTS (which many be null).  The promised CALLBACK to be filled out stays on the sending partition.
 **/
 
-public class DistinguishedRemoteMessage 
+public class DistinguishedRemoteMessage implements Serializable
     {
+    private static final long serialVersionUID = 1L;
+
+    /* Name of the Distinguished object */
+    String name;
     /* Tag used to understand which method to use to fill the RemoteMessage */
-    int tag; 
+    int tag;
     /* Optional argument that could be needed */
     Serializable arguments;
-    Distinguished object;
-    Promised callback;
-    
-    protected DistinguishedRemoteMessage(Distinguished object, int tag, Serializable arguments, Promised callback) 
+    transient Promise callback;
+
+    protected DistinguishedRemoteMessage(String name, int tag, Serializable arguments, Promise callback)
         {
+        this.name = name;
         this.tag = tag;
         this.arguments = arguments;
-        this.object = object;
         this.callback = callback;
         }
     }
@@ -0,0 +1,166 @@
+/*
+  Copyright 2022 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.engine;
+
+import java.util.ArrayList;
+import java.util.NoSuchElementException;
+
+import sim.util.Timing;
+
+/**
+ * Decides when a DSimState should rebalance its partitions, and what load each partition reports
+ * when it does.  Ordinarily DSimState rebalances every balanceInterval steps no matter what.  If you
+ * install a LoadBalancer with DSimState.setLoadBalancer(...), it instead rebalances only when doing
+ * so is predicted to pay off.
+ *
+ * <p>Every checkInterval steps, all partitions share their load, their measured step time (Timing.LB_RUNTIME),
+ * their time spent synchronizing (Timing.MPI_SYNC_OVERHEAD), and the time their last rebalance took
+ * (Timing.LB_OVERHEAD).  The load is either the measured step time or, if useMeasuredTime is false, the total
+ * weight of the agents on the schedule (see Weighted).  From these every partition computes the same decision:
+ *
+ * <ul>
+ * <li>The imbalance is the largest load divided by the mean load, minus 1.  If this does not exceed the threshold,
+ * there is no rebalance.
+ * <li>Since every step waits for the slowest partition, a perfect balance would save the slowest partition's
+ * step time times (1 - mean load / largest load) each step.  But no more than the mean time spent synchronizing,
+ * which is where the waiting shows up.  The predicted benefit is this saving times the horizon, the number of
+ * steps for which a rebalance is expected to hold.
+ * <li>The predicted cost is the time the most recent rebalance took on the slowest partition (or 0 if
+ * there has not been one yet).  If the benefit exceeds the cost, the partitions rebalance.
+ * </ul>
+ *
+ * <p>The checks are collective operations, so all partitions must use the same LoadBalancer settings.
+ */
+public class LoadBalancer implements java.io.Serializable
+    {
+    private static final long serialVersionUID = 1L;
+
+    int checkInterval = 10;
+    double threshold = 0.1;
+    double horizon = 100;
+    boolean useMeasuredTime = true;
+
+    double load;
+    double imbalance;
+    double benefit;
+    double cost;
+    long balances;
+
+    /** Returns the number of steps between checks. */
+    public int getCheckInterval() { return checkInterval; }
+    /** Sets the number of steps between checks.  The default is 10. */
+    public void setCheckInterval(int val)
+        {
+        if (val < 1) throw new IllegalArgumentException("Check interval must be at least 1.  You have: " + val);
+        checkInterval = val;
+        }
+
+    /** Returns the imbalance which must be exceeded before rebalancing is considered. */
+    public double getThreshold() { return threshold; }
+    /** Sets the imbalance which must be exceeded before rebalancing is considered.  The default is 0.1, meaning
+        that the most loaded partition must have at least 10% more load than the mean. */
+    public void setThreshold(double val) { threshold = val; }
+
+    /** Returns the number of steps for which a rebalance is expected to hold. */
+    public double getHorizon() { return horizon; }
+    /** Sets the number of steps for which a rebalance is expected to hold.  The default is 100. */
+    public void setHorizon(double val) { horizon = val; }
+
+    /** Returns whether the load is the measured step time (true) or the total weight of the scheduled agents (false). */
+    public boolean getUseMeasuredTime() { return useMeasuredTime; }
+    /** Sets whether the load is the measured step time (true) or the total weight of the scheduled agents (false).
+        The default is true.  Weights are useful when timings are noisy, as when many partitions share a machine. */
+    public void setUseMeasuredTime(boolean val) { useMeasuredTime = val; }
+
+    /** Returns the load of this partition as of the last check. */
+    public double getLoad() { return load; }
+    /** Returns the imbalance as of the last check. */
+    public double getImbalance() { return imbalance; }
+    /** Returns the predicted benefit of rebalancing, in milliseconds, as of the last check. */
+    public double getBenefit() { return benefit; }
+    /** Returns the predicted cost of rebalancing, in milliseconds, as of the last check. */
+    public double getCost() { return cost; }
+    /** Returns the number of rebalances so far. */
+    public long getBalances() { return balances; }
+
+    // Returns the moving average of the given timer, or 0 if it hasn't been used
+    static double average(String timer)
+        {
+        try
+            {
+            return Timing.get(timer).getMovingAverage();
+            }
+        catch (NoSuchElementException e)
+            {
+            return 0;
+            }
+        }
+
+    // Returns the last time of the given timer, or 0 if it hasn't been used
+    static double last(String timer)
+        {
+        try
+            {
+            return Timing.get(timer).getLast();
+            }
+        catch (NoSuchElementException e)
+            {
+            return 0;
+            }
+        }
+
+    /** Returns true if the partitions should rebalance now.  Called by DSimState every step, on all partitions
+        at once.  Afterwards getLoad() returns the load which this partition should report when rebalancing. */
+    public boolean shouldBalance(DSimState state)
+        {
+        long steps = state.schedule.getSteps();
+        if (steps == 0 || steps % checkInterval != 0)
+            return false;
+
+        double runtime = average(Timing.LB_RUNTIME);
+        load = useMeasuredTime ? runtime : ((DSchedule) state.schedule).getTotalWeight();
+        double[] mine = new double[] { load, runtime, average(Timing.MPI_SYNC_OVERHEAD), last(Timing.LB_OVERHEAD) };
+        ArrayList<double[]> all = state.getPartition().getTransport().allGather(mine);
+
+        double maxLoad = 0, totalLoad = 0, slowestRuntime = 0, maxRuntime = 0, totalSync = 0, maxCost = 0;
+        for (double[] p : all)
+            {
+            totalLoad += p[0];
+            if (p[0] > maxLoad)
+                {
+                maxLoad = p[0];
+                slowestRuntime = p[1];
+                }
+            maxRuntime = Math.max(maxRuntime, p[1]);
+            totalSync += p[2];
+            maxCost = Math.max(maxCost, p[3]);
+            }
+        int n = all.size();
+        double meanLoad = totalLoad / n;
+        if (maxLoad <= 0)
+            {
+            imbalance = benefit = 0;
+            return false;
+            }
+
+        // when balancing by weight, the most loaded partition may not be the slowest one,
+        // but the slowest one is what everyone waits for
+        if (!useMeasuredTime)
+            slowestRuntime = maxRuntime;
+
+        imbalance = maxLoad / meanLoad - 1;
+        benefit = Math.min(slowestRuntime * (1 - meanLoad / maxLoad), totalSync / n) * horizon;
+        cost = maxCost;
+
+        if (imbalance > threshold && benefit > cost)
+            {
+            balances++;
+            return true;
+            }
+        return false;
+        }
+    }
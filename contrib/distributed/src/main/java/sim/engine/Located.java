@@ -0,0 +1,22 @@
+/*
+  Copyright 2022 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.engine;
+
+import sim.util.Number2D;
+
+/**
+ * An agent which can report where it presently is in the field it lives in.  When
+ * DSimState.setOverlapHalo(true) is in effect, DSimState uses this to decide whether
+ * the agent's area of interest lies entirely in the interior of its partition, in which
+ * case the agent may be stepped before the halo exchange has completed.  Agents which are
+ * not Located are always stepped after the halo exchange has completed.
+ */
+public interface Located
+    {
+    /** Returns the agent's present location, as an Int2D or Double2D.  Return null if unknown. */
+    public Number2D getLocation();
+    }
@@ -0,0 +1,18 @@
+/*
+  Copyright 2022 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.engine;
+
+/**
+ * An agent whose cost to step differs from that of other agents.  A LoadBalancer which
+ * balances by agent weight rather than by measured time counts each scheduled agent as 1,
+ * unless it is Weighted, in which case it counts as its weight.
+ */
+public interface Weighted
+    {
+    /** Returns the relative cost of stepping this agent.  Ordinary agents cost 1. */
+    public double getWeight();
+    }
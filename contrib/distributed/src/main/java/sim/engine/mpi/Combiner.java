@@ -0,0 +1,35 @@
+/*
+  Copyright 2022 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.engine.mpi;
+
+/**
+ * Combines two records of doubles into one, for Transport.allReduce(double[], Combiner).  Every partition
+ * contributes a record, all of the same length, and the records are combined pairwise, in a tree, until
+ * only one remains, which every partition receives.  The combination must be associative, but need not be
+ * commutative: a always comes from lower-numbered partitions than b.
+ *
+ * <p>ARGMAX and ARGMIN keep whichever record has the larger (or smaller) first element, and so carry along
+ * whatever else is in that record, such as the location of the best value found so far.
+ */
+public interface Combiner
+    {
+    /** Combines a and b, which come from lower- and higher-numbered partitions respectively, and returns
+        the result.  This may be a or b itself, or either of them modified, but not some other array. */
+    public double[] combine(double[] a, double[] b);
+
+    /** Keeps the record whose first element is largest, or the one from the lowest-numbered partition if there is a tie. */
+    public static final Combiner ARGMAX = new Combiner()
+        {
+        public double[] combine(double[] a, double[] b) { return (b[0] > a[0] ? b : a); }
+        };
+
+    /** Keeps the record whose first element is smallest, or the one from the lowest-numbered partition if there is a tie. */
+    public static final Combiner ARGMIN = new Combiner()
+        {
+        public double[] combine(double[] a, double[] b) { return (b[0] < a[0] ? b : a); }
+        };
+    }
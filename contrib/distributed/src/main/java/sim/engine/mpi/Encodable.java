@@ -0,0 +1,35 @@
+/*
+  Copyright 2022 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.engine.mpi;
+
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+
+/**
+ * An object which writes and reads its own state when it migrates, rather than relying on Java serialization.
+ * Agents which migrate often (such as flockers) spend much of each step being serialized and deserialized;
+ * implementing Encodable instead lets MigrationCodec send them as a handful of raw primitives.
+ *
+ * An Encodable class must have a no-argument constructor (of any visibility).  When an Encodable object
+ * arrives at a partition, the MigrationCodec builds a new instance with that constructor, restores its ID
+ * if it is a DObject, and then calls readFrom(...).  The DObject ID is handled by the codec, so writeTo(...)
+ * and readFrom(...) need only handle the fields which you have declared yourself.  readFrom(...) must read
+ * exactly what writeTo(...) wrote, in the same order.  Fields which hold Stoppables or other scheduling
+ * information should not be written: the agent is rescheduled on arrival as usual.
+ *
+ * Encodable objects are still Serializable, and are serialized as usual when they are sent by other means
+ * (for example in checkpoints or to a remote visualizer).
+ */
+public interface Encodable extends Serializable
+    {
+    /** Writes the state of the object to buf.  buf may be too small, in which case a BufferOverflowException
+        is thrown and writeTo(...) will be called again with a larger buffer. */
+    public void writeTo(ByteBuffer buf);
+
+    /** Reads the state of the object from buf, as written by writeTo(...). */
+    public void readFrom(ByteBuffer buf);
+    }
@@ -0,0 +1,33 @@
+/*
+  Copyright 2022 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.engine.mpi;
+
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+
+/**
+ * An object which, when it lies in the halo of a neighboring partition, may be sent as a GHOST: a thin copy
+ * holding only its public state, that is, whatever agents on other partitions read of it.  For a flocker, this
+ * might be its location, heading, and whether it is dead.  Ghosts are only sent by fields in ghost mode (see
+ * DContinuous2D.setGhosts(...)), and are only used for halos: an object which migrates is still sent in full.
+ *
+ * A Ghostable class must have a no-argument constructor (of any visibility).  A partition builds a ghost with
+ * that constructor, restores its ID if it is a DObject, and calls readGhost(...); in later steps it usually reuses
+ * the same ghost, calling readGhost(...) again.  So readGhost(...) must set every field which writeGhost(...) wrote.
+ * If the object is also Located, the field does not send its location separately, but places the ghost at
+ * getLocation(): so writeGhost(...) must write whatever getLocation() relies on.  Ghosts are read-only: they are
+ * not stepped, and any changes made to them are lost at the next halo exchange.
+ */
+public interface Ghostable extends Serializable
+    {
+    /** Writes the public state of the object to buf.  buf may be too small, in which case a BufferOverflowException
+        is thrown and writeGhost(...) will be called again with a larger buffer. */
+    public void writeGhost(ByteBuffer buf);
+
+    /** Reads the public state of the object from buf, as written by writeGhost(...), into this ghost. */
+    public void readGhost(ByteBuffer buf);
+    }
@@ -0,0 +1,477 @@
+/*
+  Copyright 2022 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.engine.mpi;
+
+import java.io.Serializable;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+
+import org.nustaq.serialization.FSTConfiguration;
+
+import sim.engine.DSimState;
+import sim.util.Profiler;
+
+/**
+ * A Transport which runs each partition in its own thread within a single JVM, and exchanges data
+ * through shared memory rather than MPI.  This lets a distributed model use all the cores of a single
+ * machine without launching one JVM per partition, and lets you run and test distributed models
+ * on machines which do not have MPI installed at all.
+ *
+ * Partitions are launched with runPartitions(...), which starts one thread per partition and waits
+ * for them all to finish.  Each thread may fetch its LocalTransport with getCurrent().
+ *
+ * Objects passed through the collective operations are copied (via FST serialization) by the sender,
+ * and the copies are deserialized by the receiver, so no two partitions ever share an object, just as
+ * if they were in separate processes.  Every collective operation ends with a barrier, so a partition
+ * may reuse whatever it sent as soon as the operation returns, with one exception: the byte arrays
+ * passed to neighborExchange(byte[][]) are not copied but handed to the neighbors as they are, so, as
+ * Transport says, they must not be modified afterwards.  The buffers of startNeighborExchange(...) may
+ * be reused once its finish() returns.
+ *
+ * If any partition throws an exception, all the other partitions are released from whatever
+ * collective operation they are blocked in (or next enter) with a RuntimeException, so the run
+ * fails rather than deadlocks.
+ */
+public class LocalTransport extends Transport
+    {
+    static FSTConfiguration conf = FSTConfiguration.createDefaultConfiguration();
+
+    static ThreadLocal<LocalTransport> current = new ThreadLocal<LocalTransport>();
+
+    // The state shared among all the partitions of a single run
+    static class World
+        {
+        int size;
+        Object[] slots;                 // used by bcast, gather, allGather, and scatter
+        byte[][][] outboxes;            // outboxes[pid][i] is what pid sends to its i'th neighbor
+        ArrayList<BufferOutbox>[] bufferOutboxes;  // bufferOutboxes[pid].get(k) is what pid sends to its neighbors in its k'th pending exchange
+        int[][] neighbors;              // neighbors[pid] are pid's neighbors
+        DSimState[] states;             // the model of each partition
+
+        Object[] lock = new Object[0];
+        int count;
+        int generation;
+        boolean failed;
+
+        @SuppressWarnings("unchecked")
+        World(int size)
+            {
+            this.size = size;
+            slots = new Object[size];
+            outboxes = new byte[size][][];
+            bufferOutboxes = new ArrayList[size];
+            for (int i = 0; i < size; i++)
+                bufferOutboxes[i] = new ArrayList<BufferOutbox>();
+            neighbors = new int[size][];
+            states = new DSimState[size];
+            }
+
+        void await()
+            {
+            synchronized(lock)
+                {
+                if (failed) throw new RuntimeException("Another partition has failed.");
+                int gen = generation;
+                if (++count == size)
+                    {
+                    count = 0;
+                    generation++;
+                    lock.notifyAll();
+                    }
+                else
+                    {
+                    while (gen == generation && !failed)
+                        {
+                        try { lock.wait(); }
+                        catch (InterruptedException e) { fail(); }
+                        }
+                    }
+                if (failed) throw new RuntimeException("Another partition has failed.");
+                }
+            }
+
+        void fail()
+            {
+            synchronized(lock)
+                {
+                failed = true;
+                lock.notifyAll();
+                }
+            }
+        }
+
+    // What a partition sends to its neighbors in neighborExchange(Buffer, ...)
+    static class BufferOutbox
+        {
+        Buffer buf;
+        int[] counts;
+        int[] displs;
+        }
+
+    World world;
+    int rank;
+    int unfinished;         // the number of my pending exchanges which have not yet finished
+
+    LocalTransport(World world, int rank)
+        {
+        this.world = world;
+        this.rank = rank;
+        }
+
+    /** Returns the LocalTransport of the partition running in the current thread, or null if
+        the current thread was not started by runPartitions(...). */
+    public static LocalTransport getCurrent()
+        {
+        return current.get();
+        }
+
+    /** Runs numPartitions partitions, each in its own thread, and waits for them to finish.  Each thread
+        calls body.run(), during which getCurrent() returns that thread's LocalTransport.  If any partition
+        throws an exception, it is rethrown here wrapped in a RuntimeException. */
+    public static void runPartitions(int numPartitions, final Runnable body)
+        {
+        if (numPartitions < 1)
+            throw new IllegalArgumentException("Number of partitions must be at least 1.  You have: " + numPartitions);
+        final World world = new World(numPartitions);
+        final Throwable[] error = new Throwable[1];
+        Thread[] threads = new Thread[numPartitions];
+        for (int i = 0; i < numPartitions; i++)
+            {
+            final LocalTransport transport = new LocalTransport(world, i);
+            threads[i] = new Thread(new Runnable()
+                {
+                public void run()
+                    {
+                    current.set(transport);
+                    try
+                        {
+                        body.run();
+                        }
+                    catch (Throwable e)
+                        {
+                        synchronized(error) { if (error[0] == null) error[0] = e; }
+                        world.fail();
+                        }
+                    finally
+                        {
+                        current.remove();
+                        }
+                    }
+                });
+            threads[i].setName("MASON Partition " + i);
+            threads[i].start();
+            }
+
+        for (int i = 0; i < numPartitions; i++)
+            {
+            try
+                {
+                threads[i].join();
+                }
+            catch (InterruptedException e)
+                {
+                world.fail();
+                throw new RuntimeException("Interrupted while waiting for partitions to finish", e);
+                }
+            }
+
+        if (error[0] != null)
+            throw new RuntimeException("Partition failed", error[0]);
+        }
+
+    /** Records the model run by this partition, so that other partitions in the JVM may reach its fields directly. */
+    public void setState(DSimState state)
+        {
+        world.states[rank] = state;
+        }
+
+    /** Returns the model run by the given partition, or null if it has not been set. */
+    public DSimState getState(int pid)
+        {
+        return world.states[pid];
+        }
+
+    public int getRank() { return rank; }
+
+    public int getSize() { return world.size; }
+
+    public boolean isMPI() { return false; }
+
+    public void setNeighbors(int[] neighbors)
+        {
+        world.neighbors[rank] = (int[]) (neighbors.clone());
+        barrier();
+        }
+
+    public void barrier()
+        {
+        long start = Profiler.begin();
+        world.await();
+        Profiler.end(Profiler.BARRIER, start);
+        }
+
+    static byte[] serialize(Serializable obj)
+        {
+        return conf.asByteArray(obj);
+        }
+
+    @SuppressWarnings("unchecked")
+    static <T extends Serializable> T deserialize(Object data)
+        {
+        return (T) conf.asObject((byte[]) data);
+        }
+
+    public <T extends Serializable> T bcast(T obj, int root)
+        {
+        if (rank == root)
+            world.slots[root] = serialize(obj);
+        barrier();
+        T result = LocalTransport.<T>deserialize(world.slots[root]);
+        barrier();
+        return result;
+        }
+
+    public <T extends Serializable> ArrayList<T> gather(T obj, int dst)
+        {
+        if (rank != dst)
+            world.slots[rank] = serialize(obj);
+        barrier();
+        ArrayList<T> result = new ArrayList<>();
+        if (rank == dst)
+            for (int i = 0; i < world.size; i++)
+                result.add(i == rank ? obj : LocalTransport.<T>deserialize(world.slots[i]));
+        barrier();
+        return result;
+        }
+
+    public <T extends Serializable> ArrayList<T> allGather(T obj)
+        {
+        world.slots[rank] = serialize(obj);
+        barrier();
+        ArrayList<T> result = new ArrayList<>();
+        for (int i = 0; i < world.size; i++)
+            result.add(i == rank ? obj : LocalTransport.<T>deserialize(world.slots[i]));
+        barrier();
+        return result;
+        }
+
+    public <T extends Serializable> T scatter(T[] objs, int root)
+        {
+        if (rank == root)
+            {
+            if (objs.length != world.size)
+                throw new IllegalArgumentException("Must scatter exactly one object to each of the " + world.size + " partitions.  You have: " + objs.length);
+            for (int i = 0; i < world.size; i++)
+                world.slots[i] = serialize(objs[i]);
+            }
+        barrier();
+        T result = LocalTransport.<T>deserialize(world.slots[rank]);
+        barrier();
+        return result;
+        }
+
+    public double[] allReduce(double[] values, int op)
+        {
+        world.slots[rank] = values;
+        barrier();
+        // every partition reduces in PID order, so that floating-point sums come out the same on all of them
+        double[] result = (double[]) (((double[]) world.slots[0]).clone());
+        for (int i = 1; i < world.size; i++)
+            {
+            double[] other = (double[]) world.slots[i];
+            if (other.length != result.length)
+                throw new IllegalArgumentException("All partitions must reduce arrays of the same length.  Partition 0 has: " + result.length + " and partition " + i + " has: " + other.length);
+            for (int j = 0; j < result.length; j++)
+                {
+                if (op == SUM) result[j] += other[j];
+                else if (op == MIN) result[j] = Math.min(result[j], other[j]);
+                else if (op == MAX) result[j] = Math.max(result[j], other[j]);
+                else throw new IllegalArgumentException("Unknown reduction operation: " + op);
+                }
+            }
+        barrier();
+        return result;
+        }
+
+    public long[] allReduce(long[] values, int op)
+        {
+        world.slots[rank] = values;
+        barrier();
+        // every partition reduces in PID order, so that floating-point sums come out the same on all of them
+        long[] result = (long[]) (((long[]) world.slots[0]).clone());
+        for (int i = 1; i < world.size; i++)
+            {
+            long[] other = (long[]) world.slots[i];
+            if (other.length != result.length)
+                throw new IllegalArgumentException("All partitions must reduce arrays of the same length.  Partition 0 has: " + result.length + " and partition " + i + " has: " + other.length);
+            for (int j = 0; j < result.length; j++)
+                {
+                if (op == SUM) result[j] += other[j];
+                else if (op == MIN) result[j] = Math.min(result[j], other[j]);
+                else if (op == MAX) result[j] = Math.max(result[j], other[j]);
+                else throw new IllegalArgumentException("Unknown reduction operation: " + op);
+                }
+            }
+        barrier();
+        return result;
+        }
+
+    public double[] allReduce(double[] record, Combiner combiner)
+        {
+        world.slots[rank] = record;
+        barrier();
+        // every partition combines the records in PID order, on copies so that the combiner may modify them
+        double[] result = (double[]) (((double[]) world.slots[0]).clone());
+        for (int i = 1; i < world.size; i++)
+            {
+            double[] other = (double[]) (((double[]) world.slots[i]).clone());
+            if (other.length != result.length)
+                throw new IllegalArgumentException("All partitions must reduce records of the same length.  You have: " + result.length + " and partition " + i + " has: " + other.length);
+            result = combiner.combine(result, other);
+            }
+        barrier();
+        return result;
+        }
+
+    public <T extends Serializable> ArrayList<T> allToAll(T[] objs)
+        {
+        if (objs.length != world.size)
+            throw new IllegalArgumentException("Must send exactly one object to each of the " + world.size + " partitions.  You have: " + objs.length);
+        byte[][] data = new byte[objs.length][];
+        for (int i = 0; i < objs.length; i++)
+            data[i] = serialize(objs[i]);
+        world.slots[rank] = data;
+        barrier();
+        ArrayList<T> result = new ArrayList<>();
+        for (int i = 0; i < world.size; i++)
+            result.add(LocalTransport.<T>deserialize(((byte[][]) world.slots[i])[rank]));
+        barrier();
+        return result;
+        }
+
+    public <T extends Serializable> ArrayList<T> neighborAllToAll(T[] objs)
+        {
+        byte[][] data = new byte[objs.length][];
+        for (int i = 0; i < objs.length; i++)
+            data[i] = serialize(objs[i]);
+        byte[][] recv = neighborExchange(data);
+        ArrayList<T> result = new ArrayList<>();
+        for (int i = 0; i < recv.length; i++)
+            result.add(LocalTransport.<T>deserialize(recv[i]));
+        return result;
+        }
+
+    // Returns the position at which this partition appears in the neighbor list of its i'th neighbor,
+    // matching up the occurrences if the neighbor appears more than once.
+    int sourceSlot(int i)
+        {
+        int[] myNeighbors = world.neighbors[rank];
+        int src = myNeighbors[i];
+
+        // If src appears k times in my list before position i, this is my k'th appearance in its list.
+        int k = 0;
+        for (int j = 0; j < i; j++)
+            if (myNeighbors[j] == src) k++;
+        int[] theirNeighbors = world.neighbors[src];
+        for (int j = 0; j < theirNeighbors.length; j++)
+            if (theirNeighbors[j] == rank && k-- == 0)
+                return j;
+        throw new RuntimeException("Partition " + src + " does not have partition " + rank + " as a neighbor");
+        }
+
+    public byte[][] neighborExchange(byte[][] data)
+        {
+        int[] myNeighbors = world.neighbors[rank];
+        if (data.length != myNeighbors.length)
+            throw new IllegalArgumentException("Must send exactly one message to each of the " + myNeighbors.length + " neighbors.  You have: " + data.length);
+        world.outboxes[rank] = data;
+        barrier();
+
+        // My i'th neighbor sent me the message in its outbox at the position where I appear in its neighbor list.
+        byte[][] recv = new byte[myNeighbors.length][];
+        for (int i = 0; i < myNeighbors.length; i++)
+            recv[i] = world.outboxes[myNeighbors[i]][sourceSlot(i)];
+        barrier();
+        return recv;
+        }
+
+    public void neighborExchange(Buffer send, int[] sendCounts, int[] sendDispls, Buffer recv, int[] recvCounts, int[] recvDispls)
+        {
+        startNeighborExchange(send, sendCounts, sendDispls, recv, recvCounts, recvDispls).finish();
+        }
+
+    public Pending startNeighborExchange(Buffer send, int[] sendCounts, int[] sendDispls, final Buffer recv, final int[] recvCounts, final int[] recvDispls)
+        {
+        final int[] myNeighbors = world.neighbors[rank];
+        if (sendCounts.length != myNeighbors.length || recvCounts.length != myNeighbors.length)
+            throw new IllegalArgumentException("Must exchange exactly one block with each of the " + myNeighbors.length + " neighbors.  You have: " + sendCounts.length);
+        BufferOutbox outbox = new BufferOutbox();
+        outbox.buf = send;
+        outbox.counts = sendCounts;
+        outbox.displs = sendDispls;
+        final int k = world.bufferOutboxes[rank].size();
+        world.bufferOutboxes[rank].add(outbox);
+        unfinished++;
+        barrier();
+
+        // Since every partition posts its send buffer before anyone proceeds, the copying is left to finish()
+        return new Pending()
+            {
+            public void finish()
+                {
+                copyFromNeighbors(k, recv, recvCounts, recvDispls);
+                barrier();
+                // Once everyone has passed the barrier, nobody is reading my outboxes any more
+                if (--unfinished == 0)
+                    world.bufferOutboxes[rank].clear();
+                }
+            };
+        }
+
+    // Copies what my neighbors sent me in their k'th pending exchange straight out of their send buffers.
+    // We read through duplicates so that the partitions don't disturb one another's buffer positions.
+    void copyFromNeighbors(int k, Buffer recv, int[] recvCounts, int[] recvDispls)
+        {
+        int[] myNeighbors = world.neighbors[rank];
+        for (int i = 0; i < myNeighbors.length; i++)
+            {
+            BufferOutbox theirs = world.bufferOutboxes[myNeighbors[i]].get(k);
+            int j = sourceSlot(i);
+            int count = theirs.counts[j];
+            if (count != recvCounts[i])
+                throw new RuntimeException("Partition " + myNeighbors[i] + " sent " + count + " values but partition " + rank + " expected " + recvCounts[i]);
+            int from = theirs.displs[j];
+            if (recv instanceof DoubleBuffer)
+                {
+                DoubleBuffer src = ((DoubleBuffer) theirs.buf).duplicate();
+                ((Buffer) src).limit(from + count).position(from);        // cast keeps this Java 8 compatible
+                DoubleBuffer dst = ((DoubleBuffer) recv).duplicate();
+                ((Buffer) dst).position(recvDispls[i]);
+                dst.put(src);
+                }
+            else if (recv instanceof IntBuffer)
+                {
+                IntBuffer src = ((IntBuffer) theirs.buf).duplicate();
+                ((Buffer) src).limit(from + count).position(from);        // cast keeps this Java 8 compatible
+                IntBuffer dst = ((IntBuffer) recv).duplicate();
+                ((Buffer) dst).position(recvDispls[i]);
+                dst.put(src);
+                }
+            else
+                {
+                ByteBuffer src = ((ByteBuffer) theirs.buf).duplicate();
+                ((Buffer) src).limit(from + count).position(from);        // cast keeps this Java 8 compatible
+                ByteBuffer dst = ((ByteBuffer) recv).duplicate();
+                ((Buffer) dst).position(recvDispls[i]);
+                dst.put(src);
+                }
+            }
+        }
+    }
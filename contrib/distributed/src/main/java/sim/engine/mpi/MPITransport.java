@@ -0,0 +1,351 @@
+/*
+  Copyright 2022 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.engine.mpi;
+
+import java.io.Serializable;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+
+import mpi.Comm;
+import mpi.Datatype;
+import mpi.MPI;
+import mpi.MPIException;
+import mpi.Op;
+import mpi.Request;
+import mpi.UserFunction;
+import sim.util.MPIUtil;
+import sim.util.Profiler;
+
+/**
+ * A Transport which runs each partition in its own process and communicates via MPI.  Collective
+ * operations among all partitions are performed on MPI.COMM_WORLD, and neighbor exchanges on a
+ * distributed graph communicator which is rebuilt whenever the neighbors change.
+ */
+public class MPITransport extends Transport
+    {
+    int rank;
+    int size;
+    Comm comm;          // the neighborhood graph communicator
+
+    public MPITransport()
+        {
+        try
+            {
+            rank = MPI.COMM_WORLD.getRank();
+            size = MPI.COMM_WORLD.getSize();
+            }
+        catch (MPIException e)
+            {
+            throw new RuntimeException(e);
+            }
+        }
+
+    public int getRank() { return rank; }
+
+    public int getSize() { return size; }
+
+    public boolean isMPI() { return true; }
+
+    /** Returns the neighborhood graph communicator. */
+    public Comm getCommunicator() { return comm; }
+
+    public void setNeighbors(int[] neighbors)
+        {
+        try
+            {
+            if (comm != null)
+                comm.free();
+            // Create a unweighted & undirected graph for neighbor communication
+            comm = MPI.COMM_WORLD.createDistGraphAdjacent(neighbors, neighbors, new mpi.Info(), false);
+            }
+        catch (MPIException e)
+            {
+            throw new RuntimeException(e);
+            }
+        }
+
+    public void barrier()
+        {
+        long start = Profiler.begin();
+        try
+            {
+            MPI.COMM_WORLD.barrier();
+            Profiler.end(Profiler.BARRIER, start);
+            }
+        catch (MPIException e)
+            {
+            throw new RuntimeException(e);
+            }
+        }
+
+    public <T extends Serializable> T bcast(T obj, int root)
+        {
+        try
+            {
+            return MPIUtil.<T>bcast(comm, obj, root);
+            }
+        catch (MPIException e)
+            {
+            throw new RuntimeException(e);
+            }
+        }
+
+    public <T extends Serializable> ArrayList<T> gather(T obj, int dst)
+        {
+        try
+            {
+            return MPIUtil.<T>gather(comm, obj, dst);
+            }
+        catch (MPIException e)
+            {
+            throw new RuntimeException(e);
+            }
+        }
+
+    public <T extends Serializable> ArrayList<T> allGather(T obj)
+        {
+        try
+            {
+            return MPIUtil.<T>allGather(MPI.COMM_WORLD, obj);
+            }
+        catch (MPIException e)
+            {
+            throw new RuntimeException(e);
+            }
+        }
+
+    public <T extends Serializable> T scatter(T[] objs, int root)
+        {
+        try
+            {
+            return MPIUtil.<T>scatter(comm, objs, root);
+            }
+        catch (MPIException e)
+            {
+            throw new RuntimeException(e);
+            }
+        }
+
+    // Returns the MPI operation for the given Transport operation
+    static Op opFor(int op)
+        {
+        if (op == SUM) return MPI.SUM;
+        else if (op == MIN) return MPI.MIN;
+        else if (op == MAX) return MPI.MAX;
+        else throw new IllegalArgumentException("Unknown reduction operation: " + op);
+        }
+
+    public double[] allReduce(double[] values, int op)
+        {
+        try
+            {
+            double[] result = (double[]) (values.clone());
+            MPI.COMM_WORLD.allReduce(result, result.length, MPI.DOUBLE, opFor(op));
+            return result;
+            }
+        catch (MPIException e)
+            {
+            throw new RuntimeException(e);
+            }
+        }
+
+    public long[] allReduce(long[] values, int op)
+        {
+        try
+            {
+            long[] result = (long[]) (values.clone());
+            MPI.COMM_WORLD.allReduce(result, result.length, MPI.LONG, opFor(op));
+            return result;
+            }
+        catch (MPIException e)
+            {
+            throw new RuntimeException(e);
+            }
+        }
+
+    public double[] allReduce(double[] record, final Combiner combiner)
+        {
+        final int len = record.length;
+        Datatype type = null;
+        Op op = null;
+        try
+            {
+            // each record is a single element of a contiguous type, so that MPI combines whole records
+            type = Datatype.createContiguous(len, MPI.DOUBLE);
+            type.commit();
+            op = new Op(new UserFunction()
+                {
+                public void call(ByteBuffer in, ByteBuffer inOut, int count, Datatype datatype)
+                    {
+                    DoubleBuffer a = in.order(ByteOrder.nativeOrder()).asDoubleBuffer();
+                    DoubleBuffer b = inOut.order(ByteOrder.nativeOrder()).asDoubleBuffer();
+                    double[] x = new double[len];
+                    double[] y = new double[len];
+                    for (int i = 0; i < count; i++)
+                        {
+                        a.get(x);
+                        ((Buffer) b).mark();
+                        b.get(y);
+                        ((Buffer) b).reset();
+                        b.put(combiner.combine(x, y));  // in comes from lower-numbered partitions
+                        }
+                    }
+                }, false);
+
+            DoubleBuffer buf = ByteBuffer.allocateDirect(len * 8).order(ByteOrder.nativeOrder()).asDoubleBuffer();
+            buf.put(record);
+            MPI.COMM_WORLD.allReduce(buf, 1, type, op);
+            double[] result = new double[len];
+            ((Buffer) buf).clear();
+            buf.get(result);
+            return result;
+            }
+        catch (MPIException e)
+            {
+            throw new RuntimeException(e);
+            }
+        finally
+            {
+            try
+                {
+                if (op != null) op.free();
+                if (type != null) type.free();
+                }
+            catch (MPIException e)
+                {
+                throw new RuntimeException(e);
+                }
+            }
+        }
+
+    public <T extends Serializable> ArrayList<T> allToAll(T[] objs)
+        {
+        try
+            {
+            return MPIUtil.<T>allToAll(MPI.COMM_WORLD, objs);
+            }
+        catch (MPIException e)
+            {
+            throw new RuntimeException(e);
+            }
+        }
+
+    public <T extends Serializable> ArrayList<T> neighborAllToAll(T[] objs)
+        {
+        try
+            {
+            return MPIUtil.<T>neighborAllToAll(comm, objs);
+            }
+        catch (MPIException e)
+            {
+            throw new RuntimeException(e);
+            }
+        }
+
+    public byte[][] neighborExchange(byte[][] data)
+        {
+        int numNeighbors = data.length;
+        int[] srcCount = new int[numNeighbors];
+        int[] srcDispl = new int[numNeighbors];
+        int[] dstCount = new int[numNeighbors];
+        int[] dstDispl = new int[numNeighbors];
+
+        int total = 0;
+        for (int i = 0; i < numNeighbors; i++)
+            {
+            srcCount[i] = data[i].length;
+            srcDispl[i] = total;
+            total += srcCount[i];
+            }
+        ByteBuffer sendbuf = ByteBuffer.allocateDirect(total);
+        for (int i = 0; i < numNeighbors; i++)
+            sendbuf.put(data[i]);
+        ((Buffer) sendbuf).flip();
+
+        try
+            {
+            // First exchange the counts so that we can set up the receive buffer
+            comm.neighborAllToAll(srcCount, 1, MPI.INT, dstCount, 1, MPI.INT);
+
+            total = 0;
+            for (int i = 0; i < numNeighbors; i++)
+                {
+                dstDispl[i] = total;
+                total += dstCount[i];
+                }
+            ByteBuffer recvbuf = ByteBuffer.allocateDirect(total);
+
+            // exchange the actual bytes
+            comm.neighborAllToAllv(sendbuf, srcCount, srcDispl, MPI.BYTE, recvbuf, dstCount, dstDispl, MPI.BYTE);
+
+            byte[][] recv = new byte[numNeighbors][];
+            for (int i = 0; i < numNeighbors; i++)
+                {
+                recv[i] = new byte[dstCount[i]];
+                ((Buffer) recvbuf).position(dstDispl[i]);
+                recvbuf.get(recv[i]);
+                }
+            return recv;
+            }
+        catch (MPIException e)
+            {
+            throw new RuntimeException(e);
+            }
+        }
+    
+    // Returns the MPI datatype of the values in the given buffer
+    static Datatype datatypeOf(Buffer buf)
+        {
+        if (buf instanceof DoubleBuffer) return MPI.DOUBLE;
+        else if (buf instanceof IntBuffer) return MPI.INT;
+        else return MPI.BYTE;
+        }
+
+    public void neighborExchange(Buffer send, int[] sendCounts, int[] sendDispls, Buffer recv, int[] recvCounts, int[] recvDispls)
+        {
+        try
+            {
+            Datatype type = datatypeOf(send);
+            comm.neighborAllToAllv(send, sendCounts, sendDispls, type, recv, recvCounts, recvDispls, type);
+            }
+        catch (MPIException e)
+            {
+            throw new RuntimeException(e);
+            }
+        }
+
+    public Pending startNeighborExchange(Buffer send, int[] sendCounts, int[] sendDispls, Buffer recv, int[] recvCounts, int[] recvDispls)
+        {
+        try
+            {
+            Datatype type = datatypeOf(send);
+            final Request request = comm.iNeighborAllToAllv(send, sendCounts, sendDispls, type, recv, recvCounts, recvDispls, type);
+            return new Pending()
+                {
+                public void finish()
+                    {
+                    try
+                        {
+                        request.waitFor();
+                        }
+                    catch (MPIException e)
+                        {
+                        throw new RuntimeException(e);
+                        }
+                    }
+                };
+            }
+        catch (MPIException e)
+            {
+            throw new RuntimeException(e);
+            }
+        }
+    }
@@ -0,0 +1,413 @@
+/*
+  Copyright 2022 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.engine.mpi;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.lang.reflect.Constructor;
+import java.nio.Buffer;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import sim.engine.DObject;
+import sim.util.Double2D;
+import sim.util.Int2D;
+import sim.util.Number2D;
+
+/**
+ * Encodes and decodes the PayloadWrappers which a Transporter sends to a neighbor in a single step.
+ *
+ * Each message is laid out as follows:
+ *
+ * <ul>
+ * <li>An int, the length of the records which follow.
+ * <li>The records, one per PayloadWrapper, in order.  A record begins with a byte giving its kind.  ENCODED records
+ * hold the PayloadWrapper's fields as raw primitives, then the payload's class, then its DObject ID (if any), then
+ * whatever the payload wrote in Encodable.writeTo(...).  A class is written by name the first time it appears in
+ * the message, and thereafter only by its index in the message's class table.  SERIALIZED records hold nothing
+ * more: their PayloadWrapper is the next object in the fallback section.
+ * <li>The fallback section: a single Java serialization stream holding all the PayloadWrappers whose payloads are not
+ * Encodable, or which could not otherwise be ENCODED.  Keeping them in one stream preserves any objects they share,
+ * just as before.  If every record was ENCODED, this section is empty.
+ * </ul>
+ *
+ * Messages written by encodeObjects(...) are laid out the same way, except that their records hold only the objects.
+ * Messages written by encodeGhosts(...) may also hold GHOSTS records, each of which holds a run of Ghostable objects
+ * of the same class: the class, the number of objects, and then each object's DObject ID (if any) followed by whatever
+ * it wrote in Ghostable.writeGhost(...).
+ *
+ * A MigrationCodec is not threadsafe: each Transporter (and each ContinuousStorage) has its own.
+ */
+public class MigrationCodec
+    {
+    static final byte ENCODED = 0;
+    static final byte SERIALIZED = 1;
+    static final byte GHOSTS = 2;
+
+    static final byte NO_LOC = 0;
+    static final byte INT_LOC = 1;
+    static final byte DOUBLE_LOC = 2;
+
+    // writing
+    HashMap<Class<?>, Integer> classIDs = new HashMap<>();
+    ByteArrayOutputStream fallbackBytes = new ByteArrayOutputStream();
+    ObjectOutputStream fallbackOut;
+
+    // reading
+    ArrayList<Constructor<?>> classTable = new ArrayList<>();
+    HashMap<String, Constructor<?>> constructors = new HashMap<>();
+
+    /** Appends a message holding the given wrappers to buf at its present position, and returns the buffer, which
+        is a new, larger direct buffer if buf was too small.  On return the buffer's position is just past the message. */
+    public ByteBuffer encode(List<PayloadWrapper> wrappers, ByteBuffer buf) throws IOException
+        {
+        return encode(wrappers, true, false, buf);
+        }
+
+    /** Decodes the message of the given length at the given start position in buf, adding its wrappers to the given list. */
+    public void decode(ByteBuffer buf, int start, int length, List<PayloadWrapper> wrappers) throws IOException, ClassNotFoundException
+        {
+        decode(buf, start, length, true, wrappers, null);
+        }
+
+    /** Appends a message holding the given objects to buf, just like encode(...), but with no PayloadWrappers:
+        each record holds only the object.  Used by ContinuousStorage to send its halo regions. */
+    public ByteBuffer encodeObjects(List<? extends Serializable> objs, ByteBuffer buf) throws IOException
+        {
+        return encode(objs, false, false, buf);
+        }
+
+    /** Decodes a message written by encodeObjects(...), adding its objects to the given list. */
+    public void decodeObjects(ByteBuffer buf, int start, int length, List<? super Serializable> objs) throws IOException, ClassNotFoundException
+        {
+        decode(buf, start, length, false, objs, null);
+        }
+
+    /** Appends a message holding the given objects to buf, just like encodeObjects(...), except that Ghostable objects
+        are sent as ghosts.  Used by ContinuousStorage to send its halo regions in ghost mode. */
+    public ByteBuffer encodeGhosts(List<? extends Serializable> objs, ByteBuffer buf) throws IOException
+        {
+        return encode(objs, false, true, buf);
+        }
+
+    /** Decodes a message written by encodeGhosts(...), adding its objects to the given list.  A ghost whose ID
+        is in PREVIOUS reuses the object there (if it is of the same class), which is removed from PREVIOUS;
+        otherwise a new ghost is built. */
+    public void decodeGhosts(ByteBuffer buf, int start, int length, Map<Long, Object> previous, List<? super Serializable> objs)
+        throws IOException, ClassNotFoundException
+        {
+        decode(buf, start, length, false, objs, previous);
+        }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    ByteBuffer encode(List<?> items, boolean wrapped, boolean ghosts, ByteBuffer buf) throws IOException
+        {
+        classIDs.clear();
+        fallbackBytes.reset();
+        fallbackOut = null;
+
+        buf = ensureRemaining(buf, 4);
+        int start = buf.position();
+        buf.putInt(0);          // length of the records, filled in below
+
+        for (int i = 0; i < items.size(); )
+            {
+            Object item = items.get(i);
+            boolean ghost = (ghosts && item instanceof Ghostable);
+            boolean encodable = (wrapped ? isEncodable((PayloadWrapper) item) : item instanceof Encodable);
+            // ghosts are written in runs of the same class
+            int end = i + 1;
+            if (ghost)
+                while (end < items.size() && items.get(end) != null && items.get(end).getClass() == item.getClass())
+                    end++;
+            int recordStart = buf.position();
+            int numClasses = classIDs.size();
+            while (true)
+                {
+                try
+                    {
+                    if (ghost)
+                        writeGhosts(items, i, end, buf);
+                    else if (!encodable)
+                        buf.put(SERIALIZED);
+                    else if (wrapped)
+                        writeEncoded((PayloadWrapper) item, buf);
+                    else
+                        {
+                        buf.put(ENCODED);
+                        writePayload((Encodable) item, buf);
+                        }
+                    break;
+                    }
+                catch (BufferOverflowException e)
+                    {
+                    // forget the partial record, and any classes it added to the table, and try again
+                    ((Buffer) buf).position(recordStart);
+                    if (classIDs.size() > numClasses)
+                        classIDs.values().removeIf(id -> id >= numClasses);
+                    buf = grow(buf, buf.capacity());
+                    }
+                }
+            if (!ghost && !encodable)
+                {
+                if (fallbackOut == null)
+                    fallbackOut = new ObjectOutputStream(fallbackBytes);
+                fallbackOut.writeObject(item);
+                }
+            i = end;
+            }
+        buf.putInt(start, buf.position() - start - 4);
+
+        if (fallbackOut != null)
+            {
+            fallbackOut.flush();
+            buf = ensureRemaining(buf, fallbackBytes.size());
+            buf.put(fallbackBytes.toByteArray());
+            }
+        return buf;
+        }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    void decode(ByteBuffer buf, int start, int length, boolean wrapped, List items, Map<Long, Object> previous) throws IOException, ClassNotFoundException
+        {
+        if (length == 0)
+            return;         // the neighbor had nothing to send
+
+        classTable.clear();
+        ObjectInputStream fallbackIn = null;
+
+        ((Buffer) buf).position(start);
+        int recordsEnd = start + 4 + buf.getInt();
+        while (buf.position() < recordsEnd)
+            {
+            byte kind = buf.get();
+            if (kind == ENCODED)
+                items.add(wrapped ? readEncoded(buf) : readPayload(buf));
+            else if (kind == SERIALIZED)
+                {
+                if (fallbackIn == null)
+                    {
+                    int pos = buf.position();
+                    byte[] fallback = new byte[start + length - recordsEnd];
+                    ((Buffer) buf).position(recordsEnd);
+                    buf.get(fallback);
+                    ((Buffer) buf).position(pos);
+                    fallbackIn = new ObjectInputStream(new ByteArrayInputStream(fallback));
+                    }
+                items.add(fallbackIn.readObject());
+                }
+            else if (kind == GHOSTS)
+                {
+                Constructor<?> cons = readClass(buf);
+                int n = buf.getInt();
+                for (int i = 0; i < n; i++)
+                    items.add(readGhost(buf, cons, previous));
+                }
+            else throw new RuntimeException("Unknown migration record kind " + kind + ".  The message is corrupt.");
+            }
+        }
+
+    boolean isEncodable(PayloadWrapper wrapper)
+        {
+        return wrapper.payload instanceof Encodable && wrapper.getExportedName() == null &&
+            (wrapper.loc == null || wrapper.loc instanceof Int2D || wrapper.loc instanceof Double2D);
+        }
+
+    void writeEncoded(PayloadWrapper wrapper, ByteBuffer buf)
+        {
+        buf.put(ENCODED);
+        buf.putInt(wrapper.destination);
+        buf.putInt(wrapper.fieldIndex);
+        buf.putInt(wrapper.ordering);
+        buf.putDouble(wrapper.time);
+        buf.putDouble(wrapper.interval);
+
+        Number2D loc = wrapper.loc;
+        if (loc == null)
+            buf.put(NO_LOC);
+        else if (loc instanceof Int2D)
+            {
+            buf.put(INT_LOC);
+            buf.putInt(((Int2D) loc).x);
+            buf.putInt(((Int2D) loc).y);
+            }
+        else
+            {
+            buf.put(DOUBLE_LOC);
+            buf.putDouble(((Double2D) loc).x);
+            buf.putDouble(((Double2D) loc).y);
+            }
+
+        writePayload((Encodable) wrapper.payload, buf);
+        }
+
+    // Writes the payload's class, its DObject ID (if any), and then whatever it writes itself
+    void writePayload(Encodable payload, ByteBuffer buf)
+        {
+        writeClass(payload.getClass(), buf);
+        if (payload instanceof DObject)
+            ((DObject) payload).writeID(buf);
+        payload.writeTo(buf);
+        }
+
+    // Writes a run of Ghostable objects of the same class: the class, their number, and then each one's DObject ID (if any)
+    // and whatever it writes itself
+    void writeGhosts(List<?> items, int start, int end, ByteBuffer buf)
+        {
+        buf.put(GHOSTS);
+        writeClass(items.get(start).getClass(), buf);
+        buf.putInt(end - start);
+        for (int i = start; i < end; i++)
+            {
+            Ghostable ghost = (Ghostable) items.get(i);
+            if (ghost instanceof DObject)
+                ((DObject) ghost).writeID(buf);
+            ghost.writeGhost(buf);
+            }
+        }
+
+    // Writes the index of the class in the message's class table, preceded by its name if it is new to the table
+    void writeClass(Class<?> c, ByteBuffer buf)
+        {
+        Integer id = classIDs.get(c);
+        if (id == null)
+            {
+            buf.putInt(classIDs.size());
+            byte[] name = c.getName().getBytes(StandardCharsets.UTF_8);
+            buf.putInt(name.length);
+            buf.put(name);
+            classIDs.put(c, classIDs.size());
+            }
+        else buf.putInt(id);
+        }
+
+    PayloadWrapper readEncoded(ByteBuffer buf) throws ClassNotFoundException
+        {
+        int destination = buf.getInt();
+        int fieldIndex = buf.getInt();
+        int ordering = buf.getInt();
+        double time = buf.getDouble();
+        double interval = buf.getDouble();
+
+        Number2D loc = null;
+        byte locKind = buf.get();
+        if (locKind == INT_LOC)
+            {
+            int x = buf.getInt();
+            loc = new Int2D(x, buf.getInt());
+            }
+        else if (locKind == DOUBLE_LOC)
+            {
+            double x = buf.getDouble();
+            loc = new Double2D(x, buf.getDouble());
+            }
+
+        return new PayloadWrapper(readPayload(buf), destination, loc, fieldIndex, ordering, time, interval);
+        }
+
+    // Reads a payload written by writePayload(...)
+    Encodable readPayload(ByteBuffer buf) throws ClassNotFoundException
+        {
+        Encodable payload = (Encodable) newInstance(readClass(buf));
+
+        if (payload instanceof DObject)
+            ((DObject) payload).readID(buf);
+        payload.readFrom(buf);
+        return payload;
+        }
+
+    // Reads a ghost written by writeGhosts(...)
+    Ghostable readGhost(ByteBuffer buf, Constructor<?> cons, Map<Long, Object> previous)
+        {
+        Ghostable ghost = null;
+        if (DObject.class.isAssignableFrom(cons.getDeclaringClass()))
+            {
+            // DObject.writeID(...) wrote the ID as a long
+            Object old = previous.remove(buf.getLong(buf.position()));
+            if (old != null && old.getClass() == cons.getDeclaringClass())
+                ghost = (Ghostable) old;
+            else
+                ghost = (Ghostable) newInstance(cons);
+            ((DObject) ghost).readID(buf);
+            }
+        else
+            ghost = (Ghostable) newInstance(cons);
+        ghost.readGhost(buf);
+        return ghost;
+        }
+
+    // Reads a class written by writeClass(...), returning its no-argument constructor
+    Constructor<?> readClass(ByteBuffer buf) throws ClassNotFoundException
+        {
+        int id = buf.getInt();
+        if (id == classTable.size())        // first appearance of the class in this message
+            {
+            byte[] name = new byte[buf.getInt()];
+            buf.get(name);
+            classTable.add(getConstructor(new String(name, StandardCharsets.UTF_8)));
+            }
+        return classTable.get(id);
+        }
+
+    Constructor<?> getConstructor(String className) throws ClassNotFoundException
+        {
+        Constructor<?> cons = constructors.get(className);
+        if (cons == null)
+            {
+            Class<?> c = Class.forName(className);
+            try
+                {
+                cons = c.getDeclaredConstructor();
+                cons.setAccessible(true);
+                }
+            catch (NoSuchMethodException e)
+                {
+                throw new RuntimeException("Encodable or Ghostable class " + className + " must have a no-argument constructor", e);
+                }
+            constructors.put(className, cons);
+            }
+        return cons;
+        }
+
+    Object newInstance(Constructor<?> cons)
+        {
+        try
+            {
+            return cons.newInstance();
+            }
+        catch (Exception e)
+            {
+            throw new RuntimeException("Could not construct migrated object of " + cons.getDeclaringClass(), e);
+            }
+        }
+
+    /** Returns buf if it has at least the given number of bytes remaining, else a larger copy of it. */
+    public static ByteBuffer ensureRemaining(ByteBuffer buf, int remaining)
+        {
+        if (buf.remaining() >= remaining)
+            return buf;
+        return grow(buf, buf.position() + remaining);
+        }
+
+    // Returns a new direct buffer, at least twice as large as buf and at least minCapacity, holding buf's contents up to its position
+    static ByteBuffer grow(ByteBuffer buf, int minCapacity)
+        {
+        ByteBuffer bigger = ByteBuffer.allocateDirect(Math.max(minCapacity, Math.max(1024, buf.capacity() * 2)));
+        ((Buffer) buf).flip();
+        bigger.put(buf);
+        return bigger;
+        }
+    }
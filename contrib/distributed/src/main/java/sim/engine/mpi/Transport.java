@@ -0,0 +1,112 @@
+/*
+  Copyright 2022 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.engine.mpi;
+
+import java.io.Serializable;
+import java.nio.Buffer;
+import java.util.ArrayList;
+
+/**
+ * A Transport moves data among the partitions of a distributed model.  It provides the handful
+ * of collective operations which the partitions use to synchronize with one another: a barrier,
+ * broadcast, gather, allGather, scatter, allToAll, and typed reductions among all partitions, and an
+ * exchange among each partition and its neighbors.
+ *
+ * There are two implementations.  MPITransport runs each partition in its own process and communicates
+ * via MPI.  LocalTransport runs each partition in its own thread within a single JVM and communicates
+ * through shared memory.  Each Partition has a single Transport, available via partition.getTransport().
+ *
+ * As with MPI, every partition must call each collective operation, in the same order.
+ */
+public abstract class Transport
+    {
+    /** Sums the values in allReduce(...) */
+    public static final int SUM = 0;
+    /** Takes the minimum of the values in allReduce(...) */
+    public static final int MIN = 1;
+    /** Takes the maximum of the values in allReduce(...) */
+    public static final int MAX = 2;
+
+    /** Returns the rank (the PID) of this partition. */
+    public abstract int getRank();
+
+    /** Returns the total number of partitions. */
+    public abstract int getSize();
+
+    /** Returns true if this Transport communicates via MPI.  If not, the MPI library may not be
+        loaded, and so must not be called, not even to fetch MPI datatypes such as MPI.DOUBLE. */
+    public abstract boolean isMPI();
+
+    /** Informs the Transport of the neighbors of this partition.  This is called by the Partition
+        whenever its topology changes, and must be called by all partitions at the same time. */
+    public abstract void setNeighbors(int[] neighbors);
+
+    /** Blocks until all partitions have called barrier(). */
+    public abstract void barrier();
+
+    /** Sends the given object from the root to all partitions, and returns it.  Only the root's object is used. */
+    public abstract <T extends Serializable> T bcast(T obj, int root);
+
+    /** Sends the given object from each partition to the destination.  At the destination, returns
+        an ArrayList of the objects from every partition, in PID order.  Elsewhere, returns an empty ArrayList. */
+    public abstract <T extends Serializable> ArrayList<T> gather(T obj, int dst);
+
+    /** Sends the given object from each partition to all partitions.  Returns an ArrayList of the
+        objects from every partition, in PID order. */
+    public abstract <T extends Serializable> ArrayList<T> allGather(T obj);
+
+    /** Sends objs[i] from the root to partition i, and returns the object sent to this partition.
+        Only the root's objs is used. */
+    public abstract <T extends Serializable> T scatter(T[] objs, int root);
+
+    /** Combines values elementwise among all partitions with the given operation (SUM, MIN, or MAX), and
+        returns the result on every partition.  All partitions must provide arrays of the same length.  Unlike
+        allGather(...), no objects are serialized, and under MPI the combining is done in a tree. */
+    public abstract double[] allReduce(double[] values, int op);
+
+    /** Combines values elementwise among all partitions with the given operation (SUM, MIN, or MAX), and
+        returns the result on every partition.  All partitions must provide arrays of the same length. */
+    public abstract long[] allReduce(long[] values, int op);
+
+    /** Combines the records of all partitions with the given Combiner, and returns the result on every partition.
+        All partitions must provide records of the same length, and the same Combiner. */
+    public abstract double[] allReduce(double[] record, Combiner combiner);
+
+    /** Sends objs[i] to partition i, and returns an ArrayList of the objects sent to this partition by
+        every partition, in PID order.  objs must have one entry, possibly null, per partition. */
+    public abstract <T extends Serializable> ArrayList<T> allToAll(T[] objs);
+
+    /** Sends objs[i] to the i'th neighbor of this partition (as given in setNeighbors(...)), and returns an
+        ArrayList of the objects sent to this partition by each of its neighbors, in the same order. */
+    public abstract <T extends Serializable> ArrayList<T> neighborAllToAll(T[] objs);
+
+    /** Sends data[i] to the i'th neighbor of this partition (as given in setNeighbors(...)), and returns
+        the byte arrays sent to this partition by each of its neighbors, in the same order.  The
+        arrays you send must not be modified afterwards, as they may be handed directly to the neighbors. */
+    public abstract byte[][] neighborExchange(byte[][] data);
+
+    /** Sends sendCounts[i] values, starting at sendDispls[i] in send, to the i'th neighbor of this partition, and
+        receives recvCounts[i] values from the i'th neighbor into recv starting at recvDispls[i].  The counts
+        must agree with those of the neighbors.  Both buffers must be direct, and both DoubleBuffers, IntBuffers,
+        or ByteBuffers.  Counts and displacements are in values, not bytes, and are relative to the start of
+        the buffers regardless of their positions.  Nothing is serialized or allocated, so this is how
+        primitive grid storages exchange their halos, and how the Transporter exchanges migrating agents. */
+    public abstract void neighborExchange(Buffer send, int[] sendCounts, int[] sendDispls, Buffer recv, int[] recvCounts, int[] recvDispls);
+
+    /** Begins the same exchange as neighborExchange(send, ...), but returns without waiting for the data to arrive.
+        Call finish() on the result to wait for it.  Until then you must not touch either buffer.  You may have
+        several exchanges in progress at once, and may call other operations meanwhile, but as usual all partitions
+        must start them, and finish them, in the same order. */
+    public abstract Pending startNeighborExchange(Buffer send, int[] sendCounts, int[] sendDispls, Buffer recv, int[] recvCounts, int[] recvDispls);
+
+    /** A neighbor exchange in progress, as returned by startNeighborExchange(...). */
+    public interface Pending
+        {
+        /** Blocks until the exchange has completed and the data has arrived. */
+        public void finish();
+        }
+    }
@@ -6,18 +6,15 @@
         
 package sim.engine.mpi;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.EOFException;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.nio.Buffer;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
 import java.util.ArrayList;
 import java.util.HashMap;
 
-import mpi.MPI;
 import mpi.MPIException;
 import sim.field.partitioning.Partition;
 import sim.util.*;
@@ -33,13 +30,25 @@ import sim.engine.*;
 public class Transporter
     {
     int numNeighbors; // number of direct neighbors
-    int[] srcCount, srcDispl, dstCount, distDispl;
 
-    HashMap<Integer, RemoteOutputStream> dstMap; // map of all neighboring partitions
+    HashMap<Integer, ArrayList<PayloadWrapper>> dstMap; // map of all neighboring partitions to what we're sending them
 
     Partition partition;
     int[] neighbors;
 
+    // Encodes and decodes what we send, and the pooled buffers and layout it's done in
+    MigrationCodec codec = new MigrationCodec();
+    ByteBuffer sendBuffer = ByteBuffer.allocateDirect(1024);
+    ByteBuffer recvBuffer = ByteBuffer.allocateDirect(1024);
+    IntBuffer sendCountBuffer;
+    IntBuffer recvCountBuffer;
+    int[] ones;             // one count per neighbor, for exchanging the counts
+    int[] indices;          // the i'th displacement is i, for exchanging the counts
+    int[] sendCounts;
+    int[] sendDispls;
+    int[] recvCounts;
+    int[] recvDispls;
+
     public ArrayList<PayloadWrapper> objectQueue; // things being moved are put here, and integrated into local storage in DSimState
 
     // protected boolean withRegistry;
@@ -57,7 +66,7 @@ public class Transporter
                     {
                     sync();
                     }
-                catch (MPIException | IOException | ClassNotFoundException e)
+                catch (IOException | ClassNotFoundException e)
                     {
                     e.printStackTrace();
                     System.exit(-1);
@@ -72,7 +81,7 @@ public class Transporter
                     {
                     sync();
                     }
-                catch (MPIException | IOException | ClassNotFoundException e)
+                catch (IOException | ClassNotFoundException e)
                     {
                     e.printStackTrace();
                     System.exit(-1);
@@ -94,104 +103,83 @@ public class Transporter
 
         objectQueue = new ArrayList<>(); //reset this when reloading
 
-        srcCount = new int[numNeighbors];
-        srcDispl = new int[numNeighbors];
-        dstCount = new int[numNeighbors];
-        distDispl = new int[numNeighbors];
+        // queues for direct neighbors
+        dstMap = new HashMap<Integer, ArrayList<PayloadWrapper>>();
+        for (int i : neighbors)
+            dstMap.putIfAbsent(i, new ArrayList<PayloadWrapper>());
 
-        // outputStreams for direct neighbors
-        dstMap = new HashMap<Integer, RemoteOutputStream>();
-        try
-            {
-            for (int i : neighbors)
-                dstMap.putIfAbsent(i, new RemoteOutputStream()); //new streams
-            }
-        catch (IOException e)
+        sendCountBuffer = ByteBuffer.allocateDirect(numNeighbors * 4).order(ByteOrder.nativeOrder()).asIntBuffer();
+        recvCountBuffer = ByteBuffer.allocateDirect(numNeighbors * 4).order(ByteOrder.nativeOrder()).asIntBuffer();
+        ones = new int[numNeighbors];
+        indices = new int[numNeighbors];
+        for (int i = 0; i < numNeighbors; i++)
             {
-            e.printStackTrace();
-            System.exit(-1);
+            ones[i] = 1;
+            indices[i] = i;
             }
-
+        sendCounts = new int[numNeighbors];
+        sendDispls = new int[numNeighbors];
+        recvCounts = new int[numNeighbors];
+        recvDispls = new int[numNeighbors];
         }
 
     /**
      * Send/receive all objects and agents. All objects are added to their
      * respective fields and agents are also scheduled on top of that.
      * 
-     * @throws MPIException
+     * The objects are encoded by a MigrationCodec, back to back, into a single
+     * pooled buffer, which is exchanged with the neighbors in one operation.
+     * 
      * @throws IOException
      * @throws ClassNotFoundException
      */
-        
-    //do we need to do byte stuff here?  Or can we use MPIUtil neighbor to neighbor
-    public void sync() throws MPIException, IOException, ClassNotFoundException
+    public void sync() throws IOException, ClassNotFoundException
         {
-        // Prepare data
-        for (int i = 0, total = 0; i < numNeighbors; i++)
+        Transport transport = partition.getTransport();
+        long start = Profiler.begin();
+
+        // Encode what we're sending each neighbor.  If a neighbor appears more than once
+        // in our neighbor list, everything goes to its first appearance.
+        ((Buffer) sendBuffer).clear();
+        for (int i = 0; i < numNeighbors; i++)
             {
-            RemoteOutputStream outputStream = dstMap.get(neighbors[i]);
-            outputStream.flush(); //writes to ObjectOutputStream and removes from this stream
-            srcCount[i] = outputStream.size();
-            srcDispl[i] = total;
-            total += srcCount[i];
+            sendDispls[i] = sendBuffer.position();
+            ArrayList<PayloadWrapper> queue = dstMap.get(neighbors[i]);
+            if (!queue.isEmpty())
+                {
+                sendBuffer = codec.encode(queue, sendBuffer);
+                queue.clear();
+                }
+            sendCounts[i] = sendBuffer.position() - sendDispls[i];
             }
 
-        // Concat neighbor streams into one
-        ByteArrayOutputStream objstream = new ByteArrayOutputStream();
-        for (int i : neighbors)
-            objstream.write(dstMap.get(i).toByteArray());
-
-        ByteBuffer sendbuf = ByteBuffer.allocateDirect(objstream.size());
-        sendbuf.put(objstream.toByteArray()).flip();
-
-                
-        // TODO: we should not be calling MPI methods directly, this should be in MPIUtil 
-        //Problem: How do we convert objstream to T[] sendObjs to call MPIUtil neighborAllToAll
-                
-        // First exchange count[] of the send byte buffers with neighbors so that we can
-        // setup recvbuf
-        partition.getCommunicator().neighborAllToAll(srcCount, 1, MPI.INT, dstCount, 1, MPI.INT);
+        // exchange the sizes so that we can set up the receive buffer
+        ((Buffer) sendCountBuffer).clear();
+        sendCountBuffer.put(sendCounts);
+        transport.neighborExchange(sendCountBuffer, ones, indices, recvCountBuffer, ones, indices);
+        ((Buffer) recvCountBuffer).clear();
+        recvCountBuffer.get(recvCounts);
 
-        for (int i = 0, total = 0; i < numNeighbors; i++)
+        int total = 0;
+        for (int i = 0; i < numNeighbors; i++)
             {
-            distDispl[i] = total;
-            total += dstCount[i];
+            recvDispls[i] = total;
+            total += recvCounts[i];
             }
-        ByteBuffer recvbuf = ByteBuffer.allocateDirect(distDispl[numNeighbors - 1] + dstCount[numNeighbors - 1]);
+        if (recvBuffer.capacity() < total)
+            recvBuffer = ByteBuffer.allocateDirect(Math.max(total, recvBuffer.capacity() * 2));
+
+        // exchange the objects themselves
+        transport.neighborExchange(sendBuffer, sendCounts, sendDispls, recvBuffer, recvCounts, recvDispls);
 
-        // exchange the actual object bytes
-        partition.getCommunicator().neighborAllToAllv(sendbuf, srcCount, srcDispl, MPI.BYTE, recvbuf, dstCount, distDispl, MPI.BYTE);
-                
         // read and handle incoming objects
+        int first = objectQueue.size();
         for (int i = 0; i < numNeighbors; i++)
-            {
-            byte[] data = new byte[dstCount[i]];
-            recvbuf.position(distDispl[i]);
-            recvbuf.get(data);
-            ObjectInputStream inputStream = new ObjectInputStream(new ByteArrayInputStream(data));
-
-            while (true)
-                {
-                try
-                    {
-                    PayloadWrapper wrapper = (PayloadWrapper) inputStream.readObject();
-                    if (partition.getPID() != wrapper.destination)
-                        {
-                        throw new RuntimeException("This is not the correct processor");
-                        }
-                    else
-                        objectQueue.add(wrapper);
-                    }
-                catch (EOFException e)
-                    {
-                    break;
-                    }
-                }
-            }
-
-        // Clear previous queues
-        for (int i : neighbors)
-            dstMap.get(i).reset();
+            codec.decode(recvBuffer, recvDispls[i], recvCounts[i], objectQueue);
+        for (int i = first; i < objectQueue.size(); i++)
+            if (partition.getPID() != objectQueue.get(i).destination)
+                throw new RuntimeException("This is not the correct processor");
+        Profiler.end(Profiler.TRANSPORT, start, sendBuffer.position(), total);
         }
 
     /**
@@ -224,30 +212,8 @@ public class Transporter
         // dst, which could be the diagonal processor
         PayloadWrapper wrapper = new PayloadWrapper(obj, dst, loc, fieldIndex, ordering, time, interval);
 
-        // if (withRegistry)
-        // {
-        // String name = 
-        // check if the agent is exported, if so add it to the migrated group
-        // therefore the DSimState can unregister it
-        if (obj instanceof Distinguished)
-            {
-            DistinguishedRegistry.getInstance().ifExportedThenAddMigratedName((Distinguished) obj);
-            }
-        
-        // if (name != null)
-        // obj.distinguishedName(name);
-        // }
-
         assert dstMap.containsKey(dst);
-        try
-            {
-            dstMap.get(dst).write(wrapper);
-            }
-        catch (Exception e)
-            {
-            e.printStackTrace();
-            System.exit(-1);
-            }
+        dstMap.get(dst).add(wrapper);
         }
         
     /**
@@ -261,50 +227,4 @@ public class Transporter
         {
         return dstMap.containsKey(loc);
         }
-
-    static class RemoteOutputStream
-        {
-        public ByteArrayOutputStream out;
-        public ObjectOutputStream os;
-        public ArrayList<Object> obj = new ArrayList<Object>();
-
-        public RemoteOutputStream() throws IOException
-            {
-            out = new ByteArrayOutputStream();
-            os = new ObjectOutputStream(out);
-            }
-
-        public void write(Object obj) throws IOException
-            {
-            // virtual write really write only at the end of the simulation steps
-            this.obj.add(obj);
-            }
-
-        public byte[] toByteArray() throws IOException
-            {
-            return out.toByteArray();
-            }
-
-        public int size()
-            {
-            return out.size();
-            }
-
-        public void flush() throws IOException
-            {
-            // write all objects
-            for (Object o : obj)
-                os.writeObject(o);
-            os.flush();
-            }
-
-        public void reset() throws IOException
-            {
-            os.close();
-            out.close();
-            out = new ByteArrayOutputStream();
-            os = new ObjectOutputStream(out);
-            obj.clear();
-            }
-        }
     }
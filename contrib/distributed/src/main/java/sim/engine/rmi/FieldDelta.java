@@ -0,0 +1,165 @@
+/*
+  Copyright 2022 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.engine.rmi;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.zip.InflaterInputStream;
+
+import sim.util.GenericArray;
+import sim.util.IntRect2D;
+
+/**
+   FIELD DELTA holds the changes to one field on one partition between two published versions, as
+   returned by RemoteProcessorRMI.getFieldDelta(...).  If FULL is true, the delta holds the whole of
+   the partition's local region, and a subscriber should discard anything it has from this partition first.
+
+   <p>A grid field is sent as TILES: rectangles of the local region, in world coordinates, each of which has
+   changed since the subscriber's version.  The values in each tile are compressed, and ordered column by column
+   (x, then y).  If LOD is greater than 0, each tile of a double or int grid holds only one value for each block
+   of 2^LOD by 2^LOD cells: the STATISTIC (GridPyramid.MIN, MAX, or MEAN) of the block, which for int grids is
+   rounded to an int.  These are the cells of level LOD of a GridPyramid over the tile.  A delta may hold only
+   the tiles which intersect a viewport which the subscriber asked for.
+
+   <p>A continuous field is sent as agents which have CHANGED (are new to the partition, or whose state has changed),
+   with their locations and the agents themselves, agents which have merely MOVED, with their new locations, and
+   the IDs of agents which have been REMOVED from the partition.
+*/
+
+public class FieldDelta implements Serializable
+    {
+    private static final long serialVersionUID = 1L;
+
+    public static final int DOUBLE_GRID = 0;
+    public static final int INT_GRID = 1;
+    public static final int OBJECT_GRID = 2;
+    public static final int CONTINUOUS = 3;
+
+    /** The kind of field: DOUBLE_GRID, INT_GRID, OBJECT_GRID (which includes dense grids), or CONTINUOUS. */
+    public int kind;
+    /** The version (the steps when it was published) of the field which this delta brings the subscriber up to. */
+    public long version;
+    /** Whether the delta holds the partition's whole local region. */
+    public boolean full;
+    /** The partition's local region, not including its halo. */
+    public IntRect2D bounds;
+    /** The level of detail of the tiles. */
+    public int lod;
+    /** The statistic of each block of cells in the tiles, if LOD is greater than 0. */
+    public int statistic;
+
+    /** Grids: the changed tiles */
+    public IntRect2D[] tiles = new IntRect2D[0];
+    /** Grids: the compressed values of each changed tile */
+    public byte[][] tileData = new byte[0][];
+
+    /** Continuous: the IDs of the new or changed agents */
+    public long[] changed = new long[0];
+    /** Continuous: the x and y location of each new or changed agent */
+    public double[] changedLocations = new double[0];
+    /** Continuous: the new or changed agents themselves, each serialized and preceded by its length, all compressed */
+    public byte[] changedObjects;
+    /** Continuous: the IDs of the agents which have moved */
+    public long[] moved = new long[0];
+    /** Continuous: the x and y location of each agent which has moved */
+    public double[] movedLocations = new double[0];
+    /** Continuous: the IDs of the agents which have left the partition */
+    public long[] removed = new long[0];
+
+    /** Returns the number of columns of values in the given tile at the delta's level of detail. */
+    public int getTileWidth(int tile)
+        {
+        return (tiles[tile].getWidth() + (1 << lod) - 1) >> lod;
+        }
+
+    /** Returns the number of values in each column of the given tile at the delta's level of detail. */
+    public int getTileHeight(int tile)
+        {
+        return (tiles[tile].getHeight() + (1 << lod) - 1) >> lod;
+        }
+
+    /** Returns the values of the given tile of a double grid. */
+    public double[] getDoubles(int tile)
+        {
+        ByteBuffer buf = ByteBuffer.wrap(inflate(tileData[tile]));
+        double[] vals = new double[getTileWidth(tile) * getTileHeight(tile)];
+        buf.asDoubleBuffer().get(vals);
+        return vals;
+        }
+
+    /** Returns the values of the given tile of an int grid. */
+    public int[] getInts(int tile)
+        {
+        ByteBuffer buf = ByteBuffer.wrap(inflate(tileData[tile]));
+        int[] vals = new int[getTileWidth(tile) * getTileHeight(tile)];
+        buf.asIntBuffer().get(vals);
+        return vals;
+        }
+
+    /** Returns the values of the given tile of an object grid (one object per cell) or a dense grid (one ArrayList per cell). */
+    public Object[] getObjects(int tile)
+        {
+        byte[] data = inflate(tileData[tile]);
+        Object vals = deserialize(data, 0, data.length);
+        if (vals instanceof GenericArray)
+            return ((GenericArray<?>) vals).getArray();
+        else
+            return (Object[]) vals;
+        }
+
+    /** Returns the new or changed agents of a continuous field, in the same order as their IDs in CHANGED. */
+    public Object[] getChangedObjects()
+        {
+        Object[] objs = new Object[changed.length];
+        if (changedObjects == null)
+            return objs;
+        ByteBuffer buf = ByteBuffer.wrap(inflate(changedObjects));
+        for (int i = 0; i < objs.length; i++)
+            {
+            int length = buf.getInt();
+            objs[i] = deserialize(buf.array(), buf.position(), length);
+            ((Buffer) buf).position(buf.position() + length);
+            }
+        return objs;
+        }
+
+    static byte[] inflate(byte[] data)
+        {
+        try
+            {
+            InflaterInputStream in = new InflaterInputStream(new ByteArrayInputStream(data));
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 4);
+            byte[] b = new byte[4096];
+            int n;
+            while ((n = in.read(b)) > 0)
+                out.write(b, 0, n);
+            return out.toByteArray();
+            }
+        catch (IOException e)
+            {
+            throw new RuntimeException("Could not inflate field delta", e);
+            }
+        }
+
+    static Object deserialize(byte[] data, int offset, int length)
+        {
+        try
+            {
+            ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(data, offset, length));
+            return in.readObject();
+            }
+        catch (IOException | ClassNotFoundException e)
+            {
+            throw new RuntimeException("Could not deserialize field delta", e);
+            }
+        }
+    }
@@ -0,0 +1,451 @@
+/*
+  Copyright 2022 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.engine.rmi;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import mpi.MPIException;
+import sim.engine.DObject;
+import sim.field.HaloGrid2D;
+import sim.field.grid.DoubleGrid2D;
+import sim.field.grid.Grid2D;
+import sim.field.grid.GridPyramid;
+import sim.field.grid.IntGrid2D;
+import sim.field.storage.ContinuousStorage;
+import sim.field.storage.DoubleGridStorage;
+import sim.field.storage.GridStorage;
+import sim.field.storage.IntGridStorage;
+import sim.util.Double2D;
+import sim.util.Int2D;
+import sim.util.IntRect2D;
+import sim.util.MPIParam;
+
+/**
+   FIELD PUBLISHER keeps a published copy of one field on this partition for the remote visualizer.  The model
+   calls publish() between steps, and the visualizer calls getDelta(...) whenever it likes, without stopping
+   the model, to get whatever has changed since the version it already has.
+
+   <p>A grid's local region is broken into tiles, and each tile is kept compressed along with the version at which
+   it last changed, which publish() detects by a checksum of the tile's values.  A continuous field keeps each agent,
+   serialized, along with the versions at which its state and its location last changed, and the versions at which
+   agents have left the partition.  Thus any number of visualizers can each be at their own version.
+*/
+
+class FieldPublisher
+    {
+    // The width and height of each tile, and thus the coarsest level of detail is 2^5
+    static final int TILE_SIZE = 32;
+    static final int MAX_LOD = 5;
+    // The most removals remembered: a subscriber older than the oldest of these gets the whole region
+    static final int MAX_REMOVALS = 65536;
+
+    HaloGrid2D<?, ?> field;
+    int kind;
+
+    // The version last published, or -1 if none has been
+    long version = -1;
+    // The version at which the local region (and thus the tiles) last changed
+    long resetVersion = -1;
+    IntRect2D bounds;
+
+    // Grids
+    IntRect2D[] tiles;
+    byte[][] tileData;
+    long[] tileChecksums;
+    long[] tileVersions;
+
+    // Continuous
+    static class Agent
+        {
+        double x;
+        double y;
+        long checksum;
+        byte[] data;
+        long stateVersion;
+        long locationVersion;
+        long seenVersion;
+        }
+    HashMap<Long, Agent> agents = new HashMap<>();
+    LinkedHashMap<Long, Long> removals = new LinkedHashMap<>();
+    // The version of the newest removal forgotten
+    long forgetVersion = -1;
+
+    // Only used by publish()
+    CRC32 crc = new CRC32();
+    Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+
+    FieldPublisher(HaloGrid2D<?, ?> field)
+        {
+        this.field = field;
+        GridStorage<?> storage = field.getStorage();
+        if (storage instanceof DoubleGridStorage)
+            kind = FieldDelta.DOUBLE_GRID;
+        else if (storage instanceof IntGridStorage)
+            kind = FieldDelta.INT_GRID;
+        else if (storage instanceof ContinuousStorage)
+            kind = FieldDelta.CONTINUOUS;
+        else
+            kind = FieldDelta.OBJECT_GRID;
+        }
+
+    /** Publishes the field as it is at the given steps.  Only call this between steps. */
+    void publish(long steps)
+        {
+        if (kind == FieldDelta.CONTINUOUS)
+            publishAgents(steps);
+        else
+            publishTiles(steps);
+        }
+
+    void publishTiles(long steps)
+        {
+        IntRect2D local = field.getLocalBounds();
+        boolean reset = (bounds == null || !local.equals(bounds));
+        IntRect2D[] newTiles = (reset ? makeTiles(local) : tiles);
+
+        // pack and compress the tiles which have changed, without holding up the visualizer
+        long[] checksums = new long[newTiles.length];
+        byte[][] data = new byte[newTiles.length][];
+        for (int i = 0; i < newTiles.length; i++)
+            {
+            byte[] raw = packTile(newTiles[i]);
+            checksums[i] = checksum(raw);
+            if (reset || checksums[i] != tileChecksums[i])
+                data[i] = deflate(raw, deflater);
+            }
+
+        synchronized (this)
+            {
+            if (reset)
+                {
+                bounds = local;
+                tiles = newTiles;
+                tileData = new byte[tiles.length][];
+                tileChecksums = new long[tiles.length];
+                tileVersions = new long[tiles.length];
+                resetVersion = steps;
+                }
+            for (int i = 0; i < tiles.length; i++)
+                if (data[i] != null)
+                    {
+                    tileData[i] = data[i];
+                    tileChecksums[i] = checksums[i];
+                    tileVersions[i] = steps;
+                    }
+            version = steps;
+            }
+        }
+
+    void publishAgents(long steps)
+        {
+        IntRect2D local = field.getLocalBounds();
+        ContinuousStorage<?> storage = (ContinuousStorage<?>) field.getStorage();
+
+        // serialize the agents, leaving out those in the halo, without holding up the visualizer
+        ArrayList<? extends DObject> objs = storage.getAllObjects();
+        int n = 0;
+        long[] ids = new long[objs.size()];
+        double[] locs = new double[objs.size() * 2];
+        byte[][] data = new byte[objs.size()][];
+        for (DObject obj : objs)
+            {
+            Double2D loc = storage.getObjectLocation(obj.getID());
+            if (!local.contains(loc))
+                continue;
+            ids[n] = obj.getID();
+            locs[n * 2] = loc.x;
+            locs[n * 2 + 1] = loc.y;
+            data[n] = serialize(obj);
+            n++;
+            }
+
+        synchronized (this)
+            {
+            if (version == -1)
+                resetVersion = steps;
+            bounds = local;
+
+            for (int i = 0; i < n; i++)
+                {
+                Agent agent = agents.get(ids[i]);
+                long checksum = checksum(data[i]);
+                if (agent == null)
+                    {
+                    agent = new Agent();
+                    agent.stateVersion = steps;
+                    agent.locationVersion = steps;
+                    agents.put(ids[i], agent);
+                    removals.remove(ids[i]);
+                    }
+                else
+                    {
+                    if (agent.checksum != checksum)
+                        agent.stateVersion = steps;
+                    if (agent.x != locs[i * 2] || agent.y != locs[i * 2 + 1])
+                        agent.locationVersion = steps;
+                    }
+                agent.x = locs[i * 2];
+                agent.y = locs[i * 2 + 1];
+                agent.checksum = checksum;
+                agent.data = data[i];
+                agent.seenVersion = steps;
+                }
+
+            // anything not seen has left the partition
+            Iterator<Map.Entry<Long, Agent>> iterator = agents.entrySet().iterator();
+            while (iterator.hasNext())
+                {
+                Map.Entry<Long, Agent> entry = iterator.next();
+                if (entry.getValue().seenVersion != steps)
+                    {
+                    iterator.remove();
+                    removals.put(entry.getKey(), steps);
+                    }
+                }
+            Iterator<Long> oldest = removals.values().iterator();
+            while (removals.size() > MAX_REMOVALS)
+                {
+                forgetVersion = oldest.next();
+                oldest.remove();
+                }
+
+            version = steps;
+            }
+        }
+
+    /** Returns everything which has changed since the given version, at the given level of detail and with the given
+        statistic (GridPyramid.MIN, MAX, or MEAN) of each block of cells, within the given viewport (null for everywhere). */
+    synchronized FieldDelta getDelta(long since, int lod, int statistic, IntRect2D viewport)
+        {
+        FieldDelta delta = new FieldDelta();
+        delta.kind = kind;
+        delta.version = version;
+        delta.bounds = bounds;
+        if (version == -1)
+            return delta;
+
+        delta.full = (since < resetVersion || since < forgetVersion || since > version);
+        if (delta.full)
+            since = -1;
+
+        if (kind == FieldDelta.CONTINUOUS)
+            getAgentDelta(delta, since);
+        else
+            getTileDelta(delta, since, (kind == FieldDelta.OBJECT_GRID ? 0 : Math.max(0, Math.min(lod, MAX_LOD))), statistic, viewport);
+        return delta;
+        }
+
+    void getTileDelta(FieldDelta delta, long since, int lod, int statistic, IntRect2D viewport)
+        {
+        delta.lod = lod;
+        delta.statistic = statistic;
+        ArrayList<IntRect2D> changedTiles = new ArrayList<IntRect2D>();
+        ArrayList<byte[]> changedData = new ArrayList<byte[]>();
+        for (int i = 0; i < tiles.length; i++)
+            if (tileVersions[i] > since && (viewport == null || viewport.intersects(tiles[i])))
+                {
+                changedTiles.add(tiles[i]);
+                changedData.add(lod == 0 ? tileData[i] : deflate(downsample(tiles[i], FieldDelta.inflate(tileData[i]), lod, statistic), null));
+                }
+        delta.tiles = changedTiles.toArray(new IntRect2D[changedTiles.size()]);
+        delta.tileData = changedData.toArray(new byte[changedData.size()][]);
+        }
+
+    void getAgentDelta(FieldDelta delta, long since)
+        {
+        int numChanged = 0;
+        int numMoved = 0;
+        for (Agent agent : agents.values())
+            {
+            if (agent.stateVersion > since)
+                numChanged++;
+            else if (agent.locationVersion > since)
+                numMoved++;
+            }
+
+        delta.changed = new long[numChanged];
+        delta.changedLocations = new double[numChanged * 2];
+        delta.moved = new long[numMoved];
+        delta.movedLocations = new double[numMoved * 2];
+        ByteArrayOutputStream changedData = new ByteArrayOutputStream();
+        int c = 0;
+        int m = 0;
+        for (Map.Entry<Long, Agent> entry : agents.entrySet())
+            {
+            Agent agent = entry.getValue();
+            if (agent.stateVersion > since)
+                {
+                delta.changed[c] = entry.getKey();
+                delta.changedLocations[c * 2] = agent.x;
+                delta.changedLocations[c * 2 + 1] = agent.y;
+                changedData.write(agent.data.length >>> 24);
+                changedData.write(agent.data.length >>> 16);
+                changedData.write(agent.data.length >>> 8);
+                changedData.write(agent.data.length);
+                changedData.write(agent.data, 0, agent.data.length);
+                c++;
+                }
+            else if (agent.locationVersion > since)
+                {
+                delta.moved[m] = entry.getKey();
+                delta.movedLocations[m * 2] = agent.x;
+                delta.movedLocations[m * 2 + 1] = agent.y;
+                m++;
+                }
+            }
+        if (numChanged > 0)
+            delta.changedObjects = deflate(changedData.toByteArray(), null);
+
+        if (since != -1)
+            {
+            int numRemoved = 0;
+            for (long v : removals.values())
+                if (v > since)
+                    numRemoved++;
+            delta.removed = new long[numRemoved];
+            int r = 0;
+            for (Map.Entry<Long, Long> entry : removals.entrySet())
+                if (entry.getValue() > since)
+                    delta.removed[r++] = entry.getKey();
+            }
+        }
+
+    // Breaks the region into tiles, column by column
+    IntRect2D[] makeTiles(IntRect2D region)
+        {
+        ArrayList<IntRect2D> list = new ArrayList<IntRect2D>();
+        for (int x = region.ul().x; x < region.br().x; x += TILE_SIZE)
+            for (int y = region.ul().y; y < region.br().y; y += TILE_SIZE)
+                list.add(new IntRect2D(new Int2D(x, y),
+                        new Int2D(Math.min(x + TILE_SIZE, region.br().x), Math.min(y + TILE_SIZE, region.br().y))));
+        return list.toArray(new IntRect2D[list.size()]);
+        }
+
+    // Returns the values of the tile as bytes, uncompressed
+    byte[] packTile(IntRect2D tile)
+        {
+        GridStorage<?> storage = field.getStorage();
+        Serializable packed;
+        try
+            {
+            packed = storage.pack(new MPIParam(tile, storage.getShape()));
+            }
+        catch (MPIException e)
+            {
+            throw new RuntimeException("Could not pack tile " + tile + " of " + storage, e);
+            }
+
+        if (kind == FieldDelta.DOUBLE_GRID)
+            {
+            double[] vals = (double[]) packed;
+            ByteBuffer buf = ByteBuffer.allocate(vals.length * 8);
+            buf.asDoubleBuffer().put(vals);
+            return buf.array();
+            }
+        else if (kind == FieldDelta.INT_GRID)
+            {
+            int[] vals = (int[]) packed;
+            ByteBuffer buf = ByteBuffer.allocate(vals.length * 4);
+            buf.asIntBuffer().put(vals);
+            return buf.array();
+            }
+        else
+            return serialize(packed);
+        }
+
+    // Reduces the tile's values, as packed by packTile(...), to the given statistic of each 2^lod by 2^lod block
+    byte[] downsample(IntRect2D tile, byte[] raw, int lod, int statistic)
+        {
+        int w = tile.getWidth();
+        int h = tile.getHeight();
+        ByteBuffer in = ByteBuffer.wrap(raw);
+        Grid2D grid;
+        if (kind == FieldDelta.DOUBLE_GRID)
+            {
+            DoubleGrid2D g = new DoubleGrid2D(w, h);
+            for (int x = 0; x < w; x++)
+                for (int y = 0; y < h; y++)
+                    g.field[x][y] = in.getDouble();
+            grid = g;
+            }
+        else
+            {
+            IntGrid2D g = new IntGrid2D(w, h);
+            for (int x = 0; x < w; x++)
+                for (int y = 0; y < h; y++)
+                    g.field[x][y] = in.getInt();
+            grid = g;
+            }
+
+        // a small tile has fewer levels, but its top level is a single cell, just as at the level asked for
+        GridPyramid pyramid = new GridPyramid(grid);
+        if (pyramid.getNumLevels() == 1)
+            return raw;
+        double[][] vals = pyramid.getLevel(Math.min(lod, pyramid.getNumLevels() - 1), statistic).field;
+
+        ByteBuffer out = ByteBuffer.allocate(vals.length * vals[0].length * (kind == FieldDelta.DOUBLE_GRID ? 8 : 4));
+        for (int x = 0; x < vals.length; x++)
+            for (int y = 0; y < vals[x].length; y++)
+                {
+                if (kind == FieldDelta.DOUBLE_GRID)
+                    out.putDouble(vals[x][y]);
+                else
+                    out.putInt((int) Math.round(vals[x][y]));
+                }
+        return out.array();
+        }
+
+    long checksum(byte[] data)
+        {
+        crc.reset();
+        crc.update(data, 0, data.length);
+        return crc.getValue();
+        }
+
+    // Compresses the data with the given deflater, or with a new one if it is null
+    static byte[] deflate(byte[] data, Deflater deflater)
+        {
+        Deflater d = (deflater == null ? new Deflater(Deflater.BEST_SPEED) : deflater);
+        d.reset();
+        d.setInput(data);
+        d.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 4 + 64);
+        byte[] buf = new byte[4096];
+        while (!d.finished())
+            out.write(buf, 0, d.deflate(buf));
+        if (deflater == null)
+            d.end();
+        return out.toByteArray();
+        }
+
+    static byte[] serialize(Object obj)
+        {
+        try
+            {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            ObjectOutputStream stream = new ObjectOutputStream(out);
+            stream.writeObject(obj);
+            stream.close();
+            return out.toByteArray();
+            }
+        catch (IOException e)
+            {
+            throw new RuntimeException("Could not serialize " + obj, e);
+            }
+        }
+    }
@@ -17,7 +17,6 @@ import java.util.concurrent.locks.ReentrantLock;
 
 import sim.engine.DSimState;
 import sim.field.storage.GridStorage;
-import sim.engine.DistinguishedRegistry;
 import sim.util.IntRect2D;
 import sim.util.Properties;
 import sim.util.SimpleProperties;
@@ -44,6 +43,12 @@ public class RemoteProcessor extends UnicastRemoteObject implements RemoteProces
     public final String processorName;
     static ArrayList<RemoteProcessorRMI> processorCache = new ArrayList<>();
 
+    // Publishers for the fields, created when each field is first asked for
+    FieldPublisher[] publishers;
+    // The version (steps) last published
+    long published = -1;
+    Object[] publishLock = new Object[0];
+
     /**
      * Creates a processor and registers it to the RMI Registry
      * 
@@ -62,7 +67,7 @@ public class RemoteProcessor extends UnicastRemoteObject implements RemoteProces
 
         try
             {
-            if (!DistinguishedRegistry.getInstance().registerObject(processorName, this))
+            if (!RMIRegistry.getInstance().registerObject(processorName, this))
                 throw new RuntimeException("Failed to register processor: " + processorName);
             }
         catch (RemoteException e)
@@ -110,6 +115,67 @@ public class RemoteProcessor extends UnicastRemoteObject implements RemoteProces
         return state.getFieldList().get(fieldId).getStorage();
         }
 
+    public FieldDelta getFieldDelta(int fieldId, long since, int lod, int statistic, IntRect2D viewport) throws RemoteException
+        {
+        FieldPublisher publisher;
+        synchronized (publishLock)
+            {
+            if (publishers == null)
+                publishers = new FieldPublisher[state.getFieldList().size()];
+            if (publishers[fieldId] == null)
+                publishers[fieldId] = new FieldPublisher(state.getFieldList().get(fieldId));
+            publisher = publishers[fieldId];
+            }
+        return publisher.getDelta(since, lod, statistic, viewport);
+        }
+
+    public long awaitPublication(long since, long timeout) throws RemoteException
+        {
+        long end = System.currentTimeMillis() + timeout;
+        synchronized (publishLock)
+            {
+            while (published <= since)
+                {
+                long remaining = end - System.currentTimeMillis();
+                if (remaining <= 0)
+                    break;
+                try
+                    {
+                    publishLock.wait(remaining);
+                    }
+                catch (InterruptedException e)
+                    {
+                    break;
+                    }
+                }
+            return published;
+            }
+        }
+
+    /**
+     * Publishes a copy of each field which a visualizer has asked for, and wakes up any visualizers
+     * waiting in awaitPublication(...).  Only the model calls this, between steps.
+     */
+    public void publish()
+        {
+        FieldPublisher[] pubs;
+        synchronized (publishLock)
+            {
+            pubs = (publishers == null ? new FieldPublisher[0] : publishers.clone());
+            }
+
+        long steps = state.schedule.getSteps();
+        for (FieldPublisher publisher : pubs)
+            if (publisher != null)
+                publisher.publish(steps);
+
+        synchronized (publishLock)
+            {
+            published = steps;
+            publishLock.notifyAll();
+            }
+        }
+
     public GridRMI getGrid(int fieldId) throws RemoteException
         {
         return state.getFieldList().get(fieldId);
@@ -168,7 +234,7 @@ public class RemoteProcessor extends UnicastRemoteObject implements RemoteProces
         {
         try
             {
-            RemoteProcessorRMI proc = DistinguishedRegistry.getInstance().getObjectT(getProcessorName(pid));
+            RemoteProcessorRMI proc = RMIRegistry.getInstance().getObjectT(getProcessorName(pid));
             processorCache.set(pid, proc);
             return proc;
             }
@@ -348,7 +414,7 @@ public class RemoteProcessor extends UnicastRemoteObject implements RemoteProces
 //                      return remote;
 //              else {
 //                      try {
-//                              remote = (Remote) DistinguishedRegistry.getInstance().getObject(key);
+//                              remote = (Remote) RMIRegistry.getInstance().getObject(key);
 //                              cache.put(key, remote);
 //                              return remote;
 //                      } catch (RemoteException | NotBoundException e) {
@@ -26,7 +26,8 @@ import sim.util.SimpleProperties;
    interfere with the model running.
    <li> Getting current simulation time and steps
    <li> Accessing the processor neighborhoods and topology
-   <li> Accessing data from the remote fields and their accompanying grid storage.
+   <li> Accessing data from the remote fields and their accompanying grid storage, either
+   in full or as deltas against the copies published between steps.
    <li> Getting the latest statistics and debug streams
    <li> Accessing properties of remote objects.
 */
@@ -71,6 +72,22 @@ public interface RemoteProcessorRMI extends Remote
     /** Returns a full copy of GridStorage object number STORAGE. */
     public GridStorage getStorage(int storage) throws RemoteException;
 
+    /**
+     * Returns the changes to field number FIELD on this partition since the published version SINCE,
+     * which is -1 if the caller has nothing yet.  Grid values are reduced to the level of detail LOD,
+     * each block of cells being summarized by STATISTIC (GridPyramid.MIN, MAX, or MEAN), and only those
+     * parts of grids within VIEWPORT (in world coordinates, or null for everywhere) are included (see FieldDelta).
+     * This does not require locking: the partition publishes a copy of the field between steps, starting
+     * with the first step after the field is first asked for.
+     */
+    public FieldDelta getFieldDelta(int field, long since, int lod, int statistic, IntRect2D viewport) throws RemoteException;
+
+    /**
+     * Blocks until this partition has published a version later than SINCE, or until TIMEOUT
+     * milliseconds have passed, and returns the version last published, or -1 if there is none.
+     */
+    public long awaitPublication(long since, long timeout) throws RemoteException;
+
     /**
      * Returns the number of processors in the distributed model. We presume their
      * pids go 0...n
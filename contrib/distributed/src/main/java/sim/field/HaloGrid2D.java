@@ -7,9 +7,14 @@
 package sim.field;
 
 import java.io.Serializable;
+import java.nio.Buffer;
 import java.rmi.RemoteException;
 import java.rmi.server.UnicastRemoteObject;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Objects;
 import java.util.function.Consumer;
 
 import mpi.MPIException;
@@ -17,6 +22,7 @@ import sim.engine.DObject;
 import sim.engine.DSimState;
 import sim.engine.DIterativeRepeat;
 import sim.engine.DTentativeStep;
+import sim.engine.Promise;
 import sim.engine.Promised;
 import sim.engine.Steppable;
 import sim.engine.Stoppable;
@@ -28,12 +34,14 @@ import sim.engine.rmi.RemotePromise;
 import sim.field.partitioning.Partition;
 import sim.field.storage.ContinuousStorage;
 import sim.field.storage.GridStorage;
+import sim.field.storage.PrimitiveStorage;
 import sim.util.Double2D;
 import sim.util.Int2D;
 import sim.util.IntRect2D;
 import sim.util.MPIParam;
 import sim.util.MPIUtil;
 import sim.util.Number2D;
+import sim.util.Profiler;
 
 /**
  * All fields in distributed MASON must contain this class. Stores
@@ -62,6 +70,26 @@ public class HaloGrid2D<T extends Serializable, S extends GridStorage<T>>
     IntRect2D localBounds;
     // All neighboring partitions
     ArrayList<Neighbor> neighbors;
+    // How far into the halo the field may be read, at most the partition's AOI
+    int aoi;
+    // How far into the halo the field is currently exchanged with its neighbors, at most aoi
+    int extent;
+    // Whether the extent is adapted each step to the distances which the field has been queried at
+    boolean adaptiveAOI = false;
+    // The farthest distance the field has been queried at since the last adaptAOI(...)
+    double queried = 0;
+    // The extents needed over the last several steps, most recent at historyIndex - 1, for adaptive AOI
+    int[] history = new int[10];
+    int historyIndex = 0;
+    // Buffers and layout for exchanging halos of primitive storages, rebuilt on reload
+    Buffer haloSendBuffer;
+    Buffer haloRecvBuffer;
+    int[] haloSendCounts;
+    int[] haloSendDispls;
+    int[] haloRecvCounts;
+    int[] haloRecvDispls;
+    // The halo exchange in progress, if any
+    Transport.Pending pendingHalo;
     // Storage object of the field that owns me
     S localStorage;
     // My field's index
@@ -69,8 +97,13 @@ public class HaloGrid2D<T extends Serializable, S extends GridStorage<T>>
     // My RMI Proxy
     GridRMICache<T, Number2D> proxy;
 
-    // The following four queues are how RMI adds, removes, and fetches elements on
-    // behalf of remote processors.
+    // Requests for partitions other than our neighbors, queued until the next sync, indexed by PID
+    RemoteRequests<T>[] outgoingRequests;
+    // Requests sent at the last sync, whose get requests await answers, indexed by PID
+    RemoteRequests<T>[] sentRequests;
+
+    // The following four queues are how RMI and the requests of remote processors
+    // add, remove, and fetch elements.
 
     // Queue of Promised results from getRMI
     ArrayList<Pair<Promised, Number2D>> getAllQueue = new ArrayList<>();
@@ -96,6 +129,10 @@ public class HaloGrid2D<T extends Serializable, S extends GridStorage<T>>
         worldHeight = partition.getWorldHeight();
 
 
+        aoi = partition.getAOI();
+        extent = aoi;
+        Arrays.fill(history, aoi);
+
         // register callbacks
         partition.registerPreCommit(new Consumer()
             {
@@ -137,6 +174,17 @@ public class HaloGrid2D<T extends Serializable, S extends GridStorage<T>>
                 
         localStorage.setOffset(haloBounds.ul()); // moving local point calculation to GridStorage
 
+        loadNeighbors();
+        }
+
+    /**
+     * Creates the Neighbor objects, and the buffers for exchanging halos of primitive storages,
+     * for the current extent.
+     */
+    void loadNeighbors()
+        {
+        Partition partition = getPartition();
+
         // Get the neighbors and create Neighbor objects
         neighbors = new ArrayList<Neighbor>();
         for (int id : partition.getNeighborPIDs())
@@ -144,7 +192,158 @@ public class HaloGrid2D<T extends Serializable, S extends GridStorage<T>>
             neighbors.add(new Neighbor(partition.getLocalBounds(id)));
 
             }
-                
+
+        // Primitive storages exchange their halos through buffers allocated once here, rather than
+        // packing and serializing arrays every step
+        if (localStorage instanceof PrimitiveStorage)
+            {
+            PrimitiveStorage primitive = (PrimitiveStorage) localStorage;
+            int numNeighbors = neighbors.size();
+            haloSendCounts = new int[numNeighbors];
+            haloSendDispls = new int[numNeighbors];
+            haloRecvCounts = new int[numNeighbors];
+            haloRecvDispls = new int[numNeighbors];
+            int sendTotal = 0;
+            int recvTotal = 0;
+            for (int i = 0; i < numNeighbors; i++)
+                {
+                Neighbor neighbor = neighbors.get(i);
+                haloSendCounts[i] = neighbor.sendParam.size;
+                haloSendDispls[i] = sendTotal;
+                sendTotal += neighbor.sendParam.size;
+                haloRecvCounts[i] = neighbor.recvParam.size;
+                haloRecvDispls[i] = recvTotal;
+                recvTotal += neighbor.recvParam.size;
+                }
+            haloSendBuffer = primitive.allocateBuffer(sendTotal);
+            haloRecvBuffer = primitive.allocateBuffer(recvTotal);
+            }
+        }
+
+    /**
+     * Sets how far into the halo this field may be read, which must be at most the partition's AOI,
+     * and is by default equal to it.  Only this much of the halo is exchanged with the neighbors, so a field
+     * which is only read near its agents, or not at all beyond the local region (0), costs proportionally less
+     * to sync.  The neighborhood queries of the field will not accept a larger distance.  Call this identically
+     * on all partitions, in start() or between steps.
+     */
+    public void setAOI(int val)
+        {
+        if (val < 0 || val > getPartition().getAOI())
+            throw new IllegalArgumentException("The AOI of a field must be between 0 and the partition's AOI, " + getPartition().getAOI() + ".  You have: " + val);
+        aoi = val;
+        Arrays.fill(history, val);
+        setExtent(val);
+        }
+
+    /** Returns how far into the halo this field may be read. */
+    public int getAOI()
+        {
+        return aoi;
+        }
+
+    /**
+     * Sets whether only as much of the halo is exchanged as the field's neighborhood queries actually need.
+     * If so, the partitions agree each step on the farthest distance that any of them queried the field at
+     * (see noteQuery(...)) over the last several steps (see setAdaptiveAOIWindow(...)), and exchange only that much
+     * of the halo, up to the field's AOI.  If the agents look no farther than they did over those steps, this gives
+     * them exactly what they would otherwise see.  But an agent which suddenly looks farther than that will not see
+     * beyond the extent exchanged until the next step, and you should not use this if your agents read the field
+     * other than through its neighborhood queries, unless they call noteQuery(...) themselves.  Call this
+     * identically on all partitions, in start().  By default this is false.
+     */
+    public void setAdaptiveAOI(boolean val)
+        {
+        adaptiveAOI = val;
+        if (!val)
+            {
+            Arrays.fill(history, aoi);
+            setExtent(aoi);
+            }
+        }
+
+    /** Returns whether only as much of the halo is exchanged as the field's neighborhood queries actually need. */
+    public boolean getAdaptiveAOI()
+        {
+        return adaptiveAOI;
+        }
+
+    /** Sets over how many steps the farthest query distance is taken when adapting the AOI.  By default this is 10.
+        Call this identically on all partitions, in start(). */
+    public void setAdaptiveAOIWindow(int val)
+        {
+        if (val < 1)
+            throw new IllegalArgumentException("The adaptive AOI window must be >= 1.  You have: " + val);
+        history = new int[val];
+        historyIndex = 0;
+        Arrays.fill(history, aoi);
+        }
+
+    /** Returns over how many steps the farthest query distance is taken when adapting the AOI. */
+    public int getAdaptiveAOIWindow()
+        {
+        return history.length;
+        }
+
+    /** Returns how far into the halo the field is currently exchanged with its neighbors. */
+    public int getExtent()
+        {
+        return extent;
+        }
+
+    /** Notes that the field is being read as far as the given distance from a local location.  The
+        neighborhood queries of the field call this, which matters only if the AOI is adaptive. */
+    public void noteQuery(double distance)
+        {
+        if (distance > queried)
+            queried = distance;
+        }
+
+    /** Returns the farthest distance the field has been queried at since the last step, rounded up, at most its AOI,
+        and starts noting queries afresh.  Called by DSimState.  Don't call this directly. */
+    public int takeQueried()
+        {
+        int q = (int) Math.min(aoi, Math.ceil(queried));
+        queried = 0;
+        return q;
+        }
+
+    /** Adapts the extent of the halo to the farthest distance that any partition queried the field at in the last step,
+        and in the steps before that.  Called by DSimState.  Don't call this directly. */
+    public void adaptAOI(int farthest)
+        {
+        history[historyIndex] = farthest;
+        historyIndex = (historyIndex + 1) % history.length;
+        int e = 0;
+        for (int i = 0; i < history.length; i++)
+            e = Math.max(e, history[i]);
+        setExtent(e);
+        }
+
+    // Changes the extent of the halo which is exchanged, clearing whatever is left in the halo beyond it
+    void setExtent(int val)
+        {
+        if (val == extent)
+            return;
+        if (val < extent)
+            {
+            // the strips of the halo to the left and right of the new extent, then above and below it
+            IntRect2D e = localBounds.expand(val);
+            IntRect2D h = haloBounds;
+            clearHalo(h.ul().x, h.ul().y, e.ul().x, h.br().y);
+            clearHalo(e.br().x, h.ul().y, h.br().x, h.br().y);
+            clearHalo(e.ul().x, h.ul().y, e.br().x, e.ul().y);
+            clearHalo(e.ul().x, e.br().y, e.br().x, h.br().y);
+            }
+        extent = val;
+        loadNeighbors();
+        }
+
+    // Clears the given part of the halo, if it is not empty
+    void clearHalo(int ulx, int uly, int brx, int bry)
+        {
+        if (ulx < brx && uly < bry)
+            localStorage.clear(new IntRect2D(new Int2D(ulx, uly), new Int2D(brx, bry)));
         }
 
     // this deletes agents in the Halo before reloading, in order to prevent agents being moved to real space by bound changing
@@ -515,22 +714,11 @@ public class HaloGrid2D<T extends Serializable, S extends GridStorage<T>>
             {
             state.getTransporter().transport((DObject) t, getPartition().toPartitionPID(p), p, this.fieldIndex, ordering, time);
             }
-        else // ...otherwise, RMI
+        else // ...otherwise, queue it for the next sync
             {
-            System.out.println("using RMI");
-            //System.exit(-1);
-            try
-                {
-                // First, remove from schedule
-                assert(t instanceof Stopping); // Assumes that t is not an agent if it's not Stopping
-                unscheduleAgent((Stopping) t);
-                proxy.getField(getPartition().toPartitionPID(p)).addRMI(p, t, ordering, time);
-                }
-            catch (RemoteException e)
-                {
-                // TODO Auto-generated catch block
-                e.printStackTrace();
-                }
+            // First, remove from schedule
+            unscheduleAgent((Stopping) t);
+            getRequests(p).adds.add(new Triplet<>(p, t, new double[]{ordering, time}));
             }
         }
 
@@ -548,22 +736,11 @@ public class HaloGrid2D<T extends Serializable, S extends GridStorage<T>>
             {
             state.getTransporter().transport((DObject) t, getPartition().toPartitionPID(p), p, this.fieldIndex, ordering, time, interval);
             }
-        else // ...otherwise, RMI
+        else // ...otherwise, queue it for the next sync
             {
-
-            try
-                {
-                // First, remove from schedule
-                assert(t instanceof Stopping); // Assumes that t is not an agent if it's not Stopping
-                unscheduleAgent((Stopping) t);
-                // Update using RMI
-                proxy.getField(getPartition().toPartitionPID(p)).addRMI(p, t, ordering, time, interval);
-                }
-            catch (RemoteException e)
-                {
-                // TODO Auto-generated catch block
-                e.printStackTrace();
-                }
+            // First, remove from schedule
+            unscheduleAgent((Stopping) t);
+            getRequests(p).adds.add(new Triplet<>(p, t, new double[]{ordering, time, interval}));
             }
         }
 
@@ -573,20 +750,7 @@ public class HaloGrid2D<T extends Serializable, S extends GridStorage<T>>
      */
     public Promised getFromRemote(Number2D p)
         {
-        try
-            {
-            RemotePromise remotePromise = new RemotePromise();
-            proxy.getField(getPartition().toPartitionPID(p)).getRMI(p, remotePromise);
-            return remotePromise;
-            }
-        catch (NullPointerException e)
-            {
-            throw new IllegalArgumentException("Remote Proxy is not initialized");
-            }
-        catch (RemoteException e)
-            {
-            throw new RuntimeException(e);
-            }
+        return getRequests(p).get(p, null);
         }
 
     /**
@@ -595,21 +759,7 @@ public class HaloGrid2D<T extends Serializable, S extends GridStorage<T>>
      */
     public Promised getFromRemote(Number2D p, long id)
         {
-        try
-            {
-            RemotePromise remotePromise = new RemotePromise();
-            // Make promise remote, then, update promise remotely
-            proxy.getField(getPartition().toPartitionPID(p)).getRMI(p, id, remotePromise);
-            return remotePromise;
-            }
-        catch (NullPointerException e)
-            {
-            throw new IllegalArgumentException("Remote Proxy is not initialized");
-            }
-        catch (RemoteException e)
-            {
-            throw new RuntimeException(e);
-            }
+        return getRequests(p).get(p, id);
         }
 
     /**
@@ -618,26 +768,14 @@ public class HaloGrid2D<T extends Serializable, S extends GridStorage<T>>
      */
     public void addToRemote(Number2D p, T t)
         {
-        try
-            {
-            // If local, then MPI
-            if (state.getTransporter().isNeighbor(getPartition().toPartitionPID(p)))
-                {
-                state.getTransporter().transport((Serializable) t, getPartition().toPartitionPID(p), p, this.fieldIndex);
-                }
-                        
-            else 
-                {
-                proxy.getField(getPartition().toPartitionPID(p)).addRMI(p, t);
-                }
-            }
-        catch (NullPointerException e)
+        // If local, then MPI
+        if (state.getTransporter().isNeighbor(getPartition().toPartitionPID(p)))
             {
-            throw new IllegalArgumentException("Remote Proxy is not initialized");
+            state.getTransporter().transport((Serializable) t, getPartition().toPartitionPID(p), p, this.fieldIndex);
             }
-        catch (RemoteException e)
+        else // ...otherwise, queue it for the next sync
             {
-            throw new RuntimeException(e);
+            getRequests(p).adds.add(new Triplet<>(p, t, null));
             }
         }
 
@@ -647,18 +785,7 @@ public class HaloGrid2D<T extends Serializable, S extends GridStorage<T>>
      */
     public void removeFromRemote(Number2D p, long id)
         {
-        try
-            {
-            proxy.getField(getPartition().toPartitionPID(p)).removeRMI(p, id);
-            }
-        catch (NullPointerException e)
-            {
-            throw new IllegalArgumentException("Remote Proxy is not initialized");
-            }
-        catch (RemoteException e)
-            {
-            throw new RuntimeException(e);
-            }
+        getRequests(p).remove(p, id);
         }
 
     /**
@@ -667,22 +794,97 @@ public class HaloGrid2D<T extends Serializable, S extends GridStorage<T>>
      */
     public void removeAllFromRemote(Number2D p)
         {
-        try
+        getRequests(p).removeAll(p);
+        }
+
+    // Returns the requests queued for the partition which holds p, creating them if need be
+    RemoteRequests<T> getRequests(Number2D p)
+        {
+        int pid = getPartition().toPartitionPID(p);
+        if (outgoingRequests == null)
+            outgoingRequests = new RemoteRequests[getPartition().getNumProcessors()];
+        if (outgoingRequests[pid] == null)
+            outgoingRequests[pid] = new RemoteRequests<T>();
+        return outgoingRequests[pid];
+        }
+
+    /**
+     * Returns the requests this field has queued for the given partition since the
+     * last sync, or null if there are none, and forgets them.  Called by DSimState.
+     * Don't call this directly.
+     */
+    public Serializable takeRemoteRequests(int pid)
+        {
+        if (outgoingRequests == null || outgoingRequests[pid] == null)
+            return null;
+        RemoteRequests<T> requests = outgoingRequests[pid];
+        outgoingRequests[pid] = null;
+        if (sentRequests == null)
+            sentRequests = new RemoteRequests[outgoingRequests.length];
+        sentRequests[pid] = (requests.gets.isEmpty() ? null : requests);
+        return requests;
+        }
+
+    /**
+     * Queues the adds and removes requested of this field by the other partitions,
+     * given in PID order (null where a partition has requested nothing), to be performed
+     * by syncRemoveAndAdd().  Called by DSimState.  Don't call this directly.
+     */
+    @SuppressWarnings("unchecked")
+    public void queueRemoteRequests(ArrayList<Serializable> requests)
+        {
+        for (Serializable r : requests)
             {
-            proxy.getField(getPartition().toPartitionPID(p)).removeAllRMI(p);
+            if (r == null) continue;
+            RemoteRequests<T> req = (RemoteRequests<T>) r;
+            removeQueue.addAll(req.removes);
+            removeAllQueue.addAll(req.removeAlls);
+            addQueue.addAll(req.adds);
             }
-        catch (NullPointerException e)
+        }
+
+    /**
+     * Answers the get requests made of this field by the other partitions, given in
+     * PID order (null where a partition has requested nothing), and returns the answers
+     * for each partition, again null where there are none.  Called by DSimState.
+     * Don't call this directly.
+     */
+    @SuppressWarnings("unchecked")
+    public Serializable[] answerRemoteRequests(ArrayList<Serializable> requests)
+        {
+        Serializable[] answers = new Serializable[requests.size()];
+        for (int i = 0; i < answers.length; i++)
             {
-            throw new IllegalArgumentException("Remote Proxy is not initialized");
+            RemoteRequests<T> req = (RemoteRequests<T>) requests.get(i);
+            if (req == null || req.gets.isEmpty()) continue;
+            ArrayList<Serializable> results = new ArrayList<Serializable>(req.gets.size());
+            for (Pair<Number2D, Long> get : req.gets)
+                results.add(get.b == null ? getLocal(get.a) : getLocal(get.a, get.b));
+            answers[i] = results;
             }
-        catch (RemoteException e)
+        return answers;
+        }
+
+    /**
+     * Fulfills the promises made by getFromRemote(...) with the answers from the other
+     * partitions, given in PID order (null where there are none).  Called by DSimState.
+     * Don't call this directly.
+     */
+    @SuppressWarnings("unchecked")
+    public void fulfillRemoteRequests(ArrayList<Serializable> answers) throws RemoteException
+        {
+        for (int i = 0; i < answers.size(); i++)
             {
-            throw new RuntimeException(e);
+            ArrayList<Serializable> results = (ArrayList<Serializable>) answers.get(i);
+            if (results == null) continue;
+            ArrayList<ArrayList<Promise>> promises = sentRequests[i].promises;
+            for (int j = 0; j < results.size(); j++)
+                for (Promise promise : promises.get(j))
+                    promise.fulfill(results.get(j));
+            sentRequests[i] = null;
             }
         }
 
-
-
     /**
      * Initializes the GridRMICache for this halogrid. Called by DSimState. Don't call
      * this directly.
@@ -787,15 +989,80 @@ public class HaloGrid2D<T extends Serializable, S extends GridStorage<T>>
      */
     public void syncHalo() throws MPIException, RemoteException
         {
-        int numNeighbors = neighbors.size();
-        Serializable[] sendObjs = new Serializable[numNeighbors];
-        for (int i = 0; i < numNeighbors; i++)
-            sendObjs[i] = localStorage.pack(neighbors.get(i).sendParam);
+        startSyncHalo();
+        finishSyncHalo();
+        }
+
+    /**
+     * Begins syncing the halo regions of this grid with its neighbors.  For primitive
+     * storages, this starts the exchange and returns at once: the halo regions are not
+     * updated until finishSyncHalo() is called.  Other storages are synced entirely here.
+     * Called by DSimState.  Don't call this directly.
+     *
+     */
+    public void startSyncHalo() throws MPIException, RemoteException
+        {
+        // nobody reads the halo
+        if (extent == 0)
+            return;
 
-        ArrayList<Serializable> recvObjs = MPIUtil.<Serializable>neighborAllToAll(getPartition(), sendObjs);
+        int numNeighbors = neighbors.size();
+        if (localStorage instanceof PrimitiveStorage)
+            {
+            PrimitiveStorage primitive = (PrimitiveStorage) localStorage;
+            // The neighbors' regions are packed back to back, in neighbor order, so the
+            // buffer positions line up with the displacements computed in reload()
+            long start = Profiler.begin();
+            haloSendBuffer.clear();
+            for (int i = 0; i < numNeighbors; i++)
+                primitive.pack(neighbors.get(i).sendParam, haloSendBuffer);
+            Profiler.end(Profiler.HALO_PACK, start, haloSendBuffer.position(), 0);
+
+            pendingHalo = getPartition().getTransport().startNeighborExchange(haloSendBuffer, haloSendCounts, haloSendDispls,
+                haloRecvBuffer, haloRecvCounts, haloRecvDispls);
+            }
+        else
+            {
+            long start = Profiler.begin();
+            Serializable[] sendObjs = new Serializable[numNeighbors];
+            for (int i = 0; i < numNeighbors; i++)
+                sendObjs[i] = localStorage.pack(neighbors.get(i).sendParam);
+            Profiler.end(Profiler.HALO_PACK, start);
+
+            start = Profiler.begin();
+            ArrayList<Serializable> recvObjs = MPIUtil.<Serializable>neighborAllToAll(getPartition(), sendObjs);
+            Profiler.end(Profiler.HALO_EXCHANGE, start);
+
+            start = Profiler.begin();
+            for (int i = 0; i < numNeighbors; i++)
+                localStorage.unpack(neighbors.get(i).recvParam, recvObjs.get(i));
+            Profiler.end(Profiler.HALO_UNPACK, start);
+            }
+        }
 
-        for (int i = 0; i < numNeighbors; i++)
-            localStorage.unpack(neighbors.get(i).recvParam, recvObjs.get(i));
+    /**
+     * Finishes syncing the halo regions of this grid with its neighbors, as begun by
+     * startSyncHalo(), and answers the queued remote requests for values.
+     * Called by DSimState.  Don't call this directly.
+     *
+     */
+    public void finishSyncHalo() throws MPIException, RemoteException
+        {
+        if (pendingHalo != null)
+            {
+            long start = Profiler.begin();
+            pendingHalo.finish();
+            pendingHalo = null;
+            Profiler.end(Profiler.HALO_EXCHANGE, start);
+
+            start = Profiler.begin();
+            int numNeighbors = neighbors.size();
+            PrimitiveStorage primitive = (PrimitiveStorage) localStorage;
+            haloRecvBuffer.clear();
+            for (int i = 0; i < numNeighbors; i++)
+                primitive.unpack(neighbors.get(i).recvParam, haloRecvBuffer);
+            Profiler.end(Profiler.HALO_UNPACK, start, 0, haloRecvBuffer.position());
+            }
 
         for (Pair<Promised, Number2D> pair : getAllQueue)
             pair.a.fulfill(getLocal(pair.b));
@@ -1048,33 +1315,43 @@ public class HaloGrid2D<T extends Serializable, S extends GridStorage<T>>
 
         Neighbor(IntRect2D neighborPart)
             {
+            // only the halo up to the current extent is exchanged
             ArrayList<IntRect2D> sendOverlaps = generateOverlaps(localBounds,
-                neighborPart.expand(getPartition().getAOI()));
+                neighborPart.expand(extent), 1);
 
-                        
-            ArrayList<IntRect2D> recvOverlaps = generateOverlaps(haloBounds, neighborPart);
+            // the neighbor's send overlaps, shifted the opposite way so that they come in the same order
+            ArrayList<IntRect2D> recvOverlaps = generateOverlaps(localBounds.expand(extent), neighborPart, -1);
 
 
 
                         
             assert sendOverlaps.size() == recvOverlaps.size();
 
-            sendParam = new MPIParam(sendOverlaps, haloBounds, localStorage.getMPIBaseType());
-            recvParam = new MPIParam(recvOverlaps, haloBounds, localStorage.getMPIBaseType());
+            if (getPartition().getTransport().isMPI() && !(localStorage instanceof PrimitiveStorage))
+                {
+                sendParam = new MPIParam(sendOverlaps, haloBounds, localStorage.getMPIBaseType());
+                recvParam = new MPIParam(recvOverlaps, haloBounds, localStorage.getMPIBaseType());
+                }
+            else        // the storage copies the values itself, so no MPI datatypes are needed
+                {
+                sendParam = new MPIParam(sendOverlaps, haloBounds);
+                recvParam = new MPIParam(recvOverlaps, haloBounds);
+                }
                         
                         
 
                         
             }
 
-        ArrayList<IntRect2D> generateOverlaps(IntRect2D p1, IntRect2D p2)
+        // Returns the overlaps of p1 with p2 and, if toroidal, with p2 shifted by SIGN times each wrap around the world
+        ArrayList<IntRect2D> generateOverlaps(IntRect2D p1, IntRect2D p2, int sign)
             {
             ArrayList<IntRect2D> overlaps = new ArrayList<IntRect2D>();
 
             if (getPartition().isToroidal())
                 {
-                int xLen = worldWidth;
-                int yLen = worldHeight;
+                int xLen = worldWidth * sign;
+                int yLen = worldHeight * sign;
 
                 Int2D[] shifts =
                     {
@@ -1126,13 +1403,65 @@ class GridRMICache<T extends Serializable, P extends Number2D>
         GridRMI<T, P> grid = cache[pid];
         if (grid == null)
             {
-            grid = RemoteProcessor.getProcessor(pid).getGrid(fieldId);
+            LocalTransport local = LocalTransport.getCurrent();
+            if (local != null)          // the partition is in this JVM, so go straight to its field
+                grid = (GridRMI<T, P>) local.getState(pid).getFieldList().get(fieldId);
+            else
+                grid = RemoteProcessor.getProcessor(pid).getGrid(fieldId);
             cache[pid] = grid;
             }
         return grid;
         }
     }
 
+// The requests which one partition makes of a field on another, non-neighboring partition during a step.
+// They are shipped together at the next sync.  Repeated gets and removes of the same thing are only sent
+// once, and the answer to a repeated get fulfills all of its promises.
+class RemoteRequests<T extends Serializable> implements Serializable
+    {
+    private static final long serialVersionUID = 1L;
+
+    ArrayList<Triplet<Number2D, T, double[]>> adds = new ArrayList<>();      // location, object, scheduling information or null
+    ArrayList<Pair<Number2D, Long>> removes = new ArrayList<>();
+    ArrayList<Number2D> removeAlls = new ArrayList<>();
+    ArrayList<Pair<Number2D, Long>> gets = new ArrayList<>();               // a null ID gets everything at the location
+
+    // These stay on the requesting partition
+    transient ArrayList<ArrayList<Promise>> promises = new ArrayList<>();    // the promises waiting on each get
+    transient HashMap<Pair<Number2D, Long>, Integer> getIndex = new HashMap<>();
+    transient HashSet<Pair<Number2D, Long>> removeSet = new HashSet<>();
+    transient HashSet<Number2D> removeAllSet = new HashSet<>();
+
+    Promise get(Number2D p, Long id)
+        {
+        Pair<Number2D, Long> key = new Pair<>(p, id);
+        Integer index = getIndex.get(key);
+        if (index == null)
+            {
+            index = gets.size();
+            getIndex.put(key, index);
+            gets.add(key);
+            promises.add(new ArrayList<Promise>());
+            }
+        Promise promise = new Promise();
+        promises.get(index).add(promise);
+        return promise;
+        }
+
+    void remove(Number2D p, long id)
+        {
+        Pair<Number2D, Long> key = new Pair<>(p, id);
+        if (!removeAllSet.contains(p) && removeSet.add(key))
+            removes.add(key);
+        }
+
+    void removeAll(Number2D p)
+        {
+        if (removeAllSet.add(p))
+            removeAlls.add(p);
+        }
+    }
+
 class Pair<A, B> implements Serializable
     {
     private static final long serialVersionUID = 1L;
@@ -1145,6 +1474,18 @@ class Pair<A, B> implements Serializable
         this.a = a;
         this.b = b;
         }
+
+    public boolean equals(Object obj)
+        {
+        if (!(obj instanceof Pair)) return false;
+        Pair<?, ?> other = (Pair<?, ?>) obj;
+        return Objects.equals(a, other.a) && Objects.equals(b, other.b);
+        }
+
+    public int hashCode()
+        {
+        return Objects.hashCode(a) * 31 + Objects.hashCode(b);
+        }
     }
 
 class Triplet<A, B, C> implements Serializable
@@ -9,7 +9,6 @@ package sim.field.continuous;
 
 import java.rmi.RemoteException;
 import java.util.ArrayList;
-import java.util.HashMap;
 
 import sim.engine.DObject;
 import sim.engine.DSimState;
@@ -59,6 +58,20 @@ public class DContinuous2D<T extends DObject> extends DAbstractGrid2D
         return storage;
         }
         
+    /** Sets whether Ghostable agents near the edges of the partition are sent to the halos of its neighbors as
+        ghosts, holding only their public state, rather than in full.  Call this in start(), identically on all
+        partitions.  See Ghostable. */
+    public void setGhosts(boolean val)
+        {
+        storage.setGhosts(val);
+        }
+
+    /** Returns whether Ghostable agents are sent to the halos of neighboring partitions as ghosts. */
+    public boolean getGhosts()
+        {
+        return storage.getGhosts();
+        }
+
     public HaloGrid2D getHaloGrid()
         {
         return halo;
@@ -79,8 +92,7 @@ public class DContinuous2D<T extends DObject> extends DAbstractGrid2D
     /** Returns the local (including halo region) location object with the given id, if any, else null.*/
     public Double2D getObjectLocationLocal(long id)
         {
-        HashMap<Long, Double2D> map = storage.getLocations();
-        return map.get(id);
+        return storage.getObjectLocation(id);
         }
 
     /** Returns the local (including halo region) location of the given object, if any, else null.*/
@@ -92,13 +104,13 @@ public class DContinuous2D<T extends DObject> extends DAbstractGrid2D
     /** Returns true if the object is located locally, including in the halo region.  */
     public boolean containsLocal(T t) 
         {
-        return (getObjectLocationLocal(t.getID()) != null);
+        return storage.contains(t.getID());
         }
 
     /** Returns true if the object is located locally, including in the halo region.  */
     public boolean containsLocal(long id) 
         {
-        return (getObjectLocationLocal(id) != null);
+        return storage.contains(id);
         }
 
     /** Returns true if the object if the given id is located exactly at the given point locally, including the halo region.  */
@@ -115,7 +127,7 @@ public class DContinuous2D<T extends DObject> extends DAbstractGrid2D
 
     /** Returns all the local data located in discretized cell in the <i>vicinity</i> of the given point.  This point
         must lie within the halo region or an exception will be thrown.  */
-    public HashMap<Long, T> getCellLocal(Double2D p) 
+    public ArrayList<T> getCellLocal(Double2D p) 
         {
         if (!isHalo(p)) throwNotLocalException(p);
         return storage.getCell(p);
@@ -126,7 +138,7 @@ public class DContinuous2D<T extends DObject> extends DAbstractGrid2D
 /*
   public ArrayList<T> getAllLocal(Double2D p) 
   {
-  HashMap<Long, T> cell = getCellLocal(p);
+  ArrayList<T> cell = getCellLocal(p);
   ArrayList<T> reduced = new ArrayList<>();
   if (cell == null) return reduced;
   for(T t : cell.values())
@@ -141,18 +153,14 @@ public class DContinuous2D<T extends DObject> extends DAbstractGrid2D
     /** Returns the object associated with the given ID if it stored within the halo region, else null. */
     public T getLocal(long id)
         {
-        Double2D loc = getObjectLocationLocal(id);
-        if (loc != null)
-            return storage.getCell(loc).get(id);
-        else return null;
+        return storage.getObject(id);
         }
 
     /** Returns the object associated with the given ID only if it stored within the halo region at exactly the given point p, else null. */
     public T getLocal(Double2D p, long id)
         {
-        Double2D loc = getObjectLocationLocal(id);
-        if (p.equals(loc))
-            return storage.getCell(loc).get(id);
+        if (p.equals(getObjectLocationLocal(id)))
+            return storage.getObject(id);
         else return null;
         }
                         
@@ -160,99 +168,21 @@ public class DContinuous2D<T extends DObject> extends DAbstractGrid2D
         exists at another local point, it will be removed from that point and moved to the new point. */
     public void addLocal(Double2D p, T t) 
         {
-//              System.out.println("agent: " + t);
-//              System.out.println("map: " + this.storage.getLocations());
-                
-                
         if (!isLocal(p)) throwNotLocalException(p);     
-        Double2D oldLoc = getObjectLocationLocal(t);
-        HashMap<Long, T> newCell = getCellLocal(p);
-                
-
-                
-        if (oldLoc != null)
-            {
-                        
-
-            HashMap<Long, T> oldCell = getCellLocal(oldLoc);
-//                      System.out.println("oldcell: " + oldCell);
-            if (oldCell == newCell)
-                {
-                // don't mess with them
-                }
-            else 
-                {
-                                
-                if (oldCell != null)
-                    {
-                                        
-                    oldCell.remove(t.getID());
-                    if (oldCell.isEmpty() && storage.removeEmptyBags)
-                        {
-                        //storage.setCell(oldLoc, null);
-                        storage.setCell(oldLoc, new HashMap<Long, T>());
-                        }
-                                        
-                    }
-                                
-                                
-                if (newCell == null)
-                    {
-                    newCell = new HashMap<>();
-                    storage.setCell(p, newCell);
-                    }
-                                
-                                
-                newCell.put(t.getID(), t);
-                }
-                        
-
-            }
-                        
-        else
-            {
-                        
-            if (newCell == null)
-                {
-                newCell = new HashMap<>();
-                storage.setCell(p, newCell);
-                }
-            newCell.put(t.getID(), t);
-                        
-            }
-
-                
-        HashMap<Long, Double2D> map = storage.getLocations();
-        map.put(t.getID(), p);
-                
-
+        storage.addObject(p.x, p.y, t);
         }
         
     /** Removes the object of the given id, which must be local.  If it does not exist locally, this method returns FALSE. */
     public boolean removeLocal(long id)
         {
-        return removeLocal(storage.getObjectLocation(id), id);
+        return storage.removeObject(id);
         }
                 
     /** Removes the object, which must be local.  If it doesn't exist, returns FALSE. */
     public boolean removeLocal(T t)
         {
         if (t == null) return false;
-        Double2D loc = getObjectLocationLocal(t);
-        if (loc == null) return false;
-        else
-            {
-            HashMap<Long, T> cell = getCellLocal(loc);
-            if (cell != null)
-                cell.remove(t.getID());
-            if (cell.isEmpty() && storage.removeEmptyBags)
-                {
-                //storage.setCell(loc, null);
-                storage.setCell(loc, new HashMap<Long, T>());
-                }
-
-            return true;
-            }
+        return storage.removeObject(t.getID());
         }
         
     /** Removes the object of the given id, which must be local and exactly at the given location.  If it doesn't exist, returns FALSE. */
@@ -260,21 +190,7 @@ public class DContinuous2D<T extends DObject> extends DAbstractGrid2D
         {
         if (!p.equals(getObjectLocationLocal(id)))
             return false;
-        HashMap<Long, T> cell = getCellLocal(p);
-        T t = cell.get(id);
-        if (t == null) return false;
-        else
-            {
-            if (cell != null)
-                cell.remove(t.getID());
-            if (cell.isEmpty() && storage.removeEmptyBags)
-                {
-                //storage.setCell(p, null);
-                storage.setCell(p, new HashMap<Long, T>());
-                }
-
-            return true;
-            }
+        return storage.removeObject(id);
         }
 
     /** Removes the object, which must be local and exactly at the given location.  If it doesn't exist, returns FALSE. */
@@ -711,38 +627,12 @@ public class DContinuous2D<T extends DObject> extends DAbstractGrid2D
     public ArrayList<T> getNeighborsExactlyWithinDistance(Double2D position, double distance, 
         boolean radial, boolean inclusive, ArrayList<T> result)
         {
-        if (distance > halo.getPartition().getAOI()) throw new RuntimeException("Distance " + distance + " is larger than AOI " + halo.getPartition().getAOI());
+        if (distance > halo.getAOI()) throw new RuntimeException("Distance " + distance + " is larger than AOI " + halo.getAOI());
+        halo.noteQuery(distance);
 
-        int expectedBagSize = 1;  // in the future, pick a smarter bag size?
-
-        ArrayList<T> objs = getNeighborsWithinDistance(position, distance, null);
-        if (result == null) result = new ArrayList<T>(expectedBagSize);
+        if (result == null) result = new ArrayList<T>();
         else result.clear();
-                
-        double distsq = distance*distance;
-        if (radial) 
-            for(T obj : objs)
-                {
-                double d = 0;
-                Double2D loc = storage.getObjectLocation(obj);
-                d = position.distanceSq(loc);
-                if (!(d > distsq || (!inclusive && d >= distsq)))
-                    result.add(obj);
-                }
-        else 
-            for(T obj : objs)
-                {
-                Double2D loc = storage.getObjectLocation(obj);
-                double minx = 0;
-                double miny = 0;
-                minx = loc.x - position.x;
-                miny = loc.y - position.y;
-                if (minx < 0) minx = -minx;
-                if (miny < 0) miny = -miny;
-                if (!((minx > distance || miny > distance) || (!inclusive && (minx >= distance || miny >= distance))))
-                    result.add(obj);
-                }
-        return result;
+        return storage.getObjectsWithin(position.x, position.y, distance, radial, inclusive, result);
         }
 
     /** Returns a bag containing AT LEAST those objects within the bounding box surrounding the
@@ -782,47 +672,16 @@ public class DContinuous2D<T extends DObject> extends DAbstractGrid2D
     
     public ArrayList<T> getNeighborsWithinDistance(Double2D position, double distance, ArrayList<T> result)
         {
-        if (distance > halo.getPartition().getAOI()) throw new RuntimeException("Distance " + distance + " is larger than AOI " + halo.getPartition().getAOI());
+        if (distance > halo.getAOI()) throw new RuntimeException("Distance " + distance + " is larger than AOI " + halo.getAOI());
+        halo.noteQuery(distance);
         
-        int expectedBagSize = 1;  // in the future, pick a smarter bag size?
         if (result!=null) result.clear();
-        else result = new ArrayList<T>(expectedBagSize);
-        ArrayList<T> temp;
-    
-        Int2D min = storage.discretize(new Double2D(position.x - distance, position.y - distance));
-        Int2D max = storage.discretize(new Double2D(position.x + distance, position.y + distance));
-        int minX = min.x;
-        int maxX = max.x;
-        int minY = min.y;
-        int maxY = max.y;
-    
-        // for non-toroidal, it is easier to do the inclusive for-loops
-        for(int x = minX; x<= maxX; x++)
-            for(int y = minY ; y <= maxY; y++)
-                {
-                HashMap<Long, T> cell = storage.getDiscretizedCell(x, y);
-
-                for(T t : cell.values())
-                    {
-                    result.add(t);
-                    }
-                }
-
-        return result;
+        else result = new ArrayList<T>();
+        return storage.getObjectsNear(position.x, position.y, distance, result);
         }
     
     public ArrayList<T> getAllAgentsInStorage()
         {
-        ArrayList<T> allAgents = new ArrayList<T>();
-        for (int i=0; i<this.storage.storage.length; i++) 
-            {
-            for (T t :this.storage.storage[i].values()) 
-                {
-                allAgents.add(t);
-                }
-            }
-        
-        return allAgents;
-
+        return storage.getAllObjects();
         }
     }
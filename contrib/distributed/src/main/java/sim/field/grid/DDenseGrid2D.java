@@ -598,7 +598,8 @@ public class DDenseGrid2D<T extends DObject> extends DAbstractGrid2D
      */
     public ArrayList<T> getMooreNeighbors( final int x, final int y, final int dist, boolean includeOrigin, ArrayList<T> result, IntBag xPos, IntBag yPos )
         {
-        if (dist > halo.getPartition().getAOI()) throw new RuntimeException("Distance " + dist + " is larger than AOI " + halo.getPartition().getAOI());
+        if (dist > halo.getAOI()) throw new RuntimeException("Distance " + dist + " is larger than AOI " + halo.getAOI());
+        halo.noteQuery(dist);
 
         if( xPos == null )
             xPos = new IntBag();
@@ -631,7 +632,8 @@ public class DDenseGrid2D<T extends DObject> extends DAbstractGrid2D
      */
     public ArrayList<T> getMooreNeighborsAndLocations(final int x, final int y, final int dist, boolean includeOrigin, ArrayList<T> result, IntBag xPos, IntBag yPos)
         {
-        if (dist > halo.getPartition().getAOI()) throw new RuntimeException("Distance " + dist + " is larger than AOI " + halo.getPartition().getAOI());
+        if (dist > halo.getAOI()) throw new RuntimeException("Distance " + dist + " is larger than AOI " + halo.getAOI());
+        halo.noteQuery(dist);
 
         if (xPos == null)
             xPos = new IntBag();
@@ -666,7 +668,8 @@ public class DDenseGrid2D<T extends DObject> extends DAbstractGrid2D
      */
     public ArrayList<T> getVonNeumannNeighbors( final int x, final int y, final int dist, boolean includeOrigin, ArrayList<T> result, IntBag xPos, IntBag yPos )
         {
-        if (dist > halo.getPartition().getAOI()) throw new RuntimeException("Distance " + dist + " is larger than AOI " + halo.getPartition().getAOI());
+        if (dist > halo.getAOI()) throw new RuntimeException("Distance " + dist + " is larger than AOI " + halo.getAOI());
+        halo.noteQuery(dist);
 
         if (xPos == null)
             xPos = new IntBag();
@@ -701,7 +704,8 @@ public class DDenseGrid2D<T extends DObject> extends DAbstractGrid2D
      */
     public ArrayList<T> getVonNeumannNeighborsAndLocations(final int x, final int y, final int dist, boolean includeOrigin, ArrayList<T> result, IntBag xPos, IntBag yPos)
         {
-        if (dist > halo.getPartition().getAOI()) throw new RuntimeException("Distance " + dist + " is larger than AOI " + halo.getPartition().getAOI());
+        if (dist > halo.getAOI()) throw new RuntimeException("Distance " + dist + " is larger than AOI " + halo.getAOI());
+        halo.noteQuery(dist);
 
         if( xPos == null )
             xPos = new IntBag();
@@ -736,7 +740,8 @@ public class DDenseGrid2D<T extends DObject> extends DAbstractGrid2D
      */
     public ArrayList<T> getHexagonalNeighbors( final int x, final int y, final int dist, boolean includeOrigin, ArrayList<T> result, IntBag xPos, IntBag yPos )
         {
-        if (dist > halo.getPartition().getAOI()) throw new RuntimeException("Distance " + dist + " is larger than AOI " + halo.getPartition().getAOI());
+        if (dist > halo.getAOI()) throw new RuntimeException("Distance " + dist + " is larger than AOI " + halo.getAOI());
+        halo.noteQuery(dist);
 
         if( xPos == null )
             xPos = new IntBag();
@@ -770,7 +775,8 @@ public class DDenseGrid2D<T extends DObject> extends DAbstractGrid2D
      */
     public ArrayList<T> getHexagonalNeighborsAndLocations(final int x, final int y, final int dist, boolean includeOrigin, ArrayList<T> result, IntBag xPos, IntBag yPos)
         {
-        if (dist > halo.getPartition().getAOI()) throw new RuntimeException("Distance " + dist + " is larger than AOI " + halo.getPartition().getAOI());
+        if (dist > halo.getAOI()) throw new RuntimeException("Distance " + dist + " is larger than AOI " + halo.getAOI());
+        halo.noteQuery(dist);
 
         if( xPos == null )
             xPos = new IntBag();
@@ -798,7 +804,8 @@ public class DDenseGrid2D<T extends DObject> extends DAbstractGrid2D
 
     public ArrayList<T> getRadialNeighbors( final int x, final int y, final double dist, boolean includeOrigin,  int measurementRule, boolean closed,  ArrayList<T> result, IntBag xPos, IntBag yPos )
         {
-        if (dist > halo.getPartition().getAOI()) throw new RuntimeException("Distance " + dist + " is larger than AOI " + halo.getPartition().getAOI());
+        if (dist > halo.getAOI()) throw new RuntimeException("Distance " + dist + " is larger than AOI " + halo.getAOI());
+        halo.noteQuery(dist);
 
         if( xPos == null )
             xPos = new IntBag();
@@ -812,7 +819,8 @@ public class DDenseGrid2D<T extends DObject> extends DAbstractGrid2D
 
     public ArrayList<T> getRadialNeighborsAndLocations( final int x, final int y, final double dist, boolean includeOrigin,  int measurementRule, boolean closed,  ArrayList<T> result, IntBag xPos, IntBag yPos )
         {
-        if (dist > halo.getPartition().getAOI()) throw new RuntimeException("Distance " + dist + " is larger than AOI " + halo.getPartition().getAOI());
+        if (dist > halo.getAOI()) throw new RuntimeException("Distance " + dist + " is larger than AOI " + halo.getAOI());
+        halo.noteQuery(dist);
 
         if( xPos == null )
             xPos = new IntBag();
@@ -314,7 +314,8 @@ public class DObjectGrid2D<T extends DObject> extends DAbstractGrid2D
      */
     public ArrayList<T> getMooreNeighbors( final int x, final int y, final int dist, boolean includeOrigin, ArrayList<T> result, IntBag xPos, IntBag yPos )
         {
-        if (!isHaloToroidal(x, y, dist)) throw new RuntimeException("Distance " + dist + " is larger than AOI " + halo.getPartition().getAOI());
+        if (dist > halo.getAOI() || !isHaloToroidal(x, y, dist)) throw new RuntimeException("Distance " + dist + " is larger than AOI " + halo.getAOI());
+        halo.noteQuery(dist);
 
         if( xPos == null )
             xPos = new IntBag();
@@ -347,7 +348,8 @@ public class DObjectGrid2D<T extends DObject> extends DAbstractGrid2D
      */
     public ArrayList<T> getMooreNeighborsAndLocations(final int x, final int y, final int dist, boolean includeOrigin, ArrayList<T> result, IntBag xPos, IntBag yPos)
         {
-        if (!isHaloToroidal(x, y, dist)) throw new RuntimeException("Distance " + dist + " is larger than AOI " + halo.getPartition().getAOI());
+        if (dist > halo.getAOI() || !isHaloToroidal(x, y, dist)) throw new RuntimeException("Distance " + dist + " is larger than AOI " + halo.getAOI());
+        halo.noteQuery(dist);
 
         if( xPos == null )
             xPos = new IntBag();
@@ -382,7 +384,8 @@ public class DObjectGrid2D<T extends DObject> extends DAbstractGrid2D
      */
     public ArrayList<T> getVonNeumannNeighbors( final int x, final int y, final int dist, boolean includeOrigin, ArrayList<T> result, IntBag xPos, IntBag yPos )
         {
-        if (!isHaloToroidal(x, y, dist)) throw new RuntimeException("Distance " + dist + " is larger than AOI " + halo.getPartition().getAOI());
+        if (dist > halo.getAOI() || !isHaloToroidal(x, y, dist)) throw new RuntimeException("Distance " + dist + " is larger than AOI " + halo.getAOI());
+        halo.noteQuery(dist);
 
         if( xPos == null )
             xPos = new IntBag();
@@ -417,7 +420,8 @@ public class DObjectGrid2D<T extends DObject> extends DAbstractGrid2D
      */
     public ArrayList<T> getVonNeumannNeighborsAndLocations(final int x, final int y, final int dist, boolean includeOrigin, ArrayList<T> result, IntBag xPos, IntBag yPos)
         {
-        if (!isHaloToroidal(x, y, dist)) throw new RuntimeException("Distance " + dist + " is larger than AOI " + halo.getPartition().getAOI());
+        if (dist > halo.getAOI() || !isHaloToroidal(x, y, dist)) throw new RuntimeException("Distance " + dist + " is larger than AOI " + halo.getAOI());
+        halo.noteQuery(dist);
 
         if( xPos == null )
             xPos = new IntBag();
@@ -452,7 +456,8 @@ public class DObjectGrid2D<T extends DObject> extends DAbstractGrid2D
      */
     public ArrayList<T> getHexagonalNeighbors( final int x, final int y, final int dist, boolean includeOrigin, ArrayList<T> result, IntBag xPos, IntBag yPos )
         {
-        if (!isHaloToroidal(x, y, dist)) throw new RuntimeException("Distance " + dist + " is larger than AOI " + halo.getPartition().getAOI());
+        if (dist > halo.getAOI() || !isHaloToroidal(x, y, dist)) throw new RuntimeException("Distance " + dist + " is larger than AOI " + halo.getAOI());
+        halo.noteQuery(dist);
 
         if( xPos == null )
             xPos = new IntBag();
@@ -486,7 +491,8 @@ public class DObjectGrid2D<T extends DObject> extends DAbstractGrid2D
      */
     public ArrayList<T> getHexagonalNeighborsAndLocations(final int x, final int y, final int dist, boolean includeOrigin, ArrayList<T> result, IntBag xPos, IntBag yPos)
         {
-        if (!isHaloToroidal(x, y, dist)) throw new RuntimeException("Distance " + dist + " is larger than AOI " + halo.getPartition().getAOI());
+        if (dist > halo.getAOI() || !isHaloToroidal(x, y, dist)) throw new RuntimeException("Distance " + dist + " is larger than AOI " + halo.getAOI());
+        halo.noteQuery(dist);
 
         if( xPos == null )
             xPos = new IntBag();
@@ -514,7 +520,8 @@ public class DObjectGrid2D<T extends DObject> extends DAbstractGrid2D
 
     public ArrayList<T> getRadialNeighbors( final int x, final int y, final double dist, boolean includeOrigin,  int measurementRule, boolean closed,  ArrayList<T> result, IntBag xPos, IntBag yPos )
         {
-        if (!isHaloToroidal(x, y, dist)) throw new RuntimeException("Distance " + dist + " is larger than AOI " + halo.getPartition().getAOI());
+        if (dist > halo.getAOI() || !isHaloToroidal(x, y, dist)) throw new RuntimeException("Distance " + dist + " is larger than AOI " + halo.getAOI());
+        halo.noteQuery(dist);
 
         if( xPos == null )
             xPos = new IntBag();
@@ -528,7 +535,8 @@ public class DObjectGrid2D<T extends DObject> extends DAbstractGrid2D
 
     public ArrayList<T> getRadialNeighborsAndLocations( final int x, final int y, final double dist, boolean includeOrigin,  int measurementRule, boolean closed,  ArrayList<T> result, IntBag xPos, IntBag yPos )
         {
-        if (!isHaloToroidal(x, y, dist)) throw new RuntimeException("Distance " + dist + " is larger than AOI " + halo.getPartition().getAOI());
+        if (dist > halo.getAOI() || !isHaloToroidal(x, y, dist)) throw new RuntimeException("Distance " + dist + " is larger than AOI " + halo.getAOI());
+        halo.noteQuery(dist);
 
         if( xPos == null )
             xPos = new IntBag();
@@ -0,0 +1,295 @@
+/*
+  Copyright 2022 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.field.partitioning;
+
+import java.util.*;
+import java.util.function.Consumer;
+import mpi.*;
+import sim.util.*;
+
+/**
+ * A Partition which divides the world by recursive bisection rather than as a quad tree, and so
+ * works for any number of processors, not just powers of four.  The world is cut in two along its
+ * longer side, with the processors divided between the halves in proportion (for example 24 processors
+ * become 12 and 12, and 5 become 2 and 3), and each half is cut again the same way until every processor
+ * has its own rectangle.  Neighboring rectangles need not line up, so a processor may have any number of
+ * neighbors; they are all the processors whose rectangles intersect its halo.
+ *
+ * <p>Balancing moves every cut at once.  Each processor reports its load, which is assumed to be spread
+ * evenly over its rectangle, and each cut is moved to where it would divide the load of its two halves in
+ * proportion to the number of processors in them.  As in Partition, no cut moves by more than the AOI in a
+ * single balance, and no rectangle may become narrower than the AOI.
+ *
+ * <p>Like Partition, every processor holds the complete tree and computes the same result, so no
+ * group communicators are needed.
+ */
+public class BisectionPartition extends Partition
+    {
+    // A node of the bisection tree, holding the processors lo ... hi-1.  Leaves hold a single processor.
+    static class Node
+        {
+        IntRect2D shape;
+        int lo, hi;
+        int dim;                // dimension which is cut, 0 for x and 1 for y
+        int cut;                // where it is cut: the low child is below cut, the high child at or above it
+        Node low, high;
+        int[] minExtent = new int[2];   // the smallest this node may be in each dimension
+
+        boolean isLeaf() { return low == null; }
+        }
+
+    Node root;
+    Node[] leaves;
+    int depth;
+
+    public BisectionPartition(int width, int height, boolean toroidal, int aoi)
+        {
+        super(width, height, toroidal, aoi);
+        }
+
+    public void initialize()
+        {
+        leaves = new Node[numProcessors];
+        root = build(new IntRect2D(width, height), 0, numProcessors, 0);
+        createMPITopo();
+        }
+
+    Node build(IntRect2D shape, int lo, int hi, int level)
+        {
+        Node node = new Node();
+        node.shape = shape;
+        node.lo = lo;
+        node.hi = hi;
+        depth = Math.max(depth, level);
+        if (hi - lo == 1)
+            {
+            leaves[lo] = node;
+            node.minExtent[0] = node.minExtent[1] = aoi;
+            return node;
+            }
+
+        int n = hi - lo;
+        int n1 = n / 2;
+        node.dim = (shape.getWidth() >= shape.getHeight() ? 0 : 1);
+        int start = (node.dim == 0 ? shape.ul().x : shape.ul().y);
+        int extent = (node.dim == 0 ? shape.getWidth() : shape.getHeight());
+        node.cut = start + (int) ((long) extent * n1 / n);
+        node.low = build(lowShape(node), lo, lo + n1, level + 1);
+        node.high = build(highShape(node), lo + n1, hi, level + 1);
+
+        for (int d = 0; d < 2; d++)
+            node.minExtent[d] = (d == node.dim ? node.low.minExtent[d] + node.high.minExtent[d] :
+                Math.max(node.low.minExtent[d], node.high.minExtent[d]));
+        if (node.cut - start < node.low.minExtent[node.dim] || start + extent - node.cut < node.high.minExtent[node.dim])
+            throw new IllegalArgumentException("The world " + width + " x " + height + " is too small for " + numProcessors +
+                " partitions with an AOI of " + aoi + ".  You have: " + shape + " to divide among " + n + " partitions.");
+        return node;
+        }
+
+    static IntRect2D lowShape(Node node)
+        {
+        IntRect2D s = node.shape;
+        return (node.dim == 0 ? new IntRect2D(s.ul(), new Int2D(node.cut, s.br().y)) :
+            new IntRect2D(s.ul(), new Int2D(s.br().x, node.cut)));
+        }
+
+    static IntRect2D highShape(Node node)
+        {
+        IntRect2D s = node.shape;
+        return (node.dim == 0 ? new IntRect2D(new Int2D(node.cut, s.ul().y), s.br()) :
+            new IntRect2D(new Int2D(s.ul().x, node.cut), s.br()));
+        }
+
+    public IntRect2D getLocalBounds()
+        {
+        return leaves[pid].shape;
+        }
+
+    public IntRect2D getLocalBounds(final int pid)
+        {
+        if (pid < 0 || pid >= numProcessors)
+            throw new IllegalArgumentException("The partition for " + pid + " does not exist");
+        return leaves[pid].shape;
+        }
+
+    public IntRect2D getHaloBounds()
+        {
+        return leaves[pid].shape.expand(aoi);
+        }
+
+    public ArrayList<IntRect2D> getAllBounds()
+        {
+        ArrayList<IntRect2D> allBounds = new ArrayList<>();
+        for (int i = 0; i < numProcessors; i++)
+            allBounds.add(leaves[i].shape);
+        return allBounds;
+        }
+
+    public int[] getNeighborPIDs()
+        {
+        IntRect2D halo = getHaloBounds();
+        ArrayList<Int2D> shifts = new ArrayList<Int2D>();
+        shifts.add(new Int2D(0, 0));
+        if (toroidal)
+            for (int dx = -1; dx <= 1; dx++)
+                for (int dy = -1; dy <= 1; dy++)
+                    if (dx != 0 || dy != 0)
+                        shifts.add(new Int2D(dx * width, dy * height));
+
+        ArrayList<Integer> neighbors = new ArrayList<Integer>();
+        for (int i = 0; i < numProcessors; i++)
+            {
+            if (i == pid)
+                continue;
+            for (Int2D shift : shifts)
+                if (halo.intersects(leaves[i].shape.add(shift)))
+                    {
+                    neighbors.add(i);
+                    break;
+                    }
+            }
+
+        int[] pids = new int[neighbors.size()];
+        for (int i = 0; i < pids.length; i++)
+            pids[i] = neighbors.get(i);
+        return pids;
+        }
+
+    public int toPartitionPID(final Number2D p)
+        {
+        if (!root.shape.contains(p))
+            throw new IllegalArgumentException("p " + p + " must be inside the shape " + root.shape);
+        Node node = root;
+        while (!node.isLeaf())
+            node = (p.getVal(node.dim) < node.cut ? node.low : node.high);
+        return node.lo;
+        }
+
+    // There are no group communicators: balance() gathers from everyone
+    protected void createGroups() throws MPIException
+        {
+        groups = new HashMap<Integer, GroupComm>();
+        }
+
+    public boolean isRootProcessor()
+        {
+        return pid == 0;
+        }
+
+    public int getTreeDepth()
+        {
+        return depth;
+        }
+
+    /** Returns 1: balance() moves every cut at once, so there is only one level to balance. */
+    public int getBalanceLevels()
+        {
+        return 1;
+        }
+
+    /** Returns the processors in the node at the given depth of the bisection tree which holds this processor. */
+    public int[] getProcessorNeighborhood(int level)
+        {
+        Node node = root;
+        for (int i = 0; i < level && !node.isLeaf(); i++)
+            node = (pid < node.high.lo ? node.low : node.high);
+        int[] pids = new int[node.hi - node.lo];
+        for (int i = 0; i < pids.length; i++)
+            pids[i] = node.lo + i;
+        return pids;
+        }
+
+    /**
+     * Balance the partitions by moving every cut.  The level is ignored.
+     *
+     * @param myRuntime
+     * @param level
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public void balance(final double myRuntime, final int level) throws MPIException
+        {
+        final ArrayList<Double> loads = transport.allGather(myRuntime);
+
+        // the load per unit area of each processor, over its present rectangle
+        final IntRect2D[] oldShapes = new IntRect2D[numProcessors];
+        final double[] density = new double[numProcessors];
+        for (int i = 0; i < numProcessors; i++)
+            {
+            oldShapes[i] = leaves[i].shape;
+            density[i] = Math.max(0, loads.get(i)) / Math.max(1, oldShapes[i].getArea());
+            }
+
+        // call precommit
+        for (final Consumer r : (ArrayList<Consumer>) preCallbacks)
+            r.accept(level);
+
+        rebalance(root, oldShapes, density);
+
+        // Assigns new neighbors after balancing
+        createMPITopo();
+
+        // call postcommit
+        for (final Consumer r : (ArrayList<Consumer>) postCallbacks)
+            r.accept(level);
+        }
+
+    // Moves the cut of the node, whose shape has already been set, then reshapes and rebalances its children
+    void rebalance(Node node, IntRect2D[] oldShapes, double[] density)
+        {
+        if (node.isLeaf())
+            return;
+
+        int start = (node.dim == 0 ? node.shape.ul().x : node.shape.ul().y);
+        int end = (node.dim == 0 ? node.shape.br().x : node.shape.br().y);
+
+        // find the cut which divides the load in proportion to the processors on each side
+        double total = load(node, end, oldShapes, density);
+        if (total > 0)
+            {
+            double target = total * (node.high.lo - node.lo) / (node.hi - node.lo);
+            int a = start, b = end;         // load(a) <= target, load(b) >= target
+            while (b - a > 1)
+                {
+                int mid = (a + b) >>> 1;
+                if (load(node, mid, oldShapes, density) < target)
+                    a = mid;
+                else
+                    b = mid;
+                }
+            node.cut = Math.max(node.cut - aoi, Math.min(node.cut + aoi, b));
+            }
+
+        // keep both sides large enough, even if the node itself has changed shape
+        node.cut = Math.max(start + node.low.minExtent[node.dim], Math.min(end - node.high.minExtent[node.dim], node.cut));
+
+        node.low.shape = lowShape(node);
+        node.high.shape = highShape(node);
+        rebalance(node.low, oldShapes, density);
+        rebalance(node.high, oldShapes, density);
+        }
+
+    // Returns the load of the part of the node below the given position, as estimated from the old rectangles of all the processors
+    double load(Node node, int position, IntRect2D[] oldShapes, double[] density)
+        {
+        IntRect2D s = node.shape;
+        if (node.dim == 0 ? position <= s.ul().x : position <= s.ul().y)
+            return 0;
+        IntRect2D below = (node.dim == 0 ? new IntRect2D(s.ul(), new Int2D(position, s.br().y)) :
+            new IntRect2D(s.ul(), new Int2D(s.br().x, position)));
+
+        double sum = 0;
+        for (int i = 0; i < numProcessors; i++)
+            if (below.intersects(oldShapes[i]))
+                sum += density[i] * below.getIntersection(oldShapes[i]).getArea();
+        return sum;
+        }
+
+    public String toString()
+        {
+        return "BisectionPartition [leaves=" + Arrays.toString(getAllBounds().toArray()) + ", aoi=" + aoi + "]";
+        }
+    }
@@ -11,6 +11,7 @@ import java.util.*;
 import mpi.*;
 import sim.util.*;
 import sim.engine.*;
+import sim.engine.mpi.*;
 import java.util.function.Consumer;
 
 /**
@@ -32,6 +33,7 @@ public class Partition
     int height;
     boolean toroidal;
     protected Comm comm;
+    protected Transport transport;
     protected int aoi;
 
     ArrayList<Consumer> preCallbacks, postCallbacks;
@@ -44,16 +46,12 @@ public class Partition
         this.aoi = aoi;
         // TODO here check aoi < partition?
 
-        try
-            {
-            pid = DSimState.getPID();
-            numProcessors = MPI.COMM_WORLD.getSize();
-            }
-        catch (MPIException e)
-            {
-            e.printStackTrace();
-            System.exit(-1);
-            }
+        // If we're running in a thread started by LocalTransport, use it, else use MPI
+        transport = LocalTransport.getCurrent();
+        if (transport == null)
+            transport = new MPITransport();
+        pid = transport.getRank();
+        numProcessors = transport.getSize();
 
         preCallbacks = new ArrayList<Consumer>();
         postCallbacks = new ArrayList<Consumer>();
@@ -77,11 +75,18 @@ public class Partition
         return toroidal;
         }
 
+    /** Returns the MPI neighborhood communicator, or null if the partition is not using MPI. */
     public Comm getCommunicator()
         {
         return comm;
         }
 
+    /** Returns the Transport used to communicate among partitions. */
+    public Transport getTransport()
+        {
+        return transport;
+        }
+
     public int getWorldWidth()
         {
         return width;
@@ -185,13 +190,10 @@ public class Partition
 
         try
             {
-            if(comm != null)
-                {
-                comm.free();
-                //MPI.COMM_WORLD.barrier(); not sure if needed
-                }
             // Create a unweighted & undirected graph for neighbor communication
-            comm = MPI.COMM_WORLD.createDistGraphAdjacent(ns, ns, new Info(), false);
+            transport.setNeighbors(ns);
+            if (transport instanceof MPITransport)
+                comm = ((MPITransport) transport).getCommunicator();
 
             // Create the group comms for nodes at the same level (intercomm) and for nodes
             // and its all leaves (intracomm)
@@ -442,20 +444,20 @@ public class Partition
                 if (node.isAncestorOf(myLeafNode))
                     {
 
-                    groups.put(currDepth, new GroupComm(node));
+                    groups.put(currDepth, new GroupComm(node, transport.isMPI()));
 
                     }
 
                 // Others will wait until the group is created
-                MPI.COMM_WORLD.barrier();
+                transport.barrier();
 
                 }
 
             final GroupComm gc = groups.get(currDepth);
-            if (isGroupMaster(gc))
+            if (isGroupMaster(gc) && transport.isMPI())
                 gc.setInterComm(currLevel);
 
-            MPI.COMM_WORLD.barrier();
+            transport.barrier();
 
             currLevel = nextLevel;
             currDepth++;
@@ -521,6 +523,12 @@ public class Partition
         return null;
         }
 
+    /** Returns the number of levels which balance(...) may be called with, 0 ... getBalanceLevels() - 1. */
+    public int getBalanceLevels()
+        {
+        return qt.getDepth();
+        }
+
     /**
      * @return the treeDepth
      */
@@ -579,17 +587,33 @@ public class Partition
 
         Object[] sendCentroids = new Object[] { null };
 
-        if (gc != null)
-            {
-            Double2D d = myLeafNode.getShape().getCenter();
-            final Int2D ctr = new Int2D((int) Math.floor(d.x), (int) Math.floor(d.y));
-            final double[] sendData = new double[3], recvData = new double[3]; // 2 (num dimensions) + 1
+        Double2D d = myLeafNode.getShape().getCenter();
+        final Int2D ctr = new Int2D((int) Math.floor(d.x), (int) Math.floor(d.y));
+        final double[] sendData = new double[3], recvData = new double[3]; // 2 (num dimensions) + 1
 
-            sendData[0] = myRuntime;
-            sendData[1] = ctr.x * myRuntime;
-            sendData[2] = ctr.y * myRuntime;
+        sendData[0] = myRuntime;
+        sendData[1] = ctr.x * myRuntime;
+        sendData[2] = ctr.y * myRuntime;
 
-            gc.comm.reduce(sendData, recvData, recvData.length, MPI.DOUBLE, MPI.SUM, gc.groupRoot);
+        // Without MPI there are no group communicators, so we gather everyone's data
+        // and each group master sums up the data of its own leaves
+        ArrayList<double[]> allData = null;
+        if (!transport.isMPI())
+            allData = transport.allGather(sendData);
+
+        if (gc != null)
+            {
+            if (transport.isMPI())
+                gc.comm.reduce(sendData, recvData, recvData.length, MPI.DOUBLE, MPI.SUM, gc.groupRoot);
+            else if (isGroupMaster(gc))
+                {
+                for (final QuadTreeNode leaf : gc.leaves)
+                    {
+                    final double[] data = allData.get(leaf.getProcessor());
+                    for (int i = 0; i < recvData.length; i++)
+                        recvData[i] += data[i];
+                    }
+                }
 
             if (isGroupMaster(gc))
                 {
@@ -600,12 +624,25 @@ public class Partition
                     double x = recvData[i];
                     locVals[i - 1] = (int) (x / recvData[0]);
                     }
+
+                // Move the origin by at most aoi in each dimension, and keep it at least aoi from the
+                // edges.  The fields are reshaped before their agents migrate, so every point a partition
+                // gives up must still lie within its new halo; and no partition may become narrower than aoi.
+                Int2D origin = gc.master.getOrigin();
+                IntRect2D shape = gc.master.getShape();
+                if (origin != null)
+                    {
+                    locVals[0] = Math.max(origin.x - aoi, Math.min(origin.x + aoi, locVals[0]));
+                    locVals[1] = Math.max(origin.y - aoi, Math.min(origin.y + aoi, locVals[1]));
+                    }
+                locVals[0] = Math.max(shape.ul().x + aoi, Math.min(shape.br().x - aoi, locVals[0]));
+                locVals[1] = Math.max(shape.ul().y + aoi, Math.min(shape.br().y - aoi, locVals[1]));
                 sendCentroids = new Object[] { gc.master.getId(), new Int2D(locVals) };
                 }
             }
 
         // broadcast to all nodes
-        final ArrayList<Object[]> newCentroids = MPIUtil.<Object[]>allGather(MPI.COMM_WORLD, sendCentroids);
+        final ArrayList<Object[]> newCentroids = transport.allGather(sendCentroids);
 
         // call precommit
         for (final Consumer r : (ArrayList<Consumer>) preCallbacks)
@@ -3,20 +3,38 @@
   Licensed under the Academic Free License version 3.0
   See the file "LICENSE" for more information
 */
-        
+
 package sim.field.storage;
 
+import java.io.IOException;
 import java.io.Serializable;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 
 import sim.engine.DObject;
+import sim.engine.Located;
+import sim.engine.mpi.Ghostable;
+import sim.engine.mpi.MigrationCodec;
 import sim.util.Double2D;
 import sim.util.Int2D;
 import sim.util.IntRect2D;
 import sim.util.MPIParam;
 import sim.util.Number2D;
 
+/**
+ * Storage for a continuous field.  Each object is held in a slot: its ID maps to the slot through a
+ * SlotMap, and the slot holds the object and its location as two doubles.  The field is discretized into
+ * cells, and each cell holds an int list of the slots of the objects located in it.  Moving an object
+ * thus allocates nothing, and neighborhood queries scan plain arrays.  Freed slots are reused.
+ *
+ * <p>The halo regions are packed into a single byte array: first the objects' locations as raw doubles,
+ * then the objects themselves as encoded by a MigrationCodec, which writes Encodable objects as a handful
+ * of primitives and serializes the rest.  In ghost mode (see setGhosts(...)), Ghostable objects are instead
+ * sent as ghosts, holding only their public state, and the ghosts received in one exchange are reused by the next.
+ */
 public class ContinuousStorage<T extends DObject> extends GridStorage<T>
     {
     private static final long serialVersionUID = 1L;
@@ -24,9 +42,24 @@ public class ContinuousStorage<T extends DObject> extends GridStorage<T>
     // note that this is the DISCRETIZED WIDTH (and the DISCRETIZED HEIGHT is height in GridStorage)
     int width;
     int discretization;
-    public HashMap<Long, Double2D> locations; // id -> DObject's location
-    public HashMap<Long, T>[] storage; // id -> DObject
-    public boolean removeEmptyBags = true;
+
+    SlotMap slots;              // id -> slot
+    Object[] objects;           // the object in each slot, or null if the slot is free
+    double[] xs;                // the location of the object in each slot
+    double[] ys;
+    int[] cellOf;               // the cell holding each slot
+    int[] indexInCell;          // where each slot lies in its cell's list
+    int numSlots;               // slots 0 ... numSlots-1 have been used
+    int[] freeSlots = new int[16];
+    int numFree;
+
+    int[][] cells;              // the slots of the objects in each cell
+    int[] cellSizes;
+
+    transient MigrationCodec codec;
+    transient ByteBuffer packBuffer;
+    // whether Ghostable objects in the halo are sent as ghosts
+    boolean ghosts = false;
 
     public ContinuousStorage(final IntRect2D shape, int discretization)
         {
@@ -35,14 +68,28 @@ public class ContinuousStorage<T extends DObject> extends GridStorage<T>
         clear();
         }
 
-    public HashMap<Long, Double2D> getLocations()
+    public int getDiscretization()
         {
-        return locations;
+        return discretization;
         }
 
-    public int getDiscretization()
+    /** Sets whether Ghostable objects are sent to the halos of neighboring partitions as ghosts, holding only their
+        public state, rather than in full.  This must be set the same way on all partitions. */
+    public void setGhosts(boolean val)
         {
-        return discretization;
+        ghosts = val;
+        }
+
+    /** Returns whether Ghostable objects are sent to the halos of neighboring partitions as ghosts. */
+    public boolean getGhosts()
+        {
+        return ghosts;
+        }
+
+    /** Returns the number of objects in the storage. */
+    public int size()
+        {
+        return slots.size();
         }
 
     public String toString()
@@ -53,7 +100,7 @@ public class ContinuousStorage<T extends DObject> extends GridStorage<T>
             {
             for (int y = 0; y < height; y++)
                 {
-                HashMap<Long, T> cell = getDiscretizedCell(x, y);
+                ArrayList<T> cell = getDiscretizedCell(x, y);
                 if (cell.size() > 0)
                     string.append("Cell (" + x + ", " + y + "):\t" + cell + "\n");
                 }
@@ -69,326 +116,570 @@ public class ContinuousStorage<T extends DObject> extends GridStorage<T>
      */
     public Int2D discretize(Double2D p)
         {
-        double[] offsets = shape.ul().getOffsets(p);
+        return new Int2D(discretizeX(p.x), discretizeY(p.y));
+        }
 
-        int[] ans = new int[2];
-        for (int i = 0; i < offsets.length; i++)
-            {
-            ans[i] = 0 - (int) (offsets[i] / (double) discretization);
-            }
-        return new Int2D(ans);
+    int discretizeX(double x)
+        {
+        return (int) ((x - shape.ul().x) / discretization);
         }
-        
-    //takes storage index and creates IntRect2D 
+
+    int discretizeY(double y)
+        {
+        return (int) ((y - shape.ul().y) / discretization);
+        }
+
+    // Returns the index of the cell holding the given world point
+    int cellIndex(double x, double y)
+        {
+        return getFlatIndex(discretizeX(x), discretizeY(y));
+        }
+
+    //takes storage index and creates IntRect2D
     public IntRect2D getCellBounds(int index)
         {
         int xLow = index / this.height;
         int yLow = index % this.height;
-                
+
         int xHigh = xLow + 1;
         int yHigh = yLow + 1;
-                
+
         //undiscetize
         xLow = xLow * discretization;
         yLow = yLow * discretization;
         xHigh = xHigh * discretization;
         yHigh = yHigh * discretization;
-                
+
         //offset
         Int2D cellUL = new Int2D(xLow, yLow); //include
         Int2D cellBR = new Int2D(xHigh, yHigh);  //don't include
-                
+
         Int2D finalCellUL = cellUL.add(shape.ul());
         Int2D finalCellBR = cellBR.add(shape.ul());
-        
-        //System.out.println(this.getShape()+" index "+index+"ul "+finalCellUL+"br "+finalCellBR);
 
         return new IntRect2D(finalCellUL,finalCellBR);
         }
 
-    void setCelldp(final Int2D p, HashMap<Long, T> cell)
+    /** Returns the number of cells, which are indexed 0 ... getNumCells() - 1. */
+    public int getNumCells()
         {
-        storage[getFlatIndex(p.x, p.y)] = cell;
+        return cells.length;
         }
 
-    /** Sets the given discretized cell. */
-    void setCelldp(int x, int y, HashMap<Long, T> cell)
+    /** Returns the objects in the cell with the given index. */
+    public ArrayList<T> getCellObjects(int index)
         {
-        storage[getFlatIndex(x, y)] = cell;
+        ArrayList<T> result = new ArrayList<T>(cellSizes[index]);
+        addCellObjects(index, result);
+        return result;
         }
 
-    /**
-     * Sets the cell which contains the given world point. Does not check to see if
-     * the point is out of bounds.
-     */
-    public void setCell(final Double2D p, HashMap<Long, T> cell)
-        {
-        setCelldp(discretize(p), cell);
-        }
-
-    /** Returns the given discretized cell. */
-    HashMap<Long, T> getDiscretizedCell(final Int2D p)
+    @SuppressWarnings("unchecked")
+    void addCellObjects(int index, ArrayList<T> result)
         {
-        return storage[getFlatIndex(p.x, p.y)];
+        int[] cell = cells[index];
+        for (int i = 0, n = cellSizes[index]; i < n; i++)
+            result.add((T) objects[cell[i]]);
         }
 
-    /** Returns the given discretized cell. */
-    public HashMap<Long, T> getDiscretizedCell(int x, int y)
+    /** Returns the objects in the given discretized cell. */
+    public ArrayList<T> getDiscretizedCell(int x, int y)
         {
-        return storage[getFlatIndex(x, y)];
+        return getCellObjects(getFlatIndex(x, y));
         }
 
     /**
-     * Returns the cell which contains the given world point. Does not check to see
+     * Returns the objects in the cell which contains the given world point. Does not check to see
      * if the point is out of bounds.
      */
-    public HashMap<Long, T> getCell(final Double2D p)
+    public ArrayList<T> getCell(final Double2D p)
         {
-        return getDiscretizedCell(discretize(p));
+        return getCellObjects(cellIndex(p.x, p.y));
         }
 
     /**
-     * Returns the cell which contains the given world point. Does not check to see
+     * Returns the objects in the cell which contains the given world point. Does not check to see
      * if the point is out of bounds.
      */
-    public HashMap<Long, T> getCell(final Number2D p)
+    public ArrayList<T> getCell(final Number2D p)
         {
-        return getDiscretizedCell(discretize(buildDouble2D(p)));
+        return getCellObjects(cellIndex(p.getVal(0), p.getVal(1)));
         }
 
-    /** Returns the location of the given object. */
+    /** Returns the location of the given object, or null if it is not in the storage. */
     public Double2D getObjectLocation(final T obj)
         {
-        return locations.get(obj.getID());
+        return getObjectLocation(obj.getID());
         }
 
-    /** Returns the location of the object with the given ID. */
+    /** Returns the location of the object with the given ID, or null if it is not in the storage. */
     public Double2D getObjectLocation(final long id)
         {
-        return locations.get(id);
+        int slot = slots.get(id);
+        if (slot == -1)
+            return null;
+        return new Double2D(xs[slot], ys[slot]);
+        }
+
+    /** Returns the object with the given ID, or null if it is not in the storage. */
+    @SuppressWarnings("unchecked")
+    public T getObject(final long id)
+        {
+        int slot = slots.get(id);
+        if (slot == -1)
+            return null;
+        return (T) objects[slot];
+        }
+
+    /** Returns true if the object with the given ID is in the storage. */
+    public boolean contains(final long id)
+        {
+        return slots.get(id) != -1;
+        }
+
+    /** Returns all the objects in the storage. */
+    @SuppressWarnings("unchecked")
+    public ArrayList<T> getAllObjects()
+        {
+        ArrayList<T> result = new ArrayList<T>(size());
+        for (int i = 0; i < numSlots; i++)
+            if (objects[i] != null)
+                result.add((T) objects[i]);
+        return result;
         }
 
     ///// GRIDSTORAGE METHODS
 
-    // Put the object to the given point
+    // Put the object to the given point, moving it if it is already in the storage
     public void addObject(Number2D p, T obj)
         {
-        Double2D pDouble = buildDouble2D(p);
-//              System.out.println("add Object: " + m + "; " + obj);
-        final Double2D old = locations.put(obj.getID(), pDouble);
+        addObject(p.getVal(0), p.getVal(1), obj);
+        }
 
-        if (old != null)
-            getCell(old).remove(obj.getID());
-        getCell(pDouble).put(obj.getID(), obj);
+    /** Puts the object at the given point, moving it if it is already in the storage. */
+    public void addObject(double x, double y, T obj)
+        {
+        long id = obj.getID();
+        int cell = cellIndex(x, y);
+        int slot = slots.get(id);
+        if (slot == -1)
+            {
+            slot = allocateSlot();
+            slots.put(id, slot);
+            addToCell(cell, slot);
+            }
+        else if (cellOf[slot] != cell)
+            {
+            removeFromCell(slot);
+            addToCell(cell, slot);
+            }
+        objects[slot] = obj;
+        xs[slot] = x;
+        ys[slot] = y;
         }
 
     public T getObject(Number2D p, long id)
         {
-        Double2D pDouble = buildDouble2D(p);
-
-        HashMap<Long, T> cell = getCell(pDouble);
-        if (cell == null)
+        int slot = slots.get(id);
+        if (slot == -1 || cellOf[slot] != cellIndex(p.getVal(0), p.getVal(1)))
             return null;
-        else
-            return cell.get(id);
+        return getObject(id);
         }
 
     // Get all the objects at exactly the given point
+    @SuppressWarnings("unchecked")
     public ArrayList<T> getAllObjects(final Number2D p)
         {
-        Double2D pDouble = buildDouble2D(p);
-
-        final ArrayList<T> objects = new ArrayList<>();
-        HashMap<Long, T> cell = getCell(pDouble);
-
-        if (cell != null)
-            for (final T t : cell.values())
-                if (locations.get(t.getID()).equals(pDouble))
-                    objects.add(t);
-
-        return objects;
+        double x = p.getVal(0);
+        double y = p.getVal(1);
+        final ArrayList<T> result = new ArrayList<>();
+        int index = cellIndex(x, y);
+        int[] cell = cells[index];
+        for (int i = 0, n = cellSizes[index]; i < n; i++)
+            {
+            int slot = cell[i];
+            if (xs[slot] == x && ys[slot] == y)
+                result.add((T) objects[slot]);
+            }
+        return result;
         }
 
     public boolean removeObject(Number2D p, long id)
         {
         // p is ignored.
+        return removeObject(id);
+        }
 
-        Double2D loc = locations.remove(id);
-        if (loc == null)
+    /** Removes the object with the given ID, returning false if it was not in the storage. */
+    public boolean removeObject(long id)
+        {
+        int slot = slots.remove(id);
+        if (slot == -1)
             return false;
-        getCell(loc).remove(id);
+        removeFromCell(slot);
+        freeSlot(slot);
         return true;
         }
 
-/*
-// Get all the objects at the given point
-ArrayList<T> getObjects(NumberND p)
-{
-Double2D pDouble = buildDouble2D(p);
-
-final ArrayList<T> objects = new ArrayList<>();
-
-if (getCell(pDouble) != null)
-for (final T t : getCell(pDouble).values())
-if (locations.get(t.getID()).equals(pDouble))
-objects.add(t);
-
-return objects;
-}
-*/
-
     // Remove all the objects at the given point
     public void clear(Number2D p)
         {
-        Double2D pDouble = buildDouble2D(p);
-        HashMap<Long, T> cell = getCell(pDouble);
+        for (T obj : getAllObjects(p))
+            removeObject(obj.getID());
+        }
 
-        ArrayList<Long> removeList = new ArrayList<Long>();
-        for (Long key : cell.keySet())
-            if (locations.get(key).equals(pDouble)) {
-                removeList.add(key);
-                //cell.remove(key); #concurrent exception issues
-                }
-                
-        for (int i=0; i<removeList.size(); i++) {
-            cell.remove(removeList.get(i));
-            }
+    public void clear(IntRect2D r)
+        {
+        removeObjects(r);
         }
 
-    @SuppressWarnings("unchecked")
     public void clear()
-        {  
+        {
         width = (int) Math.ceil(shape.getWidth() / (double) discretization) + 1;
         height = (int) Math.ceil(shape.getHeight() / (double) discretization) + 1;
-        this.locations = new HashMap<>();
 
-        storage = new HashMap[width * height];
-        for (int i = 0; i < storage.length; i++)
+        slots = new SlotMap();
+        objects = new Object[16];
+        xs = new double[16];
+        ys = new double[16];
+        cellOf = new int[16];
+        indexInCell = new int[16];
+        numSlots = 0;
+        numFree = 0;
+
+        cells = new int[width * height][];
+        cellSizes = new int[width * height];
+        }
+
+    /// SLOTS AND CELLS
+
+    int allocateSlot()
+        {
+        if (numFree > 0)
+            return freeSlots[--numFree];
+        if (numSlots == objects.length)
             {
-            storage[i] = new HashMap<>();
+            int n = numSlots * 2;
+            objects = Arrays.copyOf(objects, n);
+            xs = Arrays.copyOf(xs, n);
+            ys = Arrays.copyOf(ys, n);
+            cellOf = Arrays.copyOf(cellOf, n);
+            indexInCell = Arrays.copyOf(indexInCell, n);
             }
+        return numSlots++;
         }
 
-    /// METHODS FOR PACKING AND UNPACKING
-
-    void removeObject(long id)
+    void freeSlot(int slot)
         {
-        getCell(locations.remove(id)).remove(id);
+        objects[slot] = null;       // let it be garbage collected
+        if (numFree == freeSlots.length)
+            freeSlots = Arrays.copyOf(freeSlots, numFree * 2);
+        freeSlots[numFree++] = slot;
         }
 
-    // Remove all the objects inside the given rectangle
-    void removeObjects(final IntRect2D r)
+    void addToCell(int index, int slot)
         {
-        for (T obj : getObjects(r))
-            {
-            removeObject(obj.getID());
-            }
+        int[] cell = cells[index];
+        int n = cellSizes[index];
+        if (cell == null)
+            cell = cells[index] = new int[4];
+        else if (n == cell.length)
+            cell = cells[index] = Arrays.copyOf(cell, n * 2);
+        cell[n] = slot;
+        cellSizes[index] = n + 1;
+        cellOf[slot] = index;
+        indexInCell[slot] = n;
         }
 
-    static final Int2D OFFSET = new Int2D(1,1);
-        
-    // Get all the objects inside the given rectangle
-    protected ArrayList<T> getObjects(final IntRect2D r)
+    // Removes the slot from its cell by moving the cell's last slot into its place
+    void removeFromCell(int slot)
         {
-        final ArrayList<T> objs = new ArrayList<T>();
-//              int[] offset = { 1, 1 };
+        int index = cellOf[slot];
+        int[] cell = cells[index];
+        int last = --cellSizes[index];
+        int i = indexInCell[slot];
+        int moved = cell[last];
+        cell[i] = moved;
+        indexInCell[moved] = i;
+        }
 
-        final Int2D ul = discretize(new Double2D(r.ul()));
-        final Int2D br = discretize(new Double2D(r.br())).add(OFFSET);
+    /// NEIGHBORHOODS
 
-        // I believe this code is just doing:
+    /** Adds to result all the objects in the cells which overlap the square of the given half-width around (x, y). */
+    @SuppressWarnings("unchecked")
+    public ArrayList<T> getObjectsNear(double x, double y, double distance, ArrayList<T> result)
+        {
+        int minX = Math.max(0, discretizeX(x - distance));
+        int maxX = Math.min(width - 1, discretizeX(x + distance));
+        int minY = Math.max(0, discretizeY(y - distance));
+        int maxY = Math.min(height - 1, discretizeY(y + distance));
+
+        for (int cx = minX; cx <= maxX; cx++)
+            for (int cy = minY; cy <= maxY; cy++)
+                addCellObjects(getFlatIndex(cx, cy), result);
+        return result;
+        }
 
-        for (int x = ul.x; x < br.x; x++)
-            {
-            for (int y = ul.y; y < br.y; y++)
+    /**
+     * Adds to result exactly the objects within the given distance of (x, y), measured radially if radial is true,
+     * else as the larger of the x and y distances.  Objects exactly at the distance are included if inclusive is true.
+     */
+    @SuppressWarnings("unchecked")
+    public ArrayList<T> getObjectsWithin(double x, double y, double distance, boolean radial, boolean inclusive, ArrayList<T> result)
+        {
+        int minX = Math.max(0, discretizeX(x - distance));
+        int maxX = Math.min(width - 1, discretizeX(x + distance));
+        int minY = Math.max(0, discretizeY(y - distance));
+        int maxY = Math.min(height - 1, discretizeY(y + distance));
+        double distsq = distance * distance;
+
+        for (int cx = minX; cx <= maxX; cx++)
+            for (int cy = minY; cy <= maxY; cy++)
                 {
+                int index = getFlatIndex(cx, cy);
+                int[] cell = cells[index];
+                for (int i = 0, n = cellSizes[index]; i < n; i++)
+                    {
+                    int slot = cell[i];
+                    double dx = xs[slot] - x;
+                    double dy = ys[slot] - y;
+                    boolean within;
+                    if (radial)
+                        {
+                        double d = dx * dx + dy * dy;
+                        within = !(d > distsq || (!inclusive && d >= distsq));
+                        }
+                    else
+                        {
+                        if (dx < 0) dx = -dx;
+                        if (dy < 0) dy = -dy;
+                        within = !((dx > distance || dy > distance) || (!inclusive && (dx >= distance || dy >= distance)));
+                        }
+                    if (within)
+                        result.add((T) objects[slot]);
+                    }
+                }
+        return result;
+        }
+
+    /// METHODS FOR PACKING AND UNPACKING
+
+    // Returns the slots of all the objects inside the given rectangle
+    int[] getSlots(final IntRect2D r)
+        {
+        int[] found = new int[16];
+        int numFound = 0;
 
-                HashMap<Long, T> cell = getDiscretizedCell(x, y);
+        int minX = Math.max(0, discretizeX(r.ul().x));
+        int maxX = Math.min(width - 1, discretizeX(r.br().x));
+        int minY = Math.max(0, discretizeY(r.ul().y));
+        int maxY = Math.min(height - 1, discretizeY(r.br().y));
+        double ulx = r.ul().x, uly = r.ul().y, brx = r.br().x, bry = r.br().y;
 
-                if (cell != null)
+        for (int cx = minX; cx <= maxX; cx++)
+            for (int cy = minY; cy <= maxY; cy++)
+                {
+                int index = getFlatIndex(cx, cy);
+                int[] cell = cells[index];
+                for (int i = 0, n = cellSizes[index]; i < n; i++)
                     {
-                    for (T obj : cell.values()) // need to offset/discretize!
+                    int slot = cell[i];
+                    // same test as IntRect2D.contains(Double2D)
+                    if (xs[slot] >= ulx && ys[slot] >= uly && xs[slot] < brx && ys[slot] < bry)
                         {
-                        if (r.contains(locations.get(obj.getID())))
-                            {
-                            objs.add(obj);
-                            }
+                        if (numFound == found.length)
+                            found = Arrays.copyOf(found, numFound * 2);
+                        found[numFound++] = slot;
                         }
                     }
                 }
-            }
+        return Arrays.copyOf(found, numFound);
+        }
 
+    // Get all the objects inside the given rectangle
+    @SuppressWarnings("unchecked")
+    protected ArrayList<T> getObjects(final IntRect2D r)
+        {
+        int[] found = getSlots(r);
+        final ArrayList<T> objs = new ArrayList<T>(found.length);
+        for (int slot : found)
+            objs.add((T) objects[slot]);
         return objs;
         }
 
-    // This returns a list of a list of dissimilar Objects
-    // They are either of type T or of type Double2D
-    public Serializable pack(final MPIParam mp)
+    // Remove all the objects inside the given rectangle
+    void removeObjects(final IntRect2D r)
         {
-        final ArrayList<ArrayList<Serializable>> ret = new ArrayList<>();
+        for (int slot : getSlots(r))
+            {
+            slots.remove(((DObject) objects[slot]).getID());
+            removeFromCell(slot);
+            freeSlot(slot);
+            }
+        }
 
+    /**
+     * Packs the objects in the rectangles of mp into a byte array.  For each rectangle this holds the number
+     * of objects in it and their locations relative to the rectangle, then all the objects as encoded by a
+     * MigrationCodec.  In ghost mode, each rectangle also holds its upper left corner, and each location is
+     * preceded by a byte saying whether it is there at all: Ghostable objects which are Located are placed at
+     * their own locations instead (shifted if the rectangle wraps around a toroidal world).
+     */
+    public Serializable pack(final MPIParam mp)
+        {
+        if (codec == null)
+            codec = new MigrationCodec();
+        ByteBuffer buf = packBuffer;
+        if (buf == null)
+            buf = ByteBuffer.allocateDirect(1024);
+        ((Buffer) buf).clear();
+
+        ArrayList<Serializable> objs = new ArrayList<Serializable>();
         for (final IntRect2D rect : mp.rects)
             {
-            final ArrayList<Serializable> objs = new ArrayList<>();
-            for (final T obj : getObjects(rect.add(shape.ul())))
+            int[] found = getSlots(rect.add(shape.ul()));
+            double ulx = shape.ul().x + rect.ul().x;
+            double uly = shape.ul().y + rect.ul().y;
+            buf = MigrationCodec.ensureRemaining(buf, 20 + found.length * 17);
+            buf.putInt(found.length);
+            if (ghosts)
                 {
-                objs.add(obj);
-                // Append the object's location relative to the rectangle
-                objs.add(locations.get(obj.getID()).subtract(shape.ul()).subtract(rect.ul()));
+                buf.putDouble(ulx);
+                buf.putDouble(uly);
+                }
+            for (int slot : found)
+                {
+                Object obj = objects[slot];
+                objs.add((Serializable) obj);
+                if (ghosts)
+                    {
+                    if (obj instanceof Ghostable && obj instanceof Located)
+                        {
+                        buf.put((byte) 0);
+                        continue;
+                        }
+                    buf.put((byte) 1);
+                    }
+                buf.putDouble(xs[slot] - ulx);
+                buf.putDouble(ys[slot] - uly);
                 }
-            ret.add(objs);
             }
 
-        return ret;
+        try
+            {
+            buf = (ghosts ? codec.encodeGhosts(objs, buf) : codec.encodeObjects(objs, buf));
+            }
+        catch (IOException e)
+            {
+            throw new RuntimeException("Could not pack the halo of " + this, e);
+            }
+        packBuffer = buf;
+
+        byte[] packed = new byte[buf.position()];
+        ((Buffer) buf).flip();
+        buf.get(packed);
+        return packed;
         }
 
-    public void unpack(final MPIParam mp, final Serializable buf)
+    @SuppressWarnings("unchecked")
+    public void unpack(final MPIParam mp, final Serializable packed)
         {
-        final ArrayList<ArrayList<Serializable>> objs = (ArrayList<ArrayList<Serializable>>) buf;
+        if (codec == null)
+            codec = new MigrationCodec();
+        ByteBuffer buf = ByteBuffer.wrap((byte[]) packed);
+
+        int numRects = mp.rects.size();
+        double[][] locs = new double[numRects][];
+        // in ghost mode, how far each rect is shifted from the sender's (if it wraps around), and which
+        // objects are to be placed at their own locations
+        double[] shiftXs = new double[numRects];
+        double[] shiftYs = new double[numRects];
+        boolean[][] located = new boolean[numRects][];
+        for (int k = 0; k < numRects; k++)
+            {
+            IntRect2D rect = mp.rects.get(k);
+            double ulx = shape.ul().x + rect.ul().x;
+            double uly = shape.ul().y + rect.ul().y;
+            double[] loc = locs[k] = new double[buf.getInt() * 2];
+            if (ghosts)
+                {
+                shiftXs[k] = ulx - buf.getDouble();
+                shiftYs[k] = uly - buf.getDouble();
+                located[k] = new boolean[loc.length / 2];
+                }
+            for (int i = 0; i < loc.length; i += 2)
+                {
+                if (ghosts && buf.get() == 0)
+                    {
+                    located[k][i / 2] = true;
+                    continue;
+                    }
+                loc[i] = buf.getDouble() + ulx;
+                loc[i + 1] = buf.getDouble() + uly;
+                }
+            }
+
+        ArrayList<Serializable> objs = new ArrayList<Serializable>();
+        try
+            {
+            if (ghosts)
+                {
+                // the ghosts presently in the unpack area may be reused
+                HashMap<Long, Object> previous = new HashMap<Long, Object>();
+                for (final IntRect2D rect : mp.rects)
+                    for (int slot : getSlots(rect.add(shape.ul())))
+                        previous.put(((DObject) objects[slot]).getID(), objects[slot]);
+                codec.decodeGhosts(buf, buf.position(), buf.limit() - buf.position(), previous, objs);
+                }
+            else
+                codec.decodeObjects(buf, buf.position(), buf.limit() - buf.position(), objs);
+            }
+        catch (IOException | ClassNotFoundException e)
+            {
+            throw new RuntimeException("Could not unpack the halo of " + this, e);
+            }
 
         // Remove any objects that are in the unpack area (overwrite the area)
         // shift the rect with local coordinates back to global coordinates
         for (final IntRect2D rect : mp.rects)
             removeObjects(rect.add(shape.ul()));
-        
-        for (int k = 0; k < mp.rects.size(); k++)
-            for (int i = 0; i < objs.get(k).size(); i += 2)
-                addObject(
-                    //// FIXME: This looks VERY inefficient, with lots of array allocations
-                    ((Double2D) objs.get(k).get(i + 1)).add(mp.rects.get(k).ul()).add(shape.ul()),
-                    (T) objs.get(k).get(i));
-                
 
-/*
-  int sum = 0;
-  for (int i = 0; i < objs.size(); i++)
-  {
-  sum += objs.get(i).size();
-  }
-  return sum;
-*/
+        int next = 0;
+        for (int k = 0; k < numRects; k++)
+            for (int i = 0; i < locs[k].length; i += 2)
+                {
+                T obj = (T) objs.get(next++);
+                if (ghosts && located[k][i / 2])
+                    {
+                    Number2D p = ((Located) obj).getLocation();
+                    addObject(p.getVal(0) + shiftXs[k], p.getVal(1) + shiftYs[k], obj);
+                    }
+                else
+                    addObject(locs[k][i], locs[k][i + 1], obj);
+                }
         }
 
-/*
-  public boolean checkNull()
-  {
-  for (int i = 0; i < storage.length; i++)
-  {
-  if (storage[i] == null)
-  {
-  System.out.println(i + " is null");
-  return false;
-  }
-  }
-  return true;
-  }
-*/
-
-    protected Double2D buildDouble2D(Number2D p)
+    /** Reshapes the storage, keeping the objects (not copies of them) which lie in both the old and new shapes. */
+    @SuppressWarnings("unchecked")
+    public void setShape(IntRect2D newShape)
         {
-        if (p instanceof Double2D)
-            return (Double2D) p;
-        return new Double2D(p.getVal(0), p.getVal(1));
+        if (newShape.equals(shape))
+            return;
+
+        int[] found = (newShape.intersects(shape) ? getSlots(newShape.getIntersection(shape)) : new int[0]);
+        Object[] keptObjects = new Object[found.length];
+        double[] keptXs = new double[found.length];
+        double[] keptYs = new double[found.length];
+        for (int i = 0; i < found.length; i++)
+            {
+            keptObjects[i] = objects[found[i]];
+            keptXs[i] = xs[found[i]];
+            keptYs[i] = ys[found[i]];
+            }
+
+        reload(newShape);
+        for (int i = 0; i < found.length; i++)
+            addObject(keptXs[i], keptYs[i], (T) keptObjects[i]);
         }
 
     public Int2D toLocalPoint(final Int2D p)
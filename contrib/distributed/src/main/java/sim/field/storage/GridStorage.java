@@ -96,6 +96,16 @@ public abstract class GridStorage<T extends Serializable> implements java.io.Ser
      */
     public abstract void clear(Number2D p);
 
+    /**
+     * Clears all objects within the given rectangle, in world coordinates.  By default this clears each
+     * point in the rectangle.
+     */
+    public void clear(IntRect2D r)
+        {
+        for (Int2D p : r.getPointList())
+            clear(p);
+        }
+
     /**
      * Clears all objects from the storage entirely. Int and Double grid storage set
      * all values to 0. Object grid storage sets all values to null.
@@ -131,18 +141,14 @@ public abstract class GridStorage<T extends Serializable> implements java.io.Ser
         if (newShape.intersects(shape))
             {
             final IntRect2D overlap = newShape.getIntersection(shape);
-            final Datatype baseType = getMPIBaseType();
-            final MPIParam fromParam = new MPIParam(overlap, shape, baseType);
-            final MPIParam toParam = new MPIParam(overlap, newShape, baseType);
+            final MPIParam fromParam = new MPIParam(overlap, shape);
+            final MPIParam toParam = new MPIParam(overlap, newShape);
 
             try
                 {
                 final Serializable buf = pack(fromParam);
                 reload(newShape);
                 unpack(toParam, buf);
-
-                fromParam.type.free();
-                toParam.type.free();
                 }
             catch (final MPIException e)
                 {
@@ -7,6 +7,10 @@
 package sim.field.storage;
 
 import java.io.Serializable;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
 import java.util.ArrayList;
 
 import mpi.Datatype;
@@ -17,7 +21,7 @@ import sim.util.IntRect2D;
 import sim.util.MPIParam;
 import sim.util.Number2D;
 
-public class IntGridStorage extends GridStorage<Integer>
+public class IntGridStorage extends GridStorage<Integer> implements PrimitiveStorage
     {
     private static final long serialVersionUID = 1L;
 
@@ -34,8 +38,25 @@ public class IntGridStorage extends GridStorage<Integer>
         return MPI.INT;
         }
 
-    public byte[] pack(MPIParam mp) throws MPIException
+    /** Packs the values in mp.  If mp has an MPI datatype, they are packed into a byte[] via MPI.  Otherwise
+        they are copied, rect by rect and column by column, into a int[]. */
+    public Serializable pack(MPIParam mp) throws MPIException
         {
+        if (mp.type == null)
+            {
+            int[] buf = new int[mp.size];
+            int pos = 0;
+            for (IntRect2D rect : mp.rects)
+                {
+                int h = rect.getHeight();
+                for (int x = rect.ul().x; x < rect.br().x; x++)
+                    {
+                    System.arraycopy(storage, getFlatIndex(x, rect.ul().y), buf, pos, h);
+                    pos += h;
+                    }
+                }
+            return buf;
+            }
         byte[] buf = new byte[MPI.COMM_WORLD.packSize(mp.size, MPI.INT)];
         MPI.COMM_WORLD.pack(MPI.slice((int[]) storage, mp.idx), 1, mp.type, buf, 0);
         return buf;
@@ -43,9 +64,51 @@ public class IntGridStorage extends GridStorage<Integer>
 
     public void unpack(MPIParam mp, Serializable buf) throws MPIException
         {
+        if (buf instanceof int[])
+            {
+            int[] vals = (int[]) buf;
+            int pos = 0;
+            for (IntRect2D rect : mp.rects)
+                {
+                int h = rect.getHeight();
+                for (int x = rect.ul().x; x < rect.br().x; x++)
+                    {
+                    System.arraycopy(vals, pos, storage, getFlatIndex(x, rect.ul().y), h);
+                    pos += h;
+                    }
+                }
+            return;
+            }
         MPI.COMM_WORLD.unpack((byte[]) buf, 0, MPI.slice((int[]) storage, mp.idx), 1, mp.type);
         }
 
+    public Buffer allocateBuffer(int size)
+        {
+        return ByteBuffer.allocateDirect(size * 4).order(ByteOrder.nativeOrder()).asIntBuffer();
+        }
+
+    public void pack(MPIParam mp, Buffer buf)
+        {
+        IntBuffer b = (IntBuffer) buf;
+        for (IntRect2D rect : mp.rects)
+            {
+            int h = rect.getHeight();
+            for (int x = rect.ul().x; x < rect.br().x; x++)
+                b.put(storage, getFlatIndex(x, rect.ul().y), h);
+            }
+        }
+
+    public void unpack(MPIParam mp, Buffer buf)
+        {
+        IntBuffer b = (IntBuffer) buf;
+        for (IntRect2D rect : mp.rects)
+            {
+            int h = rect.getHeight();
+            for (int x = rect.ul().x; x < rect.br().x; x++)
+                b.get(storage, getFlatIndex(x, rect.ul().y), h);
+            }
+        }
+
     public String toString()
         {
         int width = shape.getWidth();
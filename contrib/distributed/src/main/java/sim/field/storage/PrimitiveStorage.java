@@ -0,0 +1,29 @@
+/*
+  Copyright 2022 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+        
+package sim.field.storage;
+
+import java.nio.Buffer;
+
+import sim.util.MPIParam;
+
+/**
+ * Implemented by grid storages which hold primitives (IntGridStorage and DoubleGridStorage), which may be
+ * exchanged without serialization by copying their values straight into and out of direct Buffers.
+ * HaloGrid2D exchanges the halos of such storages this way.
+ */
+
+public interface PrimitiveStorage
+    {
+    /** Returns a new direct Buffer, in native byte order, large enough to hold size values of this storage. */
+    public Buffer allocateBuffer(int size);
+
+    /** Copies the values in mp into buf, starting at its present position, and advances the position. */
+    public void pack(MPIParam mp, Buffer buf);
+
+    /** Copies values from buf, starting at its present position, into mp, and advances the position. */
+    public void unpack(MPIParam mp, Buffer buf);
+    }
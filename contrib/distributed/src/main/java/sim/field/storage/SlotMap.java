@@ -0,0 +1,140 @@
+/*
+  Copyright 2022 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.field.storage;
+
+/**
+ * A hash map from long IDs to int slots, with no boxing.  It uses open addressing with linear probing,
+ * and removes entries by shifting later entries back rather than leaving tombstones, so lookups stay
+ * short no matter how many agents come and go.  Slots must be non-negative: get(...) returns -1 if the
+ * ID is not in the map.
+ */
+class SlotMap implements java.io.Serializable
+    {
+    private static final long serialVersionUID = 1L;
+
+    long[] keys;
+    int[] values;           // -1 marks an empty entry
+    int size;
+    int mask;
+
+    SlotMap()
+        {
+        this(16);
+        }
+
+    SlotMap(int capacity)
+        {
+        int n = 16;
+        while (n < capacity * 2)
+            n <<= 1;
+        keys = new long[n];
+        values = new int[n];
+        java.util.Arrays.fill(values, -1);
+        mask = n - 1;
+        }
+
+    int size()
+        {
+        return size;
+        }
+
+    // Spreads the bits of the ID, since IDs are mostly sequential
+    int index(long key)
+        {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+        }
+
+    /** Returns the slot of the given ID, or -1 if it is not in the map. */
+    int get(long key)
+        {
+        int i = index(key);
+        while (values[i] != -1)
+            {
+            if (keys[i] == key)
+                return values[i];
+            i = (i + 1) & mask;
+            }
+        return -1;
+        }
+
+    /** Sets the slot of the given ID. */
+    void put(long key, int value)
+        {
+        if ((size + 1) * 2 > keys.length)
+            rehash(keys.length * 2);
+        int i = index(key);
+        while (values[i] != -1)
+            {
+            if (keys[i] == key)
+                {
+                values[i] = value;
+                return;
+                }
+            i = (i + 1) & mask;
+            }
+        keys[i] = key;
+        values[i] = value;
+        size++;
+        }
+
+    /** Removes the given ID, returning its slot, or -1 if it was not in the map. */
+    int remove(long key)
+        {
+        int i = index(key);
+        while (values[i] != -1)
+            {
+            if (keys[i] == key)
+                {
+                int value = values[i];
+                values[i] = -1;
+                size--;
+
+                // shift back any later entries which can no longer be reached
+                int j = i;
+                while (true)
+                    {
+                    j = (j + 1) & mask;
+                    if (values[j] == -1)
+                        break;
+                    int home = index(keys[j]);
+                    // the entry at j may move to i only if its home does not lie cyclically in (i, j]
+                    if ((j > i) ? (home <= i || home > j) : (home <= i && home > j))
+                        {
+                        keys[i] = keys[j];
+                        values[i] = values[j];
+                        values[j] = -1;
+                        i = j;
+                        }
+                    }
+                return value;
+                }
+            i = (i + 1) & mask;
+            }
+        return -1;
+        }
+
+    void clear()
+        {
+        java.util.Arrays.fill(values, -1);
+        size = 0;
+        }
+
+    void rehash(int capacity)
+        {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new long[capacity];
+        values = new int[capacity];
+        java.util.Arrays.fill(values, -1);
+        mask = capacity - 1;
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++)
+            if (oldValues[i] != -1)
+                put(oldKeys[i], oldValues[i]);
+        }
+    }
@@ -35,9 +35,24 @@ public class GroupComm
      * @throws MPIException
      */
     public GroupComm(QuadTreeNode master) throws MPIException
+        {
+        this(master, true);
+        }
+
+    /**
+     * Creates the group for the given master.  If withComm is false, no MPI
+     * communicator is created: only the master and leaves are recorded.  This is
+     * used when the partitions do not communicate via MPI.
+     * 
+     * @param master
+     * @param withComm
+     * @throws MPIException
+     */
+    public GroupComm(QuadTreeNode master, boolean withComm) throws MPIException
         {
         this.master = master;
         this.leaves = master.getLeaves();
+        if (!withComm) return;
 
         Group world = MPI.COMM_WORLD.getGroup();
         Group group = world.incl(leaves.stream()
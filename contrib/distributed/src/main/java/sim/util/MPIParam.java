@@ -42,6 +42,34 @@ public class MPIParam
     // free them all
     // TODO should store rects in local coordinates?
 
+    /**
+     * Builds an MPIParam for a single rect without an MPI datatype (type is null), for use
+     * when the data is not moved via MPI.  Storages then copy the values in rects directly.
+     */
+    public MPIParam(IntRect2D rect, IntRect2D bound)
+        {
+        this.idx = GridStorage.getFlatIndex(rect.ul().subtract(bound.ul), bound.getHeight());
+        this.size = rect.getArea();
+        this.rects = new ArrayList<IntRect2D>();
+        this.rects.add(rect.subtract(bound.ul()));
+        }
+
+    /**
+     * Builds an MPIParam for several rects without an MPI datatype (type is null), for use
+     * when the data is not moved via MPI.  Storages then copy the values in rects directly.
+     */
+    public MPIParam(List<IntRect2D> rects, IntRect2D bound)
+        {
+        this.idx = 0;
+        this.size = 0;
+        this.rects = new ArrayList<IntRect2D>();
+        for (IntRect2D rect : rects)
+            {
+            this.size += rect.getArea();
+            this.rects.add(rect.subtract(bound.ul()));
+            }
+        }
+
     public MPIParam(IntRect2D rect, IntRect2D bound, Datatype baseType)
         {
         int width = bound.getWidth();
@@ -39,7 +39,8 @@ import java.util.function.Consumer;
  * Utility class that serializes/exchanges/deserializes objects using MPI
  * 
  * This class contains methods that implement boiler plate code for low level
- * MPI methods.
+ * MPI methods.  The methods which take a Partition rather than a Comm go through
+ * the Partition's Transport, and so work whether or not the partitions use MPI.
  */
  
 public class MPIUtil
@@ -468,7 +469,7 @@ public class MPIUtil
     public static <T extends Serializable> T bcast(final Partition partition, final T obj,
         final int root) throws MPIException
         {
-        return MPIUtil.<T>bcast(partition.getCommunicator(), obj, root);
+        return partition.getTransport().<T>bcast(obj, root);
         }
 
     /**
@@ -485,7 +486,7 @@ public class MPIUtil
     public static Integer bcast(final Partition partition, final int obj, final int root)
         throws MPIException
         {
-        return MPIUtil.<Integer>bcast(partition.getCommunicator(), obj, root);
+        return partition.getTransport().<Integer>bcast(obj, root);
         }
 
     /**
@@ -558,7 +559,7 @@ public class MPIUtil
     public static <T extends Serializable> T scatter(final Partition p, final T[] sendObjs, final int root)
         throws MPIException
         {
-        return MPIUtil.<T>scatter(p.getCommunicator(), sendObjs, root);
+        return p.getTransport().<T>scatter(sendObjs, root);
         }
 
     // TODO: can we use the same buffers for all operations?
@@ -659,7 +660,7 @@ public class MPIUtil
         final int dst)
         throws MPIException
         {
-        return MPIUtil.<T>gather(partition.getCommunicator(), sendObj, dst);
+        return partition.getTransport().<T>gather(sendObj, dst);
         }
 
     // Each LP contributes the sendObj
@@ -717,7 +718,44 @@ public class MPIUtil
     public static <T extends Serializable> ArrayList<T> allGather(final Partition partition,
         final T sendObj) throws MPIException
         {
-        return MPIUtil.<T>allGather(partition.getCommunicator(), sendObj);
+        return partition.getTransport().<T>allGather(sendObj);
+        }
+
+    /**
+     * Allows every node to send a different object to every node at once.
+     * 
+     * Each LP sends sendObjs[i] to LP i, and receives one object from each LP,
+     * returned in the ArrayList in PID order.
+     * 
+     * @param <T>      Type of object to send
+     * @param comm
+     * @param sendObjs
+     * 
+     * @throws MPIException
+     */
+    public static <T extends Serializable> ArrayList<T> allToAll(final Comm comm, final T[] sendObjs)
+        throws MPIException
+        {
+        final int np = comm.getSize();
+        int[] srcDispl;
+        final int[] srcCount = new int[np];
+        int[] dstDispl;
+        final int[] dstCount = new int[np];
+        final ArrayList<T> recvObjs = new ArrayList<>();
+        final ByteBuffer srcBuf = initSendBuf(), dstBuf = initRecvBuf();
+
+        fastSerialize(sendObjs, srcBuf, srcCount);
+        srcDispl = getDispl(srcCount);
+
+        comm.allToAll(srcCount, 1, MPI.INT, dstCount, 1, MPI.INT);
+        dstDispl = getDispl(dstCount);
+
+        comm.allToAllv(srcBuf, srcCount, srcDispl, MPI.BYTE, dstBuf, dstCount, dstDispl, MPI.BYTE);
+
+        for (int i = 0; i < np; i++)
+            recvObjs.add(MPIUtil.<T>fastDeserialize(dstBuf, dstDispl[i], dstCount[i]));
+
+        return recvObjs;
         }
 
     /**
@@ -822,7 +860,7 @@ public class MPIUtil
     public static <T extends Serializable> ArrayList<T> neighborAllToAll(final Partition partition,
         final T[] sendObjs) throws MPIException
         {
-        return MPIUtil.<T>neighborAllToAll(partition.getCommunicator(), sendObjs);
+        return partition.getTransport().<T>neighborAllToAll(sendObjs);
         }
 
 
@@ -0,0 +1,295 @@
+/*
+  Copyright 2022 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.util;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Serializable;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * PROFILER records, step by step, what each partition spends its time on: stepping its agents, packing,
+ * exchanging, and unpacking its halos, transporting agents to its neighbors (and how many bytes), balancing,
+ * publishing its fields to the remote visualizer, and waiting at barriers.  Unlike Timing, which keeps only
+ * averages, the Profiler keeps each event, so you can see exactly where a run loses time.
+ *
+ * <p>Each partition records into its own Recorder, a ring buffer which holds the most recent events.  Since
+ * partitions may run as threads (see LocalTransport), each thread has its own Recorder, just as in Timing.  A Recorder
+ * is written only by its own thread and may be read by any thread without locking.  Profiling is off by default,
+ * and when off costs a single check per event.
+ *
+ * <p>The events of all partitions can be gathered and written out as a Chrome trace, which may be viewed in
+ * chrome://tracing or ui.perfetto.dev, with one process per partition.  See DSimState.writeProfile(...).
+ */
+
+public class Profiler
+    {
+    public static final int STEP = 0;
+    public static final int HALO_PACK = 1;
+    public static final int HALO_EXCHANGE = 2;
+    public static final int HALO_UNPACK = 3;
+    public static final int TRANSPORT = 4;
+    public static final int BALANCE = 5;
+    public static final int PUBLISH = 6;
+    public static final int BARRIER = 7;
+    static final String[] NAMES = { "step", "halo pack", "halo exchange", "halo unpack", "transport", "balance", "publish", "barrier" };
+
+    public static final int DEFAULT_CAPACITY = 65536;
+
+    static volatile boolean enabled = false;
+    static volatile int capacity = DEFAULT_CAPACITY;
+
+    private static ThreadLocal<Recorder> recorders = new ThreadLocal<Recorder>()
+        {
+        protected Recorder initialValue()
+            {
+            return new Recorder(capacity);
+            }
+        };
+
+    /** Turns profiling on or off for all partitions. */
+    public static void setEnabled(boolean val)
+        {
+        enabled = val;
+        }
+
+    /** Returns whether profiling is on. */
+    public static boolean isEnabled()
+        {
+        return enabled;
+        }
+
+    /** Sets how many of the most recent events each partition keeps, rounded up to a power of two.
+        This only affects Recorders made afterwards, so call it before the partitions start.  By default this is 65536. */
+    public static void setCapacity(int val)
+        {
+        if (val <= 0 || val > (1 << 30))
+            throw new IllegalArgumentException("The capacity must be > 0 and <= 2^30.  You have: " + val);
+        int c = 1;
+        while (c < val) c <<= 1;
+        capacity = c;
+        }
+
+    /** Returns this thread's (that is, this partition's) Recorder. */
+    public static Recorder getRecorder()
+        {
+        return recorders.get();
+        }
+
+    /** Sets the step which this partition's subsequent events belong to. */
+    public static void setStep(long step)
+        {
+        if (enabled)
+            recorders.get().step = step;
+        }
+
+    /** Starts timing an event, returning the time to pass to end(...), or 0 if profiling is off. */
+    public static long begin()
+        {
+        return enabled ? System.nanoTime() : 0;
+        }
+
+    /** Finishes timing an event of the given kind begun at START, as returned by begin(). */
+    public static void end(int kind, long start)
+        {
+        end(kind, start, 0, 0);
+        }
+
+    /** Finishes timing an event of the given kind begun at START, as returned by begin(),
+        which SENT and RECEIVED the given numbers of bytes. */
+    public static void end(int kind, long start, long sent, long received)
+        {
+        if (start == 0) return;
+        recorders.get().record(kind, start, System.nanoTime(), sent, received);
+        }
+
+    /**
+     * A ring buffer of the most recent events of one partition.  Only the partition's own thread may
+     * record or clear it.  Any thread may take a snapshot(...): the count of events is volatile, so a
+     * snapshot sees every event recorded before it began, and discards any which were overwritten while
+     * it was copying them.
+     */
+    public static class Recorder
+        {
+        final int mask;
+        final int[] kinds;
+        final long[] steps;
+        final long[] starts;
+        final long[] ends;
+        final long[] sent;
+        final long[] received;
+        // the number of events ever recorded
+        volatile long count;
+        long step;
+
+        Recorder(int capacity)
+            {
+            mask = capacity - 1;
+            kinds = new int[capacity];
+            steps = new long[capacity];
+            starts = new long[capacity];
+            ends = new long[capacity];
+            sent = new long[capacity];
+            received = new long[capacity];
+            }
+
+        void record(int kind, long start, long end, long sentBytes, long receivedBytes)
+            {
+            long c = count;
+            int i = (int)(c & mask);
+            kinds[i] = kind;
+            steps[i] = step;
+            starts[i] = start;
+            ends[i] = end;
+            sent[i] = sentBytes;
+            received[i] = receivedBytes;
+            count = c + 1;
+            }
+
+        /** Discards all the events.  Only call this from the partition's own thread. */
+        public void clear()
+            {
+            count = 0;
+            }
+
+        /** Returns the number of events ever recorded, including those since overwritten. */
+        public long getCount()
+            {
+            return count;
+            }
+
+        /** Returns a copy of the events currently held, labelled with the given partition. */
+        public Trace snapshot(int pid)
+            {
+            long clock = System.nanoTime();
+            long last = count;
+            long first = Math.max(0, last - (mask + 1));
+            int n = (int)(last - first);
+            Trace trace = new Trace(pid, clock, n);
+            for (int j = 0; j < n; j++)
+                {
+                int i = (int)((first + j) & mask);
+                trace.kinds[j] = kinds[i];
+                trace.steps[j] = steps[i];
+                trace.starts[j] = starts[i];
+                trace.ends[j] = ends[i];
+                trace.sent[j] = sent[i];
+                trace.received[j] = received[i];
+                }
+
+            // the owner may have overwritten the oldest events while we copied them, including the one it is writing now
+            long valid = count + 1 - (mask + 1);
+            if (valid > first)
+                trace.drop((int) Math.min(n, valid - first));
+            return trace;
+            }
+        }
+
+    /**
+     * The events of one partition, as copied by Recorder.snapshot(...), oldest first.  Times are in nanoseconds
+     * as given by System.nanoTime() on the partition, and CLOCK is the time at which the snapshot was taken.
+     */
+    public static class Trace implements Serializable
+        {
+        private static final long serialVersionUID = 1L;
+
+        public int pid;
+        public long clock;
+        public int[] kinds;
+        public long[] steps;
+        public long[] starts;
+        public long[] ends;
+        public long[] sent;
+        public long[] received;
+
+        Trace(int pid, long clock, int n)
+            {
+            this.pid = pid;
+            this.clock = clock;
+            kinds = new int[n];
+            steps = new long[n];
+            starts = new long[n];
+            ends = new long[n];
+            sent = new long[n];
+            received = new long[n];
+            }
+
+        /** Returns the number of events. */
+        public int size()
+            {
+            return kinds.length;
+            }
+
+        // Removes the oldest n events
+        void drop(int n)
+            {
+            kinds = Arrays.copyOfRange(kinds, n, kinds.length);
+            steps = Arrays.copyOfRange(steps, n, steps.length);
+            starts = Arrays.copyOfRange(starts, n, starts.length);
+            ends = Arrays.copyOfRange(ends, n, ends.length);
+            sent = Arrays.copyOfRange(sent, n, sent.length);
+            received = Arrays.copyOfRange(received, n, received.length);
+            }
+        }
+
+    /**
+     * Writes the given Traces as a Chrome trace (JSON) file, one process per partition.  The partitions' clocks
+     * are aligned on the assumption that their snapshots were taken at the same moment, as they are by
+     * DSimState.writeProfile(...) immediately after a barrier.
+     */
+    public static void writeChromeTrace(List<Trace> traces, String filename) throws IOException
+        {
+        Writer out = new BufferedWriter(new FileWriter(filename));
+        try
+            {
+            writeChromeTrace(traces, out);
+            }
+        finally
+            {
+            out.close();
+            }
+        }
+
+    /** Writes the given Traces as a Chrome trace (JSON) to the given Writer, one process per partition. */
+    public static void writeChromeTrace(List<Trace> traces, Writer out) throws IOException
+        {
+        // times are relative to each snapshot's clock, shifted so that the earliest event is at 0
+        long earliest = 0;
+        for (Trace trace : traces)
+            for (int i = 0; i < trace.size(); i++)
+                earliest = Math.min(earliest, trace.starts[i] - trace.clock);
+
+        out.write("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[\n");
+        boolean first = true;
+        for (Trace trace : traces)
+            {
+            if (!first) out.write(",\n");
+            first = false;
+            out.write("{\"name\":\"process_name\",\"ph\":\"M\",\"pid\":" + trace.pid + ",\"tid\":0,\"args\":{\"name\":\"Partition " + trace.pid + "\"}}");
+            for (int i = 0; i < trace.size(); i++)
+                {
+                out.write(",\n{\"name\":\"" + NAMES[trace.kinds[i]] + "\",\"cat\":\"mason\",\"ph\":\"X\",\"pid\":" + trace.pid + ",\"tid\":0" +
+                    ",\"ts\":" + micros(trace.starts[i] - trace.clock - earliest) +
+                    ",\"dur\":" + micros(trace.ends[i] - trace.starts[i]) +
+                    ",\"args\":{\"step\":" + trace.steps[i]);
+                if (trace.sent[i] != 0 || trace.received[i] != 0)
+                    out.write(",\"sent\":" + trace.sent[i] + ",\"received\":" + trace.received[i]);
+                out.write("}}");
+                }
+            }
+        out.write("\n]}\n");
+        }
+
+    // Formats nanoseconds as microseconds, to the nanosecond
+    static String micros(long nanos)
+        {
+        return (nanos / 1000) + "." + String.format("%03d", nanos % 1000);
+        }
+    }
@@ -23,8 +23,15 @@ public class Timing
     public static final String MPI_SYNC_OVERHEAD = "_MASON_MPI_SYNC_OVERHEAD";
 
     private static int window = 100;
-    // hashmap containing the different timer for each operation
-    private static HashMap<String, TimingStat> timers = new HashMap<String, TimingStat>();
+    // hashmap containing the different timer for each operation.  Each thread has its own, since
+    // when partitions run as threads (see LocalTransport) each thread is a different partition.
+    private static ThreadLocal<HashMap<String, TimingStat>> timers = new ThreadLocal<HashMap<String, TimingStat>>()
+        {
+        protected HashMap<String, TimingStat> initialValue()
+            {
+            return new HashMap<String, TimingStat>();
+            }
+        };
 
     public static void setWindow(int win) 
         {
@@ -40,8 +47,8 @@ public class Timing
         {
         for (String id : ids) 
             {
-            timers.putIfAbsent(id, new TimingStat(window));
-            timers.get(id).start(System.nanoTime());
+            timers.get().putIfAbsent(id, new TimingStat(window));
+            timers.get().get(id).start(System.nanoTime());
             }
         }
 
@@ -53,9 +60,9 @@ public class Timing
         {
         for (String id : ids) 
             {
-            if (!timers.containsKey(id))
+            if (!timers.get().containsKey(id))
                 throw new NoSuchElementException("Timer for " + id + " does not exist");
-            timers.get(id).stop(System.nanoTime());
+            timers.get().get(id).stop(System.nanoTime());
             }
         }
 
@@ -65,9 +72,9 @@ public class Timing
      */
     public static TimingStat get(String id) 
         {
-        if (!timers.containsKey(id))
+        if (!timers.get().containsKey(id))
             throw new NoSuchElementException("Timer for " + id + " does not exist");
-        return timers.get(id);
+        return timers.get().get(id);
         }
 
     /**
@@ -158,6 +165,11 @@ public class Timing
             return 0;
             }
 
+        public double getLast() 
+            {
+            return last / conversion;
+            }
+
         public double getMovingAverage() 
             {
             return mav.average() / conversion;
@@ -654,12 +654,22 @@ public class Display2D extends JComponent implements Steppable, Manipulating2D
                     g.fillRect((int)clip.getX(),(int)clip.getY(),(int)clip.getWidth(),(int)clip.getHeight());
                     }
                 
+                // runs of thread-safe layers may be drawn in tiles, in parallel
+                boolean tiling = (paintTiles > 1 && !forcePrecise && !precise);
+                ArrayList run = new ArrayList();
+                
                 Iterator iter = portrayals.iterator();
                 while (iter.hasNext())
                     {
                     FieldPortrayal2DHolder p = (FieldPortrayal2DHolder)(iter.next());
-                    if (p.visible)
+                    if (p.visible && tiling && p.portrayal.isThreadSafe())
+                        {
+                        run.add(p);
+                        }
+                    else if (p.visible)
                         {
+                        paintTiled(g, clip, run);
+                        
                         // set buffering if necessary
                         int buf = p.portrayal.getBuffering();
                         p.portrayal.setBuffering(optionPane.buffering);
@@ -675,6 +685,77 @@ public class Display2D extends JComponent implements Steppable, Manipulating2D
                         p.portrayal.setBuffering(buf);
                         }
                     }
+                paintTiled(g, clip, run);
+                }
+            }
+
+        /** Paints the given thread-safe layers, in order, split into paintTiles horizontal tiles drawn in
+            parallel, each into its own image, which are then drawn into g.  Clears the list. */
+        void paintTiled(final Graphics2D g, final Rectangle2D clip, final ArrayList run)
+            {
+            if (run.isEmpty()) return;
+            
+            final int n = paintTiles;
+            final int x = (int)clip.getX();
+            final int y = (int)clip.getY();
+            final int w = (int)Math.ceil(clip.getWidth());
+            final int h = (int)Math.ceil(clip.getHeight());
+            final int th = (h + n - 1) / n;
+            
+            final FieldPortrayal2DHolder[] layers = (FieldPortrayal2DHolder[])(run.toArray(new FieldPortrayal2DHolder[run.size()]));
+            run.clear();
+            int[] buf = new int[layers.length];
+            for(int i = 0; i < layers.length; i++)
+                {
+                buf[i] = layers[i].portrayal.getBuffering();
+                layers[i].portrayal.setBuffering(optionPane.buffering);
+                }
+            
+            ArrayList futures = new ArrayList();
+            for(int t = 0; t * th < h; t++)
+                {
+                final Rectangle tile = new Rectangle(x, y + t * th, w, Math.min(th, h - t * th));
+                // we compute these here because getDrawInfo2D(...) asks for the view rect, which may lock
+                final DrawInfo2D[] infos = new DrawInfo2D[layers.length];
+                for(int i = 0; i < layers.length; i++)
+                    infos[i] = getDrawInfo2D(layers[i], tile);
+                futures.add(getTilePool().submit(new java.util.concurrent.Callable()
+                    {
+                    public Object call()
+                        {
+                        BufferedImage image = new BufferedImage(tile.width, tile.height, BufferedImage.TYPE_INT_ARGB);
+                        Graphics2D tg = image.createGraphics();
+                        tg.setRenderingHints(unbufferedHints);
+                        tg.translate(-tile.x, -tile.y);
+                        tg.setClip(tile);
+                        for(int i = 0; i < layers.length; i++)
+                            layers[i].portrayal.draw(layers[i].portrayal.getField(), tg, infos[i]);
+                        tg.dispose();
+                        return image;
+                        }
+                    }));
+                }
+
+            try
+                {
+                for(int t = 0; t < futures.size(); t++)
+                    {
+                    BufferedImage image = (BufferedImage)(((java.util.concurrent.Future)(futures.get(t))).get());
+                    g.drawImage(image, x, y + t * th, null);
+                    }
+                }
+            catch (InterruptedException e)
+                {
+                Thread.currentThread().interrupt();
+                }
+            catch (java.util.concurrent.ExecutionException e)
+                {
+                throw new RuntimeException("Exception while drawing a tile of the display", e.getCause());
+                }
+            finally
+                {
+                for(int i = 0; i < layers.length; i++)
+                    layers[i].portrayal.setBuffering(buf[i]);
                 }
             }
 
@@ -1001,6 +1082,39 @@ public class Display2D extends JComponent implements Steppable, Manipulating2D
         If set to null, no color/paint is used. */
     public Paint getBackdrop() { return backdrop; }
     
+    int paintTiles = 1;
+    /** Sets the number of horizontal tiles into which the display is split when drawing thread-safe portrayals
+        (see FieldPortrayal2D.setThreadSafe(...)).  Each tile is drawn by its own thread, into its own image, and
+        the images are then drawn onto the display.  Consecutive thread-safe layers are drawn together in each tile;
+        other layers are drawn one by one in between, as usual.  Tiling is not done when drawing precisely,
+        as when writing a PDF.  This helps when there are several cores and the portrayals are slow to draw: 
+        usually a value about the number of cores is best.  By default this is 1, that is, no tiling. */
+    public void setPaintTiles(int val)
+        {
+        if (val < 1) throw new IllegalArgumentException("Number of tiles must be >= 1.  You have: " + val);
+        paintTiles = val;
+        }
+    /** Returns the number of horizontal tiles into which the display is split when drawing thread-safe portrayals. */
+    public int getPaintTiles() { return paintTiles; }
+    
+    static java.util.concurrent.ExecutorService tilePool = null;
+    /** Returns the pool of threads, shared by all Display2Ds, which draw tiles. */
+    static synchronized java.util.concurrent.ExecutorService getTilePool()
+        {
+        if (tilePool == null)
+            tilePool = java.util.concurrent.Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), 
+                new java.util.concurrent.ThreadFactory()
+                    {
+                    public Thread newThread(Runnable r)
+                        {
+                        Thread t = new Thread(r, "Display2D tile painter");
+                        t.setDaemon(true);
+                        return t;
+                        }
+                    });
+        return tilePool;
+        }
+    
     
     /// SCROLLING FACILITY
     /// First off, yes, yes, we could have done this with scrollRectToVisible, but what's the fun in that?  Actually
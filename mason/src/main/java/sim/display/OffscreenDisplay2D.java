@@ -0,0 +1,349 @@
+/*
+  Copyright 2022 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.display;
+import sim.portrayal.*;
+import sim.engine.*;
+import java.awt.*;
+import java.awt.geom.*;
+import java.awt.image.*;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import sim.util.media.*;
+
+/**
+   OffscreenDisplay2D draws FieldPortrayal2Ds into images and writes them out as a sequence of PNG files,
+   without a Console, a window, or the Swing event thread.  It is meant for running models in batch mode
+   (including on headless machines, with -Djava.awt.headless=true) while still getting pictures out of them.
+
+   <p>You attach portrayals to an OffscreenDisplay2D just as you would to a Display2D, and set them up just
+   as you would in a GUIState's setupPortrayals() method.  Then call start() at the end of your model's
+   start() method.  This draws the initial frame and schedules the OffscreenDisplay2D to draw a frame
+   after every <i>interval</i> steps, in the last ordering, once all the agents have stepped.  Call finish()
+   in your model's finish() method to wait for the remaining frames to be written.
+
+   <p>Drawing is done in the model thread, between steps, so that every frame shows a consistent
+   state of the model.  But drawing is usually cheap compared to encoding the PNG file, and encoding is done
+   by a separate pool of threads, in parallel with the model and with one another.  The images are drawn
+   into a small pool of reusable BufferedImages: if every image is still waiting to be encoded, the model
+   waits for one to become free, so a slow disk cannot make the OffscreenDisplay2D run out of memory.
+
+   <p>Frames are written to files named PREFIX<i>nnnnnn</i>.png in the output directory, where <i>nnnnnn</i>
+   is the frame number, starting at 0.  Such sequences may be turned into movies with ffmpeg or the like.
+
+   <p>Portrayals are given a GUIState in their DrawInfo2D, since some of them lock on its schedule.  If you
+   don't provide one, the OffscreenDisplay2D makes a bare GUIState which wraps the model.
+
+   <p>An OffscreenDisplay2D is on the schedule, so it is written out when the model is checkpointed, but
+   its GUIState and portrayals are not: they are transient, and lost on restore.  Until it is re-attached,
+   a restored OffscreenDisplay2D does nothing when stepped.  To keep writing frames after restoring a
+   checkpoint, call setSimulation(...), attach the portrayals again, and call start(), which replaces the
+   old entry on the schedule and numbers the frames from 0 again, so you may want a new output prefix.
+*/
+
+public class OffscreenDisplay2D implements Steppable
+    {
+    private static final long serialVersionUID = 1;
+
+    /** The default number of threads which encode PNG files. */
+    public static final int DEFAULT_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+
+    /** Holds a portrayal and where it is drawn. */
+    static class Holder
+        {
+        FieldPortrayal2D portrayal;
+        String name;
+        Rectangle2D.Double bounds;
+        Holder(FieldPortrayal2D portrayal, String name, Rectangle2D.Double bounds)
+            {
+            this.portrayal = portrayal;
+            this.name = name;
+            this.bounds = bounds;
+            }
+        }
+
+    transient GUIState simulation;
+    double width;
+    double height;
+    transient ArrayList holders = new ArrayList();
+
+    double scale = 1.0;
+    Paint backdrop = Color.white;
+    boolean precise = false;
+    boolean antialias = false;
+    int interval = 1;
+    int threads = DEFAULT_THREADS;
+    int buffers = DEFAULT_THREADS + 1;
+    File directory = new File(".");
+    String prefix = "frame";
+    int compression = 6;
+
+    Stoppable stopper;
+    transient ExecutorService encoders;
+    transient BlockingQueue freeImages;
+    transient Phaser pending;
+    transient IOException error;
+    int frame;
+
+    /** Creates an OffscreenDisplay2D of the given width and height, in pixels at a scale of 1.0, for the given model. */
+    public OffscreenDisplay2D(double width, double height, SimState state)
+        {
+        this(width, height, new GUIState(state) { });
+        }
+
+    /** Creates an OffscreenDisplay2D of the given width and height, in pixels at a scale of 1.0, for the given GUIState. */
+    public OffscreenDisplay2D(double width, double height, GUIState simulation)
+        {
+        if (width <= 0 || height <= 0)
+            throw new IllegalArgumentException("The width and height must be > 0.  You have: " + width + " by " + height);
+        this.width = width;
+        this.height = height;
+        this.simulation = simulation;
+        }
+
+    /** Sets the model to draw, wrapped in a bare GUIState.  Use this to re-attach an OffscreenDisplay2D
+        restored from a checkpoint. */
+    public void setSimulation(SimState state)
+        {
+        setSimulation(new GUIState(state) { });
+        }
+
+    /** Sets the GUIState to draw.  Use this to re-attach an OffscreenDisplay2D restored from a checkpoint. */
+    public void setSimulation(GUIState simulation)
+        {
+        this.simulation = simulation;
+        }
+
+    /** Attaches a portrayal, with an origin at (0,0) and the OffscreenDisplay2D's width and height.
+        Portrayals are drawn in the order in which they are attached. */
+    public void attach(FieldPortrayal2D portrayal, String name)
+        {
+        attach(portrayal, name, new Rectangle2D.Double(0, 0, width, height));
+        }
+
+    /** Attaches a portrayal, with the origin, width and height given in the bounds rectangle.
+        Portrayals are drawn in the order in which they are attached. */
+    public void attach(FieldPortrayal2D portrayal, String name, Rectangle2D.Double bounds)
+        {
+        if (holders == null) holders = new ArrayList();         // restored from a checkpoint
+        holders.add(new Holder(portrayal, name, bounds));
+        }
+
+    /** Detaches all the portrayals. */
+    public void detachAll()
+        {
+        if (holders != null) holders.clear();
+        }
+
+    public double getScale() { return scale; }
+    /** Sets the scale of the images: an OffscreenDisplay2D of width W and height H draws images of
+        W*scale by H*scale pixels. */
+    public void setScale(double val)
+        {
+        if (val <= 0) throw new IllegalArgumentException("The scale must be > 0.  You have: " + val);
+        scale = val;
+        }
+
+    public Paint getBackdrop() { return backdrop; }
+    /** Sets the paint which fills the image before the portrayals are drawn, or null for black. */
+    public void setBackdrop(Paint val) { backdrop = val; }
+
+    public boolean getPrecise() { return precise; }
+    /** Sets whether the portrayals draw precisely, as when a Display2D writes a PDF. */
+    public void setPrecise(boolean val) { precise = val; }
+
+    public boolean getAntialias() { return antialias; }
+    /** Sets whether the images are antialiased.  By default they are not, as in Display2D. */
+    public void setAntialias(boolean val) { antialias = val; }
+
+    public int getInterval() { return interval; }
+    /** Sets how many steps pass between frames.  Takes effect at the next start(). */
+    public void setInterval(int val)
+        {
+        if (val < 1) throw new IllegalArgumentException("The interval must be >= 1.  You have: " + val);
+        interval = val;
+        }
+
+    public int getThreads() { return threads; }
+    /** Sets how many threads encode PNG files, and how many images are in the pool (one more than the threads).
+        Takes effect at the next start(). */
+    public void setThreads(int val)
+        {
+        if (val < 1) throw new IllegalArgumentException("The number of threads must be >= 1.  You have: " + val);
+        threads = val;
+        buffers = val + 1;
+        }
+
+    public int getCompression() { return compression; }
+    /** Sets the PNG compression level, from 0 (none) to 9 (most).  Display2D's snapshots use 9, but that
+        is several times slower than the default of 6 and makes files only a little smaller. */
+    public void setCompression(int val)
+        {
+        if (val < 0 || val > 9) throw new IllegalArgumentException("The compression must be between 0 and 9.  You have: " + val);
+        compression = val;
+        }
+
+    /** Sets the directory and the prefix of the files to which frames are written.  The directory is
+        created if it doesn't exist. */
+    public void setOutput(File directory, String prefix)
+        {
+        this.directory = directory;
+        this.prefix = prefix;
+        }
+
+    public File getDirectory() { return directory; }
+    public String getPrefix() { return prefix; }
+
+    /** Returns the number of frames drawn since start(). */
+    public int getFrames() { return frame; }
+
+    /** Returns the file to which the given frame is written. */
+    public File getFile(int frame)
+        {
+        return new File(directory, prefix + String.format("%06d", frame) + ".png");
+        }
+
+    /** Starts writing frames: draws the current state of the model as frame 0, then schedules the
+        OffscreenDisplay2D to draw every <i>interval</i> steps.  Call this at the end of your model's start()
+        method, after the model has been set up and the portrayals have been attached to their fields. */
+    public void start()
+        {
+        if (simulation == null)
+            throw new RuntimeException("The OffscreenDisplay2D has no simulation.  If it was restored from a checkpoint, call setSimulation(...) first.");
+        finish();
+        if (!directory.exists() && !directory.mkdirs())
+            throw new RuntimeException("Could not create the directory " + directory);
+
+        encoders = Executors.newFixedThreadPool(threads, new ThreadFactory()
+            {
+            public Thread newThread(Runnable r)
+                {
+                Thread t = new Thread(r, "OffscreenDisplay2D encoder");
+                t.setDaemon(true);
+                return t;
+                }
+            });
+        freeImages = new ArrayBlockingQueue(buffers);
+        pending = new Phaser(1);
+        error = null;
+        frame = 0;
+
+        draw();
+        stopper = simulation.state.schedule.scheduleRepeating(Schedule.EPOCH + interval - 1, Integer.MAX_VALUE, this, interval);
+        }
+
+    /** Stops writing frames and waits until all the frames drawn so far have been written.
+        Call this in your model's finish() method.  Throws a RuntimeException if any frame could not be written. */
+    public void finish()
+        {
+        if (stopper != null) stopper.stop();
+        stopper = null;
+        if (encoders == null) return;
+
+        pending.arriveAndAwaitAdvance();
+        encoders.shutdown();
+        encoders = null;
+        freeImages = null;
+        checkError();
+        }
+
+    public void step(SimState state)
+        {
+        if (encoders == null) return;           // restored from a checkpoint, and not yet started again
+        draw();
+        }
+
+    /** Draws a frame and hands it to the encoding threads, waiting if no image is free. */
+    void draw()
+        {
+        checkError();
+        int w = (int)(width * scale);
+        int h = (int)(height * scale);
+
+        BufferedImage image = (BufferedImage)(freeImages.poll());
+        if (image == null && pending.getUnarrivedParties() > buffers)   // every image is out being encoded
+            {
+            try { image = (BufferedImage)(freeImages.take()); }
+            catch (InterruptedException e) { Thread.currentThread().interrupt(); return; }
+            }
+        if (image == null || image.getWidth() != w || image.getHeight() != h)
+            image = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+
+        Graphics2D g = image.createGraphics();
+        synchronized(simulation.state.schedule)
+            {
+            paint(g, new Rectangle2D.Double(0, 0, w, h));
+            }
+        g.dispose();
+
+        final BufferedImage img = image;
+        final File file = getFile(frame++);
+        final int level = compression;
+        pending.register();
+        encoders.execute(new Runnable()
+            {
+            public void run()
+                {
+                try
+                    {
+                    OutputStream stream = new BufferedOutputStream(new FileOutputStream(file));
+                    try
+                        {
+                        stream.write(new PNGEncoder(img, false, PNGEncoder.FILTER_NONE, level).pngEncode());
+                        }
+                    finally
+                        {
+                        stream.close();
+                        }
+                    }
+                catch (IOException e)
+                    {
+                    synchronized(OffscreenDisplay2D.this) { if (error == null) error = e; }
+                    }
+                finally
+                    {
+                    freeImages.offer(img);
+                    pending.arriveAndDeregister();
+                    }
+                }
+            });
+        }
+
+    /** Draws all the attached portrayals into the given graphics, within the given clip, much as Display2D does. */
+    public void paint(Graphics2D g, Rectangle2D clip)
+        {
+        RenderingHints hints = new RenderingHints(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_SPEED);
+        hints.put(RenderingHints.KEY_ANTIALIASING, antialias ? RenderingHints.VALUE_ANTIALIAS_ON : RenderingHints.VALUE_ANTIALIAS_OFF);
+        hints.put(RenderingHints.KEY_TEXT_ANTIALIASING, antialias ? RenderingHints.VALUE_TEXT_ANTIALIAS_ON : RenderingHints.VALUE_TEXT_ANTIALIAS_OFF);
+        g.setRenderingHints(hints);
+
+        g.setPaint(backdrop == null ? Color.black : backdrop);
+        g.fill(clip);
+
+        if (holders == null) return;
+        for(int i = 0; i < holders.size(); i++)
+            {
+            Holder p = (Holder)(holders.get(i));
+            Rectangle2D.Double region = new Rectangle2D.Double(
+                // as in Display2D, we floor to an integer because we're dealing with exact pixels at this point
+                (int)(p.bounds.x * scale),
+                (int)(p.bounds.y * scale),
+                (int)(p.bounds.width * scale),
+                (int)(p.bounds.height * scale));
+            g.setClip(clip);
+            p.portrayal.draw(p.portrayal.getField(), g, new DrawInfo2D(region, clip, simulation, p.portrayal, precise, scale));
+            }
+        }
+
+    void checkError()
+        {
+        IOException e;
+        synchronized(this) { e = error; error = null; }
+        if (e != null)
+            throw new RuntimeException("Could not write a frame of the OffscreenDisplay2D", e);
+        }
+    }
@@ -0,0 +1,231 @@
+/*
+  Copyright 2006 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.engine;
+
+import java.lang.reflect.*;
+import java.util.concurrent.*;
+
+/** BatchRunner runs many short jobs of the same model within a single JVM, as fast as possible.
+
+    <p>SimState.doLoop(...) builds a new SimState for every job, and new threads for every batch.  When
+    jobs are short, construction, garbage collection, and JIT warm-up can dominate the run time.  BatchRunner
+    instead keeps a pool of worker threads alive across calls to run(...), and each worker keeps a single SimState
+    which it reuses for every job it runs: the SimState is reseeded with setSeed(...), then start() is called,
+    the schedule is stepped, and finally finish() is called.  This relies on your model's start() method fully
+    resetting the model, as MASON models ordinarily do, rather than on its constructor.
+
+    <p>Each job is described by a Result: its job number, seed, the number of steps taken, and the wall-clock
+    time it took, from which getStepsPerSecond() is computed.  You may call warmUp(...) once before timing
+    anything so that the JIT has compiled the model's hot code before the measured jobs begin.
+
+    <p>When you are done with a BatchRunner, call shutdown() to stop its worker threads.  They are
+    daemon threads, so they will not otherwise prevent the JVM from exiting.
+*/
+
+public class BatchRunner
+    {
+    /** The outcome of a single job. */
+    public static class Result
+        {
+        long job;
+        long seed;
+        long steps;
+        long nanos;
+        boolean exhausted;
+
+        /** The job number. */
+        public long getJob() { return job; }
+        /** The random number seed used for the job. */
+        public long getSeed() { return seed; }
+        /** The number of steps the schedule took. */
+        public long getSteps() { return steps; }
+        /** The wall-clock time of the job, in nanoseconds, from start() through finish(). */
+        public long getNanos() { return nanos; }
+        /** The wall-clock time of the job, in milliseconds, from start() through finish(). */
+        public double getMillis() { return nanos / 1000000.0; }
+        /** Steps per second of wall-clock time. */
+        public double getStepsPerSecond() { return nanos == 0 ? 0 : steps * 1000000000.0 / nanos; }
+        /** Returns true if the job ended because the schedule was exhausted, rather than because it hit the step or time limit. */
+        public boolean isExhausted() { return exhausted; }
+
+        public String toString()
+            {
+            return "Job " + job + " Seed: " + seed + " Steps: " + steps + " Millis: " + getMillis() + " Rate: " + getStepsPerSecond();
+            }
+        }
+
+    // A single job to be run by a worker, as part of a batch
+    static class Task
+        {
+        Result result;
+        long maxSteps;
+        double until;
+        CountDownLatch done;
+        Throwable[] error;
+        }
+
+    MakesSimState generator;
+    String[] args;
+    Thread[] workers;
+    LinkedBlockingQueue<Task> tasks = new LinkedBlockingQueue<Task>();
+    volatile boolean shutdown;
+
+    /** Builds a BatchRunner which constructs SimStates of the given class, using the constructor new [simState](seed). */
+    public BatchRunner(final Class c, int numThreads)
+        {
+        this(new MakesSimState()
+            {
+            public SimState newInstance(long seed, String[] args)
+                {
+                try {
+                    return (SimState)(c.getConstructor(new Class[] { Long.TYPE }).newInstance(new Object[] { Long.valueOf(seed) } ));
+                    }
+                catch (Exception e)
+                    {
+                    throw new RuntimeException("Exception occurred while trying to construct the simulation " + c, e);
+                    }
+                }
+
+            public Class simulationClass() { return c; }
+
+            public Constructor[] getConstructors() { return c.getConstructors(); }
+            }, new String[0], numThreads);
+        }
+
+    /** Builds a BatchRunner which constructs SimStates with the given generator, passing it args.  Each of
+        numThreads worker threads constructs its SimState the first time it runs a job. */
+    public BatchRunner(MakesSimState generator, String[] args, int numThreads)
+        {
+        if (numThreads < 1) throw new IllegalArgumentException("Number of threads must be at least 1.  You have: " + numThreads);
+        this.generator = generator;
+        this.args = args;
+        workers = new Thread[numThreads];
+        for(int i = 0; i < numThreads; i++)
+            {
+            workers[i] = new Thread(new Runnable()
+                {
+                public void run() { work(); }
+                });
+            workers[i].setName("MASON Batch " + i);
+            workers[i].setDaemon(true);
+            workers[i].start();
+            }
+        }
+
+    /** Returns the number of worker threads. */
+    public int getNumThreads() { return workers.length; }
+
+    /** Runs one job of maxSteps steps on each worker thread and discards the results, so that the JIT
+        has warmed up and each worker has built its SimState before you time anything. */
+    public void warmUp(long maxSteps)
+        {
+        run(0, workers.length, 1, maxSteps, Double.POSITIVE_INFINITY);
+        }
+
+    /** Runs numJobs jobs, numbered firstJob onward, and waits until they have all completed.  Job i is seeded with
+        baseSeed + i (as in doLoop).  Each job runs until maxSteps steps have been taken (or forever if maxSteps is
+        negative), or the simulation time exceeds until, or the schedule is exhausted.  Returns the Results in job order.
+        If any job throws an exception, it is rethrown wrapped in a RuntimeException once the remaining jobs have completed. */
+    public Result[] run(long firstJob, int numJobs, long baseSeed, long maxSteps, double until)
+        {
+        if (shutdown) throw new IllegalStateException("BatchRunner has been shut down.");
+        Result[] results = new Result[numJobs];
+        CountDownLatch done = new CountDownLatch(numJobs);
+        Throwable[] error = new Throwable[1];
+        for(int i = 0; i < numJobs; i++)
+            {
+            Task task = new Task();
+            task.result = results[i] = new Result();
+            task.result.job = firstJob + i;
+            task.result.seed = baseSeed + firstJob + i;
+            task.maxSteps = maxSteps;
+            task.until = until;
+            task.done = done;
+            task.error = error;
+            tasks.add(task);
+            }
+
+        try { done.await(); }
+        catch (InterruptedException ex) { throw new RuntimeException("Interrupted while waiting for jobs to complete.", ex); }
+
+        synchronized(error)
+            {
+            if (error[0] != null) throw new RuntimeException("Exception occurred while running a job.", error[0]);
+            }
+        return results;
+        }
+
+    /** Stops the worker threads once they have finished their present jobs.  Jobs not yet started will not be run. */
+    public void shutdown()
+        {
+        shutdown = true;
+        for(int i = 0; i < workers.length; i++)
+            workers[i].interrupt();
+        }
+
+    // The worker thread loop
+    void work()
+        {
+        SimState state = null;
+        while(!shutdown)
+            {
+            Task task;
+            try { task = tasks.take(); }
+            catch (InterruptedException ex) { break; }          // we've been shut down
+
+            try
+                {
+                state = runJob(state, task);
+                }
+            catch (Throwable e)
+                {
+                state = null;           // don't trust it any more
+                synchronized(task.error) { if (task.error[0] == null) task.error[0] = e; }
+                }
+            task.done.countDown();
+            }
+
+        // release any jobs left behind so nobody waits forever
+        Task task;
+        while((task = tasks.poll()) != null)
+            {
+            synchronized(task.error) { if (task.error[0] == null) task.error[0] = new IllegalStateException("BatchRunner was shut down."); }
+            task.done.countDown();
+            }
+        }
+
+    // Runs a job, constructing a new SimState if state is null, else reusing it.  Returns the SimState used.
+    SimState runJob(SimState state, Task task)
+        {
+        Result result = task.result;
+        if (state == null)
+            state = generator.newInstance(result.seed, args);
+        else
+            state.setSeed(result.seed);
+        state.job = result.job;
+        state.seed = result.seed;
+
+        long begin = System.nanoTime();
+        state.start();
+        Schedule schedule = state.schedule;
+        long firstSteps = schedule.getSteps();
+        while((task.maxSteps < 0 || schedule.getSteps() - firstSteps < task.maxSteps) && schedule.getTime() <= task.until)
+            {
+            state.preSchedule();
+            if (!schedule.step(state))
+                {
+                result.exhausted = true;
+                break;
+                }
+            state.postSchedule();
+            }
+        result.steps = schedule.getSteps() - firstSteps;
+        state.finish();
+        result.nanos = System.nanoTime() - begin;
+        return state;
+        }
+    }
@@ -325,6 +325,7 @@ public class Schedule implements java.io.Serializable
         final MersenneTwisterFast random = state.random; // locals are faster
         
         int topSubstep = 0;  // we set this as a hack to avoid having to clear all the substeps each time until the very end
+        int firstOrderingCount = -1;  // how many steppables share the first ordering
 
         // grab the events as quickly as possible
         synchronized(lock)
@@ -358,6 +359,7 @@ public class Schedule implements java.io.Serializable
                 // dump
                 if (topSubstep < substeps.numObjs) topSubstep = substeps.numObjs;  // remember index of largest substep since we're violating clear()
                 currentSteps.addAll(substeps);
+                if (firstOrderingCount < 0) firstOrderingCount = currentSteps.numObjs;
                 substeps.numObjs = 0;  // temporarily clear
                 
                 // check next key and break if we don't need to go on
@@ -382,14 +384,7 @@ public class Schedule implements java.io.Serializable
                 
         try
             {
-            for(int x=0;x<len;x++)  // if we're not being killed...
-                {
-                assert sim.util.LocationLog.set(((Steppable)(objs[x])));
-                ((Steppable)(objs[x])).step(state);
-                assert sim.util.LocationLog.clear();
-                objs[x] = null;  // let gc even if being killed
-                }
-
+            stepAll(state, objs, len, firstOrderingCount);
             }
         finally
             {
@@ -409,6 +404,20 @@ public class Schedule implements java.io.Serializable
         return true;
         }
         
+    /** Steps the first len Steppables in objs, which are all those scheduled for the present time, in order, setting each
+        to null once it has been stepped so it may be garbage collected.  The first firstOrderingCount of them share the lowest
+        ordering, and so were shuffled: a subclass may override this method to step some of them before others.  Called by step(...). */
+    protected void stepAll(final SimState state, final Object[] objs, final int len, final int firstOrderingCount)
+        {
+        for(int x=0;x<len;x++)  // if we're not being killed...
+            {
+            assert sim.util.LocationLog.set(((Steppable)(objs[x])));
+            ((Steppable)(objs[x])).step(state);
+            assert sim.util.LocationLog.clear();
+            objs[x] = null;  // let gc even if being killed
+            }
+        }
+
     /** Schedules the event to occur at getTime() + 1.0, 0 ordering. If this is a valid time
         and event, schedules the event and returns TRUE.
         This method at present returns FALSE if the schedule cannot
@@ -390,7 +390,8 @@ public class SimState implements java.io.Serializable
                 "Format:           java " + generator.simulationClass().getName() + " \\\n" +
                 "                       [-help] [-repeat R] [-parallel P] [-seed S] \\\n" +
                 "                       [-until U] [-for F] [-time T] [-docheckpoint D] \\\n" +
-                "                       [-checkpointname N] [-checkpoint C] [-quiet] \n\n" +
+                "                       [-checkpointname N] [-checkpoint C] [-reuse] \\\n" +
+                "                       [-quiet] \n\n" +
                 "-help             Shows this message and exits.\n\n" +
                 "-repeat R         Long value > 0: Runs R jobs.  Unless overridden by a\n" +
                 "                  checkpoint recovery (see -checkpoint), the random seed for\n" +
@@ -441,6 +442,12 @@ public class SimState implements java.io.Serializable
                 "                  from the recovered job and seed.\n" +
                 "                  Default: starts a new simulation rather than loading one, at\n" +
                 "                  job 0 and with the seed given in -seed.\n\n" + 
+                "-reuse            Constructs the simulation once per batch and reuses it for each\n" +
+                "                  job, reseeding it and calling start() again, rather than\n" +
+                "                  constructing a new one for every job.  This is faster for\n" +
+                "                  many short jobs, but requires that start() fully resets the\n" +
+                "                  simulation.  See also sim.engine.BatchRunner.\n" +
+                "                  Default: constructs a new simulation for every job.\n\n" +
                 "-quiet            Does not print messages except for errors and warnings.\n" + 
                 "                  This option implies -time 0.\n" +
                 "                  Default: prints all messages.\n"
@@ -449,6 +456,7 @@ public class SimState implements java.io.Serializable
             }
 
         final boolean quiet = keyExists("-quiet", args);
+        final boolean reuse = keyExists("-reuse", args);
 
         java.text.NumberFormat n = java.text.NumberFormat.getInstance();
         n.setMinimumFractionDigits(0);
@@ -583,6 +591,7 @@ public class SimState implements java.io.Serializable
                     long time = time_init - 1;
                     long job = thread * repeat;
                     long seed = seed_init + job;  // initially anyway
+                    SimState reusable = null;  // only used if -reuse
                     for(long rep = 0 ; rep < repeat; rep++)
                         {
                         SimState state = null;
@@ -612,7 +621,12 @@ public class SimState implements java.io.Serializable
                         // ...or should we start fresh?
                         if (state==null)  // no checkpoint file requested
                             {
-                            state = generator.newInstance(seed,args);
+                            if (reusable != null)
+                                {
+                                state = reusable;
+                                state.setSeed(seed);
+                                }
+                            else state = generator.newInstance(seed,args);
                             state.job = job;
                             state.seed = seed;
                             if (!quiet) printlnSynchronized("Job: " + state.job() + " Seed: " + state.seed());
@@ -667,6 +681,7 @@ public class SimState implements java.io.Serializable
                             }
                                 
                         state.finish();
+                        if (reuse) reusable = state;
                         
                         if (retval) 
                             {
@@ -41,7 +41,97 @@ public abstract class AbstractGrid2D implements Grid2D
     
     public final int getHeight() { return height; }
     
-    public void reshape(int width, int height) { this.width = width; this.height = height; }
+    public void reshape(int width, int height) 
+        { 
+        this.width = width; 
+        this.height = height; 
+        fitDirtyTiles();
+        }
+    
+    /** The width and height, in cells, of the tiles in which changes to the grid are tracked:
+        see setTrackingDirty(...).  This is 16. */
+    public static final int DIRTY_TILE_SIZE = 16;
+    static final int DIRTY_TILE_SHIFT = 4;
+    
+    // For each tile, column by column, the dirty stamp at which it was last changed, or null if not tracking
+    int[] dirtyTiles = null;
+    int dirtyTilesHeight;
+    int dirtyStamp = 1;
+    
+    /** Sets whether the grid tracks which of its tiles (DIRTY_TILE_SIZE by DIRTY_TILE_SIZE blocks of cells)
+        have changed, so that portrayals such as FastValueGridPortrayal2D can redraw only those.  
+        Changes made by set(...) and by methods which change the whole grid (setTo(...), add(...), and so on)
+        are tracked automatically, at the cost of one check in set(...).  If you change the <tt>field</tt> array
+        directly, you must call markDirty(...) yourself.  By default the grid does not track changes. */
+    public void setTrackingDirty(boolean val)
+        {
+        if (val)
+            {
+            dirtyTilesHeight = (height + DIRTY_TILE_SIZE - 1) >> DIRTY_TILE_SHIFT;
+            dirtyTiles = new int[((width + DIRTY_TILE_SIZE - 1) >> DIRTY_TILE_SHIFT) * dirtyTilesHeight];
+            markAllDirty();
+            }
+        else dirtyTiles = null;
+        }
+    
+    /** Reallocates the tiles, all marked as changed, if the grid is tracking changes and its width or height
+        no longer matches them.  Anything which changes the width or height must call this afterwards. */
+    protected final void fitDirtyTiles()
+        {
+        if (dirtyTiles != null &&
+            (dirtyTilesHeight != (height + DIRTY_TILE_SIZE - 1) >> DIRTY_TILE_SHIFT ||
+            dirtyTiles.length != ((width + DIRTY_TILE_SIZE - 1) >> DIRTY_TILE_SHIFT) * dirtyTilesHeight))
+            setTrackingDirty(true);
+        }
+
+    /** Returns whether the grid tracks which of its tiles have changed. */
+    public boolean isTrackingDirty() { return dirtyTiles != null; }
+    
+    /** Marks the tile holding the cell (x,y) as changed, if the grid is tracking changes. */
+    public final void markDirty(final int x, final int y)
+        {
+        if (dirtyTiles != null)
+            dirtyTiles[(x >> DIRTY_TILE_SHIFT) * dirtyTilesHeight + (y >> DIRTY_TILE_SHIFT)] = dirtyStamp;
+        }
+    
+    /** Marks every tile as changed, if the grid is tracking changes. */
+    public final void markAllDirty()
+        {
+        if (dirtyTiles != null)
+            Arrays.fill(dirtyTiles, dirtyStamp);
+        }
+        
+    /** Advances and returns the dirty stamp.  Each reader of the grid's changes keeps the stamp returned by its
+        last call to this method: a tile has changed since then if getDirtyStamp(...) for it is >= that stamp.
+        Several readers may do so independently.  A reader which has not yet read the grid may use 0. */
+    public final int advanceDirtyStamp()
+        {
+        return ++dirtyStamp;
+        }
+        
+    /** Returns the dirty stamp at which the given tile last changed.  The tile (tx, ty) holds the cells 
+        from (tx * DIRTY_TILE_SIZE, ty * DIRTY_TILE_SIZE) up to but not including ((tx + 1) * DIRTY_TILE_SIZE, 
+        (ty + 1) * DIRTY_TILE_SIZE).  The grid must be tracking changes. */
+    public final int getDirtyStamp(final int tx, final int ty)
+        {
+        return dirtyTiles[tx * dirtyTilesHeight + ty];
+        }
+        
+    /** Returns the number of tiles across the grid.  The grid must be tracking changes. */
+    public final int getDirtyTilesWidth() { return dirtyTiles.length / dirtyTilesHeight; }
+
+    /** Returns the number of tiles down the grid.  The grid must be tracking changes. */
+    public final int getDirtyTilesHeight() { return dirtyTilesHeight; }
+
+    /** Returns the number of tiles which have changed since the given stamp.  The grid must be tracking changes. */
+    public final int countDirtyTiles(final int since)
+        {
+        final int[] dirtyTiles = this.dirtyTiles;
+        int count = 0;
+        for(int i = 0; i < dirtyTiles.length; i++)
+            if (dirtyTiles[i] >= since) count++;
+        return count;
+        }
     
     public Map buildMap(Map other) { return new HashMap(other); }
     public Map buildMap(int size) 
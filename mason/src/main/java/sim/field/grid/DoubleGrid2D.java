@@ -58,6 +58,7 @@ public /*strictfp*/ class DoubleGrid2D extends AbstractGrid2D
     public final void set(final int x, final int y, final double val)
         {
         field[x][y] = val;
+        markDirty(x, y);
         }
     
     /** Returns the element at location (x,y) */
@@ -92,6 +93,7 @@ public /*strictfp*/ class DoubleGrid2D extends AbstractGrid2D
                     fieldx[y] = thisMuch;
                 }
             }
+        markAllDirty();
         return this;
         }
 
@@ -126,6 +128,8 @@ public /*strictfp*/ class DoubleGrid2D extends AbstractGrid2D
             for (int i = 0; i < w; i++)
                 this.field[i] = (double[]) field[i].clone();
             }
+        fitDirtyTiles();
+        markAllDirty();
         return this;
         }
 
@@ -159,6 +163,8 @@ public /*strictfp*/ class DoubleGrid2D extends AbstractGrid2D
             for(int x =0 ; x < width; x++)
                 System.arraycopy(values.field[x],0,field[x],0,height);
             }
+        fitDirtyTiles();
+        markAllDirty();
         return this;
         }
 
@@ -314,6 +320,7 @@ public /*strictfp*/ class DoubleGrid2D extends AbstractGrid2D
                         fieldx[y] = toNoMoreThanThisMuch;
                 }
             }
+        markAllDirty();
         return this;
         }
 
@@ -345,6 +352,7 @@ public /*strictfp*/ class DoubleGrid2D extends AbstractGrid2D
                         fieldx[y] = toNoLowerThanThisMuch;
                 }
             }
+        markAllDirty();
         return this;
         }
     
@@ -375,6 +383,7 @@ public /*strictfp*/ class DoubleGrid2D extends AbstractGrid2D
                     fieldx[y] += withThisMuch;
                 }
             }
+        markAllDirty();
         return this;
         }
         
@@ -408,6 +417,7 @@ public /*strictfp*/ class DoubleGrid2D extends AbstractGrid2D
                     fieldx[y] += ofieldx[y];
                 }
             }
+        markAllDirty();
         return this;
         }
 
@@ -441,6 +451,7 @@ public /*strictfp*/ class DoubleGrid2D extends AbstractGrid2D
                     fieldx[y] += ofieldx[y];
                 }
             }
+        markAllDirty();
         return this;
         }
 
@@ -471,6 +482,7 @@ public /*strictfp*/ class DoubleGrid2D extends AbstractGrid2D
                     fieldx[y] *= byThisMuch;
                 }
             }
+        markAllDirty();
         return this;
 
         }
@@ -506,6 +518,7 @@ public /*strictfp*/ class DoubleGrid2D extends AbstractGrid2D
                     fieldx[y] *= ofieldx[y];
                 }
             }
+        markAllDirty();
         return this;
         }
 
@@ -539,6 +552,7 @@ public /*strictfp*/ class DoubleGrid2D extends AbstractGrid2D
                     fieldx[y] *= ofieldx[y];
                 }
             }
+        markAllDirty();
         return this;
         }
 
@@ -567,6 +581,7 @@ public /*strictfp*/ class DoubleGrid2D extends AbstractGrid2D
                     fieldx[y] = /*Strict*/Math.floor(fieldx[y]);
                 }
             }
+        markAllDirty();
         return this;
         }
 
@@ -595,6 +610,7 @@ public /*strictfp*/ class DoubleGrid2D extends AbstractGrid2D
                     fieldx[y] = /*Strict*/Math.ceil(fieldx[y]);
                 }
             }
+        markAllDirty();
         return this;
         }
     
@@ -626,6 +642,7 @@ public /*strictfp*/ class DoubleGrid2D extends AbstractGrid2D
 
                 }
             }
+        markAllDirty();
         return this;
         }
 
@@ -655,6 +672,7 @@ public /*strictfp*/ class DoubleGrid2D extends AbstractGrid2D
                     fieldx[y] = /*Strict*/Math.rint(fieldx[y]);
                 }
             }
+        markAllDirty();
         return this;
         }
 
@@ -691,6 +709,7 @@ public /*strictfp*/ class DoubleGrid2D extends AbstractGrid2D
                     }
                 }
             }
+        markAllDirty();
         }
 
 
@@ -0,0 +1,205 @@
+/*
+  Copyright 2022 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.field.grid;
+
+/**
+   An image pyramid over a DoubleGrid2D or IntGrid2D, for drawing or fetching a large grid at the resolution
+   of the screen rather than of the grid.  Level 0 is the grid itself.  Each cell of level k summarizes a
+   2^k by 2^k block of cells of the grid (smaller along the far edges), and each level is half the width and
+   height of the one below it, rounded up, down to a single cell.  Each level holds the MIN, MAX, and MEAN of
+   its blocks, as DoubleGrid2Ds.
+
+   <p>The pyramid is not kept up to date automatically: call update() after the grid has changed, or
+   update(x, y, width, height) if you know that only part of it has.  Either takes time proportional to
+   the area updated.
+*/
+
+public class GridPyramid implements java.io.Serializable
+    {
+    private static final long serialVersionUID = 1;
+
+    public static final int MIN = 0;
+    public static final int MAX = 1;
+    public static final int MEAN = 2;
+
+    Grid2D grid;
+    int width;
+    int height;
+    // levels[statistic][level], with levels[statistic][0] null
+    DoubleGrid2D[][] levels;
+
+    /** Builds a pyramid over the given grid, which must be a DoubleGrid2D or an IntGrid2D. */
+    public GridPyramid(Grid2D grid)
+        {
+        if (!(grid instanceof DoubleGrid2D || grid instanceof IntGrid2D))
+            throw new IllegalArgumentException("A GridPyramid can only be built over a DoubleGrid2D or an IntGrid2D.  You have: " + grid);
+        this.grid = grid;
+        update();
+        }
+
+    /** Returns the grid which the pyramid summarizes. */
+    public Grid2D getGrid()
+        {
+        return grid;
+        }
+
+    /** Returns the number of levels, including level 0. */
+    public int getNumLevels()
+        {
+        return levels[MIN].length;
+        }
+
+    /** Returns the given statistic (MIN, MAX, or MEAN) of the given level, which must be at least 1.
+        This is the pyramid's own storage: do not modify it. */
+    public DoubleGrid2D getLevel(int level, int statistic)
+        {
+        if (level < 1 || level >= getNumLevels())
+            throw new IllegalArgumentException("Level must be between 1 and " + (getNumLevels() - 1) + ".  You have: " + level);
+        if (statistic < MIN || statistic > MEAN)
+            throw new IllegalArgumentException("Statistic must be MIN, MAX, or MEAN.  You have: " + statistic);
+        return levels[statistic][level];
+        }
+
+    /** Returns the highest level whose cells each span no more than the given number of cells of the grid,
+        that is, floor(log2(cellsPerPixel)), bounded by the number of levels.  If you are drawing the grid
+        with cellsPerPixel cells to each pixel, this is the coarsest level which loses no resolution. */
+    public int getLevelFor(double cellsPerPixel)
+        {
+        int level = 0;
+        while (level + 1 < getNumLevels() && (1L << (level + 1)) <= cellsPerPixel)
+            level++;
+        return level;
+        }
+
+    /** Recomputes the entire pyramid from the grid, reallocating it if the grid has been reshaped. */
+    public void update()
+        {
+        int w = grid.getWidth();
+        int h = grid.getHeight();
+        if (levels == null || w != width || h != height)
+            {
+            width = w;
+            height = h;
+            int numLevels = 1;
+            while ((1L << (numLevels - 1)) < Math.max(w, h))
+                numLevels++;
+            levels = new DoubleGrid2D[3][numLevels];
+            for (int level = 1; level < numLevels; level++)
+                for (int s = MIN; s <= MEAN; s++)
+                    levels[s][level] = new DoubleGrid2D(size(w, level), size(h, level));
+            }
+        update(0, 0, w, h);
+        }
+
+    /** Recomputes those cells of the pyramid which summarize the given region of the grid. */
+    public void update(int x, int y, int width, int height)
+        {
+        if (grid.getWidth() != this.width || grid.getHeight() != this.height)
+            {
+            update();
+            return;
+            }
+        int x0 = Math.max(0, x);
+        int y0 = Math.max(0, y);
+        int x1 = Math.min(this.width, x + width);
+        int y1 = Math.min(this.height, y + height);
+        if (x0 >= x1 || y0 >= y1)
+            return;
+
+        for (int level = 1; level < getNumLevels(); level++)
+            {
+            x0 >>= 1;
+            y0 >>= 1;
+            x1 = (x1 + 1) >> 1;
+            y1 = (y1 + 1) >> 1;
+            if (level == 1)
+                updateFromGrid(x0, y0, x1, y1);
+            else
+                updateFromLevel(level, x0, y0, x1, y1);
+            }
+        }
+
+    // Computes cells [x0, x1) x [y0, y1) of level 1 from the grid
+    void updateFromGrid(int x0, int y0, int x1, int y1)
+        {
+        double[][] min = levels[MIN][1].field;
+        double[][] max = levels[MAX][1].field;
+        double[][] mean = levels[MEAN][1].field;
+        double[][] doubleField = (grid instanceof DoubleGrid2D ? ((DoubleGrid2D) grid).field : null);
+        int[][] intField = (grid instanceof IntGrid2D ? ((IntGrid2D) grid).field : null);
+
+        for (int x = x0; x < x1; x++)
+            for (int y = y0; y < y1; y++)
+                {
+                double lo = Double.POSITIVE_INFINITY;
+                double hi = Double.NEGATIVE_INFINITY;
+                double sum = 0;
+                int count = 0;
+                for (int gx = x * 2; gx < Math.min(width, x * 2 + 2); gx++)
+                    for (int gy = y * 2; gy < Math.min(height, y * 2 + 2); gy++)
+                        {
+                        double val = (doubleField != null ? doubleField[gx][gy] : intField[gx][gy]);
+                        if (val < lo) lo = val;
+                        if (val > hi) hi = val;
+                        sum += val;
+                        count++;
+                        }
+                min[x][y] = lo;
+                max[x][y] = hi;
+                mean[x][y] = sum / count;
+                }
+        }
+
+    // Computes cells [x0, x1) x [y0, y1) of the given level from the level below it, weighting
+    // the means by the number of cells of the grid which each summarizes
+    void updateFromLevel(int level, int x0, int y0, int x1, int y1)
+        {
+        double[][] min = levels[MIN][level].field;
+        double[][] max = levels[MAX][level].field;
+        double[][] mean = levels[MEAN][level].field;
+        DoubleGrid2D below = levels[MIN][level - 1];
+        double[][] bmin = below.field;
+        double[][] bmax = levels[MAX][level - 1].field;
+        double[][] bmean = levels[MEAN][level - 1].field;
+
+        for (int x = x0; x < x1; x++)
+            for (int y = y0; y < y1; y++)
+                {
+                double lo = Double.POSITIVE_INFINITY;
+                double hi = Double.NEGATIVE_INFINITY;
+                double sum = 0;
+                double count = 0;
+                for (int bx = x * 2; bx < Math.min(below.width, x * 2 + 2); bx++)
+                    {
+                    int spanX = span(width, level - 1, bx);
+                    for (int by = y * 2; by < Math.min(below.height, y * 2 + 2); by++)
+                        {
+                        double n = spanX * span(height, level - 1, by);
+                        if (bmin[bx][by] < lo) lo = bmin[bx][by];
+                        if (bmax[bx][by] > hi) hi = bmax[bx][by];
+                        sum += bmean[bx][by] * n;
+                        count += n;
+                        }
+                    }
+                min[x][y] = lo;
+                max[x][y] = hi;
+                mean[x][y] = sum / count;
+                }
+        }
+
+    // The number of cells in a row or column of the given level, over a grid of the given size
+    static int size(int gridSize, int level)
+        {
+        return (int)((gridSize + (1L << level) - 1) >> level);
+        }
+
+    // The number of cells of the grid spanned by the given row or column of the given level
+    static int span(int gridSize, int level, int index)
+        {
+        return Math.min(1 << level, gridSize - (index << level));
+        }
+    }
@@ -57,6 +57,7 @@ public /*strictfp*/ class IntGrid2D extends AbstractGrid2D
         {
         assert sim.util.LocationLog.it(this, new Int2D(x,y));
         field[x][y] = val;
+        markDirty(x, y);
         }
     
     /** Returns the element at location (x,y) */
@@ -95,6 +96,7 @@ public /*strictfp*/ class IntGrid2D extends AbstractGrid2D
                     }
                 }
             }
+        markAllDirty();
         return this;
         }
 
@@ -128,6 +130,8 @@ public /*strictfp*/ class IntGrid2D extends AbstractGrid2D
             for(int i = 0; i < w; i++)
                 this.field[i] = (int[]) field[i].clone();
             }
+        fitDirtyTiles();
+        markAllDirty();
         return this;
         }
 
@@ -172,6 +176,8 @@ public /*strictfp*/ class IntGrid2D extends AbstractGrid2D
                 }
             }
 
+        fitDirtyTiles();
+        markAllDirty();
         return this;
         }
 
@@ -353,6 +359,7 @@ public /*strictfp*/ class IntGrid2D extends AbstractGrid2D
                     }
                 }
             }
+        markAllDirty();
         return this;
         }
 
@@ -390,6 +397,7 @@ public /*strictfp*/ class IntGrid2D extends AbstractGrid2D
                     }
                 }
             }
+        markAllDirty();
         return this;
         }
 
@@ -427,6 +435,7 @@ public /*strictfp*/ class IntGrid2D extends AbstractGrid2D
                     }
                 }
             }
+        markAllDirty();
         return this;
         }
         
@@ -467,6 +476,7 @@ public /*strictfp*/ class IntGrid2D extends AbstractGrid2D
                     }
                 }
             }
+        markAllDirty();
         return this;
         }
 
@@ -504,6 +514,7 @@ public /*strictfp*/ class IntGrid2D extends AbstractGrid2D
                     }
                 }
             }
+        markAllDirty();
         return this;
         }
     
@@ -544,6 +555,7 @@ public /*strictfp*/ class IntGrid2D extends AbstractGrid2D
                     }
                 }
             }
+        markAllDirty();
         return this;
         }
         
@@ -581,6 +593,7 @@ public /*strictfp*/ class IntGrid2D extends AbstractGrid2D
                     }
                 }
             }
+        markAllDirty();
         }
 
 
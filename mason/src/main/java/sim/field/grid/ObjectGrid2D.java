@@ -54,6 +54,7 @@ public class ObjectGrid2D extends AbstractGrid2D
         {
         assert sim.util.LocationLog.it(this, new Int2D(x,y));
         field[x][y] = val;
+        markDirty(x, y);
         }
 
     /** Returns the element at location (x,y) */
@@ -97,6 +98,7 @@ public class ObjectGrid2D extends AbstractGrid2D
                     }
                 }
             }
+        markAllDirty();
         return this;
         }
 
@@ -132,6 +134,8 @@ public class ObjectGrid2D extends AbstractGrid2D
             for (int i = 0; i < w; i++)
                 this.field[i] = (Object[]) field[i].clone();
             }
+        fitDirtyTiles();
+        markAllDirty();
         return this;
         }
 
@@ -231,6 +235,7 @@ public class ObjectGrid2D extends AbstractGrid2D
                     }
                 }
             }
+        markAllDirty();
         return bag;
         }
 
@@ -275,6 +280,8 @@ public class ObjectGrid2D extends AbstractGrid2D
             for(int x =0 ; x < width; x++)
                 System.arraycopy(ofield[x],0,field[x],0,height);
             }
+        fitDirtyTiles();
+        markAllDirty();
         return this;
         }
 
@@ -288,6 +295,7 @@ public class ObjectGrid2D extends AbstractGrid2D
     public final void replaceAll(Object from, Object to)
         {
         replaceAll(from, to, false);
+        markAllDirty();
         }
 
     /**
@@ -332,6 +340,7 @@ public class ObjectGrid2D extends AbstractGrid2D
                     }
                 }
             }
+        markAllDirty();
         }
 
 
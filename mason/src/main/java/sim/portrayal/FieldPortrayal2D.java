@@ -42,6 +42,19 @@ import sim.display.*;
 
 public abstract class FieldPortrayal2D extends FieldPortrayal implements Portrayal2D
     {
+    boolean threadSafe = false;
+    
+    /** Declares whether this portrayal may draw into several Graphics2Ds, each with its own clip, at the same time
+        from different threads.  Display2D may then split the portrayal's drawing into tiles and draw them in parallel
+        (see Display2D.setPaintTiles(...)).  Only set this if neither the portrayal nor any of its SimplePortrayals
+        change any shared state while drawing, and none of them lock on the schedule (as, for example,
+        TrailedPortrayal2D does), since the thread which waits for the tiles is holding that lock.
+        By default this is false. */
+    public void setThreadSafe(boolean val) { threadSafe = val; }
+        
+    /** Returns whether this portrayal may draw from several threads at the same time. */
+    public boolean isThreadSafe() { return threadSafe; }
+
     /** Returns the position on-screen of an object at a given location in the field,
         using another object's location and DrawInfo2D to perform the computation. 
         Returns null if we can't compute it -- this happens by default if the
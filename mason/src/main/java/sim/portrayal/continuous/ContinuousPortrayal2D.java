@@ -194,11 +194,23 @@ public class ContinuousPortrayal2D extends FieldPortrayal2D
         newinfo.precise = info.precise;
         newinfo.fieldPortrayal = this;
 
-        // hit/draw the objects one by one -- perhaps for large numbers of objects it would
-        // be smarter to grab the objects out of the buckets that specifically are inside
-        // our range...
-        Bag objects = field.getAllObjects();
+        // hit/draw the objects one by one.  If only part of the field is in view, we grab
+        // the objects out of the buckets that are inside our range rather than checking them all.
         final double discretizationOverlap = field.discretization;
+        Bag objects = field.getAllObjects();
+        if (!displayingToroidally)
+            objects = getObjectsInRange(field, startx - discretizationOverlap, starty - discretizationOverlap,
+                endx + discretizationOverlap, endy + discretizationOverlap, objects);
+
+        if (graphics != null && densityMap != null && 
+            objects.numObjs >= densityThreshold * info.clip.width * info.clip.height)
+            {
+            drawDensity(graphics, info, objects, xScale, yScale, objectSelected);
+            drawAxes(graphics, xScale, yScale, info);
+            drawBorder(graphics, xScale, info);
+            return;
+            }
+
         for(int x=0;x<objects.numObjs;x++)
             {
             Object object = (objects.objs[x]);
@@ -259,6 +271,101 @@ public class ContinuousPortrayal2D extends FieldPortrayal2D
         }
 
 
+    /** Returns the objects in the buckets which overlap the given range, or ALL (all the objects in the field)
+        if there are fewer objects than buckets to look in. */
+    Bag getObjectsInRange(Continuous2D field, double startx, double starty, double endx, double endy, Bag all)
+        {
+        final double discretization = field.discretization;
+        final double bstartx = Math.floor(startx / discretization);
+        final double bstarty = Math.floor(starty / discretization);
+        final double bendx = Math.floor(endx / discretization);
+        final double bendy = Math.floor(endy / discretization);
+        if ((bendx - bstartx + 1) * (bendy - bstarty + 1) >= all.numObjs)
+            return all;
+        
+        Bag objects = new Bag();
+        for(int bx = (int)bstartx; bx <= (int)bendx; bx++)
+            for(int by = (int)bstarty; by <= (int)bendy; by++)
+                {
+                Bag bucket = field.getObjectsAtDiscretizedLocation(new Int2D(bx, by));
+                if (bucket != null)
+                    objects.addAll(bucket);
+                }
+        return objects;
+        }
+
+    sim.util.gui.ColorMap densityMap = null;
+    double densityThreshold = 1.0;
+        
+    /** Sets the portrayal to draw the density of objects, rather than the objects themselves, whenever 
+        there are at least THRESHOLD objects in view per pixel in view: each pixel is colored by the number of 
+        objects which fall on it, according to the given ColorMap (pixels with no objects are left alone).  
+        Selected objects are still drawn on top.  This makes drawing very large numbers of objects, zoomed out, 
+        about as fast as counting them.  Pass in a null map to always draw the objects (the default). */
+    public void setDensityMap(sim.util.gui.ColorMap map, double threshold)
+        {
+        if (threshold < 0) throw new IllegalArgumentException("Threshold must be >= 0.  You have: " + threshold);
+        densityMap = map;
+        densityThreshold = threshold;
+        }
+
+    /** Returns the ColorMap used to draw the density of objects, or null if the objects are always drawn. */
+    public sim.util.gui.ColorMap getDensityMap() { return densityMap; }
+        
+    /** Returns the number of objects per pixel at which the density of objects is drawn rather than the objects. */
+    public double getDensityThreshold() { return densityThreshold; }
+
+    void drawDensity(Graphics2D graphics, DrawInfo2D info, Bag objects, double xScale, double yScale, boolean objectSelected)
+        {
+        final Continuous2D field = (Continuous2D)this.field;
+        final int width = (int)Math.ceil(info.clip.width);
+        final int height = (int)Math.ceil(info.clip.height);
+        if (width <= 0 || height <= 0) return;
+        
+        // count the objects on each pixel
+        int[] counts = new int[width * height];
+        for(int x=0;x<objects.numObjs;x++)
+            {
+            Double2D loc = field.getObjectLocation(objects.objs[x]);
+            if (displayingToroidally)
+                loc = new Double2D(field.tx(loc.x), field.ty(loc.y));
+            int px = (int)Math.floor(info.draw.x + xScale * loc.x - info.clip.x);
+            int py = (int)Math.floor(info.draw.y + yScale * loc.y - info.clip.y);
+            if (px >= 0 && px < width && py >= 0 && py < height)
+                counts[py * width + px]++;
+            }
+        
+        // color them
+        java.awt.image.BufferedImage image = new java.awt.image.BufferedImage(width, height, java.awt.image.BufferedImage.TYPE_INT_ARGB);
+        int[] pixels = ((java.awt.image.DataBufferInt)(image.getRaster().getDataBuffer())).getData();
+        for(int i = 0; i < counts.length; i++)
+            if (counts[i] > 0)
+                pixels[i] = densityMap.getRGB(counts[i]);
+        graphics.drawImage(image, (int)Math.floor(info.clip.x), (int)Math.floor(info.clip.y), null);
+
+        // draw the selected objects on top
+        if (objectSelected)
+            {
+            DrawInfo2D newinfo = new DrawInfo2D(new Rectangle2D.Double(0,0, xScale, yScale), info);
+            newinfo.precise = info.precise;
+            newinfo.fieldPortrayal = this;
+            newinfo.selected = true;
+            Iterator iter = selectedWrappers.keySet().iterator();
+            while(iter.hasNext())
+                {
+                Object object = iter.next();
+                Double2D loc = field.getObjectLocation(object);
+                if (loc == null) continue;
+                if (displayingToroidally)
+                    loc = new Double2D(field.tx(loc.x), field.ty(loc.y));
+                newinfo.draw.x = (info.draw.x + (xScale) * loc.x);
+                newinfo.draw.y = (info.draw.y + (yScale) * loc.y);
+                newinfo.location = loc;
+                ((SimplePortrayal2D)(getPortrayalForObject(object))).draw(object, graphics, newinfo);
+                }
+            }
+        }
+
     public LocationWrapper getWrapper(final Object obj, GUIState gui)
         {
         final Continuous2D field = (Continuous2D)this.field;
@@ -47,8 +47,12 @@ public class FastObjectGridPortrayal2D extends ObjectGridPortrayal2D
         ObjectGrid2D og = (ObjectGrid2D)field;
         grid = new DoubleGrid2D(og.getWidth(), og.getHeight());
         valueGridPortrayal.setField(grid);
+        dirtyStamp = 0;
         }
     
+    // the dirty stamp of our last conversion from an object grid which tracks its changes
+    int dirtyStamp;
+    
     /** Override this as necessary to map the provided object into a double value.
         Objects selected from the field will be mapped through this function to double values, 
         which in turn will be passed to an underlying FastValueGridPortrayal2D, which will
@@ -84,6 +88,14 @@ public class FastObjectGridPortrayal2D extends ObjectGridPortrayal2D
     
     public int getBuffering() { return valueGridPortrayal.getBuffering(); }
     public void setBuffering(int val) { valueGridPortrayal.setBuffering(val); }
+
+    public double getMaxDirtyFraction() { return valueGridPortrayal.getMaxDirtyFraction(); }
+    /** Sets the largest fraction of the object grid's tiles which may have changed since the last draw for
+        the portrayal to convert and redraw only those tiles, if the grid tracks its changes
+        (see AbstractGrid2D.setTrackingDirty(...)).  Note that only changes made through the grid are tracked:
+        if the objects in the grid change in ways which change their doubleValue(...), you must call
+        markDirty(...) on the grid yourself.  By default this is 0.25. */
+    public void setMaxDirtyFraction(double val) { valueGridPortrayal.setMaxDirtyFraction(val); }
     
     public void draw(Object object, Graphics2D graphics, DrawInfo2D info)
         {
@@ -109,13 +121,46 @@ public class FastObjectGridPortrayal2D extends ObjectGridPortrayal2D
         if( startx < 0 ) startx = 0;
         if( starty < 0 ) starty = 0;
     
-        // convert the object grid into a double grid
-        for(int x=startx;x<endx;x++)
+        if (ogrid.isTrackingDirty() && graphics != null)
+            {
+            // convert just the tiles of the object grid which have changed since we last drew, 
+            // and let the FastValueGridPortrayal2D redraw the same tiles
+            if (!grid.isTrackingDirty()) grid.setTrackingDirty(true);
+            final int since = dirtyStamp;
+            dirtyStamp = ogrid.advanceDirtyStamp();
+            final int tilesWidth = ogrid.getDirtyTilesWidth();
+            final int tilesHeight = ogrid.getDirtyTilesHeight();
+            final boolean full = (since == 0 || 
+                ogrid.countDirtyTiles(since) > valueGridPortrayal.getMaxDirtyFraction() * tilesWidth * tilesHeight);
+            final int size = AbstractGrid2D.DIRTY_TILE_SIZE;
+            for(int tx = 0; tx < tilesWidth; tx++)
+                for(int ty = 0; ty < tilesHeight; ty++)
+                    if (full || ogrid.getDirtyStamp(tx, ty) >= since)
+                        {
+                        final int ex = Math.min((tx + 1) * size, maxX);
+                        final int ey = Math.min((ty + 1) * size, maxY);
+                        for(int x = tx * size; x < ex; x++)
+                            {
+                            double[] gridx = grid.field[x];
+                            Object[] ogridx = ogrid.field[x];
+                            for(int y = ty * size; y < ey; y++)
+                                gridx[y] = doubleValue(ogridx[y]);
+                            }
+                        grid.markDirty(tx * size, ty * size);
+                        }
+            }
+        else
             {
-            double[] gridx = grid.field[x];
-            Object[] ogridx = ogrid.field[x];
-            for(int y=starty;y<endy;y++)
-                gridx[y] = doubleValue(ogridx[y]);
+            if (!ogrid.isTrackingDirty() && grid.isTrackingDirty()) grid.setTrackingDirty(false);
+            
+            // convert the object grid into a double grid
+            for(int x=startx;x<endx;x++)
+                {
+                double[] gridx = grid.field[x];
+                Object[] ogridx = ogrid.field[x];
+                for(int y=starty;y<endy;y++)
+                    gridx[y] = doubleValue(ogridx[y]);
+                }
             }
    
         // now ask the ValueGridPortrayal to draw it!
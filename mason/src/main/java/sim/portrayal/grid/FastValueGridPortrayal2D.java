@@ -104,16 +104,132 @@ public class FastValueGridPortrayal2D extends ValueGridPortrayal2D
     WritableRaster raster;
     int[] data = new int[0];
 
+    // the grid, ColorMap, and dirty stamp of our last draw from a grid which tracks its changes
+    AbstractGrid2D dirtyGrid;
+    ColorMap dirtyMap;
+    int dirtyStamp;
+    double maxDirtyFraction = 0.25;
+    
+    /** Sets the largest fraction of a grid's tiles which may have changed since the last draw for the
+        portrayal to redraw only those tiles.  This only matters for grids which track their changes
+        (see AbstractGrid2D.setTrackingDirty(...)): the portrayal then keeps its buffer current by redrawing
+        only the tiles which have changed, unless more than this fraction have, in which case it redraws
+        the whole grid.  By default this is 0.25. */
+    public void setMaxDirtyFraction(double val)
+        {
+        if (val < 0 || val > 1) 
+            throw new IllegalArgumentException("Fraction must be between 0 and 1.  You have: " + val);
+        maxDirtyFraction = val;
+        }
+    /** Returns the largest fraction of a grid's tiles which may have changed for the portrayal to redraw only those tiles. */
+    public double getMaxDirtyFraction() { return maxDirtyFraction; }
+
+    GridPyramid pyramid;
+    boolean usePyramid = false;
+    int pyramidStatistic = GridPyramid.MEAN;
+    // the dirty stamp of our last update of the pyramid from a grid which tracks its changes
+    int pyramidStamp;
+
+    /** Sets whether, when each pixel covers several cells of the grid, the portrayal draws a coarser level of a
+        GridPyramid over the grid instead, with about one cell per pixel.  This makes drawing a large grid zoomed
+        out take time proportional to the pixels drawn rather than to the grid.  The pyramid is updated whenever
+        the grid would be redrawn.  If the grid tracks its changes (see AbstractGrid2D.setTrackingDirty(...)), only
+        the parts of the pyramid over the tiles which have changed are updated, unless more than the maximum dirty
+        fraction of them have; otherwise the whole pyramid is updated, which costs time proportional to the grid,
+        though much less of it than drawing.  By default this is false. */
+    public void setUsePyramid(boolean val) { usePyramid = val; if (!val) pyramid = null; setDirtyField(true); }
+    /** Returns whether the portrayal draws a coarser level of a GridPyramid when zoomed out. */
+    public boolean getUsePyramid() { return usePyramid; }
+
+    /** Sets which statistic of each block of cells is drawn from the GridPyramid: GridPyramid.MIN, GridPyramid.MAX,
+        or GridPyramid.MEAN (the default).  MAX, for example, keeps isolated high values visible when zoomed out. */
+    public void setPyramidStatistic(int val)
+        {
+        if (val < GridPyramid.MIN || val > GridPyramid.MEAN)
+            throw new IllegalArgumentException("Statistic must be GridPyramid.MIN, MAX, or MEAN.  You have: " + val);
+        pyramidStatistic = val;
+        setDirtyField(true);
+        }
+    /** Returns which statistic of each block of cells is drawn from the GridPyramid. */
+    public int getPyramidStatistic() { return pyramidStatistic; }
+
     // Should draw itself within the box from (0,0) to (1,1)
     public void draw(Object object, Graphics2D graphics, DrawInfo2D info)
         {
         final Grid2D field = (Grid2D)this.field;
         if (field==null) return;
         
-        // first question: determine the range in which we need to draw.
         final int maxX = field.getWidth();
         final int maxY = field.getHeight(); 
         if (maxX == 0 || maxY == 0) return;
+        final double xScale = info.draw.width / maxX;
+        final double yScale = info.draw.height / maxY;
+
+        Grid2D cells = field;
+        DrawInfo2D cellsInfo = info;
+        if (usePyramid)
+            {
+            if (pyramid == null || pyramid.getGrid() != field)
+                {
+                pyramid = new GridPyramid(field);
+                if (field instanceof AbstractGrid2D && ((AbstractGrid2D)field).isTrackingDirty())
+                    pyramidStamp = ((AbstractGrid2D)field).advanceDirtyStamp();
+                }
+            else if (!immutableField || isDirtyField())
+                updatePyramid(field);
+
+            int level = pyramid.getLevelFor(1.0 / Math.max(xScale, yScale));
+            if (level > 0)
+                {
+                // the coarser grid reaches a little past the far edges of the field
+                cells = pyramid.getLevel(level, pyramidStatistic);
+                cellsInfo = new DrawInfo2D(info);
+                cellsInfo.draw.width = xScale * (((long) cells.getWidth()) << level);
+                cellsInfo.draw.height = yScale * (((long) cells.getHeight()) << level);
+                }
+            }
+
+        drawCells(cells, graphics, cellsInfo);
+        drawGrid(graphics, xScale, yScale, maxX, maxY, info);
+        drawBorder(graphics, xScale, info);
+   
+        // finally, clear dirty flag if we've just drawn (don't clear if we're doing hit testing)
+        if (graphics!=null) setDirtyField(false);
+        }
+
+    // Brings the pyramid up to date with the field: only over the tiles which have changed since the last update, 
+    // if the field tracks its changes and not too many have, else entirely
+    void updatePyramid(Grid2D field)
+        {
+        if (!(field instanceof AbstractGrid2D && ((AbstractGrid2D)field).isTrackingDirty()))
+            {
+            pyramid.update();
+            return;
+            }
+            
+        final AbstractGrid2D tracked = (AbstractGrid2D)field;
+        final int since = pyramidStamp;
+        pyramidStamp = tracked.advanceDirtyStamp();
+        final int tilesWidth = tracked.getDirtyTilesWidth();
+        final int tilesHeight = tracked.getDirtyTilesHeight();
+        if (tracked.countDirtyTiles(since) > maxDirtyFraction * tilesWidth * tilesHeight)
+            pyramid.update();
+        else
+            {
+            final int size = AbstractGrid2D.DIRTY_TILE_SIZE;
+            for(int tx = 0; tx < tilesWidth; tx++)
+                for(int ty = 0; ty < tilesHeight; ty++)
+                    if (tracked.getDirtyStamp(tx, ty) >= since)
+                        pyramid.update(tx * size, ty * size, size, size);      // clipped to the grid by the pyramid
+            }
+        }
+
+    // Draws the cells of the given grid, which is the field or a level of its pyramid, within info.draw
+    void drawCells(final Grid2D field, Graphics2D graphics, DrawInfo2D info)
+        {
+        // first question: determine the range in which we need to draw.
+        final int maxX = field.getWidth();
+        final int maxY = field.getHeight(); 
 
         // precise values
         final double xScale = info.draw.width / maxX;
@@ -174,7 +290,35 @@ public class FastValueGridPortrayal2D extends ValueGridPortrayal2D
             //_buffer = buffer;
             //}
 
-            if (newBuffer || !immutableField || isDirtyField())  // we have to load the buffer
+            final AbstractGrid2D tracked = (field instanceof AbstractGrid2D && ((AbstractGrid2D)field).isTrackingDirty() && 
+                !immutableField && graphics != null) ? (AbstractGrid2D)field : null;
+            
+            if (tracked != null)  // load just the tiles which have changed since we last drew
+                {
+                boolean full = (newBuffer || isDirtyField() || tracked != dirtyGrid || map != dirtyMap);
+                final int since = dirtyStamp;
+                dirtyGrid = tracked;
+                dirtyMap = map;
+                dirtyStamp = tracked.advanceDirtyStamp();
+                
+                final int tilesWidth = tracked.getDirtyTilesWidth();
+                final int tilesHeight = tracked.getDirtyTilesHeight();
+                if (!full && tracked.countDirtyTiles(since) > maxDirtyFraction * tilesWidth * tilesHeight)
+                    full = true;
+                        
+                if (full)  // must load the ENTIRE buffer, since we'll only update parts of it from now on
+                    loadBuffer(isDoubleGrid2D, doubleField, intField, 0, 0, maxX, maxY);
+                else
+                    {
+                    final int size = AbstractGrid2D.DIRTY_TILE_SIZE;
+                    for(int tx = 0; tx < tilesWidth; tx++)
+                        for(int ty = 0; ty < tilesHeight; ty++)
+                            if (tracked.getDirtyStamp(tx, ty) >= since)
+                                loadBuffer(isDoubleGrid2D, doubleField, intField, tx * size, ty * size, 
+                                    Math.min((tx + 1) * size, maxX), Math.min((ty + 1) * size, maxY));
+                    }
+                }
+            else if (newBuffer || !immutableField || isDirtyField())  // we have to load the buffer
                 {
                 if (endx > maxX) endx = maxX;
                 if (endy > maxY) endy = maxY;
@@ -192,24 +336,7 @@ public class FastValueGridPortrayal2D extends ValueGridPortrayal2D
                     startx = 0; starty = 0; endx = maxX; endy = maxY;
                     }
 
-                final ColorMap map = this.map;
-            
-                if (ex-sx > 0 && ey-sy > 0)  // could be otherwise if drawing off-screen...
-                    {
-                    int[] data = this.data;  // reuse
-                    if (data.length != (ex-sx)*(ey-sy)) 
-                        data = this.data = new int[(ex-sx)*(ey-sy)];
-                    int i = 0;
-                    if (isDoubleGrid2D)
-                        for(int y=sy;y<ey;y++)
-                            for(int x=sx;x<ex;x++)
-                                data[i++] = map.getRGB(doubleField[x][y]);
-                    else
-                        for(int y=sy;y<ey;y++)
-                            for(int x=sx;x<ex;x++)
-                                data[i++] = map.getRGB(intField[x][y]);
-                    raster.setDataElements(sx,sy,ex-sx,ey-sy,data);
-                    }
+                loadBuffer(isDoubleGrid2D, doubleField, intField, sx, sy, ex, ey);
                 }
                 
             // MacOS X 10.3 Panther has a bug which resets the clip, YUCK
@@ -337,11 +464,29 @@ public class FastValueGridPortrayal2D extends ValueGridPortrayal2D
                         graphics.draw(preciseRectangle);
                         }
             }
-    
-        drawGrid(graphics, xScale, yScale, maxX, maxY, info);
-        drawBorder(graphics, xScale, info);
-   
-        // finally, clear dirty flag if we've just drawn (don't clear if we're doing hit testing)
-        if (graphics!=null) setDirtyField(false);
-        }                
+        }
+
+    // Loads the colors of the cells from (sx,sy) up to but not including (ex,ey) into the buffer
+    void loadBuffer(final boolean isDoubleGrid2D, final double[][] doubleField, final int[][] intField, 
+        final int sx, final int sy, final int ex, final int ey)
+        {
+        final ColorMap map = this.map;
+            
+        if (ex-sx > 0 && ey-sy > 0)  // could be otherwise if drawing off-screen...
+            {
+            int[] data = this.data;  // reuse
+            if (data.length < (ex-sx)*(ey-sy)) 
+                data = this.data = new int[(ex-sx)*(ey-sy)];
+            int i = 0;
+            if (isDoubleGrid2D)
+                for(int y=sy;y<ey;y++)
+                    for(int x=sx;x<ex;x++)
+                        data[i++] = map.getRGB(doubleField[x][y]);
+            else
+                for(int y=sy;y<ey;y++)
+                    for(int x=sx;x<ex;x++)
+                        data[i++] = map.getRGB(intField[x][y]);
+            raster.setDataElements(sx,sy,ex-sx,ey-sy,data);
+            }
+        }
     }
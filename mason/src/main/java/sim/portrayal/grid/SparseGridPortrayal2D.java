@@ -275,6 +275,21 @@ public class SparseGridPortrayal2D extends FieldPortrayal2D
         else            // the easy way -- draw the objects one by one
             {
             Bag objects = field.getAllObjects();
+            
+            // If only part of the field is in view, grab the objects out of the locations
+            // that are inside our range rather than checking them all
+            if (((double)(endx + 4 - (startx - 2))) * (endy + 4 - (starty - 2)) < objects.numObjs)
+                {
+                Bag inRange = new Bag();
+                for(int x = startx - 2; x < endx + 4; x++)
+                    for(int y = starty - 2; y < endy + 4; y++)
+                        {
+                        Bag b = field.getObjectsAtLocation(x, y);
+                        if (b != null) inRange.addAll(b);
+                        }
+                objects = inRange;
+                }
+                
             for(int x=0;x<objects.numObjs;x++)
                 {
                 final Object portrayedObject = objects.objs[x];
@@ -0,0 +1,639 @@
+/*
+  Copyright 2019 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.util;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+import java.awt.image.*;
+import sim.field.grid.*;
+
+/****
+
+     STREAMINGTABLELOADER.java
+
+     <p>This class loads the same files as TableLoader, but rather than building an int[][] or double[][] array
+     which you must then convert and copy into a grid, it parses the file straight into a DoubleGrid2D or IntGrid2D.
+     This matters for very large rasters: TableLoader's loadTextFile(...), for example, holds the file's rows,
+     their transpose, and then your grid's copy all at once, whereas StreamingTableLoader holds only the grid
+     and a small buffer.
+
+     <p>Each method takes a target grid.  If the grid is null, a new grid of the proper size is created.  If the grid
+     is the wrong size, it is reshaped (which discards its contents).  Either way the loaded grid is returned.
+     Unlike TableLoader, each method also takes a flipY argument: if true, the first row in the file is
+     placed at y = height - 1 rather than at y = 0.
+
+     <p><b>Text files</b>&nbsp;&nbsp;&nbsp;&nbsp;loadTextFile(...) reads the same whitespace-delimited text files as
+     TableLoader.loadTextFile(...).  The file is memory-mapped in chunks which break at line boundaries.  A first pass
+     counts the rows in each chunk, which tells us the height of the grid and the row at which each chunk starts;
+     a second pass parses each chunk's numbers directly into the grid.  Both passes may be spread over multiple threads.
+     Numbers are parsed directly from the mapped bytes; only numbers with more than 15 significant digits or
+     large exponents fall back to Double.parseDouble(...).  A text file may be loaded into an IntGrid2D
+     only if all of its numbers are integers.
+
+     <p><b>PBM and PGM files</b>&nbsp;&nbsp;&nbsp;&nbsp;loadPNMFile(...) reads plain and raw PBM and PGM files from
+     a channel through a small reusable buffer.  The dimensions are given in the header, so the grid is allocated
+     up front and filled as the file is read.
+
+     <p><b>PNG and GIF files</b>&nbsp;&nbsp;&nbsp;&nbsp;loadPNGFile(...) and loadGIFFile(...) still rely on ImageIO
+     to decode the image, but copy it a row at a time into the grid rather than building an intermediate int[][].
+*/
+
+
+public class StreamingTableLoader
+    {
+    /** The default size of the chunks into which text files are broken, in bytes. */
+    public static final int DEFAULT_CHUNK_SIZE = 1 << 24;
+
+    // the size of the buffer used to read PNM files
+    static final int BUFFER_SIZE = 1 << 16;
+
+    // exactly representable powers of 10
+    static final double[] POWERS_OF_TEN = new double[]
+        {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+        };
+
+
+
+    //// TEXT FILES
+
+
+    /** Loads a whitespace-delimited text file into the given DoubleGrid2D, using a single thread. */
+    public static DoubleGrid2D loadTextFile(File file, DoubleGrid2D grid, boolean flipY) throws IOException
+        {
+        return loadTextFile(file, grid, flipY, 1);
+        }
+
+    /** Loads a whitespace-delimited text file into the given DoubleGrid2D, parsing with up to numThreads threads. */
+    public static DoubleGrid2D loadTextFile(File file, DoubleGrid2D grid, boolean flipY, int numThreads) throws IOException
+        {
+        TextFile text = new TextFile(file, numThreads, DEFAULT_CHUNK_SIZE);
+        try
+            {
+            if (grid == null) grid = new DoubleGrid2D(text.width, text.height);
+            else if (grid.getWidth() != text.width || grid.getHeight() != text.height) grid.reshape(text.width, text.height);
+            text.parse(grid.field, null, flipY);
+            return grid;
+            }
+        finally { text.close(); }
+        }
+
+    /** Loads a whitespace-delimited text file into the given IntGrid2D, using a single thread.
+        Throws an IOException if any number in the file is not an integer. */
+    public static IntGrid2D loadTextFile(File file, IntGrid2D grid, boolean flipY) throws IOException
+        {
+        return loadTextFile(file, grid, flipY, 1);
+        }
+
+    /** Loads a whitespace-delimited text file into the given IntGrid2D, parsing with up to numThreads threads.
+        Throws an IOException if any number in the file is not an integer. */
+    public static IntGrid2D loadTextFile(File file, IntGrid2D grid, boolean flipY, int numThreads) throws IOException
+        {
+        TextFile text = new TextFile(file, numThreads, DEFAULT_CHUNK_SIZE);
+        try
+            {
+            if (grid == null) grid = new IntGrid2D(text.width, text.height);
+            else if (grid.getWidth() != text.width || grid.getHeight() != text.height) grid.reshape(text.width, text.height);
+            text.parse(null, grid.field, flipY);
+            return grid;
+            }
+        finally { text.close(); }
+        }
+
+    // A text file broken into chunks at line boundaries.  Constructing it performs the first (counting) pass.
+    static class TextFile
+        {
+        FileInputStream stream;
+        FileChannel channel;
+        int numThreads;
+        long[] starts;          // chunk i runs from starts[i] to starts[i+1]
+        int[] rows;             // the number of non-blank lines in each chunk
+        int[] firstRows;        // the row at which each chunk begins
+        int[] firstWidths;      // the number of values in the first non-blank line of each chunk, or -1
+        int width;
+        int height;
+
+        TextFile(File file, int numThreads, int chunkSize) throws IOException
+            {
+            if (numThreads < 1) throw new IllegalArgumentException("Number of threads must be at least 1.  You have: " + numThreads);
+            this.numThreads = numThreads;
+            stream = new FileInputStream(file);
+            channel = stream.getChannel();
+            try
+                {
+                findChunks(chunkSize);
+                int numChunks = rows.length;
+                runInParallel(numThreads, numChunks, new ChunkTask()
+                    {
+                    public void run(int chunk) throws IOException { count(chunk); }
+                    });
+
+                width = -1;
+                firstRows = new int[numChunks];
+                long total = 0;
+                for(int i = 0; i < numChunks; i++)
+                    {
+                    firstRows[i] = (int)total;
+                    total += rows[i];
+                    if (width == -1 && rows[i] > 0) width = firstWidths[i];
+                    }
+                if (total > Integer.MAX_VALUE) throw new IOException("Too many rows in text file: " + total);
+                height = (int)total;
+                if (width == -1) width = 0;  // got nothing
+                if (height == 0 || width == 0) { width = 0; height = 0; }
+                }
+            catch (IOException ex) { close(); throw ex; }
+            catch (RuntimeException ex) { close(); throw ex; }
+            }
+
+        void close() throws IOException { stream.close(); }
+
+        // Breaks the file into chunks of roughly chunkSize bytes, each ending just after a newline (or at the end of the file)
+        void findChunks(int chunkSize) throws IOException
+            {
+            long size = channel.size();
+            ArrayList<Long> s = new ArrayList<Long>();
+            s.add(Long.valueOf(0));
+            ByteBuffer buf = ByteBuffer.allocate(4096);
+            long pos = chunkSize;
+            while(pos < size)
+                {
+                // scan forward for the next newline
+                long next = -1;
+                long p = pos;
+                while(next == -1 && p < size)
+                    {
+                    buf.clear();
+                    int n = channel.read(buf, p);
+                    if (n <= 0) break;
+                    for(int i = 0; i < n; i++)
+                        if (buf.get(i) == '\n') { next = p + i + 1; break; }
+                    p += n;
+                    }
+                if (next == -1 || next >= size) break;
+                s.add(Long.valueOf(next));
+                pos = next + chunkSize;
+                }
+            s.add(Long.valueOf(size));
+
+            starts = new long[s.size()];
+            for(int i = 0; i < starts.length; i++)
+                starts[i] = s.get(i).longValue();
+            rows = new int[starts.length - 1];
+            firstWidths = new int[starts.length - 1];
+            }
+
+        ByteBuffer map(int chunk) throws IOException
+            {
+            return channel.map(FileChannel.MapMode.READ_ONLY, starts[chunk], starts[chunk + 1] - starts[chunk]);
+            }
+
+        // The first pass: counts the non-blank lines in the chunk, and the values in the first of them
+        void count(int chunk) throws IOException
+            {
+            ByteBuffer buf = map(chunk);
+            int len = buf.limit();
+            int r = 0;
+            int firstWidth = -1;
+            int pos = 0;
+            while(pos < len)
+                {
+                int tokens = 0;
+                boolean inToken = false;
+                byte b = 0;
+                for( ; pos < len && (b = buf.get(pos)) != '\n'; pos++)
+                    {
+                    boolean white = (b <= ' ');
+                    if (!white && !inToken) tokens++;
+                    inToken = !white;
+                    }
+                pos++;  // skip the newline
+                if (tokens > 0)
+                    {
+                    if (r == 0) firstWidth = tokens;
+                    r++;
+                    }
+                }
+            rows[chunk] = r;
+            firstWidths[chunk] = firstWidth;
+            }
+
+        // The second pass.  Exactly one of dfield and ifield is non-null.
+        void parse(final double[][] dfield, final int[][] ifield, final boolean flipY) throws IOException
+            {
+            if (height == 0) return;
+            runInParallel(numThreads, rows.length, new ChunkTask()
+                {
+                public void run(int chunk) throws IOException { parse(chunk, dfield, ifield, flipY); }
+                });
+            }
+
+        void parse(int chunk, double[][] dfield, int[][] ifield, boolean flipY) throws IOException
+            {
+            if (rows[chunk] == 0) return;
+            ByteBuffer buf = map(chunk);
+            int len = buf.limit();
+            int row = firstRows[chunk];
+            int pos = 0;
+            byte[] scratch = new byte[64];
+            while(pos < len)
+                {
+                int x = 0;
+                int y = (flipY ? height - 1 - row : row);
+                while(true)
+                    {
+                    // skip whitespace
+                    byte b = 0;
+                    while(pos < len && (b = buf.get(pos)) <= ' ' && b != '\n') pos++;
+                    if (pos >= len || b == '\n') break;
+
+                    // find the end of the token
+                    int start = pos;
+                    while(pos < len && (b = buf.get(pos)) > ' ') pos++;
+                    if (x == width) throw new IOException("Row lengths do not match in text file");
+                    double val = parseDouble(buf, start, pos, scratch);
+                    if (dfield != null) dfield[x][y] = val;
+                    else
+                        {
+                        int a = (int)val;
+                        if (a != val) throw new IOException("Non-integer value " + val + " in text file");
+                        ifield[x][y] = a;
+                        }
+                    x++;
+                    }
+                pos++;  // skip the newline
+                if (x > 0)
+                    {
+                    if (x < width) throw new IOException("Row lengths do not match in text file");
+                    row++;
+                    }
+                }
+            }
+        }
+
+    // Parses the number held in buf from start (inclusive) to end (exclusive).  scratch is used for the slow path.
+    static double parseDouble(ByteBuffer buf, int start, int end, byte[] scratch) throws IOException
+        {
+        int pos = start;
+        boolean negative = false;
+        byte b = buf.get(pos);
+        if (b == '-' || b == '+') { negative = (b == '-'); pos++; }
+
+        long mantissa = 0;
+        int digits = 0;         // significant digits accumulated in mantissa
+        int numDigits = 0;      // all digits seen
+        int exponent = 0;
+        boolean exact = true;
+        boolean point = false;
+        for( ; pos < end; pos++)
+            {
+            b = buf.get(pos);
+            if (b >= '0' && b <= '9')
+                {
+                numDigits++;
+                if (digits < 18)
+                    {
+                    mantissa = mantissa * 10 + (b - '0');
+                    if (mantissa != 0) digits++;
+                    if (point) exponent--;
+                    }
+                else
+                    {
+                    if (b != '0') exact = false;
+                    if (!point) exponent++;
+                    }
+                }
+            else if (b == '.' && !point) point = true;
+            else break;
+            }
+
+        if (numDigits > 0 && pos < end && (b == 'e' || b == 'E'))
+            {
+            pos++;
+            boolean negativeExponent = false;
+            if (pos < end && (buf.get(pos) == '-' || buf.get(pos) == '+')) { negativeExponent = (buf.get(pos) == '-'); pos++; }
+            int e = 0;
+            int expDigits = 0;
+            for( ; pos < end; pos++)
+                {
+                b = buf.get(pos);
+                if (b < '0' || b > '9') break;
+                if (e < 100000) e = e * 10 + (b - '0');
+                expDigits++;
+                }
+            if (expDigits == 0) pos = -1;  // malformed, let the slow path complain
+            exponent += (negativeExponent ? -e : e);
+            }
+
+        if (pos == end && numDigits > 0 && exact)
+            {
+            if (mantissa == 0) return negative ? -0.0 : 0.0;
+            if (digits <= 15 && exponent >= -22 && exponent <= 22)
+                {
+                double val = (exponent < 0 ? mantissa / POWERS_OF_TEN[-exponent] : mantissa * POWERS_OF_TEN[exponent]);
+                return negative ? -val : val;
+                }
+            }
+
+        // slow path
+        int len = end - start;
+        if (scratch.length < len) scratch = new byte[len];
+        for(int i = 0; i < len; i++)
+            scratch[i] = buf.get(start + i);
+        String s = new String(scratch, 0, len, "ISO-8859-1");
+        try
+            {
+            return Double.parseDouble(s);
+            }
+        catch (NumberFormatException ex)
+            {
+            throw new IOException("Invalid number in text file: " + s);
+            }
+        }
+
+
+
+    //// PBM AND PGM FILES
+
+
+    /** Loads a plain or raw PGM file, or a plain or raw PBM file, into the given IntGrid2D. */
+    public static IntGrid2D loadPNMFile(InputStream stream, IntGrid2D grid, boolean flipY) throws IOException
+        {
+        return loadPNMFile(Channels.newChannel(stream), grid, flipY);
+        }
+
+    /** Loads a plain or raw PGM file, or a plain or raw PBM file, into the given IntGrid2D. */
+    public static IntGrid2D loadPNMFile(ReadableByteChannel channel, IntGrid2D grid, boolean flipY) throws IOException
+        {
+        ChannelReader in = new ChannelReader(channel);
+        String type = in.token();
+        boolean plain;
+        boolean bitmap;
+        if (type.equals("P1")) { plain = true; bitmap = true; }
+        else if (type.equals("P2")) { plain = true; bitmap = false; }
+        else if (type.equals("P4")) { plain = false; bitmap = true; }
+        else if (type.equals("P5")) { plain = false; bitmap = false; }
+        else throw new IOException("Not a viable PBM or PGM stream");
+
+        int width = in.intToken();
+        int height = in.intToken();
+        int maxVal = (bitmap ? 1 : in.intToken());
+        if (width < 0) throw new IOException("Invalid width: " + width);
+        if (height < 0) throw new IOException("Invalid height: " + height);
+        if (maxVal <= 0) throw new IOException("Invalid maximum value: " + maxVal);
+
+        if (grid == null) grid = new IntGrid2D(width, height);
+        else if (grid.getWidth() != width || grid.getHeight() != height) grid.reshape(width, height);
+        int[][] field = grid.field;
+
+        for(int i = 0; i < height; i++)
+            {
+            int y = (flipY ? height - 1 - i : i);
+            if (plain && bitmap)
+                {
+                for(int x = 0; x < width; x++)
+                    {
+                    int c = in.nonWhitespace();
+                    if (c == '0') field[x][y] = 0;
+                    else if (c == '1') field[x][y] = 1;
+                    else throw new IOException("Invalid byte data in PBM");
+                    }
+                }
+            else if (plain)
+                {
+                for(int x = 0; x < width; x++)
+                    field[x][y] = in.intToken();
+                }
+            else if (bitmap)
+                {
+                int data = 0;
+                int count = 0;
+                for(int x = 0; x < width; x++)
+                    {
+                    if (count == 0) { data = in.read(); count = 8; }
+                    count--;
+                    field[x][y] = (data >> count) & 0x1;
+                    }
+                }
+            else
+                {
+                int bytes = (maxVal < 256 ? 1 : maxVal < 65536 ? 2 : maxVal < 16777216 ? 3 : 4);   // 3 and 4 are nonstandard
+                for(int x = 0; x < width; x++)
+                    {
+                    int val = 0;
+                    for(int k = 0; k < bytes; k++)
+                        val = (val << 8) | in.read();           // most significant byte first
+                    field[x][y] = val;
+                    }
+                }
+            }
+        return grid;
+        }
+
+    // Reads bytes and PNM tokens from a channel through a reusable buffer
+    static class ChannelReader
+        {
+        ReadableByteChannel channel;
+        ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        StringBuilder b = new StringBuilder();
+
+        ChannelReader(ReadableByteChannel channel)
+            {
+            this.channel = channel;
+            buf.flip();     // empty
+            }
+
+        // Returns the next byte, or -1 at the end of the stream
+        int peek() throws IOException
+            {
+            while(!buf.hasRemaining())
+                {
+                buf.clear();
+                int n = channel.read(buf);
+                buf.flip();
+                if (n < 0) return -1;
+                }
+            return buf.get(buf.position()) & 0xFF;
+            }
+
+        // Returns the next byte and advances.  Throws an IOException at the end of the stream.
+        int read() throws IOException
+            {
+            int c = peek();
+            if (c == -1) throw new IOException("PNM stream ended prematurely");
+            buf.get();
+            return c;
+            }
+
+        // Skips whitespace and comments
+        void skip() throws IOException
+            {
+            while(true)
+                {
+                int c = peek();
+                if (c == '#')
+                    {
+                    while(c != -1 && c != '\r' && c != '\n') { buf.get(); c = peek(); }
+                    }
+                else if (c != -1 && Character.isWhitespace((char)c)) buf.get();
+                else return;
+                }
+            }
+
+        // Returns the next character which is not whitespace or a comment
+        int nonWhitespace() throws IOException
+            {
+            skip();
+            return read();
+            }
+
+        String token() throws IOException
+            {
+            skip();
+            b.setLength(0);
+            while(true)
+                {
+                int c = peek();
+                if (c == -1) break;
+                else if (c == '#')  // comments are not delimiters
+                    {
+                    while(c != -1 && c != '\r' && c != '\n') { buf.get(); c = peek(); }
+                    }
+                else if (Character.isWhitespace((char)c))
+                    {
+                    buf.get();      // consume the single delimiter, as raw formats require
+                    break;
+                    }
+                else { b.append((char)c); buf.get(); }
+                }
+            if (b.length() == 0) throw new IOException("PNM stream ended prematurely");
+            return b.toString();
+            }
+
+        int intToken() throws IOException
+            {
+            String s = token();
+            try { return Integer.parseInt(s); }
+            catch (NumberFormatException ex) { throw new IOException("Invalid number in PNM stream: " + s); }
+            }
+        }
+
+
+
+    //// PNG AND GIF FILES
+
+
+    /** Loads a GIF file into the given IntGrid2D, where each value is the color table index of the pixel. */
+    public static IntGrid2D loadGIFFile(InputStream stream, IntGrid2D grid, boolean flipY) throws IOException
+        {
+        return loadPNGFile(stream, grid, flipY);
+        }
+
+    /** Loads a PNG file into the given IntGrid2D.  As in TableLoader.loadPNGFile(...), the only PNG formats permitted
+        are those with up to 256 grays (including simple black and white) or indexed colors from an up to
+        256-sized color table.  Each value is the gray level or the color table index of the pixel. */
+    public static IntGrid2D loadPNGFile(InputStream stream, IntGrid2D grid, boolean flipY) throws IOException
+        {
+        BufferedImage image = javax.imageio.ImageIO.read(stream);
+        if (image == null) throw new IOException("Input Stream does not contain a readable image");
+        int type = image.getType();
+        int w = image.getWidth();
+        int h = image.getHeight();
+        if (type != BufferedImage.TYPE_BYTE_BINARY && type != BufferedImage.TYPE_BYTE_GRAY && type != BufferedImage.TYPE_BYTE_INDEXED)
+            throw new IOException("Input Stream must contain a binary, byte-sized grayscale, or byte-sized indexed color scheme: " + image);
+        Raster raster = image.getRaster();
+        if (type == BufferedImage.TYPE_BYTE_INDEXED && raster.getTransferType() != DataBuffer.TYPE_BYTE)  // uh oh
+            throw new IOException ("Input Stream must contain an image with byte data if indexed.");
+
+        if (grid == null) grid = new IntGrid2D(w, h);
+        else if (grid.getWidth() != w || grid.getHeight() != h) grid.reshape(w, h);
+        int[][] field = grid.field;
+
+        int[] row = new int[w];
+        for(int j = 0; j < h; j++)
+            {
+            if (type == BufferedImage.TYPE_BYTE_INDEXED)
+                raster.getSamples(0, j, w, 1, 0, row);
+            else
+                {
+                image.getRGB(0, j, w, 1, row, 0, w);
+                for(int i = 0; i < w; i++)
+                    row[i] &= 0xFF;
+                }
+            int y = (flipY ? h - 1 - j : j);
+            for(int i = 0; i < w; i++)
+                field[i][y] = row[i];
+            }
+        return grid;
+        }
+
+
+
+    //// THREADING
+
+
+    interface ChunkTask
+        {
+        public void run(int chunk) throws IOException;
+        }
+
+    // Runs task on chunks 0 ... numChunks-1, handing them out to up to numThreads threads.  Rethrows the first exception.
+    static void runInParallel(int numThreads, final int numChunks, final ChunkTask task) throws IOException
+        {
+        if (numThreads > numChunks) numThreads = numChunks;
+        if (numThreads <= 1)
+            {
+            for(int i = 0; i < numChunks; i++)
+                task.run(i);
+            return;
+            }
+
+        final AtomicInteger next = new AtomicInteger(0);
+        final Throwable[] error = new Throwable[1];
+        Thread[] threads = new Thread[numThreads];
+        for(int t = 0; t < numThreads; t++)
+            {
+            threads[t] = new Thread(new Runnable()
+                {
+                public void run()
+                    {
+                    try
+                        {
+                        int chunk;
+                        while((chunk = next.getAndIncrement()) < numChunks)
+                            {
+                            synchronized(error) { if (error[0] != null) return; }
+                            task.run(chunk);
+                            }
+                        }
+                    catch (Throwable e)
+                        {
+                        synchronized(error) { if (error[0] == null) error[0] = e; }
+                        }
+                    }
+                });
+            threads[t].setName("MASON Table Loader " + t);
+            threads[t].start();
+            }
+
+        for(int t = 0; t < numThreads; t++)
+            {
+            try { threads[t].join(); }
+            catch (InterruptedException ex) { throw new IOException("Interrupted while loading", ex); }
+            }
+
+        Throwable e = error[0];
+        if (e instanceof IOException) throw (IOException)e;
+        else if (e instanceof RuntimeException) throw (RuntimeException)e;
+        else if (e instanceof Error) throw (Error)e;
+        else if (e != null) throw new RuntimeException(e);
+        }
+    }
@@ -97,6 +97,20 @@ public abstract class AbstractDistribution implements java.io.Serializable {
     public int nextInt() {
         return (int) Math.round(nextDouble());
         }
+/**
+ * Fills <tt>values</tt> with random numbers from the distribution.  This is the same as calling
+ * <tt>nextDouble()</tt> once per element, but saves the call overhead when you need many numbers at once.
+ */
+    public void nextDoubles(double[] values) {
+        for (int i = 0; i < values.length; i++) values[i] = nextDouble();
+        }
+/**
+ * Fills <tt>values</tt> with random numbers from the distribution.  This is the same as calling
+ * <tt>nextInt()</tt> once per element, but saves the call overhead when you need many numbers at once.
+ */
+    public void nextInts(int[] values) {
+        for (int i = 0; i < values.length; i++) values[i] = nextInt();
+        }
 /**
  * Sets the uniform random generator internally used.
  */
@@ -39,6 +39,17 @@ public class Binomial extends AbstractDiscreteDistribution {
     private int    b,m,nm;
     private double pq, rc, ss, xm, xl, xr, ll, lr, c, p1, p2, p3, p4, ch;
 
+    // LRU cache of set-up tables for recently used n and p, or null if caching is off (the default)
+    SetupCache cache;
+
+    // set-up table for generateBinomial(...)
+    static class Table implements java.io.Serializable {
+        private static final long serialVersionUID = 1;
+        double par,np,p0,q;
+        int b,m;
+        double pq, rc, ss, xm, xl, xr, ll, lr, c, p1, p2, p3, p4;
+        }
+
     // cache vars for method pdf(...)
     private double log_p, log_q, log_n;
  
@@ -123,6 +134,17 @@ public class Binomial extends AbstractDiscreteDistribution {
         int     bh,i, K, Km, nK;
         double  f, rm, U, V, X, T, E;
 
+        if ((n != n_last || p != p_last) && cache != null) {     // try the cache
+            Table t = (Table) cache.get(n, p);
+            if (t != null) {
+                n_last = n;
+                p_last = p;
+                par = t.par; np = t.np; p0 = t.p0; q = t.q; b = t.b; m = t.m;
+                pq = t.pq; rc = t.rc; ss = t.ss; xm = t.xm; xl = t.xl; xr = t.xr; ll = t.ll; lr = t.lr; c = t.c;
+                p1 = t.p1; p2 = t.p2; p3 = t.p3; p4 = t.p4;
+                }
+            }
+
         if (n != n_last || p != p_last) {                 // set-up 
             n_last = n;
             p_last = p;
@@ -157,6 +179,14 @@ public class Binomial extends AbstractDiscreteDistribution {
                 p3 = p2 + c/ll;                           // of regions 1-4
                 p4 = p3 + c/lr;
                 }
+
+            if (cache != null) {
+                Table t = new Table();
+                t.par = par; t.np = np; t.p0 = p0; t.q = q; t.b = b; t.m = m;
+                t.pq = pq; t.rc = rc; t.ss = ss; t.xm = xm; t.xl = xl; t.xr = xr; t.ll = ll; t.lr = lr; t.c = c;
+                t.p1 = p1; t.p2 = p2; t.p3 = p3; t.p4 = p4;
+                cache.put(n, p, t);
+                }
             }
 
         if (np<10) {                                      //Inversion Chop-down
@@ -270,6 +300,17 @@ public class Binomial extends AbstractDiscreteDistribution {
         int r = this.n - k;
         return Math.exp(this.log_n - Arithmetic.logFactorial(k) - Arithmetic.logFactorial(r) + this.log_p * k + this.log_q * r);
         }
+/**
+ * Sets the number of set-up tables, one per combination of <tt>n</tt> and <tt>p</tt>, to keep in a 
+ * least-recently-used cache.  Setting up for new parameters is expensive, so if you call <tt>nextInt(n,p)</tt> 
+ * with a modest number of different parameters which recur often (for example, one per agent type), 
+ * a cache can speed it up considerably.  The numbers generated are not affected.  The default is 0, 
+ * meaning no caching: only the most recent parameters are remembered.
+ */
+    public void setCacheSize(int size) {
+        if (size < 0) throw new IllegalArgumentException("Cache size must be >= 0: " + size);
+        cache = (size == 0 ? null : new SetupCache(size));
+        }
 /**
  * Sets the parameters number of trials and the probability of success.
  * @param n the number of trials
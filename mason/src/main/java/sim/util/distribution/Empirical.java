@@ -26,7 +26,9 @@ import ec.util.MersenneTwisterFast;
  * <b>Implementation:</b>
  * A uniform random number is generated using a user supplied generator.
  * The uniform number is then transformed to the user's distribution using the cumulative probability distribution constructed from the pdf.
- * The cumulative distribution is inverted using a binary search for the nearest bin boundary. 
+ * The cumulative distribution is inverted using a search for the nearest bin boundary.  The search begins at an entry
+ * in a guide table (C. Chen and K. Asau, "On generating random variates from an empirical distribution", AIIE Trans. 6, 163-166 (1974)),
+ * so it takes <tt>O(1)</tt> expected time rather than the <tt>O(log k)</tt> of a binary search, while returning exactly the same numbers.
  * <p>
  * This is a port of <A HREF="http://wwwinfo.cern.ch/asd/lhc++/clhep/manual/RefGuide/Random/RandGeneral.html">RandGeneral</A> used in <A HREF="http://wwwinfo.cern.ch/asd/lhc++/clhep">CLHEP 1.4.0</A> (C++).
  *
@@ -38,6 +40,7 @@ public class Empirical extends AbstractContinuousDistribution {
 
     protected double[] cdf; // cumulative distribution function
     protected int interpolationType;
+    protected transient int[] guide; // guide[j] is the largest bin k such that cdf[k] <= j / guide.length, rebuilt from cdf when null
         
     public static final int LINEAR_INTERPOLATION = 0;
     public static final int NO_INTERPOLATION = 1;
@@ -87,17 +90,14 @@ public class Empirical extends AbstractContinuousDistribution {
         double rand = randomGenerator.nextDouble();
         if (this.cdf==null) return rand; // Non-existing pdf
 
-        // binary search in cumulative distribution function:
+        // guided search in cumulative distribution function:
         int nBins = cdf.length-1;
-        int nbelow = 0;     // largest k such that I[k] is known to be <= rand
-        int nabove = nBins; // largest k such that I[k] is known to be >  rand
- 
-        while (nabove > nbelow+1) {
-            int middle = (nabove + nbelow + 1) >> 1; // div 2
-            if (rand >= cdf[middle]) nbelow = middle;
-            else nabove = middle;
-            }
-        // after this binary search, nabove is always nbelow+1 and they straddle rand:
+        if (guide == null) buildGuide();        // after deserialization
+        int nbelow = guide[(int)(rand * guide.length)];     // largest k such that I[k] is known to be <= rand
+        while (nbelow > 0 && cdf[nbelow] > rand) nbelow--;  // only in case of roundoff in rand * guide.length
+        while (nbelow < nBins-1 && cdf[nbelow+1] <= rand) nbelow++;
+        int nabove = nbelow+1;
+        // after this search, nabove is always nbelow+1 and they straddle rand:
 
         if (this.interpolationType == NO_INTERPOLATION) {
             return ((double)nbelow) / nBins;
@@ -155,6 +155,7 @@ public class Empirical extends AbstractContinuousDistribution {
         
         if (pdf==null || pdf.length==0) {
             this.cdf = null;
+            this.guide = null;
             //throw new IllegalArgumentException("Non-existing pdf");
             return;
             }
@@ -174,6 +175,20 @@ public class Empirical extends AbstractContinuousDistribution {
             cdf[ptn] /= cdf[nBins];
             }
         // cdf is now cached...
+        buildGuide();
+        }
+
+    /** Builds the guide table from the cdf, one entry per bin. */
+    void buildGuide() {
+        int nBins = cdf.length-1;
+        int[] guide = new int[nBins];
+        int k = 0;
+        for (int j = 0; j < nBins; j++) {
+            double t = j / (double) nBins;
+            while (k < nBins-1 && cdf[k+1] <= t) k++;
+            guide[j] = k;
+            }
+        this.guide = guide;
         }
 /**
  * Returns a String representation of the receiver.
@@ -171,6 +171,21 @@ public class EmpiricalWalker extends AbstractDiscreteDistribution {
         setState(pdf,interpolationType);        
         setState2(pdf); 
         }
+/**
+ * Constructs an Empirical distribution which shares the tables of another, using a different random number generator.
+ * This is much faster than building the tables again, and saves memory when many instances (for example, one per agent 
+ * or per thread) draw from the same pdf.  The tables are never modified after set-up, so sharing them is safe 
+ * as long as you don't call setState(...) or setState2(...) on either distribution afterwards.
+ * @param other the distribution whose tables are shared.
+ * @param randomGenerator a uniform random number generator.
+ */
+    public EmpiricalWalker(EmpiricalWalker other, MersenneTwisterFast randomGenerator) {
+        setRandomGenerator(randomGenerator);
+        this.K = other.K;
+        this.A = other.A;
+        this.F = other.F;
+        this.cdf = other.cdf;
+        }
 /**
  * Returns the cumulative distribution function.
  */
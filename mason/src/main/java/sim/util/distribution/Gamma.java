@@ -52,6 +52,15 @@ public class Gamma extends AbstractContinuousDistribution {
     protected double alpha;
     protected double lambda;
 
+    // set-up table for nextDouble(alpha, lambda), which depends only on alpha
+    static class Table implements java.io.Serializable {
+        private static final long serialVersionUID = 1;
+        double a, b, c, d, s, si, ss, q0;
+        }
+    Table table;      // the table for the most recent alpha
+    // LRU cache of set-up tables for recently used alphas, or null if caching is off (the default)
+    SetupCache cache;
+
 /**
  * Constructs a Gamma distribution.
  * Example: alpha=1.0, lambda=1.0.
@@ -100,11 +109,7 @@ public class Gamma extends AbstractContinuousDistribution {
  *                                                                *
  ******************************************************************/
         double a = alpha;
-        double aa = -1.0, aaa = -1.0, 
-            b=0.0, c=0.0, d=0.0, e, r, s=0.0, si=0.0, ss=0.0, q0=0.0,
-            q1 = 0.0416666664, q2 =  0.0208333723, q3 = 0.0079849875,
-            q4 = 0.0015746717, q5 = -0.0003349403, q6 = 0.0003340332,
-            q7 = 0.0006053049, q8 = -0.0004701849, q9 = 0.0001710320,
+        double b, c, d, e, s, si, ss, q0,
             a1 = 0.333333333,  a2 = -0.249999949,  a3 = 0.199999867,
             a4 =-0.166677482,  a5 =  0.142873973,  a6 =-0.124385581,
             a7 = 0.110368310,  a8 = -0.112750886,  a9 = 0.104089866,
@@ -120,8 +125,19 @@ public class Gamma extends AbstractContinuousDistribution {
         if (a <= 0.0) throw new IllegalArgumentException(); 
         if (lambda <= 0.0) throw new IllegalArgumentException(); 
 
+        // Set-up, or reuse the last or a cached set-up
+        Table tab = table;
+        if (tab == null || tab.a != a) {
+            tab = (cache == null ? null : (Table) cache.get(a, 0));
+            if (tab == null) {
+                tab = setUp(a);
+                if (cache != null) cache.put(a, 0, tab);
+                }
+            table = tab;
+            }
+        b = tab.b; c = tab.c; d = tab.d; s = tab.s; si = tab.si; ss = tab.ss; q0 = tab.q0;
+
         if (a < 1.0) { // CASE A: Acceptance rejection algorithm gs
-            b = 1.0 + 0.36788794412 * a;              // Step 1
             for(;;) {
                 p = b * randomGenerator.nextDouble();
                 if (p <= 1.0) {                       // Step 2. Case gds <= 1
@@ -136,12 +152,7 @@ public class Gamma extends AbstractContinuousDistribution {
             }
 
         else {        // CASE B: Acceptance complement algorithm gd (gaussian distribution, box muller transformation)
-            if (a != aa) {                        // Step 1. Preparations
-                //aa = a;
-                ss = a - 0.5;
-                s = Math.sqrt(ss);
-                d = 5.656854249 - 12.0 * s;
-                }
+            // Step 1. Preparations were done in setUp(...)
             // Step 2. Normal deviate
             do {
                 v1 = 2.0 * randomGenerator.nextDouble() - 1.0;
@@ -156,29 +167,7 @@ public class Gamma extends AbstractContinuousDistribution {
             u = randomGenerator.nextDouble();                // Step 3. Uniform random number
             if (d * u <= t * t * t) return(gds/lambda); // Squeeze acceptance
 
-            if (a != aaa) {                           // Step 4. Set-up for hat case
-                //aaa = a;
-                r = 1.0 / a;
-                q0 = ((((((((q9 * r + q8) * r + q7) * r + q6) * r + q5) * r + q4) *
-                            r + q3) * r + q2) * r + q1) * r;
-                if (a > 3.686) {
-                    if (a > 13.022) {
-                        b = 1.77;
-                        si = 0.75;
-                        c = 0.1515 / s;
-                        }
-                    else {
-                        b = 1.654 + 0.0076 * ss;
-                        si = 1.68 / s + 0.275;
-                        c = 0.062 / s + 0.024;
-                        }
-                    }
-                else {
-                    b = 0.463 + s - 0.178 * ss;
-                    si = 1.235;
-                    c = 0.195 / s - 0.079 + 0.016 * s;
-                    }
-                }
+            // Step 4. Set-up for hat case was done in setUp(...)
             if (x > 0.0) {                        // Step 5. Calculation of q
                 v = t / (s + s);                  // Step 6.
                 if (Math.abs(v) > 0.25) {
@@ -222,6 +211,58 @@ public class Gamma extends AbstractContinuousDistribution {
                 }
             }
         }
+/**
+ * Computes the set-up for <tt>nextDouble(alpha, lambda)</tt>, which depends only on alpha:
+ * Step 1 of algorithm gs when <tt>a &lt; 1</tt>, else Steps 1 and 4 of algorithm gd.
+ */
+    static Table setUp(double a) {
+        final double q1 = 0.0416666664, q2 =  0.0208333723, q3 = 0.0079849875,
+            q4 = 0.0015746717, q5 = -0.0003349403, q6 = 0.0003340332,
+            q7 = 0.0006053049, q8 = -0.0004701849, q9 = 0.0001710320;
+        Table t = new Table();
+        t.a = a;
+        if (a < 1.0) {
+            t.b = 1.0 + 0.36788794412 * a;            // gs Step 1
+            return t;
+            }
+
+        double s, ss, r;
+        t.ss = ss = a - 0.5;                           // gd Step 1. Preparations
+        t.s = s = Math.sqrt(ss);
+        t.d = 5.656854249 - 12.0 * s;
+
+        r = 1.0 / a;                                    // gd Step 4. Set-up for hat case
+        t.q0 = ((((((((q9 * r + q8) * r + q7) * r + q6) * r + q5) * r + q4) *
+                    r + q3) * r + q2) * r + q1) * r;
+        if (a > 3.686) {
+            if (a > 13.022) {
+                t.b = 1.77;
+                t.si = 0.75;
+                t.c = 0.1515 / s;
+                }
+            else {
+                t.b = 1.654 + 0.0076 * ss;
+                t.si = 1.68 / s + 0.275;
+                t.c = 0.062 / s + 0.024;
+                }
+            }
+        else {
+            t.b = 0.463 + s - 0.178 * ss;
+            t.si = 1.235;
+            t.c = 0.195 / s - 0.079 + 0.016 * s;
+            }
+        return t;
+        }
+/**
+ * Sets the number of set-up tables, one per alpha, to keep in a least-recently-used cache, in addition to
+ * the table for the most recent alpha, which is always kept.  If you call <tt>nextDouble(alpha,lambda)</tt> 
+ * with a modest number of different alphas which recur often (for example, one per agent type), a cache
+ * can speed it up.  The numbers generated are not affected.  The default is 0, meaning no caching.
+ */
+    public void setCacheSize(int size) {
+        if (size < 0) throw new IllegalArgumentException("Cache size must be >= 0: " + size);
+        cache = (size == 0 ? null : new SetupCache(size));
+        }
 /**
  * Returns the probability distribution function.
  */
@@ -61,6 +61,27 @@ public class Poisson extends AbstractDiscreteDistribution {
     protected int m;
 
 
+    // LRU cache of set-up tables for recently used means, or null if caching is off (the default)
+    SetupCache cache;
+    SmallMeanTable smallTable;  // the cached table presently loaded for means < SWITCH_MEAN, if any
+
+    // set-up table for a mean < SWITCH_MEAN.  pp, p, q, and llll grow lazily as the table is used.
+    static class SmallMeanTable implements java.io.Serializable {
+        private static final long serialVersionUID = 1;
+        double p,q,p0;
+        double[] pp = new double[36];
+        int llll;
+        }
+
+    // set-up table for a mean >= SWITCH_MEAN
+    static class LargeMeanTable implements java.io.Serializable {
+        private static final long serialVersionUID = 1;
+        double ll;
+        int k2, k4, k1, k5;
+        double dl, dr, r1, r2, r4, r5, lr, l_my, c_pm;
+        double f1, f2, f4, f5, p1, p2, p3, p4, p5, p6;
+        }
+
     protected static final double MEAN_MAX = Integer.MAX_VALUE; // for all means larger than that, we don't try to compute a poisson deviation, but return the mean.
     protected static final double SWITCH_MEAN = 10.0; // switch from method A to method B
         
@@ -137,11 +158,34 @@ public class Poisson extends AbstractDiscreteDistribution {
         if (my < SWITCH_MEAN) { // CASE B: Inversion- start new table and calculate p0
             if (my != my_old) {
                 my_old = my;
-                llll = 0;
-                p = Math.exp(-my);
-                q = p;
-                p0 = p;
-                //for (k=pp.length; --k >=0; ) pp[k] = 0;
+                if (cache != null) {
+                    if (smallTable != null) {  // save how far the old table has grown
+                        smallTable.p = p;
+                        smallTable.q = q;
+                        smallTable.llll = llll;
+                        }
+                    smallTable = (SmallMeanTable) cache.get(my, 0);
+                    if (smallTable != null) {
+                        p = smallTable.p;
+                        q = smallTable.q;
+                        p0 = smallTable.p0;
+                        pp = smallTable.pp;
+                        llll = smallTable.llll;
+                        }
+                    }
+                if (smallTable == null) {
+                    llll = 0;
+                    p = Math.exp(-my);
+                    q = p;
+                    p0 = p;
+                    //for (k=pp.length; --k >=0; ) pp[k] = 0;
+                    if (cache != null) {
+                        smallTable = new SmallMeanTable();
+                        smallTable.p0 = p0;
+                        pp = smallTable.pp;
+                        cache.put(my, 0, smallTable);
+                        }
+                    }
                 }
             m = (my > 1.0) ? (int)my : 1;
             for(;;) {
@@ -174,6 +218,15 @@ public class Poisson extends AbstractDiscreteDistribution {
             double Ds, U, V, W;
 
             m  = (int) my;
+            if (my != my_last && cache != null) { // try the cache
+                LargeMeanTable tab = (LargeMeanTable) cache.get(my, 0);
+                if (tab != null) {
+                    my_last = my;
+                    ll = tab.ll; k2 = tab.k2; k4 = tab.k4; k1 = tab.k1; k5 = tab.k5;
+                    dl = tab.dl; dr = tab.dr; r1 = tab.r1; r2 = tab.r2; r4 = tab.r4; r5 = tab.r5; lr = tab.lr; l_my = tab.l_my; c_pm = tab.c_pm;
+                    f1 = tab.f1; f2 = tab.f2; f4 = tab.f4; f5 = tab.f5; p1 = tab.p1; p2 = tab.p2; p3 = tab.p3; p4 = tab.p4; p5 = tab.p5; p6 = tab.p6;
+                    }
+                }
             if (my != my_last) { //  set-up    
                 my_last = my;
 
@@ -219,6 +272,14 @@ public class Poisson extends AbstractDiscreteDistribution {
                 p4 = f4 * dr         + p3;               // centre right     
                 p5 = f1 / ll         + p4;               // expon. tail left 
                 p6 = f5 / lr         + p5;               // expon. tail right
+
+                if (cache != null) {
+                    LargeMeanTable tab = new LargeMeanTable();
+                    tab.ll = ll; tab.k2 = k2; tab.k4 = k4; tab.k1 = k1; tab.k5 = k5;
+                    tab.dl = dl; tab.dr = dr; tab.r1 = r1; tab.r2 = r2; tab.r4 = r4; tab.r5 = r5; tab.lr = lr; tab.l_my = l_my; tab.c_pm = c_pm;
+                    tab.f1 = f1; tab.f2 = f2; tab.f4 = f4; tab.f5 = f5; tab.p1 = p1; tab.p2 = p2; tab.p3 = p3; tab.p4 = p4; tab.p5 = p5; tab.p6 = p6;
+                    cache.put(my, 0, tab);
+                    }
                 } // end set-up
 
             for (;;) {
@@ -302,6 +363,21 @@ public class Poisson extends AbstractDiscreteDistribution {
         // Overflow sensitive:
         // return (Math.pow(mean,k) / cephes.Arithmetic.factorial(k)) * Math.exp(-this.mean);
         }
+/**
+ * Sets the number of set-up tables, one per mean, to keep in a least-recently-used cache.
+ * Setting up for a new mean is expensive, so if you call <tt>nextInt(mean)</tt> with a modest number of 
+ * different means which recur often (for example, one per agent type), a cache can speed it up considerably.  
+ * The numbers generated are not affected.  The default is 0, meaning no caching: only the most recent mean 
+ * is remembered.
+ */
+    public void setCacheSize(int size) {
+        if (size < 0) throw new IllegalArgumentException("Cache size must be >= 0: " + size);
+        cache = (size == 0 ? null : new SetupCache(size));
+        smallTable = null;
+        my_old = -1.0;
+        my_last = -1.0;
+        pp = new double[36];
+        }
 /**
  * Sets the mean.
  */
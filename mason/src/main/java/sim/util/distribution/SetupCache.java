@@ -0,0 +1,63 @@
+/*
+  Copyright 2019 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.util.distribution;
+import java.util.*;
+
+/**
+ * A least-recently-used cache of per-parameter set-up tables, used by distributions such as Poisson, Binomial,
+ * and Gamma whose generators perform expensive set-up whenever their parameters change.  Tables are keyed
+ * by up to two parameter values.  Like the distributions themselves, a SetupCache is unsynchronized.
+ */
+class SetupCache implements java.io.Serializable {
+    private static final long serialVersionUID = 1;
+
+    static class Key implements java.io.Serializable {
+        private static final long serialVersionUID = 1;
+        double a;
+        double b;
+        Key(double a, double b) { this.a = a; this.b = b; }
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) return false;
+            Key other = (Key) obj;
+            return Double.doubleToLongBits(a) == Double.doubleToLongBits(other.a) &&
+                Double.doubleToLongBits(b) == Double.doubleToLongBits(other.b);
+            }
+        public int hashCode() {
+            long bits = Double.doubleToLongBits(a) * 31 + Double.doubleToLongBits(b);
+            return (int)(bits ^ (bits >>> 32));
+            }
+        }
+
+    static class LRUMap extends LinkedHashMap<Key, Object> {
+        private static final long serialVersionUID = 1;
+        int capacity;
+        LRUMap(int capacity) { super(16, 0.75f, true); this.capacity = capacity; }
+        protected boolean removeEldestEntry(Map.Entry<Key, Object> eldest) { return size() > capacity; }
+        }
+
+    LRUMap map;
+    Key probe = new Key(0, 0);  // reused for lookups so get(...) doesn't allocate
+
+    SetupCache(int capacity) {
+        if (capacity < 1) throw new IllegalArgumentException("Cache size must be at least 1: " + capacity);
+        map = new LRUMap(capacity);
+        }
+/**
+ * Returns the table for the given parameters, or null if it is not cached.
+ */
+    Object get(double a, double b) {
+        probe.a = a;
+        probe.b = b;
+        return map.get(probe);
+        }
+/**
+ * Caches a table for the given parameters, evicting the least recently used table if the cache is full.
+ */
+    void put(double a, double b, Object table) {
+        map.put(new Key(a, b), table);
+        }
+    }
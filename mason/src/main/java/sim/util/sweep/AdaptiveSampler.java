@@ -0,0 +1,141 @@
+/*
+  Copyright 2019 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.util.sweep;
+
+import ec.util.*;
+import java.util.*;
+
+/**
+   ADAPTIVESAMPLER begins with a Latin hypercube of points, then in each later round concentrates
+   new points where the dependent variables change the most.  
+
+   <p>To refine, each point is connected to its nearest neighbors (in independent variable space,
+   with each variable scaled to [0,1]).  Each such edge is scored by how much the dependent variables
+   differ between its two ends, with each dependent variable scaled by its range over all points so
+   far.  New points are placed at the midpoints of the highest-scoring edges.  Among edges with equal
+   scores, longer edges are preferred, so a flat response is refined evenly.
+*/
+
+public class AdaptiveSampler extends LatinHypercubeSampler
+    {
+    public double[][] refine(double[][] points, double[][] responses, double[] min, double[] max, int numSamples, MersenneTwisterFast random)
+        {
+        int n = points.length;
+        if (n < 2) return null;
+        int dims = min.length;
+        int deps = responses[0].length;
+        
+        // scale the points into the unit hypercube
+        double[][] unit = new double[n][dims];
+        for(int i = 0; i < n; i++)
+            for(int d = 0; d < dims; d++)
+                unit[i][d] = (max[d] == min[d] ? 0 : (points[i][d] - min[d]) / (max[d] - min[d]));
+                
+        // find the range of each dependent variable
+        double[] range = new double[deps];
+        for(int r = 0; r < deps; r++)
+            {
+            double lo = Double.POSITIVE_INFINITY;
+            double hi = Double.NEGATIVE_INFINITY;
+            for(int i = 0; i < n; i++)
+                {
+                if (responses[i][r] < lo) lo = responses[i][r];
+                if (responses[i][r] > hi) hi = responses[i][r];
+                }
+            range[r] = hi - lo;
+            }
+
+        // score the edges from each point to its nearest neighbors
+        int k = Math.min(n - 1, 2 * dims);
+        ArrayList<Edge> edges = new ArrayList<Edge>();
+        HashSet<Long> seen = new HashSet<Long>();
+        double[] dist = new double[n];
+        Integer[] order = new Integer[n];
+        for(int i = 0; i < n; i++)
+            {
+            for(int j = 0; j < n; j++)
+                {
+                order[j] = Integer.valueOf(j);
+                dist[j] = distanceSquared(unit[i], unit[j]);
+                }
+            final double[] _dist = dist;
+            Arrays.sort(order, new Comparator<Integer>()
+                {
+                public int compare(Integer a, Integer b) { return Double.compare(_dist[a.intValue()], _dist[b.intValue()]); }
+                });
+            int found = 0;
+            for(int o = 0; o < n && found < k; o++)
+                {
+                int j = order[o].intValue();
+                if (j == i || dist[j] == 0) continue;  // skip ourselves and duplicates
+                found++;
+                Long key = Long.valueOf(Math.min(i, j) * (long)n + Math.max(i, j));
+                if (!seen.add(key)) continue;
+                double score = 0;
+                for(int r = 0; r < deps; r++)
+                    if (range[r] > 0 && !Double.isNaN(range[r]))
+                        score += Math.abs(responses[i][r] - responses[j][r]) / range[r];
+                edges.add(new Edge(i, j, score, dist[j]));
+                }
+            }
+
+        // place new points at the midpoints of the best edges, unless there's a point there already
+        Collections.sort(edges);
+        HashSet<ArrayList<Double>> existing = new HashSet<ArrayList<Double>>();
+        for(int i = 0; i < n; i++)
+            existing.add(toList(points[i]));
+        ArrayList<double[]> newPoints = new ArrayList<double[]>();
+        for(int e = 0; e < edges.size() && newPoints.size() < numSamples; e++)
+            {
+            Edge edge = edges.get(e);
+            double[] midpoint = new double[dims];
+            for(int d = 0; d < dims; d++)
+                midpoint[d] = (points[edge.a][d] + points[edge.b][d]) / 2.0;
+            if (existing.add(toList(midpoint)))
+                newPoints.add(midpoint);
+            }
+        if (newPoints.size() == 0) return null;
+        return newPoints.toArray(new double[newPoints.size()][]);
+        }
+
+    public boolean refines()
+        {
+        return true;
+        }
+        
+    static ArrayList<Double> toList(double[] point)
+        {
+        ArrayList<Double> list = new ArrayList<Double>();
+        for(int d = 0; d < point.length; d++)
+            list.add(Double.valueOf(point[d]));
+        return list;
+        }
+        
+    static double distanceSquared(double[] a, double[] b)
+        {
+        double sum = 0;
+        for(int d = 0; d < a.length; d++)
+            sum += (a[d] - b[d]) * (a[d] - b[d]);
+        return sum;
+        }
+        
+    // An edge between two points, sorted by decreasing score, then decreasing length
+    static class Edge implements Comparable<Edge>
+        {
+        int a;
+        int b;
+        double score;
+        double length;
+        Edge(int a, int b, double score, double length) { this.a = a; this.b = b; this.score = score; this.length = length; }
+        public int compareTo(Edge other)
+            {
+            int c = Double.compare(other.score, score);
+            if (c != 0) return c;
+            return Double.compare(other.length, length);
+            }
+        }
+    }
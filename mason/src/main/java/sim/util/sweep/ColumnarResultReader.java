@@ -0,0 +1,248 @@
+/*
+  Copyright 2019 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.util.sweep;
+
+import java.io.*;
+import java.util.zip.*;
+
+/**
+   COLUMNARRESULTREADER reads files written by ColumnarResultWriter.  The file is streamed: only one
+   block of rows is held in memory at a time.
+
+   <p>You can read the file a block at a time, which is the fastest approach if you are only
+   interested in a few columns:
+
+   <pre><tt>
+   ColumnarResultReader reader = new ColumnarResultReader(new FileInputStream("results.dat"));
+   int col = reader.getColumnIndex("score-final");
+   while(reader.nextBlock())
+       {
+       double[] scores = reader.getDoubleColumn(col);
+       for(int i = 0; i &lt; reader.getBlockRows(); i++)
+           ... scores[i] ...
+       }
+   reader.close();
+   </tt></pre>
+
+   <p>... or you can read it a row at a time:
+
+   <pre><tt>
+   while(reader.next())
+       {
+       long job = reader.getLong(0);
+       double score = reader.getDouble(col);
+       ...
+       }
+   </tt></pre>
+
+   <p>Don't mix the two approaches on the same reader.
+*/
+
+public class ColumnarResultReader
+    {
+    DataInputStream in;
+    String[] names;
+    byte[] types;
+
+    // The current block.  Each column is stored either in longValues (TYPE_INT and TYPE_LONG columns)
+    // or doubleValues (TYPE_DOUBLE columns); the other entry is null.
+    long[][] longValues;
+    double[][] doubleValues;
+    int blockRows;
+    int row = -1;               // the current row for next()
+    boolean done;
+
+    byte[] raw = new byte[0];
+    byte[] compressed = new byte[0];
+    Inflater inflater = new Inflater();
+
+    /** Reads the file header from the given stream. */
+    public ColumnarResultReader(InputStream stream) throws IOException
+        {
+        in = new DataInputStream(new BufferedInputStream(stream));
+        if (in.readInt() != ColumnarResultWriter.MAGIC)
+            throw new IOException("Not a columnar result file.");
+        int version = in.readInt();
+        if (version != ColumnarResultWriter.VERSION)
+            throw new IOException("Unsupported columnar result file version " + version);
+        int numColumns = in.readInt();
+        if (numColumns < 0)
+            throw new IOException("Invalid number of columns: " + numColumns);
+        names = new String[numColumns];
+        types = new byte[numColumns];
+        for(int i = 0; i < numColumns; i++)
+            {
+            names[i] = in.readUTF();
+            types[i] = in.readByte();
+            if (types[i] != ColumnarResultWriter.TYPE_INT && types[i] != ColumnarResultWriter.TYPE_LONG && types[i] != ColumnarResultWriter.TYPE_DOUBLE)
+                throw new IOException("Invalid type " + types[i] + " for column " + names[i]);
+            }
+        longValues = new long[numColumns][];
+        doubleValues = new double[numColumns][];
+        }
+
+    /** Returns the number of columns. */
+    public int getNumColumns() { return names.length; }
+
+    /** Returns the name of the given column. */
+    public String getColumnName(int column) { return names[column]; }
+
+    /** Returns the type of the given column, one of ColumnarResultWriter.TYPE_INT, TYPE_LONG, or TYPE_DOUBLE. */
+    public byte getColumnType(int column) { return types[column]; }
+
+    /** Returns the index of the column with the given name, or -1 if there is none. */
+    public int getColumnIndex(String name)
+        {
+        for(int i = 0; i < names.length; i++)
+            if (names[i].equals(name))
+                return i;
+        return -1;
+        }
+
+    /** Loads the next block, returning false if there are no more blocks. */
+    public boolean nextBlock() throws IOException
+        {
+        row = -1;
+        if (done) { blockRows = 0; return false; }
+        int rows = in.readInt();
+        if (rows == 0)
+            {
+            done = true;
+            blockRows = 0;
+            return false;
+            }
+        int rawLength = in.readInt();
+        int compressedLength = in.readInt();
+        if (rows < 0 || rawLength < 0 || compressedLength < 0)
+            throw new IOException("Corrupt block header.");
+
+        if (compressed.length < compressedLength) compressed = new byte[compressedLength];
+        if (raw.length < rawLength) raw = new byte[rawLength];
+        in.readFully(compressed, 0, compressedLength);
+
+        inflater.reset();
+        inflater.setInput(compressed, 0, compressedLength);
+        try
+            {
+            int len = 0;
+            while(len < rawLength)
+                {
+                int n = inflater.inflate(raw, len, rawLength - len);
+                if (n == 0 && (inflater.finished() || inflater.needsInput()))
+                    throw new IOException("Block ended prematurely.");
+                len += n;
+                }
+            }
+        catch (DataFormatException ex)
+            {
+            throw new IOException("Corrupt block.", ex);
+            }
+
+        int pos = 0;
+        for(int c = 0; c < names.length; c++)
+            {
+            if (types[c] == ColumnarResultWriter.TYPE_DOUBLE)
+                {
+                double[] vals = doubleValues[c];
+                if (vals == null || vals.length < rows) vals = doubleValues[c] = new double[rows];
+                for(int r = 0; r < rows; r++, pos += 8)
+                    vals[r] = Double.longBitsToDouble(getLong(raw, pos));
+                }
+            else if (types[c] == ColumnarResultWriter.TYPE_LONG)
+                {
+                long[] vals = longValues[c];
+                if (vals == null || vals.length < rows) vals = longValues[c] = new long[rows];
+                for(int r = 0; r < rows; r++, pos += 8)
+                    vals[r] = getLong(raw, pos);
+                }
+            else
+                {
+                long[] vals = longValues[c];
+                if (vals == null || vals.length < rows) vals = longValues[c] = new long[rows];
+                for(int r = 0; r < rows; r++, pos += 4)
+                    vals[r] = getInt(raw, pos);
+                }
+            }
+        if (pos != rawLength)
+            throw new IOException("Block length " + rawLength + " does not match its " + rows + " rows.");
+        blockRows = rows;
+        return true;
+        }
+
+    /** Returns the number of rows in the current block. */
+    public int getBlockRows() { return blockRows; }
+
+    /** Returns the values of the given TYPE_DOUBLE column for the current block.  Only the
+        first getBlockRows() values are valid.  The array is reused by the next block. */
+    public double[] getDoubleColumn(int column)
+        {
+        if (types[column] != ColumnarResultWriter.TYPE_DOUBLE)
+            throw new IllegalArgumentException("Column " + names[column] + " is not of type double.");
+        return doubleValues[column];
+        }
+
+    /** Returns the values of the given TYPE_INT or TYPE_LONG column for the current block.  Only the
+        first getBlockRows() values are valid.  The array is reused by the next block. */
+    public long[] getLongColumn(int column)
+        {
+        if (types[column] == ColumnarResultWriter.TYPE_DOUBLE)
+            throw new IllegalArgumentException("Column " + names[column] + " is not of an integer type.");
+        return longValues[column];
+        }
+
+    /** Advances to the next row, loading a new block if necessary.  Returns false if there are no more rows. */
+    public boolean next() throws IOException
+        {
+        if (row + 1 < blockRows)
+            {
+            row++;
+            return true;
+            }
+        while(nextBlock())
+            {
+            if (blockRows > 0)
+                {
+                row = 0;
+                return true;
+                }
+            }
+        return false;
+        }
+
+    /** Returns the value of the given column in the current row, as a double. */
+    public double getDouble(int column)
+        {
+        if (row < 0) throw new IllegalStateException("No current row.");
+        if (types[column] == ColumnarResultWriter.TYPE_DOUBLE)
+            return doubleValues[column][row];
+        else return longValues[column][row];
+        }
+
+    /** Returns the value of the given TYPE_INT or TYPE_LONG column in the current row. */
+    public long getLong(int column)
+        {
+        if (row < 0) throw new IllegalStateException("No current row.");
+        return getLongColumn(column)[row];
+        }
+
+    /** Closes the underlying stream. */
+    public void close() throws IOException
+        {
+        inflater.end();
+        in.close();
+        }
+
+    static int getInt(byte[] buf, int pos)
+        {
+        return ((buf[pos] & 0xFF) << 24) | ((buf[pos + 1] & 0xFF) << 16) | ((buf[pos + 2] & 0xFF) << 8) | (buf[pos + 3] & 0xFF);
+        }
+
+    static long getLong(byte[] buf, int pos)
+        {
+        return (((long)getInt(buf, pos)) << 32) | (getInt(buf, pos + 4) & 0xFFFFFFFFL);
+        }
+    }
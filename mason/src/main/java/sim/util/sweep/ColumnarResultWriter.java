@@ -0,0 +1,287 @@
+/*
+  Copyright 2019 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.util.sweep;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.*;
+
+/**
+   COLUMNARRESULTWRITER writes sweep results as a typed, columnar, block-compressed binary file
+   which can be read back with ColumnarResultReader.  It is an alternative to the text output
+   of ParameterSweep, and may also be used by your own batch runs (such as those launched via
+   SimState.doLoop(...)) to record per-job results.
+
+   <p>Each column has a name and a type (TYPE_INT, TYPE_LONG, or TYPE_DOUBLE).  Rows are handed to
+   write(...) as a double[], one value per column, and optionally a long[] as well.  If you provide
+   the long[], the values of TYPE_INT and TYPE_LONG columns are taken from it, exactly.  Otherwise
+   they are cast from the double[], and so are only exact within +/- 2^53: this is fine for job numbers
+   and trials, but not for arbitrary longs such as seeds.
+
+   <p>Rows are gathered into blocks of blockSize rows.  When a block fills, it is handed off to
+   a writer thread, which lays it out column by column, compresses it, and writes it to the stream.
+   Thus threads calling write(...) never wait on compression or I/O: they only copy the row into the
+   current block.  write(...) may be called by multiple threads at once.  When you are done,
+   call close(), which flushes the final partial block, waits for the writer thread to finish,
+   and closes the underlying stream.
+
+   <p><b>File Format</b>&nbsp;&nbsp;&nbsp;&nbsp;All values are big-endian, as written by DataOutputStream.
+   <ul>
+   <li>int MAGIC, int VERSION
+   <li>int number of columns, then for each column: its name (writeUTF) and its type (one byte)
+   <li>Zero or more blocks, each: int number of rows (&gt; 0), int uncompressed length, int compressed length, then
+   the compressed (Deflate) bytes.  The uncompressed bytes hold all the values of column 0 for the block,
+   then all the values of column 1, and so on.
+   <li>int 0, marking the end of the file
+   </ul>
+*/
+
+public class ColumnarResultWriter
+    {
+    public static final int MAGIC = 0x4D535243;   // "MSRC"
+    public static final int VERSION = 1;
+    public static final int DEFAULT_BLOCK_SIZE = 4096;
+
+    public static final byte TYPE_INT = 0;
+    public static final byte TYPE_LONG = 1;
+    public static final byte TYPE_DOUBLE = 2;
+
+    // the bytes used by a single value of each type
+    static final int[] TYPE_WIDTHS = new int[] { 4, 8, 8 };
+
+    String[] names;
+    byte[] types;
+    int blockSize;
+    DataOutputStream out;
+
+    // A block of rows, stored column-major.  TYPE_DOUBLE values are stored as their bits.
+    static class Block
+        {
+        long[][] columns;
+        int rows;
+        Block(int numColumns, int blockSize) { columns = new long[numColumns][blockSize]; }
+        }
+
+    // the block presently being filled by write(...).  Guarded by blockLock.
+    Block block;
+    Object blockLock = new Object[0];
+
+    // Full blocks waiting for the writer thread.  A block with no columns tells the thread to quit.
+    LinkedBlockingQueue<Block> fullBlocks = new LinkedBlockingQueue<Block>();
+    // Blocks the writer thread has finished with, available for reuse by write(...)
+    ConcurrentLinkedQueue<Block> freeBlocks = new ConcurrentLinkedQueue<Block>();
+    Thread writerThread;
+    volatile IOException error;
+    boolean closed;
+
+    /** Builds a writer with the DEFAULT_BLOCK_SIZE. */
+    public ColumnarResultWriter(OutputStream stream, String[] names, byte[] types) throws IOException
+        {
+        this(stream, names, types, DEFAULT_BLOCK_SIZE);
+        }
+
+    /** Builds a writer which writes to the given stream a header for the given columns,
+        then starts the writer thread.  The names and types arrays must be the same length. */
+    public ColumnarResultWriter(OutputStream stream, String[] names, byte[] types, int blockSize) throws IOException
+        {
+        if (names.length != types.length)
+            throw new IllegalArgumentException("Number of column names (" + names.length + ") does not match number of column types (" + types.length + ")");
+        if (blockSize < 1)
+            throw new IllegalArgumentException("Block size must be at least 1.  You have: " + blockSize);
+        for(int i = 0; i < types.length; i++)
+            if (types[i] != TYPE_INT && types[i] != TYPE_LONG && types[i] != TYPE_DOUBLE)
+                throw new IllegalArgumentException("Invalid type " + types[i] + " for column " + names[i]);
+
+        this.names = (String[])(names.clone());
+        this.types = (byte[])(types.clone());
+        this.blockSize = blockSize;
+        this.block = new Block(names.length, blockSize);
+
+        out = new DataOutputStream(new BufferedOutputStream(stream));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(names.length);
+        for(int i = 0; i < names.length; i++)
+            {
+            out.writeUTF(names[i]);
+            out.writeByte(types[i]);
+            }
+
+        writerThread = new Thread(new Runnable()
+            {
+            public void run() { drain(); }
+            });
+        writerThread.setName("MASON Columnar Result Writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+        }
+
+    /** Returns the number of columns. */
+    public int getNumColumns() { return names.length; }
+
+    /** Adds a row.  The row must have one value per column, and is copied, so you may reuse it.
+        Values of TYPE_INT and TYPE_LONG columns are cast from doubles.
+        Throws a RuntimeException if the writer thread has previously failed to write, or if
+        the writer has been closed. */
+    public void write(double[] row)
+        {
+        write(row, null);
+        }
+
+    /** Adds a row, taking the values of TYPE_DOUBLE columns from row, and those of TYPE_INT and
+        TYPE_LONG columns from longRow, exactly.  Each must have one value per column (the other values 
+        are ignored), and both are copied, so you may reuse them.  If longRow is null, the values of 
+        TYPE_INT and TYPE_LONG columns are cast from row instead.  Throws a RuntimeException if the writer 
+        thread has previously failed to write, or if the writer has been closed. */
+    public void write(double[] row, long[] longRow)
+        {
+        if (row.length != names.length)
+            throw new IllegalArgumentException("Row has " + row.length + " values but there are " + names.length + " columns.");
+        if (longRow != null && longRow.length != names.length)
+            throw new IllegalArgumentException("Long row has " + longRow.length + " values but there are " + names.length + " columns.");
+        if (error != null)
+            throw new RuntimeException("Could not write results.", error);
+
+        synchronized(blockLock)
+            {
+            if (closed) throw new RuntimeException("Writer has been closed.");
+            long[][] columns = block.columns;
+            int r = block.rows;
+            for(int i = 0; i < row.length; i++)
+                {
+                if (types[i] == TYPE_DOUBLE)
+                    columns[i][r] = Double.doubleToLongBits(row[i]);
+                else if (longRow != null)
+                    columns[i][r] = longRow[i];
+                else
+                    columns[i][r] = (long)row[i];
+                }
+            block.rows++;
+            if (block.rows == blockSize)
+                {
+                fullBlocks.add(block);
+                block = freeBlocks.poll();
+                if (block == null)
+                    block = new Block(names.length, blockSize);
+                }
+            }
+        }
+
+    /** Flushes the final partial block, waits for the writer thread to write everything,
+        writes the end marker, and closes the underlying stream.  Throws any IOException which
+        occurred while writing.  Calling close() more than once does nothing. */
+    public void close() throws IOException
+        {
+        synchronized(blockLock)
+            {
+            if (closed) return;
+            closed = true;
+            if (block.rows > 0)
+                fullBlocks.add(block);
+            block = null;
+            fullBlocks.add(new Block(0, 0));  // tell the thread to quit
+            }
+
+        try { writerThread.join(); }
+        catch (InterruptedException ex) { }  // does not happen
+
+        if (error == null)
+            {
+            try { out.writeInt(0); }
+            catch (IOException ex) { error = ex; }
+            }
+        out.close();
+        if (error != null) throw error;
+        }
+
+    // The writer thread's loop.  Encodes and compresses each block in turn.
+    void drain()
+        {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        int rowWidth = 0;
+        for(int i = 0; i < types.length; i++)
+            rowWidth += TYPE_WIDTHS[types[i]];
+        byte[] raw = new byte[rowWidth * blockSize];
+        byte[] compressed = new byte[raw.length + raw.length / 100 + 64];
+
+        try
+            {
+            while(true)
+                {
+                Block blk = fullBlocks.take();
+                long[][] b = blk.columns;
+                int rows = blk.rows;
+                if (b.length == 0) break;               // all done
+                blk.rows = 0;
+                if (error != null) continue;    // just drain the queue
+
+                // lay the block out column by column
+                int pos = 0;
+                for(int c = 0; c < b.length; c++)
+                    {
+                    long[] column = b[c];
+                    if (types[c] == TYPE_INT)
+                        {
+                        for(int r = 0; r < rows; r++)
+                            pos = putInt(raw, pos, (int)column[r]);
+                        }
+                    else            // TYPE_LONG, and TYPE_DOUBLE, which is already stored as bits
+                        {
+                        for(int r = 0; r < rows; r++)
+                            pos = putLong(raw, pos, column[r]);
+                        }
+                    }
+
+                deflater.reset();
+                deflater.setInput(raw, 0, pos);
+                deflater.finish();
+                int len = 0;
+                while(!deflater.finished())
+                    {
+                    if (len == compressed.length)
+                        compressed = Arrays.copyOf(compressed, compressed.length * 2);
+                    len += deflater.deflate(compressed, len, compressed.length - len);
+                    }
+
+                freeBlocks.add(blk);
+
+                try
+                    {
+                    out.writeInt(rows);
+                    out.writeInt(pos);
+                    out.writeInt(len);
+                    out.write(compressed, 0, len);
+                    }
+                catch (IOException ex)
+                    {
+                    error = ex;
+                    }
+                }
+            }
+        catch (InterruptedException ex) { }  // does not happen
+        finally
+            {
+            deflater.end();
+            }
+        }
+
+    static int putInt(byte[] buf, int pos, int val)
+        {
+        buf[pos++] = (byte)(val >>> 24);
+        buf[pos++] = (byte)(val >>> 16);
+        buf[pos++] = (byte)(val >>> 8);
+        buf[pos++] = (byte)val;
+        return pos;
+        }
+
+    static int putLong(byte[] buf, int pos, long val)
+        {
+        pos = putInt(buf, pos, (int)(val >>> 32));
+        return putInt(buf, pos, (int)val);
+        }
+    }
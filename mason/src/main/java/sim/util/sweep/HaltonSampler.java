@@ -0,0 +1,58 @@
+/*
+  Copyright 2019 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.util.sweep;
+
+import ec.util.*;
+
+/**
+   HALTONSAMPLER chooses points from the Halton quasi-random sequence, using the ith prime as the
+   base for the ith independent variable.  The sequence is deterministic, so the random number
+   generator is not used.  Halton sequences work best with a modest number of variables (say, under
+   ten); beyond that, consider SobolSampler or LatinHypercubeSampler.
+*/
+
+public class HaltonSampler extends Sampler
+    {
+    public double[][] sample(double[] min, double[] max, int numSamples, MersenneTwisterFast random)
+        {
+        int[] primes = primes(min.length);
+        double[][] points = new double[numSamples][min.length];
+        for(int i = 0; i < numSamples; i++)
+            for(int d = 0; d < min.length; d++)
+                points[i][d] = scale(radicalInverse(i + 1, primes[d]), min[d], max[d]);  // skip 0, which is the origin
+        return points;
+        }
+                
+    // Returns index reversed about the decimal point in the given base
+    static double radicalInverse(long index, int base)
+        {
+        double result = 0;
+        double f = 1.0 / base;
+        while(index > 0)
+            {
+            result += f * (index % base);
+            index /= base;
+            f /= base;
+            }
+        return result;
+        }
+        
+    // Returns the first n primes
+    static int[] primes(int n)
+        {
+        int[] primes = new int[n];
+        int count = 0;
+        for(int candidate = 2; count < n; candidate++)
+            {
+            boolean prime = true;
+            for(int i = 0; i < count && primes[i] * primes[i] <= candidate; i++)
+                if (candidate % primes[i] == 0) { prime = false; break; }
+            if (prime) primes[count++] = candidate;
+            }
+        return primes;
+        }
+    }
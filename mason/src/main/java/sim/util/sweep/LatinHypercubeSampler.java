@@ -0,0 +1,39 @@
+/*
+  Copyright 2019 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.util.sweep;
+
+import ec.util.*;
+
+/**
+   LATINHYPERCUBESAMPLER divides the range of each independent variable into numSamples equal
+   strata, and chooses points such that each stratum of each variable is sampled exactly once,
+   at a random position within the stratum.
+*/
+
+public class LatinHypercubeSampler extends Sampler
+    {
+    public double[][] sample(double[] min, double[] max, int numSamples, MersenneTwisterFast random)
+        {
+        double[][] points = new double[numSamples][min.length];
+        int[] perm = new int[numSamples];
+        for(int d = 0; d < min.length; d++)
+            {
+            for(int i = 0; i < numSamples; i++)
+                perm[i] = i;
+            for(int i = numSamples - 1; i > 0; i--)             // shuffle
+                {
+                int j = random.nextInt(i + 1);
+                int tmp = perm[i];
+                perm[i] = perm[j];
+                perm[j] = tmp;
+                }
+            for(int i = 0; i < numSamples; i++)
+                points[i][d] = scale((perm[i] + random.nextDouble()) / numSamples, min[d], max[d]);
+            }
+        return points;
+        }
+    }
@@ -31,6 +31,10 @@ public class ParameterSettings
     public static final String THREADS_P = "threads";
     public static final String SEED_P = "seed";
     public static final String OUT_P = "out";
+    public static final String FORMAT_P = "format";
+    public static final String SAMPLING_P = "sampling";
+    public static final String SAMPLES_P = "samples";
+    public static final String ROUNDS_P = "rounds";
     
     public Properties p;
     public int index;
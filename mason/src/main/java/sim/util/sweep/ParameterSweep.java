@@ -17,9 +17,18 @@ import java.util.zip.GZIPOutputStream;
 public class ParameterSweep 
     {
     public static final String GZIP_POSTFIX = ".gz";
+    /** Value of the "format" parameter for comma-delimited text output (the default) */
+    public static final String FORMAT_TEXT = "text";
+    /** Value of the "format" parameter for binary output via ColumnarResultWriter */
+    public static final String FORMAT_COLUMNAR = "columnar";
     
     // Output stream to dump resuts 
     PrintWriter printWriter;
+    // Output file for the columnar format, opened when the file header is written
+    String filename;
+    // Columnar results writer, non-null only if we're using the columnar format 
+    ColumnarResultWriter columnarWriter;
+    boolean columnar;
     
     // Independent Variables
     String indNames[];
@@ -42,6 +51,19 @@ public class ParameterSweep
     
     // This is an arraylist of arraylists of doubles, recursively generated, for each combination of values of our independent variables
     ArrayList<ArrayList<Double>> allIndependentVariableValueCombinations = new ArrayList<ArrayList<Double>>();
+
+    // Sampling.  If sampler is null, we use the full factorial grid from generateAllIndependentVariableValueCombinations
+    Sampler sampler;
+    int numSamples;
+    int numRounds;
+    int round;
+    MersenneTwisterFast samplerRandom;
+    
+    // For samplers with rounds: for each combination, the sum over completed trials of the final dependent variable values
+    ArrayList<double[]> responseSums = new ArrayList<double[]>();
+    int completedJobs = 0;
+    boolean failed = false;
+    Object resultsLock = new Object[0];
     
     public ParameterSweep(ParameterDatabase db) throws ClassNotFoundException
         {
@@ -55,11 +77,30 @@ public class ParameterSweep
         indNames = ((String)(db.getStringWithDefault(new Parameter(ParameterSettings.INDEPENDENT_P), null, ""))).split("\\s");
         indMinValues = db.getDoublesUnconstrained(new Parameter(ParameterSettings.MIN_P), null, indNames.length);
         indMaxValues = db.getDoublesUnconstrained(new Parameter(ParameterSettings.MAX_P), null, indNames.length);
-        double[] d = db.getDoubles(new Parameter(ParameterSettings.DIVISIONS_P), null, 1, indNames.length);
         if (indNames.length == 0) throw new RuntimeException("must have at least one independent variable");
         if (indMinValues == null) throw new RuntimeException("min is invalid or not the same length as independent");
         if (indMaxValues == null) throw new RuntimeException("max is invalid or not the same length as independent");
-        if (d == null) throw new RuntimeException("divisions is invalid, less than 1, or not the same length as independent");
+
+        // Load sampling.  Samplers don't use divisions.
+        sampler = Sampler.getSampler(db.getStringWithDefault(new Parameter(ParameterSettings.SAMPLING_P), null, Sampler.GRID));
+        double[] d;
+        if (sampler == null)
+            {
+            d = db.getDoubles(new Parameter(ParameterSettings.DIVISIONS_P), null, 1, indNames.length);
+            if (d == null) throw new RuntimeException("divisions is invalid, less than 1, or not the same length as independent");
+            }
+        else
+            {
+            d = new double[indNames.length];
+            Arrays.fill(d, 1);
+            numSamples = db.getInt(new Parameter(ParameterSettings.SAMPLES_P), null, 1);
+            if (numSamples < 1) throw new RuntimeException("Samples must be at least 1.  You have: " + numSamples);
+            if (sampler.refines())
+                {
+                numRounds = db.getInt(new Parameter(ParameterSettings.ROUNDS_P), null, 0);
+                if (numRounds < 0) throw new RuntimeException("Rounds must be at least 0.  You have: " + numRounds);
+                }
+            }
         indDivisions = new int[d.length];
         for(int i = 0; i < d.length; i++)
             {
@@ -82,11 +123,22 @@ public class ParameterSweep
         if (numThreads < 1) throw new RuntimeException("Threads must be at least 1.  You have: " + numThreads);
         baseSeed = db.getLong(new Parameter(ParameterSettings.SEED_P), null, 1);
         if (baseSeed < 1) throw new RuntimeException("Seed must be at least 1.  You have: " + baseSeed);
+        samplerRandom = new MersenneTwisterFast(baseSeed);
+
+        String format = db.getStringWithDefault(new Parameter(ParameterSettings.FORMAT_P), null, FORMAT_TEXT);
+        if (format.equalsIgnoreCase(FORMAT_COLUMNAR)) columnar = true;
+        else if (!format.equalsIgnoreCase(FORMAT_TEXT)) throw new RuntimeException("Invalid format.  Must be " + FORMAT_TEXT + " or " + FORMAT_COLUMNAR + ".  You have: " + format);
 
         try
             {
-            String filename = db.getStringWithDefault(new Parameter(ParameterSettings.OUT_P), null, "");
-            if (db.getBoolean(new Parameter(ParameterSettings.COMPRESS_P), null, false))
+            filename = db.getStringWithDefault(new Parameter(ParameterSettings.OUT_P), null, "");
+            if (columnar)
+                {
+                // the columnar format is already compressed, so we ignore COMPRESS_P.
+                // We can't open the writer until we know the columns, so just check the file here
+                new FileOutputStream(filename).close();
+                }
+            else if (db.getBoolean(new Parameter(ParameterSettings.COMPRESS_P), null, false))
                 {
                 printWriter = new PrintWriter(new GZIPOutputStream(new FileOutputStream(filename + GZIP_POSTFIX)), true);
                 }
@@ -160,7 +212,10 @@ public class ParameterSweep
             {
             if (running) return;    // already running
         
-            generateAllIndependentVariableValueCombinations(new ArrayList<Double>());
+            if (sampler == null)
+                generateAllIndependentVariableValueCombinations(new ArrayList<Double>());
+            else
+                addCombinations(sampler.sample(indMinValues, indMaxValues, numSamples, samplerRandom));
                         
             writeFileHeader(); 
             running = true;
@@ -181,24 +236,39 @@ public class ParameterSweep
                                 ParameterSweepSimulationJob job = null;
                                 while ((job = (ParameterSweepSimulationJob)getNextJob()) != null) 
                                     {
-                                    if (stop) 
+                                    // every job must be reported as finished, or nextRound() would wait for it forever
+                                    boolean completed = false;
+                                    try
                                         {
-                                        break;
-                                        }
+                                        if (stop) break;
 
-                                    // initialize simstate and properties
-                                    if (simState == null)
+                                        // initialize simstate and properties
+                                        if (simState == null)
+                                            {
+                                            simState = newInstance(job.jobNumber + baseSeed, modelClass);
+                                            properties = sim.util.Properties.getProperties(simState);
+                                            }
+                                        else
+                                            {
+                                            simState.setSeed(job.jobNumber + baseSeed);
+                                            } 
+
+                                        completed = job.run(simState, properties, job.settings);
+                                        }
+                                    catch (RuntimeException e)
                                         {
-                                        simState = newInstance(job.jobNumber + baseSeed, modelClass);
-                                        properties = sim.util.Properties.getProperties(simState);
+                                        jobFailed(job, e);
+                                        throw e;
                                         }
-                                    else
+                                    catch (Error e)
                                         {
-                                        simState.setSeed(job.jobNumber + baseSeed);
-                                        } 
-
-                                    int combination = job.jobNumber / numTrials;  // which variable combination are we doing this time?
-                                    job.run(simState, properties, allIndependentVariableValueCombinations.get(combination));
+                                        jobFailed(job, e);
+                                        throw e;
+                                        }
+                                    finally
+                                        {
+                                        jobFinished(job, completed);
+                                        }
                                     }
                                 }
                             });
@@ -216,7 +286,15 @@ public class ParameterSweep
                             // doesn't happen
                             }
                         }
-                    synchronized(printWriterLock) { printWriter.close(); }
+                    synchronized(printWriterLock) 
+                        { 
+                        if (columnar)
+                            {
+                            try { columnarWriter.close(); }
+                            catch (IOException e) { printSynchronized("Could not write results to file: " + e); }
+                            }
+                        else printWriter.close(); 
+                        }
                     synchronized(runningLock) { running = false; }
                     }
                 });
@@ -247,6 +325,92 @@ public class ParameterSweep
             }
         }
 
+    // Adds sampled combinations.  Called either before any jobs have started, or by getNextJob() when all jobs so far have completed.
+    void addCombinations(double[][] points)
+        {
+        for(int i = 0; i < points.length; i++)
+            {
+            ArrayList<Double> combination = new ArrayList<Double>();
+            for(int j = 0; j < points[i].length; j++)
+                combination.add(Double.valueOf(points[i][j]));
+            allIndependentVariableValueCombinations.add(combination);
+            synchronized(resultsLock) { responseSums.add(new double[depNames.length]); }
+            }
+        }
+
+    // Called by the workers when each job has finished, whether it completed, was stopped, or failed
+    void jobFinished(ParameterSweepSimulationJob job, boolean completed)
+        {
+        synchronized(resultsLock)
+            {
+            if (completed && sampler != null)
+                {
+                double[] sums = responseSums.get(job.jobNumber / numTrials);
+                for(int i = 0; i < sums.length; i++)
+                    sums[i] += job.curs[i];
+                }
+            completedJobs++;
+            resultsLock.notifyAll();
+            }
+        }
+
+    // Called by a worker when its job has thrown an exception, before jobFinished(...).  Stops the sweep.
+    void jobFailed(ParameterSweepSimulationJob job, Throwable e)
+        {
+        printSynchronized("Job " + job.jobNumber + " failed: " + e);
+        synchronized(resultsLock)
+            {
+            failed = true;
+            }
+        stop = true;
+        }
+
+    // Starts the next round of a sampler which works in rounds.  Waits for all outstanding jobs to
+    // complete, then asks the sampler for more combinations.  Returns false if there are none.
+    // Called by getNextJob() while holding nextJobLock.
+    boolean nextRound()
+        {
+        if (sampler == null || round >= numRounds) return false;
+        
+        int numCombinations = allIndependentVariableValueCombinations.size();
+        double[][] points = new double[numCombinations][];
+        double[][] responses = new double[numCombinations][];
+        synchronized(resultsLock)
+            {
+            while(completedJobs < jobCount && !failed)
+                {
+                try { resultsLock.wait(); }
+                catch (InterruptedException ex) { return false; }
+                }
+            if (stop || failed) return false;
+            for(int i = 0; i < numCombinations; i++)
+                {
+                responses[i] = (double[])(responseSums.get(i).clone());
+                for(int j = 0; j < responses[i].length; j++)
+                    responses[i][j] /= numTrials;
+                }
+            }
+            
+        for(int i = 0; i < numCombinations; i++)
+            {
+            ArrayList<Double> combination = allIndependentVariableValueCombinations.get(i);
+            points[i] = new double[combination.size()];
+            for(int j = 0; j < points[i].length; j++)
+                points[i][j] = combination.get(j).doubleValue();
+            }
+            
+        round++;
+        double[][] more = sampler.refine(points, responses, indMinValues, indMaxValues, numSamples, samplerRandom);
+        if (more == null || more.length == 0) 
+            {
+            round = numRounds;              // we're done
+            return false;
+            }
+        printSynchronized("Round " + round);
+        addCombinations(more);
+        return true;
+        }
+
     // Takes the property names, and gets the property indexes
     // FIXME: What does this do precisely?
     void initializeIndexes(sim.util.Properties p) 
@@ -317,7 +481,8 @@ public class ParameterSweep
         {
         synchronized(nextJobLock)
             {
-            if (jobCount < allIndependentVariableValueCombinations.size() * numTrials)              // I think this means we're done?
+            if (jobCount < allIndependentVariableValueCombinations.size() * numTrials ||              // I think this means we're done?
+                nextRound())
                 {
                 int combination = jobCount / numTrials;  // which variable combination are we doing this time?
                 int trial = jobCount % numTrials;  // which trial are we doing this time?
@@ -335,7 +500,10 @@ public class ParameterSweep
         {
         synchronized(nextJobLock)
             {
-            return allIndependentVariableValueCombinations.size() * numTrials;
+            int combinations = allIndependentVariableValueCombinations.size();
+            if (sampler != null && round < numRounds)       // estimate the rounds to come
+                combinations += (numRounds - round) * numSamples;
+            return combinations * numTrials;
             }
         }
         
@@ -349,6 +517,12 @@ public class ParameterSweep
         
     void writeFileHeader() 
         {
+        if (columnar)
+            {
+            writeColumnarHeader();
+            return;
+            }
+            
         StringBuilder header = new StringBuilder(); 
         header.append("job, trial, rng");
         for(int i = 0; i < indNames.length; i++) 
@@ -378,6 +552,51 @@ public class ParameterSweep
         println(header.toString());
         header = null;
         }
+        
+    // The number of per-step samples of each dependent variable which are recorded when mod != 0
+    int numModSamples()
+        {
+        return (mod == 0 ? 0 : numSteps / mod);
+        }
+        
+    // Opens the ColumnarResultWriter, with the same columns as writeFileHeader() would produce
+    void writeColumnarHeader()
+        {
+        int numColumns = 3 + indNames.length + depNames.length * (4 + numModSamples());
+        String[] names = new String[numColumns];
+        byte[] types = new byte[numColumns];
+        int c = 0;
+        names[c] = "job"; types[c++] = ColumnarResultWriter.TYPE_LONG;
+        names[c] = "trial"; types[c++] = ColumnarResultWriter.TYPE_INT;
+        names[c] = "rng"; types[c++] = ColumnarResultWriter.TYPE_LONG;
+        for(int i = 0; i < indNames.length; i++)
+            {
+            names[c] = indNames[i].trim(); types[c++] = ColumnarResultWriter.TYPE_DOUBLE;
+            }
+        for(int i = 0; i < depNames.length; i++)
+            {
+            names[c] = depNames[i].trim() + "-final"; types[c++] = ColumnarResultWriter.TYPE_DOUBLE;
+            names[c] = depNames[i].trim() + "-min"; types[c++] = ColumnarResultWriter.TYPE_DOUBLE;
+            names[c] = depNames[i].trim() + "-max"; types[c++] = ColumnarResultWriter.TYPE_DOUBLE;
+            names[c] = depNames[i].trim() + "-avg"; types[c++] = ColumnarResultWriter.TYPE_DOUBLE;
+            }
+        for(int j = mod - 1; mod != 0 && j < numSteps; j += mod)
+            {
+            for(int i = 0; i < depNames.length; i++)
+                {
+                names[c] = depNames[i].trim() + "-" + j; types[c++] = ColumnarResultWriter.TYPE_DOUBLE;
+                }
+            }
+            
+        try
+            {
+            columnarWriter = new ColumnarResultWriter(new FileOutputStream(filename), names, types);
+            }
+        catch (IOException e)
+            {
+            throw new RuntimeException("Could not open file.", e);
+            }
+        }
     }
 
 //nest this and make static
@@ -395,6 +614,9 @@ class ParameterSweepSimulationJob
     double[] mins;
     double[] maxes;
     double[] avgs;
+    // per-step samples, only used for columnar output
+    double[] samples;
+    int numSamples;
     
     boolean started = false;
         
@@ -408,6 +630,8 @@ class ParameterSweepSimulationJob
         mins = new double[sweep.depIndexes.length];
         maxes = new double[sweep.depIndexes.length];
         curs = new double[sweep.depIndexes.length];
+        if (sweep.columnar)
+            samples = new double[sweep.numModSamples() * sweep.depIndexes.length];
         }
     
 
@@ -427,13 +651,20 @@ class ParameterSweepSimulationJob
 
             if (sweep.mod != 0 && (step + 1) % sweep.mod == 0)
                 {
-                builder.append(value + ", ");
+                if (samples != null) samples[numSamples++] = value;
+                else builder.append(value + ", ");
                 }
             }
         }
 
     public void recordFinal(sim.util.Properties properties, long seed, ArrayList<Double> combos)
         {
+        if (sweep.columnar)
+            {
+            recordFinalColumnar(seed, combos);
+            return;
+            }
+            
         String str = jobNumber + ", " + (trial + 1) + ", " + seed + ", ";
         
         for(int i = 0; i < combos.size(); i++)
@@ -452,8 +683,32 @@ class ParameterSweepSimulationJob
                         
         sweep.println(str);
         }
+
+    // Same as recordFinal, but writes a row to the sweep's ColumnarResultWriter
+    void recordFinalColumnar(long seed, ArrayList<Double> combos)
+        {
+        double[] row = new double[sweep.columnarWriter.getNumColumns()];
+        long[] longRow = new long[row.length];          // the exact values of the integer columns
+        int c = 0;
+        longRow[c++] = jobNumber;
+        longRow[c++] = trial + 1;
+        longRow[c++] = seed;
+        for(int i = 0; i < combos.size(); i++)
+            row[c++] = combos.get(i);
+        for(int i = 0; i < sweep.depIndexes.length; i++)
+            {
+            row[c++] = curs[i];
+            row[c++] = mins[i];
+            row[c++] = maxes[i];
+            row[c++] = avgs[i] / sweep.numSteps;
+            }
+        System.arraycopy(samples, 0, row, c, numSamples);
+        sweep.columnarWriter.write(row, longRow);
+        }
     
-    public void run(SimState simState, sim.util.Properties properties, ArrayList<Double> combos) 
+    /** Runs the job, and returns true if it completed, or false if the sweep was stopped.  The caller
+        reports the job to the sweep as finished. */
+    public boolean run(SimState simState, sim.util.Properties properties, ArrayList<Double> combos) 
         {
         // We're initializing from the properties both before and after simState.start().
         // The reason for this as follows.  start() is where people normally set parameters.
@@ -470,7 +725,7 @@ class ParameterSweepSimulationJob
             if (sweep.stop)
                 {
                 simState.finish();  
-                return;
+                return false;
                 }
                         
             simState.schedule.step(simState);
@@ -479,6 +734,7 @@ class ParameterSweepSimulationJob
       
         recordFinal(properties, simState.seed(), combos);
         simState.finish();
+        return true;
         }
         
     void initSweepValuesFromProperties(sim.util.Properties properties) 
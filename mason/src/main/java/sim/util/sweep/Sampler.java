@@ -0,0 +1,73 @@
+/*
+  Copyright 2019 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.util.sweep;
+
+import ec.util.*;
+
+/**
+   SAMPLER chooses the combinations of independent variable values which ParameterSweep will run.
+   By default ParameterSweep runs a full factorial grid built from the min, max, and divisions
+   parameters, which grows exponentially with the number of independent variables.  A Sampler
+   instead chooses a fixed number of points (the "samples" parameter) spread throughout the
+   space between min and max, and ignores divisions.
+
+   <p>The "sampling" parameter selects the Sampler:
+   <ul>
+   <li><b>grid</b> The full factorial grid (the default).  No Sampler is used.
+   <li><b>latin</b> LatinHypercubeSampler
+   <li><b>halton</b> HaltonSampler
+   <li><b>sobol</b> SobolSampler
+   <li><b>adaptive</b> AdaptiveSampler, which runs "rounds" further rounds of "samples" points each,
+   placed where the dependent variables vary the most.
+   </ul>
+
+   <p>Samplers which work in rounds override refine(...), which ParameterSweep calls once all the jobs
+   of the previous round are complete.
+*/
+
+public abstract class Sampler
+    {
+    public static final String GRID = "grid";
+    public static final String LATIN = "latin";
+    public static final String HALTON = "halton";
+    public static final String SOBOL = "sobol";
+    public static final String ADAPTIVE = "adaptive";
+
+    /** Returns numSamples points, each an array of independent variable values, where value i lies between min[i] and max[i]. */
+    public abstract double[][] sample(double[] min, double[] max, int numSamples, MersenneTwisterFast random);
+        
+    /** Given all the points run so far, and for each point the final values of the dependent variables
+        (averaged over trials), returns up to numSamples further points to run, or null if there are to be
+        no more.  The default returns null. */
+    public double[][] refine(double[][] points, double[][] responses, double[] min, double[] max, int numSamples, MersenneTwisterFast random)
+        {
+        return null;
+        }
+
+    /** Returns true if this Sampler overrides refine(...) to work in rounds.  The default returns false. */
+    public boolean refines()
+        {
+        return false;
+        }
+        
+    /** Returns the Sampler for the given "sampling" parameter value, or null for GRID. */
+    public static Sampler getSampler(String name)
+        {
+        if (name.equalsIgnoreCase(GRID)) return null;
+        else if (name.equalsIgnoreCase(LATIN)) return new LatinHypercubeSampler();
+        else if (name.equalsIgnoreCase(HALTON)) return new HaltonSampler();
+        else if (name.equalsIgnoreCase(SOBOL)) return new SobolSampler();
+        else if (name.equalsIgnoreCase(ADAPTIVE)) return new AdaptiveSampler();
+        else throw new RuntimeException("Invalid sampling.  Must be " + GRID + ", " + LATIN + ", " + HALTON + ", " + SOBOL + ", or " + ADAPTIVE + ".  You have: " + name);
+        }
+    
+    // maps a value from [0,1) to [min,max)
+    static double scale(double val, double min, double max)
+        {
+        return min + val * (max - min);
+        }
+    }
@@ -0,0 +1,98 @@
+/*
+  Copyright 2019 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.util.sweep;
+
+import ec.util.*;
+
+/**
+   SOBOLSAMPLER chooses points from the Sobol quasi-random sequence, using the direction numbers
+   of S. Joe and F. Y. Kuo, "Constructing Sobol Sequences with Better Two-Dimensional Projections",
+   SIAM J. Sci. Comput. 30, 2635-2654 (2008).  The sequence is deterministic, so the random number
+   generator is not used.  Up to MAX_DIMENSIONS independent variables are supported.  Sobol
+   sequences are most evenly spread when numSamples is a power of two.
+*/
+
+public class SobolSampler extends Sampler
+    {
+    static final int BITS = 32;
+
+    // For dimensions 2 and up: the degree s of the primitive polynomial, its coefficients a, and the initial direction numbers m
+    static final int[][] DIRECTIONS = new int[][]
+    {
+    // s  a   m...
+    { 1, 0,  1 },
+    { 2, 1,  1, 3 },
+    { 3, 1,  1, 3, 1 },
+    { 3, 2,  1, 1, 1 },
+    { 4, 1,  1, 1, 3, 3 },
+    { 4, 4,  1, 3, 5, 13 },
+    { 5, 2,  1, 1, 5, 5, 17 },
+    { 5, 4,  1, 1, 5, 5, 5 },
+    { 5, 7,  1, 1, 7, 11, 19 },
+    { 5, 11, 1, 1, 5, 1, 1 },
+    { 5, 13, 1, 1, 1, 3, 11 },
+    { 5, 14, 1, 3, 5, 5, 31 },
+    { 6, 1,  1, 3, 3, 9, 7, 49 },
+    { 6, 13, 1, 1, 1, 15, 21, 21 },
+    { 6, 16, 1, 3, 1, 13, 27, 49 },
+    { 6, 19, 1, 1, 1, 15, 7, 5 },
+    { 6, 22, 1, 3, 1, 15, 13, 25 },
+    { 6, 25, 1, 1, 5, 5, 19, 61 },
+    { 7, 1,  1, 3, 7, 11, 23, 15, 103 },
+    { 7, 4,  1, 3, 7, 13, 13, 15, 69 },
+    };
+    
+    public static final int MAX_DIMENSIONS = DIRECTIONS.length + 1;
+
+    public double[][] sample(double[] min, double[] max, int numSamples, MersenneTwisterFast random)
+        {
+        int dims = min.length;
+        if (dims > MAX_DIMENSIONS)
+            throw new RuntimeException("Sobol sampling supports at most " + MAX_DIMENSIONS + " independent variables.  You have: " + dims);
+        int[][] v = directionNumbers(dims);
+        
+        double[][] points = new double[numSamples][dims];
+        int[] x = new int[dims];
+        for(int i = 0; i < numSamples; i++)
+            {
+            // Gray code construction: flip the direction number of the lowest zero bit of i.
+            // This skips the first point in the sequence, which is the origin.
+            int c = Integer.numberOfTrailingZeros(~i);
+            for(int d = 0; d < dims; d++)
+                {
+                x[d] ^= v[d][c];
+                points[i][d] = scale((x[d] & 0xFFFFFFFFL) / 4294967296.0, min[d], max[d]);
+                }
+            }
+        return points;
+        }
+        
+    // Builds the BITS direction numbers, scaled to 32 bits, for each dimension
+    static int[][] directionNumbers(int dims)
+        {
+        int[][] v = new int[dims][BITS];
+        for(int k = 0; k < BITS; k++)
+            v[0][k] = 1 << (BITS - 1 - k);
+                
+        for(int d = 1; d < dims; d++)
+            {
+            int[] dir = DIRECTIONS[d - 1];
+            int s = dir[0];
+            int a = dir[1];
+            for(int k = 0; k < s; k++)
+                v[d][k] = dir[2 + k] << (BITS - 1 - k);
+            for(int k = s; k < BITS; k++)
+                {
+                v[d][k] = v[d][k - s] ^ (v[d][k - s] >>> s);
+                for(int j = 1; j < s; j++)
+                    if (((a >>> (s - 1 - j)) & 1) != 0)
+                        v[d][k] ^= v[d][k - j];
+                }
+            }
+        return v;
+        }
+    }